@@ -0,0 +1,95 @@
+package io.github.rocsg.rootsystemtracker;
+
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+
+/**
+ * Runs several boxes at once through the pipeline. Steps of a same box stay sequential (step s needs step s-1),
+ * but distinct boxes advance concurrently, up to nbConcurrentBoxes steps running at the same time.
+ * Progress is still recorded in pph.imgSteps after each step, thus an interrupted run can be resumed the usual way.
+ * Each box has its own timer, and the steps that use all the cores by default use their share of them (see PipelineActionsHandler.nbThreadsOfStep).
+ */
+public class BoxScheduler {
+	//Steps that never run concurrently with another box at the same step :
+	//step 2 (block matching) already uses all the cores, step 8 relies on the static state of MovieBuilder
+	public static final int[]stepsRunningAlone=new int[] {2,8};
+
+	public static boolean isRunningAlone(int step) {
+		for(int s : stepsRunningAlone)if(s==step)return true;
+		return false;
+	}
+
+	/** Process boxes [firstBox-lastBox] from step firstStep to step lastStep, using nbConcurrent workers*/
+	public static void runBoxes(PipelineParamHandler pph,int firstBox,int lastBox,int firstStep,int lastStep,int nbConcurrent) {
+		lastBox=Math.min(lastBox,pph.nbData-1);
+		int nBoxes=lastBox-firstBox+1;
+		if(nBoxes<=0)return;
+		if(nbConcurrent<1)nbConcurrent=1;
+		boolean[]running=new boolean[nBoxes];
+		boolean[]stopped=new boolean[nBoxes];
+		int[]runningStep=new int[nBoxes];
+		int nbRunning=0;
+		IJ.log("Starting parallel processing of boxes "+firstBox+"-"+lastBox+" with "+nbConcurrent+" concurrent workers");
+
+		ExecutorService exec=Executors.newFixedThreadPool(nbConcurrent);
+		CompletionService<Integer>completion=new ExecutorCompletionService<Integer>(exec);
+		PipelineActionsHandler.nbBoxesAtOnce=nbConcurrent;//The steps of each box use their share of the cores
+		try {
+			while(true) {
+				//Launch every box whose next step is ready, while workers are available
+				for(int b=0;b<nBoxes && nbRunning<nbConcurrent;b++) {
+					if(running[b] || stopped[b])continue;
+					final int indexImg=firstBox+b;
+					int step=pph.imgSteps[indexImg];
+					if(!(step>=firstStep-1 && step<=lastStep)) {stopped[b]=true;continue;}
+					if(isRunningAlone(step) && isStepRunning(step,running,runningStep))continue;
+					running[b]=true;
+					runningStep[b]=step;
+					nbRunning++;
+					final int box=b;
+					completion.submit(() -> {
+						try {
+							return (PipelineActionsHandler.doNextStep(indexImg,pph) ? box : -1-box);
+						} catch (Exception e) {
+							e.printStackTrace();
+							return -1-box;
+						}
+					});
+				}
+				if(nbRunning==0)break;
+
+				//Wait for a step to finish, and update the state of the corresponding box
+				int ret;
+				try {
+					Future<Integer>fut=completion.take();
+					ret=fut.get();
+				} catch (Exception e) {
+					//Exceptions are caught in the task itself, thus this should never happen
+					e.printStackTrace();
+					break;
+				}
+				int b=(ret>=0) ? ret : -1-ret;
+				running[b]=false;
+				nbRunning--;
+				if(ret<0) {
+					stopped[b]=true;
+					IJ.log("Box "+(firstBox+b)+" ("+pph.imgNames[firstBox+b]+") stopped before step "+runningStep[b]+" could be done. Other boxes go on.");
+				}
+			}
+		}
+		finally {
+			exec.shutdown();
+			PipelineActionsHandler.nbBoxesAtOnce=1;
+		}
+	}
+
+	static boolean isStepRunning(int step,boolean[]running,int[]runningStep) {
+		for(int b=0;b<running.length;b++)if(running[b] && runningStep[b]==step)return true;
+		return false;
+	}
+}
@@ -13,7 +13,10 @@ import io.github.rocsg.fijiyama.common.VitiDialogs;
 import io.github.rocsg.fijiyama.common.VitimageUtils;
 import io.github.rocsg.fijiyama.rsml.Root;
 import io.github.rocsg.fijiyama.rsml.RootModel;
+import io.github.rocsg.rstutils.MjpegAviWriter;
 import io.github.rocsg.rstutils.MorphoUtils;
+import io.github.rocsg.rstutils.ParallelRows;
+import io.github.rocsg.rstutils.TemporalCube;
 import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
@@ -22,6 +25,9 @@ import ij.measure.Calibration;
 import ij.plugin.ChannelSplitter;
 import ij.plugin.Duplicator;
 import ij.plugin.filter.AVI_Writer;
+import ij.plugin.filter.GaussianBlur;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
 public class MovieBuilder {
@@ -53,13 +59,16 @@ public class MovieBuilder {
 	private static int TN;
 	
 	private static double[]hoursExtremities;
-	private static double[] t;
+	static double[] t;
 	private static double[] deltaRatioToBef;
 	private static double[] deltaHoursToBef;
 	private static double[] deltaHoursToAft;
 	private static int[] indexImgBef;
 	private static int[] indexImgAft;
 	private static int endingAdditionalFrames=15;
+	static int nbThreadsForMix=0;//Threads sharing the frames of the mix in mixFgAndBgFromMaskAndStack (0 : one per core, 1 : sequential). Set from nbThreadsStep8 at step 8
+	static boolean useSlidingFgBgMask=false;//Blur the mask of generateFgBgMask frame by frame with a temporal ring buffer (see FgBgMaskSource), instead of running Gaussian Blur 3D on the whole stack. The streamed movie always uses FgBgMaskSource
+	static boolean streamMovieFrames=false;//Compose, encode and append each frame of the avi before building the next one, instead of assembling the whole RGB movie in memory
 	static Timer tim;
 
 	
@@ -72,6 +81,9 @@ public class MovieBuilder {
 	
 	public static boolean buildMovie(int indexImg,String outputDataDir,PipelineParamHandler pph) {
 		tim=new Timer();
+		streamMovieFrames=(pph.streamMovieFrames==1);
+		useSlidingFgBgMask=(pph.useSlidingFgBgMask==1);
+		nbThreadsForMix=PipelineActionsHandler.nbThreadsOfStep(pph.nbThreadsStep8);
 		//timeStep=VitiDialogs.getDoubleUI("Propose a timestep (hours per keyframe, standard is 0.5)", "Propose a timestep (hours per keyframe, standard is 0.5)",0.5);
 		//Prepare params
 		primaryRadius*=sizeFactor;
@@ -88,6 +100,10 @@ public class MovieBuilder {
 		ImagePlus imgTimes=IJ.openImage(new File(outputDataDir,"65_times.tif").getAbsolutePath());
 		ImagePlus maskUpLeaves=IJ.openImage(new File(outputDataDir,"32_mask_at_tN.tif").getAbsolutePath());
 		maskUpLeaves=MorphoUtils.erosionCircle2D(maskUpLeaves, 65);
+		if(streamMovieFrames) {
+			streamMovie(imgReg,imgTimes,maskUpLeaves,outputDataDir);
+			return true;
+		}
 		
 		
 		//Compute successive masks of foreground and background to simulate continuous growth of the original image serie
@@ -98,7 +114,7 @@ public class MovieBuilder {
 		
 		//Mix using masks
 		tim.print("Starting mixing root");
-		ImagePlus mixFgBg=mixFgAndBgFromMaskAndStack(maskFgBgGauss,imgReg,maskUpLeaves);
+		ImagePlus mixFgBg=(pph.useTemporalCube==1) ? mixFgAndBgFromMaskAndCube(maskFgBgGauss,imgReg,maskUpLeaves) : mixFgAndBgFromMaskAndStack(maskFgBgGauss,imgReg,maskUpLeaves);
 		IJ.run(mixFgBg,"8-bit","");
 		//mixFgBg.show();
 		maskFgBgGauss.setDisplayRange(0, 1);
@@ -109,13 +125,7 @@ public class MovieBuilder {
 		//Generate grid and fire TODO : and skeleton
 		tim.print("Starting generating grid and fire");
 		ImagePlus imgMaskRootInit=new Duplicator().run(maskFgBgGauss,1,1,1,1,1,1);
-		RootModel rm=null;
-		if(new File(outputDataDir,"61_graph_expertized.rsml").exists()) {
-			rm=RootModel.RootModelWildReadFromRsml(new File(outputDataDir,"61_graph_expertized.rsml").getAbsolutePath().replace("\\", "/"));
-		}
-		else {
-			rm=RootModel.RootModelWildReadFromRsml(new File(outputDataDir,"61_graph.rsml").getAbsolutePath().replace("\\", "/"));
-		}
+		RootModel rm=readRootModel(outputDataDir);
 		rm.computeSpeedVectors(deltaPixelsSpeedInterpolation);
 		ImagePlus[]imgGridAndFire=generateGridAndFireFromRootModel(rm,imgTimes,imgMaskRootInit);//TODO should be here
 		ImagePlus imgSkeleton=generateModelRGBFromRootModel(rm, imgMaskRootInit);
@@ -140,6 +150,31 @@ public class MovieBuilder {
 		saveAsMovie(mixFgBg, new File(outputDataDir,"70_growing_root_system.avi").getAbsolutePath());
 		return true;
 	}
+
+	/** Build the movie frame by frame : mask, mix, fire and grid of a frame are computed when this frame is written, thus memory does not depend on the number of frames.
+	 * The mask comes from FgBgMaskSource whatever useSlidingFgBgMask, as Gaussian Blur 3D needs the whole stack in memory*/
+	public static void streamMovie(ImagePlus imgReg,ImagePlus imgTimes,ImagePlus maskUpLeaves,String outputDataDir) {
+		final int X=imgTimes.getWidth();
+		final int Y=imgTimes.getHeight();
+		tim.print("Starting streamed movie");
+		final FgBgMaskSource mask=new FgBgMaskSource(imgTimes,1.5,1.5,1.5);
+		FrameSource mask8=(n) -> toMask8(mask.frame(n),X,Y);
+		FrameSource mix=mixSource(mask,imgReg,maskUpLeaves);
+		ImagePlus imgMaskRootInit=new ImagePlus("",new ByteProcessor(X,Y,mask8.frame(0)));
+		RootModel rm=readRootModel(outputDataDir);
+		rm.computeSpeedVectors(deltaPixelsSpeedInterpolation);
+		GridAndFire gridAndFire=new GridAndFire(X,Y,getAsTimeLapseCoords(rm),imgMaskRootInit,new byte[X*Y]);
+		streamRootGridAndFire(mix,mask8,gridAndFire,rm,imgMaskRootInit,imgReg,true,new File(outputDataDir,"70_growing_root_system.avi").getAbsolutePath());
+		tim.print("\nEnd of streamed movie");
+	}
+
+	public static RootModel readRootModel(String outputDataDir) {
+		if(new File(outputDataDir,"61_graph_expertized.rsml").exists()) {
+			return RootModel.RootModelWildReadFromRsml(new File(outputDataDir,"61_graph_expertized.rsml").getAbsolutePath().replace("\\", "/"));
+		}
+		return RootModel.RootModelWildReadFromRsml(new File(outputDataDir,"61_graph.rsml").getAbsolutePath().replace("\\", "/"));
+	}
+
 	//SAFE
 	
 	
@@ -156,7 +191,6 @@ public class MovieBuilder {
 	//TODO : make it depends on sliceindices and delta between
 	public static ImagePlus assembleRootGridAndFire(ImagePlus imgRoot,ImagePlus imgMaskRoot,ImagePlus imgFire, ImagePlus imgGrid,
 			ImagePlus imgMaskGrid,ImagePlus imgIdent,ImagePlus imgSkeleton,ImagePlus initReg,boolean fireDisplay,boolean joinOpening) {
-		int nRoots=(int) VitimageUtils.maxOfImage(imgIdent)+1;
 		byte[][]colorMapFire=getColorMapFire();
 		tim.print("\nFinal Assembling starting");
 		VitimageUtils.garbageCollector();
@@ -164,75 +198,121 @@ public class MovieBuilder {
 		int X=imgRoot.getWidth();
 		int Y=imgRoot.getHeight();
 		int delta=0;
-		if(joinOpening) {
-			delta=387;//TODO : determine delta
-			//determine delta
-			delta=0;
-			for(int n=0;n<75;n++) 				delta++;
-		
-			for(int m=1;m<=TN;m++) {
-				int lim=20;
-				if(m>5)lim=12;
-				if(m>10)lim=7;
-				if(m==TN)lim=75;
-				for(int n=0;n<lim;n++) delta++;
-			}
-
-		}
+		if(joinOpening) for(int m=0;m<=TN;m++)delta+=openingLength(m);
 		int N2=N+delta;
 		ImagePlus []resChan=new ImagePlus[] {IJ.createImage("", X, Y, N2, 8),IJ.createImage("", X, Y, N2, 8),IJ.createImage("", X, Y, N2, 8)};
 		for(int c=0;c<3;c++) resChan[c].setDisplayRange(0, 255);
-		byte[][]skel=new byte[N][];
-		byte[][]resR=new byte[N][];
-		byte[][]resG=new byte[N][];
-		byte[][]resB=new byte[N][];
-		byte[][]resInitR=new byte[delta][];
-		byte[][]resInitG=new byte[delta][];
-		byte[][]resInitB=new byte[delta][];
-		byte[][]root=new byte[N][];
-		byte[][]maskRoot=new byte[N][];
-		byte[][]fire=new byte[N][];
-		byte[]grid=new byte[N];
-		byte[][]maskGrid=new byte[N][];
-		byte[][]ident=new byte[N][];
-		double weig;
-		byte val;
-		for(int n=0;n<delta;n++) {
-			resInitR[n]=(byte[]) resChan[0].getStack().getProcessor(n+1).getPixels();
-			resInitG[n]=(byte[]) resChan[1].getStack().getProcessor(n+1).getPixels();
-			resInitB[n]=(byte[]) resChan[2].getStack().getProcessor(n+1).getPixels();
-		}
+		byte[]grid=(byte[]) imgGrid.getStack().getProcessor(1).getPixels();
+		byte[]skelLast=(byte[]) imgSkeleton.getStack().getProcessor(N).getPixels();
 		for(int n=0;n<N;n++) {
-			resR[n]=(byte[]) resChan[0].getStack().getProcessor(n+1+delta).getPixels();
-			resG[n]=(byte[]) resChan[1].getStack().getProcessor(n+1+delta).getPixels();
-			resB[n]=(byte[]) resChan[2].getStack().getProcessor(n+1+delta).getPixels();
-			skel[n]=(byte[]) imgSkeleton.getStack().getProcessor(n+1).getPixels();
-			root[n]=(byte[]) imgRoot.getStack().getProcessor(n+1).getPixels();
-			maskRoot[n]=(byte[]) imgMaskRoot.getStack().getProcessor(n+1).getPixels();
-			fire[n]=(byte[]) imgFire.getStack().getProcessor(n+1).getPixels();
-			maskGrid[n]=(byte[]) imgMaskGrid.getStack().getProcessor(n+1).getPixels();
-			ident[n]=(byte[]) imgIdent.getStack().getProcessor(n+1).getPixels();
+			if((n%50)==0)System.out.print(n+"/"+N+" ");
+			drawMovieFrame(n,X,Y,(byte[]) resChan[0].getStack().getPixels(n+1+delta),(byte[]) resChan[1].getStack().getPixels(n+1+delta),(byte[]) resChan[2].getStack().getPixels(n+1+delta),
+					(byte[]) imgRoot.getStack().getPixels(n+1),(byte[]) imgMaskRoot.getStack().getPixels(n+1),(byte[]) imgFire.getStack().getPixels(n+1),grid,
+					(byte[]) imgMaskGrid.getStack().getPixels(n+1),(byte[]) imgIdent.getStack().getPixels(n+1),(byte[]) imgSkeleton.getStack().getPixels(n+1),skelLast,colorMapFire);
+		}
+
+		//Generate first keyframes
+		if(joinOpening) {
+			int incr=0;
+			for(int m=0;m<=TN;m++) {
+				byte[]im=(byte[]) initReg.getStack().getPixels(Math.max(1, m));
+				for(int n=0;n<openingLength(m);n++) {
+					incr++;
+					drawOpeningFrame(m,X,Y,im,(byte[]) resChan[0].getStack().getPixels(incr),(byte[]) resChan[1].getStack().getPixels(incr),(byte[]) resChan[2].getStack().getPixels(incr));
+				}
+			}
+		}		
+		return VitimageUtils.compositeRGBByte(resChan[0],resChan[1],resChan[2], 1, 1, 1);
+	}
+
+	/** Source of the 8-bit frames of a sequence, asked in increasing order*/
+	public interface FrameSource{
+		public byte[] frame(int n);
+	}
+
+	/** Frames of an 8-bit stack*/
+	public static FrameSource stackSource(final ImagePlus img) {
+		return (n) -> (byte[]) img.getStack().getPixels(n+1);
+	}
+
+	/** Compose the frames of the movie one after the other, in the order of assembleRootGridAndFire, and append each one to the avi file before building the next one.
+	 * Fire, grid and skeleton are computed frame by frame, thus memory does not grow with the length of the movie*/
+	public static void streamRootGridAndFire(FrameSource root,FrameSource maskRoot,GridAndFire gridAndFire,RootModel rm,ImagePlus imgMaskRootInit,ImagePlus initReg,boolean joinOpening,String outputPath) {
+		byte[][]colorMapFire=getColorMapFire();
+		tim.print("\nStreamed assembling starting");
+		int N=t.length;
+		int X=initReg.getWidth();
+		int Y=initReg.getHeight();
+		byte[]resR=new byte[X*Y];
+		byte[]resG=new byte[X*Y];
+		byte[]resB=new byte[X*Y];
+		byte[]fire=new byte[X*Y];
+		byte[]ident=new byte[X*Y];
+		byte[]maskGrid=new byte[X*Y];
+		byte[]maskGridBef=new byte[X*Y];
+		byte[]skelN=null;
+		byte[]skelLast=modelMode2Activated ? generateModelAtTime(rm, imgMaskRootInit, t[N-1]) : null;
+		MjpegAviWriter avi=null;
+		try {
+			avi=new MjpegAviWriter(new File(outputPath),X,Y,25,1f);
+			if(joinOpening) {
+				for(int m=0;m<=TN;m++) {
+					drawOpeningFrame(m,X,Y,(byte[]) initReg.getStack().getPixels(Math.max(1, m)),resR,resG,resB);
+					avi.writeFrame(resR, resG, resB);
+					for(int n=1;n<openingLength(m);n++)avi.repeatFrame();//Frames of a keyframe are all the same
+				}
+			}
+			for(int n=0;n<N;n++) {
+				if((n%50)==0)System.out.print(n+"/"+N+" ");
+				byte[]temp=maskGridBef;maskGridBef=maskGrid;maskGrid=temp;
+				Arrays.fill(fire, (byte)0);
+				Arrays.fill(ident, (byte)0);
+				Arrays.fill(maskGrid, (byte)0);
+				gridAndFire.frame(n, fire, ident, maskGrid, maskGridBef);
+				if(modelMode1Activated)skelN=generateModelAtTime(rm, imgMaskRootInit, t[n]);
+				drawMovieFrame(n,X,Y,resR,resG,resB,root.frame(n),maskRoot.frame(n),fire,gridAndFire.tabGrid,maskGrid,ident,skelN,skelLast,colorMapFire);
+				avi.writeFrame(resR, resG, resB);
+			}
+			System.out.println();
+			tim.print("Written "+avi.getNbFrames()+" frames");
+		} catch (IOException e) {	e.printStackTrace();}
+		finally {
+			if(avi!=null)try {avi.close();} catch (IOException e) {	e.printStackTrace();}
 		}
-		grid=(byte[]) imgGrid.getStack().getProcessor(1).getPixels();
+	}
+
+	/** Number of frames showing keyframe m in the opening of the movie (m=0 : title)*/
+	public static int openingLength(int m) {
+		if(m==0)return 75;
+		int lim=20;
+		if(m>5)lim=12;
+		if(m>10)lim=7;
+		if(m==TN)lim=75;
+		return lim;
+	}
+
+	/** Processors of the three channels of a frame, to draw text on them*/
+	static ImageProcessor[]channelProcessors(int X,int Y,byte[]resR,byte[]resG,byte[]resB){
+		return new ImageProcessor[] {new ByteProcessor(X,Y,resR),new ByteProcessor(X,Y,resG),new ByteProcessor(X,Y,resB)};
+	}
+
+	/** Compose frame n of the movie (root, fire legend, timeline and scale bar) in resR, resG and resB*/
+	public static void drawMovieFrame(int n,int X,int Y,byte[]resR,byte[]resG,byte[]resB,byte[]root,byte[]maskRoot,byte[]fire,byte[]grid,
+			byte[]maskGrid,byte[]ident,byte[]skelN,byte[]skelLast,byte[][]colorMapFire) {
 		int indexSpace=0;
-		int indexTime=0;
+		double weig;
+		byte val;
 		byte lisereOutVal=toByte(200);
-
 		int deltaX=-10;
 		int deltaY=-2+50-60;
 		int wid=150;
 		Font font19 = new Font("SansSerif", Font.PLAIN, 19);		
-		Font font20 = new Font("SansSerif", Font.PLAIN, 20);			
 		Font font25 = new Font("SansSerif", Font.PLAIN, 25);			
 		Font font27 = new Font("SansSerif", Font.PLAIN, 27);		
 		Font font30 = new Font("SansSerif", Font.PLAIN, 30);			
-		Font font35 = new Font("SansSerif", Font.PLAIN, 35);		
-		Font font50 = new Font("SansSerif", Font.PLAIN, 50);			
 		TextRoi roi1 = new TextRoi(X-137+deltaX,Y-450+deltaY, "Growing\n  speed", font30);			
 		TextRoi roi2 = new TextRoi(X-115+deltaX,Y-365+deltaY, ""+vMaxDisplayed+"", font25);			
 		TextRoi roi3 = new TextRoi(X-115+deltaX,Y-150+deltaY, "0", font25);			
-		TextRoi roi4 = new TextRoi(X-122+deltaX,Y-325+deltaY, "-", font25);			
-		TextRoi roi5 = new TextRoi(X-122+deltaX,Y-108+deltaY, "-", font25);			
 		TextRoi roi6 = new TextRoi(X-117+deltaX,Y-105+deltaY, "(mm/day)", font19);			
 		double lengBar=220;
 		double widBar=30;
@@ -241,374 +321,319 @@ public class MovieBuilder {
 		int y0=Y-460+deltaY-hei-10;
 		int x1=x0+wid;
 		int y1=y0+hei;
-		TextRoi titleTime0 = new TextRoi(x0+15,y0+7, "Timesteps", font25);			
 		TextRoi titleTime1 = new TextRoi(x0+35,y0+7, "Time (h)", font25);			
 		TextRoi titleTimeBack = new TextRoi(x0+7,y0+170, "", font19);
-
 		double tMax=VitimageUtils.max(t);
-		int tM=(int) Math.ceil(tMax)-1;
-		TextRoi[] roiTab1=new TextRoi[tM+1];
-		TextRoi[] roiTab2=new TextRoi[tM];
 		int t1wid=20;
-		int t2wid=100;
 
-		
-		for(int n=0;n<N;n++) {
-			if((n%50)==0)System.out.print(n+"/"+N+" ");
-			for(int x=0;x<X;x++) {
-				for(int y=0;y<Y;y++) {
-					indexSpace=y*X+x;						
-					
-					
-					if(((int)(maskRoot[n][indexSpace]  & 0xff)>140)){//If root segmentation
-						resR[n][indexSpace]=root[n][indexSpace];
-						resG[n][indexSpace]=root[n][indexSpace];
-						resB[n][indexSpace]=root[n][indexSpace];
+		for(int x=0;x<X;x++) {
+			for(int y=0;y<Y;y++) {
+				indexSpace=y*X+x;						
+				
+				
+				if(((int)(maskRoot[indexSpace]  & 0xff)>140)){//If root segmentation
+					resR[indexSpace]=root[indexSpace];
+					resG[indexSpace]=root[indexSpace];
+					resB[indexSpace]=root[indexSpace];
 
-						//Draw skeleton, if any
-						if(modelMode1Activated) {
-							int vls=((int)(skel[n][indexSpace]  & 0xff));
-							if(vls>0 ){
-								if(vls==1) {//primary
-									resR[n][indexSpace]=toByte(255);
-									resG[n][indexSpace]=toByte(0);
-									resB[n][indexSpace]=toByte(0);
-								}
-								if(vls==2) {//secondary
-									resR[n][indexSpace]=toByte(0);
-									resG[n][indexSpace]=toByte(255);
-									resB[n][indexSpace]=toByte(0);
-								}
-								if(vls==3) {//nodes
-									resR[n][indexSpace]=toByte(255);
-									resG[n][indexSpace]=toByte(255);
-									resB[n][indexSpace]=toByte(255);
-								}
+					//Draw skeleton, if any
+					if(modelMode1Activated) {
+						int vls=((int)(skelN[indexSpace]  & 0xff));
+						if(vls>0 ){
+							if(vls==1) {//primary
+								resR[indexSpace]=toByte(255);
+								resG[indexSpace]=toByte(0);
+								resB[indexSpace]=toByte(0);
 							}
-						}
-						if(modelMode2Activated) {
-							int vls=((int)(skel[skel.length-1][indexSpace]  & 0xff));
-							if(vls>0 ){
-								if(vls==1) {//primary
-									resR[n][indexSpace]=toByte(toInt(resR[n][indexSpace])*2);
-								}
-								if(vls==2) {//secondary
-									resG[n][indexSpace]=toByte(toInt(resG[n][indexSpace])*2);
-								}
+							if(vls==2) {//secondary
+								resR[indexSpace]=toByte(0);
+								resG[indexSpace]=toByte(255);
+								resB[indexSpace]=toByte(0);
+							}
+							if(vls==3) {//nodes
+								resR[indexSpace]=toByte(255);
+								resG[indexSpace]=toByte(255);
+								resB[indexSpace]=toByte(255);
 							}
 						}
 					}
-					else if(toInt(ident[n][indexSpace])>0){
-						weig=toInt(ident[n][indexSpace])/255.0;
-						if(fire[n][indexSpace]==lisereVal){//If included in lisere		
-							val=toByte( (1-weig)*toInt(root[n][indexSpace]) + weig*toInt(lisereOutVal) );
-							resR[n][indexSpace]=val;
-							resG[n][indexSpace]=val;
-							resB[n][indexSpace]=val;
-						}
-						else {
-							byte[]col=colorMapFire[toInt( fire[n][indexSpace])];
-							resR[n][indexSpace] = toByte( (1-weig)*toInt(root[n][indexSpace]) + weig*toInt(col[0]) );
-							resG[n][indexSpace] = toByte( (1-weig)*toInt(root[n][indexSpace]) + weig*toInt(col[1]) );
-							resB[n][indexSpace] = toByte( (1-weig)*toInt(root[n][indexSpace]) + weig*toInt(col[2]) );
-						}
-					}					
-					else if( ((int)(maskGrid[n][indexSpace] & 0xff))!=0 && ((int)(grid[indexSpace] & 0xff))!=0){//Else if included in grid, weighted copy grid and root
-						weig=((int)(maskGrid[n][indexSpace] & 0xff))/255.0;
-						val=(byte)( (int)(weig*((int)(grid[indexSpace]  & 0xff))+(1-weig)*(int)(root[n][indexSpace]  & 0xff))  & 0xff);
-						resR[n][indexSpace]=val;
-						resG[n][indexSpace]=val;
-						resB[n][indexSpace]=val;
-						if(modelMode2Activated) {
-							int vls=((int)(skel[skel.length-1][indexSpace]  & 0xff));
-							if(vls>0 ){
-								if(vls==1) {//primary
-									resR[n][indexSpace]=toByte(toInt(resR[n][indexSpace])*2);
-									resG[n][indexSpace]=toByte(toInt(resG[n][indexSpace])*0.8);
-									resB[n][indexSpace]=toByte(toInt(resB[n][indexSpace])*0.8);
-								}
-								if(vls==2) {//secondary
-									resG[n][indexSpace]=toByte(toInt(resG[n][indexSpace])*2);
-									resR[n][indexSpace]=toByte(toInt(resR[n][indexSpace])*0.8);
-									resB[n][indexSpace]=toByte(toInt(resB[n][indexSpace])*0.8);
-								}
+					if(modelMode2Activated) {
+						int vls=((int)(skelLast[indexSpace]  & 0xff));
+						if(vls>0 ){
+							if(vls==1) {//primary
+								resR[indexSpace]=toByte(toInt(resR[indexSpace])*2);
+							}
+							if(vls==2) {//secondary
+								resG[indexSpace]=toByte(toInt(resG[indexSpace])*2);
 							}
 						}
-					}						
+					}
+				}
+				else if(toInt(ident[indexSpace])>0){
+					weig=toInt(ident[indexSpace])/255.0;
+					if(fire[indexSpace]==lisereVal){//If included in lisere		
+						val=toByte( (1-weig)*toInt(root[indexSpace]) + weig*toInt(lisereOutVal) );
+						resR[indexSpace]=val;
+						resG[indexSpace]=val;
+						resB[indexSpace]=val;
+					}
 					else {
-						resR[n][indexSpace]=root[n][indexSpace];
-						resG[n][indexSpace]=root[n][indexSpace];
-						resB[n][indexSpace]=root[n][indexSpace];
-						if(modelMode2Activated) {
-							int vls=((int)(skel[skel.length-1][indexSpace]  & 0xff));
-							if(vls>0 ){
-								if(vls==1) {//primary
-									resR[n][indexSpace]=toByte(toInt(resR[n][indexSpace])*2);
-								}
-								if(vls==2) {//secondary
-									resG[n][indexSpace]=toByte(toInt(resG[n][indexSpace])*2);
-								}
+						byte[]col=colorMapFire[toInt( fire[indexSpace])];
+						resR[indexSpace] = toByte( (1-weig)*toInt(root[indexSpace]) + weig*toInt(col[0]) );
+						resG[indexSpace] = toByte( (1-weig)*toInt(root[indexSpace]) + weig*toInt(col[1]) );
+						resB[indexSpace] = toByte( (1-weig)*toInt(root[indexSpace]) + weig*toInt(col[2]) );
+					}
+				}					
+				else if( ((int)(maskGrid[indexSpace] & 0xff))!=0 && ((int)(grid[indexSpace] & 0xff))!=0){//Else if included in grid, weighted copy grid and root
+					weig=((int)(maskGrid[indexSpace] & 0xff))/255.0;
+					val=(byte)( (int)(weig*((int)(grid[indexSpace]  & 0xff))+(1-weig)*(int)(root[indexSpace]  & 0xff))  & 0xff);
+					resR[indexSpace]=val;
+					resG[indexSpace]=val;
+					resB[indexSpace]=val;
+					if(modelMode2Activated) {
+						int vls=((int)(skelLast[indexSpace]  & 0xff));
+						if(vls>0 ){
+							if(vls==1) {//primary
+								resR[indexSpace]=toByte(toInt(resR[indexSpace])*2);
+								resG[indexSpace]=toByte(toInt(resG[indexSpace])*0.8);
+								resB[indexSpace]=toByte(toInt(resB[indexSpace])*0.8);
+							}
+							if(vls==2) {//secondary
+								resG[indexSpace]=toByte(toInt(resG[indexSpace])*2);
+								resR[indexSpace]=toByte(toInt(resR[indexSpace])*0.8);
+								resB[indexSpace]=toByte(toInt(resB[indexSpace])*0.8);
+							}
+						}
+					}
+				}						
+				else {
+					resR[indexSpace]=root[indexSpace];
+					resG[indexSpace]=root[indexSpace];
+					resB[indexSpace]=root[indexSpace];
+					if(modelMode2Activated) {
+						int vls=((int)(skelLast[indexSpace]  & 0xff));
+						if(vls>0 ){
+							if(vls==1) {//primary
+								resR[indexSpace]=toByte(toInt(resR[indexSpace])*2);
+							}
+							if(vls==2) {//secondary
+								resG[indexSpace]=toByte(toInt(resG[indexSpace])*2);
 							}
 						}
 					}
-				}
-			}			
-			//Draw fire legend
-			//draw rectangle
-			for(int xx=X-147+deltaX;xx<X-147+wid+deltaX;xx++) {
-				for(int yy=Y-455+deltaY;yy<Y-70+deltaY;yy++) {
-					indexSpace=yy*X+xx;			
-					resR[n][indexSpace]=toByte(toInt(resR[n][indexSpace])*0.3);
-					resG[n][indexSpace]=toByte(toInt(resG[n][indexSpace])*0.3);
-					resB[n][indexSpace]=toByte(toInt(resB[n][indexSpace])*0.3);
 				}
 			}
-			for(int xx=X-80+deltaX;xx<X-80+deltaX+widBar;xx++) {
-				for(int yy=Y-350+deltaY;yy<Y-350+deltaY+lengBar;yy++) {
-					indexSpace=yy*X+xx;			
-					int index=(int) ((Y-350+deltaY+lengBar-yy)/lengBar*255.0);
-					resR[n][indexSpace]=colorMapFire [index][0];
-					resG[n][indexSpace]=colorMapFire[index][1];
-					resB[n][indexSpace]=colorMapFire[index][2];
-				}
+		}			
+		//Draw fire legend
+		//draw rectangle
+		for(int xx=X-147+deltaX;xx<X-147+wid+deltaX;xx++) {
+			for(int yy=Y-455+deltaY;yy<Y-70+deltaY;yy++) {
+				indexSpace=yy*X+xx;			
+				resR[indexSpace]=toByte(toInt(resR[indexSpace])*0.3);
+				resG[indexSpace]=toByte(toInt(resG[indexSpace])*0.3);
+				resB[indexSpace]=toByte(toInt(resB[indexSpace])*0.3);
 			}
-			for(int c=0;c<3;c++) {
-				ImageProcessor ip=resChan[c].getStack().getProcessor(n+1+delta);				
-				ip.setAntialiasedText(true);ip.draw(roi1);ip.draw(roi2);ip.draw(roi3);ip.draw(roi6);
+		}
+		for(int xx=X-80+deltaX;xx<X-80+deltaX+widBar;xx++) {
+			for(int yy=Y-350+deltaY;yy<Y-350+deltaY+lengBar;yy++) {
+				indexSpace=yy*X+xx;			
+				int index=(int) ((Y-350+deltaY+lengBar-yy)/lengBar*255.0);
+				resR[indexSpace]=colorMapFire [index][0];
+				resG[indexSpace]=colorMapFire[index][1];
+				resB[indexSpace]=colorMapFire[index][2];
 			}
-			
-			
-			//Draw time legend
-			double thisT=t[n]-1;
-			if(thisT<0)thisT=0;
-			//Draw rectangle
-			for(int xx=x0;xx<x1;xx++) {
-				for(int yy=y0;yy<y1;yy++) {
-					indexSpace=yy*X+xx;			
-					resR[n][indexSpace]=toByte(toInt(resR[n][indexSpace])*0.3);
-					resG[n][indexSpace]=toByte(toInt(resG[n][indexSpace])*0.3);
-					resB[n][indexSpace]=toByte(toInt(resB[n][indexSpace])*0.3);
-				}
+		}
+		for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+			ip.setAntialiasedText(true);ip.draw(roi1);ip.draw(roi2);ip.draw(roi3);ip.draw(roi6);
+		}
+		
+		
+		//Draw time legend
+		//Draw rectangle
+		for(int xx=x0;xx<x1;xx++) {
+			for(int yy=y0;yy<y1;yy++) {
+				indexSpace=yy*X+xx;			
+				resR[indexSpace]=toByte(toInt(resR[indexSpace])*0.3);
+				resG[indexSpace]=toByte(toInt(resG[indexSpace])*0.3);
+				resB[indexSpace]=toByte(toInt(resB[indexSpace])*0.3);
 			}
-			//Draw horizontal timeline
-			for(int xx=x0+6;xx<x1-6;xx++) {
-				for(int yy=y0+86+15;yy<y0+90+15;yy++) {
-					indexSpace=yy*X+xx;			
-					resR[n][indexSpace]=toByte(255);
-					resG[n][indexSpace]=toByte(255);
-					resB[n][indexSpace]=toByte(255);
-				}
+		}
+		drawTimeline(X,x0,y0,x1,resR,resG,resB);
+		for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+			ip.setAntialiasedText(true);ip.draw(titleTime1);ip.draw(titleTimeBack);ip.draw(titleTimeBack);
+		}
+		
+		//Draw the time values during the interpolated sequence
+		double dtHours=20;
+		while(tMax/dtHours > 20)dtHours*=2;
+		while(tMax/dtHours < 5)dtHours/=2;
+		int nR=(int) Math.ceil(tMax/dtHours);
+		TextRoi textRoi;
+		for(int r=0;r<nR;r++) {
+			int tr=(int) (dtHours*r);
+			double xR=(int) (15+wid/4+ x0 +(tr - t[n])*wid/15.0);//xr0=x0+wid/2 at t=0 and x0
+			int yR=y0+52;
+			if(xR<x0)xR=-1000;
+			if(xR>(x1-t1wid-20))xR=-1000;
+			textRoi=new TextRoi(xR+2,yR-7+15,""+tr+"h", font27);			//draw time value
+				
+			//Write text				
+			for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+				ip.setAntialiasedText(true);
+				ip.setColor(Color.white);
+				ip.draw(textRoi);
 			}
-			//Draw triangle
-			int twid=25;
-			int thei=24;
-			int x0Tri=70;
-			int y0Tri=106+15;
-			int count1=0;int count2=0;
-			for(int dx=-twid/2;dx<twid/2;dx++) {
-				for(int dy=0;dy<thei;dy++) {
-					count1++;
-					//System.out.println(dx+","+dy+" et 1="+(Math.abs(dx*2.0)/twid)+" et 2="+(dy*1.0/thei));
-					if((Math.abs(dx*2.0)/twid)<(dy*1.0/thei)) {
-						count2++;
-						int xx=dx+x0Tri+x0;
-						int yy=dy+y0Tri+y0;
-						indexSpace=yy*X+xx;			
-						resR[n][indexSpace]=toByte(255);
-						resG[n][indexSpace]=toByte(255);
-						resB[n][indexSpace]=toByte(255);
-					}
+							
+			//Vertical lines				
+			yR=y0+80;
+			if(xR<x0+2)continue;
+			if(xR>x1-40)continue;
+			for(int xx=(int) (xR-2)+20;xx<xR+2+20;xx++) {
+				for(int yy=yR+15;yy<yR+17+15;yy++) {
+					indexSpace=yy*X+xx;			
+					resR[indexSpace]=toByte(225);
+					resG[indexSpace]=toByte(225);
+					resB[indexSpace]=toByte(225);
 				}
 			}
-			for(int c=0;c<3;c++) {
-				ImageProcessor ip=resChan[c].getStack().getProcessor(n+1+delta);				
-				ip.setAntialiasedText(true);ip.draw(titleTime1);ip.draw(titleTimeBack);ip.draw(titleTimeBack);
+		}
+		//Draw scaleBar			
+		int nPixCm=(int) (10000/umPerPixel);
+		for(int xx=X-120;xx<X-115;xx++) {
+			for(int yy=3*nPixCm;yy<4*nPixCm;yy++) {
+				indexSpace=yy*X+xx;			
+				resR[indexSpace]=toByte(0);
+				resG[indexSpace]=toByte(0);
+				resB[indexSpace]=toByte(0);
 			}
+		}
+		TextRoi scaleText=new TextRoi(X-100,3.4*nPixCm,"1 cm", font30);	
+		
+		for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+			ip.setColor(Color.black);
+			ip.setAntialiasedText(true);ip.draw(scaleText);
 			
-			//Draw the time values during the interpolated sequence
-			double dtHours=20;
-			while(tMax/dtHours > 20)dtHours*=2;
-			while(tMax/dtHours < 5)dtHours/=2;
-			int nR=(int) Math.ceil(tMax/dtHours);
-			TextRoi textRoi;
-			for(int r=0;r<nR;r++) {
-				int tr=(int) (dtHours*r);
-				double xR=(int) (15+wid/4+ x0 +(tr - t[n])*wid/15.0);//xr0=x0+wid/2 at t=0 and x0
-				int yR=y0+52;
-				//System.out.println("At r="+r+" coords="+xR+","+yR+" with wid="+wid+" and (r+1.5)*wid/2.0="+((r+1.5)*wid/2.0)+" and -tr*wid/20.0="+(-tr*wid/20.0));
-				if(xR<x0)xR=-1000;
-				if(xR>(x1-t1wid-20))xR=-1000;
-				textRoi=new TextRoi(xR+2,yR-7+15,""+tr+"h", font27);			//draw time value
-					
-				//Write text				
-				for(int c=0;c<3;c++) {
-					ImageProcessor ip=resChan[c].getStack().getProcessor(n+1+delta);				
-					ip.setAntialiasedText(true);
-					ip.setColor(Color.white);
-					ip.draw(textRoi);
-				}
-								
-				//Vertical lines				
-				yR=y0+80;
-				if(xR<x0+2)continue;
-				if(xR>x1-40)continue;
-				for(int xx=(int) (xR-2)+20;xx<xR+2+20;xx++) {
-					for(int yy=yR+15;yy<yR+17+15;yy++) {
-						indexSpace=yy*X+xx;			
-						resR[n][indexSpace]=toByte(225);
-						resG[n][indexSpace]=toByte(225);
-						resB[n][indexSpace]=toByte(225);
-					}
-				}
+		}			
+	}
+
+	/** Horizontal timeline and its triangle, in the time legend box [x0,x1[ starting at y0*/
+	static void drawTimeline(int X,int x0,int y0,int x1,byte[]resR,byte[]resG,byte[]resB) {
+		int indexSpace;
+		//Draw horizontal timeline
+		for(int xx=x0+6;xx<x1-6;xx++) {
+			for(int yy=y0+86+15;yy<y0+90+15;yy++) {
+				indexSpace=yy*X+xx;			
+				resR[indexSpace]=toByte(255);
+				resG[indexSpace]=toByte(255);
+				resB[indexSpace]=toByte(255);
 			}
-			//VitimageUtils.waitFor(100000);
-			//Draw scaleBar			
-			int nPixCm=(int) (10000/umPerPixel);
-			for(int xx=X-120;xx<X-115;xx++) {
-				for(int yy=3*nPixCm;yy<4*nPixCm;yy++) {
+		}
+		//Draw triangle
+		int twid=25;
+		int thei=24;
+		int x0Tri=70;
+		int y0Tri=106+15;
+		for(int dx=-twid/2;dx<twid/2;dx++) {
+			for(int dy=0;dy<thei;dy++) {
+				if((Math.abs(dx*2.0)/twid)<(dy*1.0/thei)) {
+					int xx=dx+x0Tri+x0;
+					int yy=dy+y0Tri+y0;
 					indexSpace=yy*X+xx;			
-					resR[n][indexSpace]=toByte(0);
-					resG[n][indexSpace]=toByte(0);
-					resB[n][indexSpace]=toByte(0);
+					resR[indexSpace]=toByte(255);
+					resG[indexSpace]=toByte(255);
+					resB[indexSpace]=toByte(255);
 				}
 			}
-			TextRoi scaleText=new TextRoi(X-100,3.4*nPixCm,"1 cm", font30);	
-			
-			for(int c=0;c<3;c++) {
-				ImageProcessor ip=resChan[c].getStack().getProcessor(n+1+delta);			
-				ip.setColor(Color.black);
-				ip.setAntialiasedText(true);ip.draw(scaleText);
-				
-			}			
 		}
+	}
+
+	/** Compose a frame of the opening of the movie in resR, resG and resB : the title over the first image (m=0), or keyframe m with its timeline*/
+	public static void drawOpeningFrame(int m,int X,int Y,byte[]im,byte[]resR,byte[]resG,byte[]resB) {
+		int indexSpace;
+		Font font19 = new Font("SansSerif", Font.PLAIN, 19);		
+		Font font25 = new Font("SansSerif", Font.PLAIN, 25);			
+		Font font27 = new Font("SansSerif", Font.PLAIN, 27);		
+		Font font50 = new Font("SansSerif", Font.PLAIN, 50);			
+		int deltaX=-10;
+		int deltaY=-2+50-60;
+		int wid=150;
+		int hei=200;
+		int x0=X-147+deltaX;
+		int y0=Y-460+deltaY-hei-10;
+		int x1=x0+wid;
+		int y1=y0+hei;
+		TextRoi titleTime0 = new TextRoi(x0+15,y0+7, "Timesteps", font25);			
+		TextRoi titleTimeBack = new TextRoi(x0+7,y0+170, "", font19);
+		double tMax=VitimageUtils.max(t);
+		int tM=(int) Math.ceil(tMax)-1;
+		int t1wid=20;
+		int t2wid=100;
 
+		System.arraycopy(im, 0, resR, 0, X*Y);
+		System.arraycopy(im, 0, resG, 0, X*Y);
+		System.arraycopy(im, 0, resB, 0, X*Y);
+		//Show image 1 and trailer
+		if(m==0) {
+			for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+				TextRoi titleArchi = new TextRoi(X/2-360,3*Y/4 ,"Observation of root systems", font50);
+				ip.setColor(Color.white);
+				ip.setAntialiasedText(true);ip.draw(titleArchi);
+			}
+			return;
+		}
+
+		//Show image m, with the timeline
+		if(m==TN) {
+			for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+				TextRoi titleArchi = new TextRoi(X/2-320,3*Y/4 ,"Architecture reconstruction", font50);
+				ip.setColor(Color.white);
+				ip.setAntialiasedText(true);ip.draw(titleArchi);
+			}
+		}
 		
-		//Generate first keyframes
-		if(joinOpening) {
-			int incr=-1;
-			byte[]im;
-			//Show image N and trailer during 3 seconds
-			im=(byte[]) initReg.getStack().getPixels(1);
-			for(int n=0;n<75;n++) {
-				incr++;
-				for(int xx=0;xx<X;xx++) for(int yy=0;yy<Y;yy++) {
-					indexSpace=yy*X+xx;			
-					resInitR[incr][indexSpace]=im[indexSpace];
-					resInitG[incr][indexSpace]=im[indexSpace];
-					resInitB[incr][indexSpace]=im[indexSpace];
-				}
-				for(int c=0;c<3;c++) {
-					ImageProcessor ip=resChan[c].getStack().getProcessor(incr+1);				
-					TextRoi titleArchi = new TextRoi(X/2-360,3*Y/4 ,"Observation of root systems", font50);
-					ip.setColor(Color.white);
-					ip.setAntialiasedText(true);ip.draw(titleArchi);
-				}
+		//Draw rectangle
+		for(int xx=x0;xx<x1;xx++) {
+			for(int yy=y0;yy<y1;yy++) {
+				indexSpace=yy*X+xx;			
+				resR[indexSpace]=toByte(toInt(resR[indexSpace])*0.3);
+				resG[indexSpace]=toByte(toInt(resG[indexSpace])*0.3);
+				resB[indexSpace]=toByte(toInt(resB[indexSpace])*0.3);
+			}
+		}
+		drawTimeline(X,x0,y0,x1,resR,resG,resB);
+		for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+			ip.setAntialiasedText(true);ip.draw(titleTime0);ip.draw(titleTimeBack);ip.draw(titleTimeBack);
+		}
+		for(int r=0;r<tM+1;r++) {
+			double xR=(int) (15+x0+(r+1.5)*wid/2.0-(m-1)*wid/2.0);//xr0=x0+wid/2 at t=0 and x0
+			int yR=y0+52;
+			if(xR<x0)xR=-1000;
+			if(xR>(x1-t1wid-20))xR=-1000;
+			TextRoi roiTab1=new TextRoi(xR+2,yR-7+15,"t"+r, font27);			
+			xR=(int) (x0-40+(r+1.5)*wid/2.0+wid/4.0-(m-1)*wid/2.0);//xr0=x0+wid/2 at t=0 and x0
+			if(xR<x0-t2wid)xR=-1000;
+			if(xR>x1-t1wid)xR=-1000;
+			TextRoi roiTab2=new TextRoi(xR,yR+4,"", font19);			
 
+			//Write text				
+			for(ImageProcessor ip : channelProcessors(X, Y, resR, resG, resB)) {
+				ip.setAntialiasedText(true);ip.draw(roiTab1);if(r<tM)ip.draw(roiTab2);
 			}
-				
-			//Show each image 1/2 second during 5 images, then each every 1/4 second
-			for(int m=1;m<=TN;m++) {
-				im=(byte[]) initReg.getStack().getPixels(m);
-				int lim=20;
-				if(m>5)lim=12;
-				if(m>10)lim=7;
-				if(m==TN)lim=75;
-				for(int n=0;n<lim;n++) {
-					incr++;
-					for(int xx=0;xx<X;xx++) for(int yy=0;yy<Y;yy++) {
-						indexSpace=yy*X+xx;			
-						resInitR[incr][indexSpace]=im[indexSpace];
-						resInitG[incr][indexSpace]=im[indexSpace];
-						resInitB[incr][indexSpace]=im[indexSpace];
-					}
-					if(m==TN) {
-						for(int c=0;c<3;c++) {
-							ImageProcessor ip=resChan[c].getStack().getProcessor(incr+1);				
-							TextRoi titleArchi = new TextRoi(X/2-320,3*Y/4 ,"Architecture reconstruction", font50);
-							ip.setColor(Color.white);
-							ip.setAntialiasedText(true);ip.draw(titleArchi);
-						}
-					}
-					
-					//Draw rectangle
-					for(int xx=x0;xx<x1;xx++) {
-						for(int yy=y0;yy<y1;yy++) {
-							indexSpace=yy*X+xx;			
-							resInitR[incr][indexSpace]=toByte(toInt(resInitR[incr][indexSpace])*0.3);
-							resInitG[incr][indexSpace]=toByte(toInt(resInitG[incr][indexSpace])*0.3);
-							resInitB[incr][indexSpace]=toByte(toInt(resInitB[incr][indexSpace])*0.3);
-						}
-					}
-					//Draw horizontal timeline
-					for(int xx=x0+6;xx<x1-6;xx++) {
-						for(int yy=y0+86+15;yy<y0+90+15;yy++) {
-							indexSpace=yy*X+xx;			
-							resInitR[incr][indexSpace]=toByte(255);
-							resInitG[incr][indexSpace]=toByte(255);
-							resInitB[incr][indexSpace]=toByte(255);
-						}
-					}
-					//Draw triangle
-					int twid=25;
-					int thei=24;
-					int x0Tri=70;
-					int y0Tri=106+15;
-					int count1=0;int count2=0;
-					for(int dx=-twid/2;dx<twid/2;dx++) {
-						for(int dy=0;dy<thei;dy++) {
-							count1++;
-							//System.out.println(dx+","+dy+" et 1="+(Math.abs(dx*2.0)/twid)+" et 2="+(dy*1.0/thei));
-							if((Math.abs(dx*2.0)/twid)<(dy*1.0/thei)) {
-								count2++;
-								int xx=dx+x0Tri+x0;
-								int yy=dy+y0Tri+y0;
-								indexSpace=yy*X+xx;			
-								resInitR[incr][indexSpace]=toByte(255);
-								resInitG[incr][indexSpace]=toByte(255);
-								resInitB[incr][indexSpace]=toByte(255);
-							}
-						}
-					}
-					for(int c=0;c<3;c++) {
-						ImageProcessor ip=resChan[c].getStack().getProcessor(incr+1);				
-						ip.setAntialiasedText(true);ip.draw(titleTime0);ip.draw(titleTimeBack);ip.draw(titleTimeBack);
-					}
-					for(int r=0;r<tM+1;r++) {
-						double xR=(int) (15+x0+(r+1.5)*wid/2.0-(m-1)*wid/2.0);//xr0=x0+wid/2 at t=0 and x0
-						int yR=y0+52;
-						if(xR<x0)xR=-1000;
-						if(xR>(x1-t1wid-20))xR=-1000;
-						roiTab1[r]=new TextRoi(xR+2,yR-7+15,"t"+r, font27);			
-						xR=(int) (x0-40+(r+1.5)*wid/2.0+wid/4.0-(m-1)*wid/2.0);//xr0=x0+wid/2 at t=0 and x0
-						if(xR<x0-t2wid)xR=-1000;
-						if(xR>x1-t1wid)xR=-1000;
-						if(r<(tM))roiTab2[r]=new TextRoi(xR,yR+4,"", font19);			
-	
-						//Write text				
-						for(int c=0;c<3;c++) {
-							ImageProcessor ip=resChan[c].getStack().getProcessor(incr+1);				
-							ip.setAntialiasedText(true);ip.draw(roiTab1[r]);if(r<tM)ip.draw(roiTab2[r]);
-						}
-										
-						//Vertical lines				
-						xR=(int) (x0+15+(r+1.5)*wid/2-(m-1)*wid/2);//xr0=x0+wid/2 at t=0 and x0
-						yR=y0+80;
-						if(xR<x0+2)continue;
-						if(xR>x1-40)continue;
-						for(int xx=(int) (xR-2)+20;xx<xR+2+20;xx++) {
-							for(int yy=yR+15;yy<yR+17+15;yy++) {
-								indexSpace=yy*X+xx;			
-								resInitR[incr][indexSpace]=toByte(225);
-								resInitG[incr][indexSpace]=toByte(225);
-								resInitB[incr][indexSpace]=toByte(225);
-							}
-						}
-					}
+							
+			//Vertical lines				
+			xR=(int) (x0+15+(r+1.5)*wid/2-(m-1)*wid/2);//xr0=x0+wid/2 at t=0 and x0
+			yR=y0+80;
+			if(xR<x0+2)continue;
+			if(xR>x1-40)continue;
+			for(int xx=(int) (xR-2)+20;xx<xR+2+20;xx++) {
+				for(int yy=yR+15;yy<yR+17+15;yy++) {
+					indexSpace=yy*X+xx;			
+					resR[indexSpace]=toByte(225);
+					resG[indexSpace]=toByte(225);
+					resB[indexSpace]=toByte(225);
 				}
 			}
-//			IJ.showMessage(""+incr);
-		}		
-		return VitimageUtils.compositeRGBByte(resChan[0],resChan[1],resChan[2], 1, 1, 1);
+		}
 	}
 		
 	
@@ -628,55 +653,79 @@ public class MovieBuilder {
 	public static ImagePlus[] generateGridAndFire(int X,int Y, double[][][]coords,ImagePlus maskRootInit) {
 		System.out.println("\nGenerating grid and fire V2");
 		tim.print("Start");
-		ImagePlus rootInitArea=MorphoUtils.dilationCircle2D(maskRootInit, 50);
-		rootInitArea=VitimageUtils.gaussianFiltering(rootInitArea, 40, 40, 0);
-		rootInitArea.setDisplayRange(0, 255);
-		IJ.run(rootInitArea,"8-bit","");
-		tim.print("Prepa img ok.");
-
-
-		int gridVal=172;
-		double G= (1000/umPerPixel);//nb pixels per mm
 		int N=coords.length;
-		int P=coords[0].length;
-		boolean []isPrimary=new boolean[P];
-		int nPrim=0;
-		for(int p=0;p<P;p++)if(coords[0][p][4]==1) {isPrimary[p]=true;nPrim++;}
-		int sizeRatio=15;//Divide the image space to define the objects size (circles and arrow). The larger the factor, the smaller the objects
-		int deltaN=(int)(N*startingBlockRatio);//Used for making appearing roots progressively
-		int []nStart=new int[P];
-		for(int p=0;p<P;p++) {
-			nStart[p]=N-1;
-			for(int n=N-1;n>=0;n--)if(coords[n][p][0]>=0)nStart[p]=n;
-		}
-		int R=X/sizeRatio;
-		int Rcircle=R/12;
-		
-		int Rarrow=R/12;
-		double lisere=3;
-		double anisArrow=2;
 		ImagePlus imgOut=IJ.createImage("", X, Y, N, 8);
 		ImagePlus imgIdent=IJ.createImage("", X, Y, N, 8);
 		ImagePlus imgGrid=IJ.createImage("", X, Y, N, 8);
 		ImagePlus imgMaskGrid=IJ.createImage("", X, Y, N, 8);
-		byte[][]tabOut=new byte[N][];
-		byte[][]tabIdent=new byte[N][];
-		byte[][]tabMaskGrid=new byte[N][];
-		byte[]tabGrid;
-		byte[]tabMaskInit;
-		for(int n=0;n<N;n++) {
-			tabOut[n]=(byte[]) imgOut.getStack().getProcessor(n+1).getPixels();
-			tabIdent[n]=(byte[]) imgIdent.getStack().getProcessor(n+1).getPixels();
-			tabMaskGrid[n]=(byte[]) imgMaskGrid.getStack().getProcessor(n+1).getPixels();
-		}
-		tabGrid=(byte[]) imgGrid.getStack().getProcessor(1).getPixels();
-		tabMaskInit=(byte[]) rootInitArea.getStack().getProcessor(1).getPixels();
-		int indexSpace=0;
-		//int indexTime=0;
+		GridAndFire gridAndFire=new GridAndFire(X,Y,coords,maskRootInit,(byte[]) imgGrid.getStack().getProcessor(1).getPixels());
+		tim.print("Prepa img ok.");
 		int deltaDisplayN = N/20;
 		tim.print("Starting stack video genesis");
 		for(int n=0;n<N;n++) {
 			if((n%deltaDisplayN)==0)tim.print(n+"/"+N+" ");
+			gridAndFire.frame(n,(byte[]) imgOut.getStack().getProcessor(n+1).getPixels(),(byte[]) imgIdent.getStack().getProcessor(n+1).getPixels(),
+					(byte[]) imgMaskGrid.getStack().getProcessor(n+1).getPixels(),(n==0) ? null : (byte[]) imgMaskGrid.getStack().getProcessor(n).getPixels());
+		}
+		imgOut.setTitle("Fire");
+		imgOut.setDisplayRange(0, 255);
+		imgGrid.setTitle("Grid");
+		imgGrid.setDisplayRange(0, 255);
+		imgMaskGrid.setTitle("MaskGrid");
+		imgMaskGrid.setDisplayRange(0, 255);
+		IJ.run(imgOut,"Fire","");
+		IJ.run(imgGrid,"Fire","");
+		return new ImagePlus [] {imgOut,imgGrid,imgMaskGrid,imgIdent};
+	}
+
+	/**
+	 * Fire (speed arrows and circles), identity, grid and mask of the grid of the movie, computed one frame after the other.
+	 * Frame n only depends on the coordinates at n and on the mask of the grid at n-1, thus the whole sequence is not needed in memory.
+	 */
+	public static class GridAndFire{
+		final int X,Y,N,P;
+		final double[][][]coords;
+		final boolean[]isPrimary;
+		final int[]nStart;
+		final int deltaN,R,Rcircle,Rarrow;
+		final double G;
+		final double lisere=3;
+		final double anisArrow=2;
+		final int gridVal=172;
+		final byte[]tabGrid;
+		final byte[]tabMaskInit;
+
+		/** Prepare the generation. tabGrid receives the grid when frame 0 is computed*/
+		public GridAndFire(int X,int Y, double[][][]coords,ImagePlus maskRootInit,byte[]tabGrid) {
+			ImagePlus rootInitArea=MorphoUtils.dilationCircle2D(maskRootInit, 50);
+			rootInitArea=VitimageUtils.gaussianFiltering(rootInitArea, 40, 40, 0);
+			rootInitArea.setDisplayRange(0, 255);
+			IJ.run(rootInitArea,"8-bit","");
+			this.X=X;
+			this.Y=Y;
+			this.coords=coords;
+			this.tabGrid=tabGrid;
+			G= (1000/umPerPixel);//nb pixels per mm
+			N=coords.length;
+			P=coords[0].length;
+			isPrimary=new boolean[P];
+			for(int p=0;p<P;p++)if(coords[0][p][4]==1) {isPrimary[p]=true;}
+			int sizeRatio=15;//Divide the image space to define the objects size (circles and arrow). The larger the factor, the smaller the objects
+			deltaN=(int)(N*startingBlockRatio);//Used for making appearing roots progressively
+			nStart=new int[P];
+			for(int p=0;p<P;p++) {
+				nStart[p]=N-1;
+				for(int n=N-1;n>=0;n--)if(coords[n][p][0]>=0)nStart[p]=n;
+			}
+			R=X/sizeRatio;
+			Rcircle=R/12;
+			Rarrow=R/12;
+			tabMaskInit=(byte[]) rootInitArea.getStack().getProcessor(1).getPixels();
+		}
+
+		/** Compute frame n in tabOut, tabIdent and tabMaskGrid (zero-filled), tabMaskGridBef being the mask of the grid at frame n-1 (unused for n=0)*/
+		public void frame(int n,byte[]tabOut,byte[]tabIdent,byte[]tabMaskGrid,byte[]tabMaskGridBef) {
+			int indexSpace=0;
 			for(int p=0;p<P;p++) {
 				double x0=coords[n][p][0];
 				double y0=coords[n][p][1];
@@ -697,11 +746,10 @@ public class MovieBuilder {
 					if(x<0 || x>=X)continue;
 					for(int y=(int) (yy0-R);y<=yy0+R;y++) {
 						if(y<0 || y>=Y)continue;
-						boolean debug=false&&(x==607 && y==156);
 						double normC=Math.sqrt((x-x0)*(x-x0)+(y-y0)*(y-y0));
 						int valMask=(int) Math.min(255,255*  1.5*VitimageUtils.laplacian(normC, R/4) );
 						indexSpace=y*X+x;				
-						tabMaskGrid[n][indexSpace]=(byte)(((int)Math.max (valMask,(int)(tabMaskGrid[n][indexSpace]& 0xff) )) & 0xff);
+						tabMaskGrid[indexSpace]=(byte)(((int)Math.max (valMask,(int)(tabMaskGrid[indexSpace]& 0xff) )) & 0xff);
 					}
 				}
 				//Preparing the arrow
@@ -715,9 +763,7 @@ public class MovieBuilder {
 				double vxOrth=-vyNorm;
 				double vyOrth=vxNorm;
 				double targetDY=Rar*anisArrow;
-				//double valVit=255*(normV/vMaxInUse);
 				byte bVit=toByte(50+205*(normV/vMaxInUse));
-				byte bP=isPrimary[p] ? toByte(1) : toByte(2);
 				for(double dx=-Rar;dx<=Rar;dx+=0.5) {
 					for(double dy=0;dy<=targetDY+1;dy+=0.5) {
 						int x=(int) (xx0+dx*vxOrth+dy*vxNorm);
@@ -730,15 +776,14 @@ public class MovieBuilder {
 						else if(Math.abs(dx)>(-lisereSize+(targetDY-dy)/anisArrow)) {
 							double delt=Math.abs(dx)- ((-lisereSize+(targetDY-dy)/anisArrow))  ;
 							double valFlou=VitimageUtils.laplacian(delt*delt,lisereSize*lisereSize/3);							
-							tabIdent[n][indexSpace]=toByte(255*valFlou);
-							tabOut[n][indexSpace]=bVit;
+							tabIdent[indexSpace]=toByte(255*valFlou);
+							tabOut[indexSpace]=bVit;
 						}   
-//						else if(Math.abs(dx)>((targetDY-dy)/anisArrow))tabOut[n][indexSpace]=lisereVal;
 						else  {
-							tabIdent[n][indexSpace]=toByte(255);
-							tabOut[n][indexSpace]=bVit;
+							tabIdent[indexSpace]=toByte(255);
+							tabOut[indexSpace]=bVit;
 						}
-						if(n<nStart[p]+deltaN)tabIdent[n][indexSpace]=toByte(alpha*toInt(tabIdent[n][indexSpace]));
+						if(n<nStart[p]+deltaN)tabIdent[indexSpace]=toByte(alpha*toInt(tabIdent[indexSpace]));
 					}
 				}
 				//Preparing the circle
@@ -757,16 +802,16 @@ public class MovieBuilder {
 						if(sqr>Rcirc+lisereSize*1.5)continue;
 						indexSpace=y*X+x;				
 						if(sqr<Rcirc-lisereSize) {//drawInside
-							tabOut[n][indexSpace]=bVit;
-							tabIdent[n][indexSpace]=toByte(10);}
+							tabOut[indexSpace]=bVit;
+							tabIdent[indexSpace]=toByte(10);}
 						else{
 							double delt=Math.abs(sqr-Rcirc);
 							double valFlou=VitimageUtils.laplacian(delt*delt,lisereSize*lisereSize/2);
-							tabOut[n][indexSpace]=bVit;// : lisereVal;
-							double temp=Math.max(toDouble(toByte(255*valFlou)), toDouble(tabIdent[n][indexSpace]));
-							tabIdent[n][indexSpace]=toByte(temp);
+							tabOut[indexSpace]=bVit;// : lisereVal;
+							double temp=Math.max(toDouble(toByte(255*valFlou)), toDouble(tabIdent[indexSpace]));
+							tabIdent[indexSpace]=toByte(temp);
 						}
-						if(n<nStart[p]+deltaN)tabIdent[n][indexSpace]=toByte(alpha*toInt(tabIdent[n][indexSpace]));
+						if(n<nStart[p]+deltaN)tabIdent[indexSpace]=toByte(alpha*toInt(tabIdent[indexSpace]));
 					}
 				}
 
@@ -776,7 +821,7 @@ public class MovieBuilder {
 				for(int x=0;x<X;x++) {
 					for(int y=0;y<Y;y++) {
 						indexSpace=y*X+x;						
-						tabMaskGrid[n][indexSpace]=tabMaskInit[indexSpace];
+						tabMaskGrid[indexSpace]=tabMaskInit[indexSpace];
 						int nearGridX=(int)Math.round( x/G );
 						int nearGridY=(int)Math.round( y/G );
 						int dgx=(int) (x-nearGridX*G);
@@ -798,25 +843,16 @@ public class MovieBuilder {
 				for(int x=0;x<X;x++) {
 					for(int y=0;y<Y;y++) {
 						indexSpace=y*X+x;													
-						int bef=(int)(tabMaskGrid[n-1][indexSpace]&0xff);
-						int now=(int)(tabMaskGrid[n][indexSpace]&0xff);
+						int bef=(int)(tabMaskGridBef[indexSpace]&0xff);
+						int now=(int)(tabMaskGrid[indexSpace]&0xff);
 						if(bef>now) {
 							now=bef;
-							tabMaskGrid[n][indexSpace]=(byte)(now & 0xff);
+							tabMaskGrid[indexSpace]=(byte)(now & 0xff);
 						}
 					}
 				}
 			}
 		}
-		imgOut.setTitle("Fire");
-		imgOut.setDisplayRange(0, 255);
-		imgGrid.setTitle("Grid");
-		imgGrid.setDisplayRange(0, 255);
-		imgMaskGrid.setTitle("MaskGrid");
-		imgMaskGrid.setDisplayRange(0, 255);
-		IJ.run(imgOut,"Fire","");
-		IJ.run(imgGrid,"Fire","");
-		return new ImagePlus [] {imgOut,imgGrid,imgMaskGrid,imgIdent};
 	}
 
 	
@@ -824,15 +860,14 @@ public class MovieBuilder {
 		System.out.println("Generating mix");
 
 		ImagePlus imgInReg=VitimageUtils.convertToFloat(regStack);
-		int X=imgInReg.getWidth();
-		int Y=imgInReg.getHeight();
+		final int X=imgInReg.getWidth();
+		final int Y=imgInReg.getHeight();
 		int N=imgRootMask.getStackSize();
 		int Nt=imgInReg.getStackSize();
 		ImagePlus imgOut=IJ.createImage("", X, Y, N, 8);
-		byte[][]tabOut=new byte[N][];
-		byte[]tabMaskUp=new byte[N];
-		float[][]tabInMask=new float[N][];
-		float[][]tabInReg=new float[Nt][];
+		final byte[][]tabOut=new byte[N][];
+		final float[][]tabInMask=new float[N][];
+		final float[][]tabInReg=new float[Nt][];
 		for(int n=0;n<N;n++) {
 			tabOut[n]=(byte[]) imgOut.getStack().getProcessor(n+1).getPixels();
 			tabInMask[n]=(float[]) imgRootMask.getStack().getProcessor(n+1).getPixels();
@@ -840,68 +875,145 @@ public class MovieBuilder {
 		for(int n=0;n<Nt;n++) {
 			tabInReg[n]=(float[]) imgInReg.getStack().getProcessor(n+1).getPixels();
 		}
-		tabMaskUp=(byte[]) maskUpLeaves.getStack().getProcessor(1).getPixels();
-		int indexSpace=0;
-		double tt=0;
-		double valMixFg;
-		double valMixBg;
-		double delta=0;
-		double deltaBg=t1Bg-t0Bg;
-		double deltaFg=t1Fg-t0Fg;
-		int T0=0;
-		
-		for(int n=0;n<N;n++) {
+		final byte[]tabMaskUp=(byte[]) maskUpLeaves.getStack().getProcessor(1).getPixels();
+		final MixWeights[]weights=new MixWeights[N];
+		for(int n=0;n<N;n++)weights[n]=new MixWeights(n,Nt);
+
+		//Frames are independent : they are shared between the threads
+		int nThreads=(nbThreadsForMix>0) ? nbThreadsForMix : VitimageUtils.getNbCores();
+		ParallelRows.run(N,Math.min(N,16*nThreads),nThreads,(nStart,nStop) -> {
+			for(int n=nStart;n<nStop;n++)mixFrame(weights[n],tabInMask[n],tabInReg,tabMaskUp,tabOut[n],X,0,Y);
+		});
+		System.out.println();
+		imgOut.setDisplayRange(0, 255);
+		return imgOut;		
+	}
+
+	/** Interpolation parameters of a frame of the mix, the same for all its pixels : keyframes and weights of the background and of the foreground*/
+	static class MixWeights{
+		final int T0,tBgNext,t1,t2,t3;
+		final int bgMode,fgMode;//0 : first keyframe, 1 : next keyframe, 2 : linear interpolation
+		final double deltaBg,deltaFg;
+
+		MixWeights(int n,int Nt){
 			T0=indexImgBef[n];
 			double deltaT=deltaRatioToBef[n];
-			
+			tBgNext=((T0+1)>Nt-1) ? T0 : (T0+1);
+			int tt1=T0+1;if(tt1>=Nt-1)tt1=Nt-1;
+			int tt2=T0+2;if(tt2>=Nt-1)tt2=Nt-1;
+			int tt3=T0+3;if(tt3>=Nt-1)tt3=Nt-1;
+			t1=tt1;t2=tt2;t3=tt3;
+			bgMode=(deltaT<=t0Bg) ? 0 : (deltaT>=t1Bg) ? 1 : 2;
+			fgMode=(deltaT<=t0Fg) ? 0 : (deltaT>=t1Fg) ? 1 : 2;
+			deltaBg=(deltaT-t0Bg)/(t1Bg-t0Bg);
+			deltaFg=(deltaT-t0Fg)/(t1Fg-t0Fg);
+		}
+	}
 
-			if((n%50)==0)System.out.print(n+"/"+N+" ");
-			for(int x=0;x<X;x++) {
-				for(int y=0;y<Y;y++) {
-					indexSpace=y*X+x;
-					
-					////BUILDING Value for BG (not plant points)
-					//If we are in the upper part of the image, smoothly between t0Bg and t1Bg (at start between T0 and T1)
-					if(toInt(tabMaskUp[indexSpace])==0) {
-						if(deltaT<=t0Bg)valMixBg=tabInReg[T0][indexSpace];
-						else if(deltaT>=t1Bg) {
-							valMixBg=tabInReg[((T0+1)>Nt-1) ? T0 : (T0+1)][indexSpace];
-						}
-						else {
-							delta=(deltaT-t0Bg)/deltaBg;
-							valMixBg=delta*tabInReg[T0+1][indexSpace]+(1-delta)*tabInReg[T0][indexSpace];
-						}
-					}
-					else {
-						//If we are in the plant, don't care, and display the original image // TODO : faire un test pour faire apparaitre la mousse de la nuit
-						valMixBg=tabInReg[0][indexSpace];						
-					}
+	/** Compute the rows [yStart,yStop[ of a frame of the mix, from the mask of this frame (1=foreground) and the keyframes of the registered stack*/
+	static void mixFrame(MixWeights w,float[]tabInMask,float[][]tabInReg,byte[]tabMaskUp,byte[]tabOut,int X,int yStart,int yStop) {
+		float[]regBg0=tabInReg[w.T0];
+		float[]regBg1=(w.bgMode==1) ? tabInReg[w.tBgNext] : (w.bgMode==2 && w.T0+1<tabInReg.length) ? tabInReg[w.T0+1] : null;
+		float[]regPlant=tabInReg[0];
+		float[]regFg0=(w.fgMode==0) ? tabInReg[w.t1] : tabInReg[w.t2];
+		float[]regFg1=(w.fgMode==2) ? tabInReg[w.t3] : null;
+		double deltaBg=w.deltaBg;
+		double deltaFg=w.deltaFg;
+		double valMixFg;
+		double valMixBg;
+		for(int indexSpace=yStart*X;indexSpace<yStop*X;indexSpace++) {
+			////BUILDING Value for BG (not plant points)
+			//If we are in the upper part of the image, smoothly between t0Bg and t1Bg (at start between T0 and T1). In the plant, display the original image
+			if(toInt(tabMaskUp[indexSpace])==0) {
+				if(w.bgMode==0)valMixBg=regBg0[indexSpace];
+				else if(w.bgMode==1)valMixBg=regBg1[indexSpace];
+				else valMixBg=deltaBg*regBg1[indexSpace]+(1-deltaBg)*regBg0[indexSpace];
+			}
+			else valMixBg=regPlant[indexSpace];
 
-					
-					////BUILDING Value for FG
-					int t1=T0+1;if(t1>=Nt-1)t1=Nt-1;
-					int t2=T0+2;if(t2>=Nt-1)t2=Nt-1;
-					int t3=T0+3;if(t3>=Nt-1)t3=Nt-1;
-					if(deltaT<=t0Fg)valMixFg=tabInReg[t1][indexSpace];
-					else if(deltaT>=t1Fg)valMixFg=tabInReg[t2][indexSpace];
-					else {
-						delta=(deltaT-t0Fg)/deltaFg;
-						valMixFg=delta*tabInReg[t3][indexSpace]+(1-delta)*tabInReg[t2][indexSpace];
+			////BUILDING Value for FG
+			if(w.fgMode==2)valMixFg=deltaFg*regFg1[indexSpace]+(1-deltaFg)*regFg0[indexSpace];
+			else valMixFg=regFg0[indexSpace];
+			double deltaMix=tabInMask[indexSpace];
+			tabOut[indexSpace]=toByte(valMixFg*deltaMix + valMixBg*(1-deltaMix));
+		}
+	}
+
+	/** Frames of the mix computed on demand from the frames of the mask, the rows of a frame being shared between threads*/
+	public static FrameSource mixSource(final FgBgMaskSource mask,ImagePlus regStack,ImagePlus maskUpLeaves) {
+		ImagePlus imgInReg=VitimageUtils.convertToFloat(regStack);
+		final int X=imgInReg.getWidth();
+		final int Y=imgInReg.getHeight();
+		final int Nt=imgInReg.getStackSize();
+		final float[][]tabInReg=new float[Nt][];
+		for(int n=0;n<Nt;n++)tabInReg[n]=(float[]) imgInReg.getStack().getProcessor(n+1).getPixels();
+		final byte[]tabMaskUp=(byte[]) maskUpLeaves.getStack().getProcessor(1).getPixels();
+		final byte[]tabOut=new byte[X*Y];
+		final int nThreads=(nbThreadsForMix>0) ? nbThreadsForMix : VitimageUtils.getNbCores();
+		return (n) -> {
+			final MixWeights w=new MixWeights(n,Nt);
+			final float[]tabInMask=mask.frame(n);
+			ParallelRows.run(Y,ParallelRows.defaultNbTiles(Y,nThreads),nThreads,(yStart,yStop) -> mixFrame(w,tabInMask,tabInReg,tabMaskUp,tabOut,X,yStart,yStop));
+			return tabOut;
+		};
+	}
+
+	/** Same as mixFgAndBgFromMaskAndStack, computed by strips of rows : each strip of the registered stack is read as a time-contiguous cube,
+	 * where the keyframes used for a pixel are neighbours in memory, and its frames of the mix are written back from a cube of the strip. Only the strips in progress are copied*/
+	public static ImagePlus mixFgAndBgFromMaskAndCube(ImagePlus imgRootMask,ImagePlus regStack,ImagePlus maskUpLeaves) {
+		System.out.println("Generating mix from temporal cubes");
+		final int X=regStack.getWidth();
+		final int Y=regStack.getHeight();
+		final int N=imgRootMask.getStackSize();
+		final int Nt=regStack.getStackSize();
+		final ImagePlus imgOut=IJ.createImage("", X, Y, N, 8);
+		final float[][]tabInMask=new float[N][];
+		for(int n=0;n<N;n++)tabInMask[n]=(float[]) imgRootMask.getStack().getProcessor(n+1).getPixels();
+		final byte[]tabMaskUp=(byte[]) maskUpLeaves.getStack().getProcessor(1).getPixels();
+		final MixWeights[]weights=new MixWeights[N];
+		for(int n=0;n<N;n++)weights[n]=new MixWeights(n,Nt);
+
+		int nThreads=(nbThreadsForMix>0) ? nbThreadsForMix : VitimageUtils.getNbCores();
+		ParallelRows.run(Y,ParallelRows.defaultNbTiles(Y,nThreads),nThreads,(yStart,yStop) -> {
+			TemporalCube regCube=TemporalCube.fromStack(regStack,0,yStart,X,yStop-yStart);
+			TemporalCube outCube=new TemporalCube(0,yStart,X,yStop-yStart,N);
+			float[]reg=regCube.data;
+			float[]out=outCube.data;
+			for(int y=yStart;y<yStop;y++) {
+				for(int x=0;x<X;x++) {
+					int indexSpace=y*X+x;
+					int off=regCube.offset(x,y-yStart);
+					int offOut=outCube.offset(x,y-yStart);
+					boolean inPlant=toInt(tabMaskUp[indexSpace])!=0;
+					for(int n=0;n<N;n++) {
+						MixWeights w=weights[n];
+						double valMixBg,valMixFg;
+						if(inPlant)valMixBg=reg[off];
+						else if(w.bgMode==0)valMixBg=reg[off+w.T0];
+						else if(w.bgMode==1)valMixBg=reg[off+w.tBgNext];
+						else valMixBg=w.deltaBg*reg[off+w.T0+1]+(1-w.deltaBg)*reg[off+w.T0];
+						if(w.fgMode==2)valMixFg=w.deltaFg*reg[off+w.t3]+(1-w.deltaFg)*reg[off+w.t2];
+						else valMixFg=reg[off+((w.fgMode==0) ? w.t1 : w.t2)];
+						double deltaMix=tabInMask[n][indexSpace];
+						out[offOut+n]=toInt(toByte(valMixFg*deltaMix + valMixBg*(1-deltaMix)));
 					}
-					double deltaMix=tabInMask[n][indexSpace];
-					tabOut[n][indexSpace]=toByte(valMixFg*deltaMix + valMixBg*(1-deltaMix));//(float) (valMixBg*(1-deltaMix));//
 				}
 			}
-		}
-		System.out.println();
+			outCube.writeInto(imgOut);
+		});
 		imgOut.setDisplayRange(0, 255);
-		return imgOut;		
+		return imgOut;
 	}
 
 	public static ImagePlus generateModelRGBFromRootModel(RootModel rm,ImagePlus img) {
 		return rm.createGrayScaleImageTimeLapse(img,t,  new double[] {primaryRadius,secondaryRadius},0);
 	}
 
+	/** Skeleton of the model at time tt only, as the corresponding slice of generateModelRGBFromRootModel*/
+	public static byte[] generateModelAtTime(RootModel rm,ImagePlus img,double tt) {
+		return (byte[]) rm.createGrayScaleImageTimeLapse(img,new double[] {tt},  new double[] {primaryRadius,secondaryRadius},0).getStack().getPixels(1);
+	}
+
 	public static ImagePlus[] generateGridAndFireFromRootModel(RootModel rm, ImagePlus img,ImagePlus maskRootInit) {
 		int X=img.getWidth();
 		int Y=img.getHeight();
@@ -916,6 +1028,12 @@ public class MovieBuilder {
 		int N=t.length;
 		
 		ImagePlus imgOut=IJ.createImage("", X, Y, N, 32);
+		if(useSlidingFgBgMask) {
+			FgBgMaskSource mask=new FgBgMaskSource(imgIn,1.5,1.5,1.5);
+			for(int n=0;n<N;n++)System.arraycopy(mask.frame(n), 0, (float[]) imgOut.getStack().getPixels(n+1), 0, X*Y);
+			imgOut.setDisplayRange(0, 1);
+			return imgOut;
+		}
 		float[][]tabOut=new float[N][];
 		float[]tabIn=(float[]) imgIn.getStack().getProcessor(1).getPixels();
 		for(int n=0;n<N;n++)tabOut[n]=(float[]) imgOut.getStack().getProcessor(n+1).getPixels();
@@ -941,6 +1059,109 @@ public class MovieBuilder {
 		return imgOut;
 	}
 
+	/** 8-bit version of a frame of the mask, converted as IJ.run(img,"8-bit","") does with the display range [0,1]*/
+	static byte[] toMask8(float[]frame,int X,int Y) {
+		FloatProcessor fp=new FloatProcessor(X,Y,frame);
+		fp.setMinAndMax(0, 1);
+		return (byte[]) fp.convertToByte(true).getPixels();
+	}
+
+	/**
+	 * Frames of the mask of generateFgBgMask computed one after the other, from the map of the appearance times.
+	 * The binary frame n (1 where the root appeared at n or before) is blurred in x and y as "Gaussian Blur 3D" does, and kept in a temporal
+	 * ring buffer of 2*kRadius-1 frames. Frame n of the mask is the convolution along z of the frames of the ring, with the kernel and the
+	 * replication of the first and last frames of ij.plugin.filter.GaussianBlur. Memory is O(kernel x frame) instead of O(N x frame).
+	 * Frames must be asked in increasing order (asking an earlier frame restarts from frame 0).
+	 */
+	public static class FgBgMaskSource{
+		static final double ACCURACY=0.0002;//The one used by Gaussian Blur 3D for 32-bit images
+		final int X,Y,N;
+		final double sigX,sigY;
+		final int[]appearance;
+		final float[]kern,kernSum;
+		final int kRadius;
+		final float[][]ring;
+		final float[]first,last,out;
+		final GaussianBlur gb=new GaussianBlur();
+		int computed=-1;
+		int current=-1;
+
+		public FgBgMaskSource(ImagePlus imgTimes,double sigX,double sigY,double sigZ) {
+			X=imgTimes.getWidth();
+			Y=imgTimes.getHeight();
+			N=t.length;
+			this.sigX=sigX;
+			this.sigY=sigY;
+			float[]tabIn=(float[]) imgTimes.getStack().getProcessor(1).getPixels();
+			appearance=new int[X*Y];
+			for(int indexSpace=0;indexSpace<X*Y;indexSpace++) {
+				double val=(tabIn[indexSpace]);
+				int indexTime=(val<0) ? -1 : getIndex(val);
+				appearance[indexSpace]=(indexTime==-1) ? Integer.MAX_VALUE : indexTime;
+			}
+			float[][]kernel=gb.makeGaussianKernel(sigZ, ACCURACY, N);
+			kern=kernel[0];
+			kernSum=kernel[1];
+			kRadius=kern.length;
+			ring=new float[Math.min(N, 2*kRadius-1)][];
+			for(int i=0;i<ring.length;i++)ring[i]=new float[X*Y];
+			first=new float[X*Y];
+			last=new float[X*Y];
+			out=new float[X*Y];
+			blurredXY(0,first);
+			blurredXY(N-1,last);
+		}
+
+		/** Binary frame n, blurred in x and y*/
+		void blurredXY(int n,float[]tab) {
+			for(int indexSpace=0;indexSpace<X*Y;indexSpace++)tab[indexSpace]=(n>=appearance[indexSpace]) ? 1 : 0;
+			gb.blurGaussian(new FloatProcessor(X,Y,tab), sigX, sigY, ACCURACY);
+		}
+
+		/** Frame n of the mask. The array is reused by the next call*/
+		public float[] frame(int n) {
+			if(n==current)return out;
+			if(n<current)computed=-1;
+			int lastNeeded=Math.min(N-1, n+kRadius-1);
+			for(int m=Math.max(computed+1, n-kRadius+1);m<=lastNeeded;m++)blurredXY(m,ring[m%ring.length]);
+			computed=lastNeeded;
+			current=n;
+
+			//Convolution along z, in the order of the operations of GaussianBlur.convolveLine for the point n of a line of length N
+			float[]in=ring[n%ring.length];
+			float[][]bef=new float[kRadius][];
+			float[][]aft=new float[kRadius][];
+			for(int k=1;k<kRadius;k++) {
+				bef[k]=(n-k>=0) ? ring[(n-k)%ring.length] : null;
+				aft[k]=(n+k<N) ? ring[(n+k)%ring.length] : null;
+			}
+			boolean inside=(n>=Math.min(kRadius, N)) && (n<N-kRadius);
+			boolean addFirst=(n<kRadius);
+			boolean addLast=(n<Math.min(kRadius, N)) ? (n+kRadius>N) : (n+kRadius>=N);
+			float kern0=kern[0];
+			float sumFirst=addFirst ? kernSum[n] : 0;
+			float sumLast=addLast ? kernSum[N-n-1] : 0;
+			for(int indexSpace=0;indexSpace<X*Y;indexSpace++) {
+				float result=in[indexSpace]*kern0;
+				if(inside) {
+					for(int k=1;k<kRadius;k++)result+=kern[k]*(bef[k][indexSpace]+aft[k][indexSpace]);
+				}
+				else {
+					if(addFirst)result+=sumFirst*first[indexSpace];
+					if(addLast)result+=sumLast*last[indexSpace];
+					for(int k=1;k<kRadius;k++) {
+						float v=0;
+						if(bef[k]!=null)v+=bef[k][indexSpace];
+						if(aft[k]!=null)v+=aft[k][indexSpace];
+						result+=kern[k]*v;
+					}
+				}
+				out[indexSpace]=result;
+			}
+			return out;
+		}
+	}
+
 	public static double[][][]getAsTimeLapseCoords(RootModel rm){
 		int N=t.length;
 		int P=rm.rootList.size();
@@ -12,6 +12,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.FileUtils;
 import org.jgrapht.GraphPath;
@@ -31,8 +32,11 @@ import io.github.rocsg.fijiyama.rsml.Node;
 import io.github.rocsg.fijiyama.rsml.Root;
 import io.github.rocsg.fijiyama.rsml.RootModel;
 import io.github.rocsg.rstutils.MorphoUtils;
+import io.github.rocsg.rstutils.ParallelRows;
+import io.github.rocsg.rstutils.TemporalCube;
 import io.github.rocsg.topologicaltracking.CC;
 import io.github.rocsg.topologicaltracking.ConnectionEdge;
+import io.github.rocsg.topologicaltracking.DebugProbes;
 import io.github.rocsg.topologicaltracking.RegionAdjacencyGraphPipeline;
 import ij.IJ;
 import ij.ImageJ;
@@ -40,6 +44,7 @@ import ij.ImagePlus;
 import ij.gui.GenericDialog;
 import ij.plugin.Duplicator;
 import ij.plugin.RGBStackMerge;
+import ij.process.ImageProcessor;
 import static io.github.rocsg.rootsystemtracker.PipelineParamHandler.configurePipelineParams;
 
 public class PipelineActionsHandler {
@@ -52,16 +57,21 @@ public class PipelineActionsHandler {
 	public static final int lastImageToDo=flagLastImage;//flagFinished;
 	public static final int yMaxStamp=50;//TODO. It is relative value Y, after the crop
 	public static Timer t;
+	static volatile int nbBoxesAtOnce=1;//Boxes processed at the same time by BoxScheduler, that share the cores
+	static final HashMap<Integer,Timer>timersOfBoxes=new HashMap<Integer,Timer>();
+	public static boolean validateRuptureKernel=false;//if true, the fast kernels of step 4 are checked against the reference ones
+	public static boolean useTemporalCube=false;//if true, step 4 projections run on time-contiguous tiles of the sequence
+	static final double TWO_POW_52=4503599627370496.0;
 	
 	
 
 	public static int[]selectFirstAndLast(PipelineParamHandler pph){
-		if(VitiDialogs.getYesNoUI("Process everything box after box (select no to refine)?", "Process everything box after box (select no to refine)?"))return new int[] {0,flagFinished,0,pph.nbData-1,0};
+		if(VitiDialogs.getYesNoUI("Process everything box after box (select no to refine)?", "Process everything box after box (select no to refine)?"))return new int[] {0,flagFinished,0,pph.nbData-1,(pph.nbConcurrentBoxes>1) ? 2 : 0};
 		else{
 			String[]actions=new String[] {"Step 0: setup part 1","Step 1:image stacking","Step 2: stack registration",
 					"Step 3 : mask computation, leaves removal","Step 4: spatio-temporal segmentation",
 					"Step 5 : graph computation","Step 6: RSML building until expertize","Step 7: RSML building after expertize", "Step 8: Movie building"}; 
-			String[]order=new String[] {"Box after box","Step after step"};
+			String[]order=new String[] {"Box after box","Step after step","Several boxes at once ("+pph.nbConcurrentBoxes+" concurrent boxes, see nbConcurrentBoxes)"};
 			int[]vals=new int[5];
 			GenericDialog gd= new GenericDialog("Expert mode for RootSystemTracker");
             gd.addMessage("Choose the steps to execute");
@@ -70,7 +80,7 @@ public class PipelineActionsHandler {
 	        gd.addMessage("Choose the indices of box to be processed (from 0 to "+(pph.nbData-1)+")");
     		gd.addNumericField("First box index to process",  0, 0 , 6 ,"");
 			gd.addNumericField("Last box index to process", pph.nbData-1, 0, 6,"");
-	        gd.addMessage("Choose the order : box after box (all steps) or step after step (all boxes)");
+	        gd.addMessage("Choose the order : box after box (all steps), step after step (all boxes), or several boxes at once");
 			gd.addChoice("Order",order, order[0]);
 	        gd.showDialog();
 	        if (gd.wasCanceled()) return new int[] {0,flagFinished,0,flagLastImage,0};	        
@@ -109,7 +119,10 @@ public class PipelineActionsHandler {
 				pph.writeParameters(false);				
 			}
 		}
-		if(order==0) {
+		if(order==2) {
+			BoxScheduler.runBoxes(pph,indFirstImageToDo,indLastImageToDo,indFirstStepToDo,indLastStepToDo,pph.nbConcurrentBoxes);
+		}
+		else if(order==0) {
 			for(int i=indFirstImageToDo;i<=Math.min(indLastImageToDo,pph.nbData-1);i++) {
 				while(((pph.imgSteps[i]+1)>=indFirstStepToDo && pph.imgSteps[i]<=indLastStepToDo)) {
 					doNextStep(i,pph);
@@ -126,18 +139,24 @@ public class PipelineActionsHandler {
 		IJ.log("Processing finished !");
 	}
 	
-	public static void doNextStep(int indexImg,PipelineParamHandler pph) {
+	/** Do the next step of the box, and record the progress in the parameter file. Return true if the step was executed*/
+	public static boolean doNextStep(int indexImg,PipelineParamHandler pph) {
 		System.out.println("Doing next step of img index "+indexImg);
 		int stepToDo=pph.imgSteps[indexImg];
-		if(pph.imgNames[indexImg].contains(Plugin_RootDatasetMakeInventory.codeTrash) && (stepToDo>1))pph.imgSteps[indexImg]++;
-		else if(doStepOnImg(stepToDo,indexImg,pph))pph.imgSteps[indexImg]++;
-		pph.writeParameters(false);
+		boolean executed=true;
+		if(!(pph.imgNames[indexImg].contains(Plugin_RootDatasetMakeInventory.codeTrash) && (stepToDo>1)))executed=doStepOnImg(stepToDo,indexImg,pph);
+		synchronized(pph) {//Boxes can be processed concurrently, see BoxScheduler
+			if(executed)pph.imgSteps[indexImg]++;
+			pph.writeParameters(false);
+		}
+		return executed;
 	}
 
 	public static boolean doStepOnImg(int step,int indexImg,PipelineParamHandler pph) {
 		//Where processing data is saved
 		String outputDataDir=new File(pph.outputDir,pph.imgNames[indexImg]).getAbsolutePath();
 		boolean executed=true;
+		Timer t=timerOfBox(indexImg);
 		if(step==1) {//Stack data -O-
 			t.print("Starting step 1, stacking -  on img index "+step+" : "+pph.imgNames[indexImg]);
 			executed=PipelineActionsHandler.stackData(indexImg,pph);
@@ -179,6 +198,22 @@ public class PipelineActionsHandler {
 		return executed;
 	}
 
+	/** Threads for a step of a box : nbThreadsParam if set (>0), else the cores shared by the boxes processed at the same time*/
+	public static int nbThreadsOfStep(int nbThreadsParam) {
+		if(nbThreadsParam>0)return nbThreadsParam;
+		return Math.max(1, VitimageUtils.getNbCores()/nbBoxesAtOnce);
+	}
+
+	/** Timer of the box, thus boxes processed at the same time print their own times*/
+	static synchronized Timer timerOfBox(int indexImg) {
+		Timer tBox=timersOfBoxes.get(indexImg);
+		if(tBox==null) {
+			tBox=new Timer();
+			timersOfBoxes.put(indexImg, tBox);
+		}
+		return tBox;
+	}
+
 	public static boolean stackData(int indexImg,PipelineParamHandler pph) {
 		//Open the csv describing the experience
 		String [][] csvDataExpe=VitimageUtils.readStringTabFromCsv( new File(pph.inventoryDir,"A_main_inventory.csv").getAbsolutePath() );
@@ -383,7 +418,10 @@ public class PipelineActionsHandler {
 		imgIn=VitimageUtils.addSliceToImage(mire, imgIn);
 		int threshRupt=25;
 		int threshSlope=10;
-		ImagePlus imgOut=projectTimeLapseSequenceInColorspaceCombined(imgIn, imgMask1,imgMaskN,imgMaskOfLeaves,threshRupt,threshSlope);
+		validateRuptureKernel=(pph.validateRuptureKernel==1);
+		useTemporalCube=(pph.useTemporalCube==1);
+		int nThreads=nbThreadsOfStep(pph.nbThreadsStep4);
+		ImagePlus imgOut=projectTimeLapseSequenceInColorspaceCombined(imgIn, imgMask1,imgMaskN,imgMaskOfLeaves,threshRupt,threshSlope,nThreads);
 		imgOut=VitimageUtils.makeOperationBetweenTwoImages(imgOut, imgMaskN, 2, true);
 		ImagePlus img2=VitimageUtils.thresholdImage(imgOut, 0.5, 100000);
 		img2=VitimageUtils.connexeNoFuckWithVolume(img2, 1, 10000, 2000, 1E10, 4, 0, true);
@@ -399,15 +437,26 @@ public class PipelineActionsHandler {
 
 	public static boolean buildAndProcessGraph(int indexImg, String inputDataDir,String outputDataDir,PipelineParamHandler pph) {
 		ImagePlus imgDates=IJ.openImage( new File(inputDataDir,"40_date_map.tif").getAbsolutePath());
+		RegionAdjacencyGraphPipeline.warmStartReconnectionAssignment=(pph.warmStartReconnectionAssignment==1);
+		RegionAdjacencyGraphPipeline.useSparseReconnectionAssignment=(pph.useSparseReconnectionAssignment==1);
+		RegionAdjacencyGraphPipeline.benchmarkReconnectionAssignment=(pph.benchmarkReconnectionAssignment==1);
+		RegionAdjacencyGraphPipeline.gateReconnectionCandidates=(pph.gateReconnectionCandidates==1);
+		RegionAdjacencyGraphPipeline.useExactLineTraversal=(pph.useExactLineTraversal==1);
+		RegionAdjacencyGraphPipeline.nbThreadsForCCConstruction=nbThreadsOfStep(pph.nbThreadsStep5);
+		RegionAdjacencyGraphPipeline.nbThreadsForReconnectionScoring=nbThreadsOfStep(pph.nbThreadsStep5Scoring);
+		MorphoUtils.useGridGeodesicInsideComponent=(pph.useGridGeodesicInsideComponent==1);
 		RegionAdjacencyGraphPipeline.buildAndProcessGraphStraight(imgDates,outputDataDir,pph,indexImg);
 		return true;
 	}
 
 	public static boolean computeRSMLUntilExpertize(int indexImg, String inputDataDir,String outputDataDir,PipelineParamHandler pph) {
+		RegionAdjacencyGraphPipeline.nbThreadsForPlongement=nbThreadsOfStep(pph.nbThreadsStep6);
+		MorphoUtils.useGridGeodesicInsideComponent=(pph.useGridGeodesicInsideComponent==1);
+		CC.useGridFarthestPoint=(pph.useGridFarthestPoint==1);
 		ImagePlus mask=IJ.openImage(new File(inputDataDir,"31_mask_at_t1.tif").getAbsolutePath());
 		mask=MorphoUtils.dilationCircle2D(mask, 9);
 		ImagePlus dates=IJ.openImage(new File(inputDataDir,"40_date_map.tif").getAbsolutePath());
-		SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph=RegionAdjacencyGraphPipeline.readGraphFromFile(new File(outputDataDir,"50_graph.ser").getAbsolutePath());
+		SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph=RegionAdjacencyGraphPipeline.readGraphFromDir(outputDataDir,"50_graph");
 		ImagePlus distOut=MorphoUtils.getDistOut(dates,false);
 		ImagePlus reg=IJ.openImage(new File(inputDataDir,"22_registered_stack.tif").getAbsolutePath());
 
@@ -428,7 +477,7 @@ public class PipelineActionsHandler {
 		
 	public static boolean computeRSMLAfterExpertize(int indexImg, String inputDataDir,String outputDataDir,PipelineParamHandler pph) {
 		ImagePlus dates=IJ.openImage(new File(inputDataDir,"40_date_map.tif").getAbsolutePath());
-		SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph=RegionAdjacencyGraphPipeline.readGraphFromFile(new File(outputDataDir,"50_graph.ser").getAbsolutePath());
+		SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph=RegionAdjacencyGraphPipeline.readGraphFromDir(outputDataDir,"50_graph");
 		ImagePlus reg=IJ.openImage(new File(inputDataDir,"22_registered_stack.tif").getAbsolutePath());
 
 		RootModel rm=null;
@@ -751,11 +800,28 @@ public class PipelineActionsHandler {
 	
 	//////////////////// HELPERS OF SPACETIMEMEANSHIFTSEGMENTATION ////////////////////////
 	public static ImagePlus projectTimeLapseSequenceInColorspaceCombined(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,ImagePlus maskOfLeaves,int thresholdRupture,int thresholdSlope) {
+		return projectTimeLapseSequenceInColorspaceCombined(imgSeq, interestMask1, interestMaskN, maskOfLeaves, thresholdRupture, thresholdSlope,1);
+	}
+
+	public static ImagePlus projectTimeLapseSequenceInColorspaceCombined(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,ImagePlus maskOfLeaves,int thresholdRupture,int thresholdSlope,int nThreads) {
 		//imgSeq.show();
 		IJ.run(imgSeq, "Gaussian Blur...", "sigma=0.8");
 		//IJ.run(imgSeq, "Mean...", "radius=1 stack");
-		ImagePlus result1=projectTimeLapseSequenceInColorspaceMaxRuptureDown(imgSeq,interestMask1,interestMaskN,maskOfLeaves,thresholdRupture);
-		ImagePlus result2=projectTimeLapseSequenceInColorspaceMaxSlope(imgSeq,interestMask1,interestMaskN,thresholdSlope);
+		ImagePlus result1,result2;
+		if(useTemporalCube) {
+			ImagePlus[]results=projectTimeLapseSequenceOnTemporalCubes(imgSeq,interestMask1,interestMaskN,maskOfLeaves,thresholdRupture,thresholdSlope,nThreads);
+			result1=results[0];
+			result2=results[1];
+			if(validateRuptureKernel) {
+				ImagePlus ref1=projectTimeLapseSequenceInColorspaceMaxRuptureDown(imgSeq,interestMask1,interestMaskN,maskOfLeaves,thresholdRupture,nThreads);
+				ImagePlus ref2=projectTimeLapseSequenceInColorspaceMaxSlope(imgSeq,interestMask1,interestMaskN,thresholdSlope,nThreads);
+				IJ.log("Validation of temporal cube kernels : "+nbDifferentPixels(result1,ref1)+" mismatches for rupture, "+nbDifferentPixels(result2,ref2)+" mismatches for slope");
+			}
+		}
+		else {
+			result1=projectTimeLapseSequenceInColorspaceMaxRuptureDown(imgSeq,interestMask1,interestMaskN,maskOfLeaves,thresholdRupture,nThreads);
+			result2=projectTimeLapseSequenceInColorspaceMaxSlope(imgSeq,interestMask1,interestMaskN,thresholdSlope,nThreads);
+		}
 		//result1.show();
 		//result1.setTitle("result1Rupt");
 		//result2.show();
@@ -767,11 +833,105 @@ public class PipelineActionsHandler {
 		return result2;
 	}
 
-	public static ImagePlus projectTimeLapseSequenceInColorspaceMaxSlope(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,int threshold) {
+	/** Rupture and slope projections computed in a single pass over time-contiguous tiles of the sequence (see TemporalCube).
+	 * Same arithmetic as projectTimeLapseSequenceInColorspaceMaxRuptureDown and projectTimeLapseSequenceInColorspaceMaxSlope. Return {rupture, slope}*/
+	public static ImagePlus[] projectTimeLapseSequenceOnTemporalCubes(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,ImagePlus maskOutLeaves,int thresholdRupture,int thresholdSlope,int nThreads) {
 		int N=imgSeq.getStackSize();
+		int X=imgSeq.getWidth();
+		int Y=imgSeq.getHeight();
+		IJ.run(maskOutLeaves,"32-bit","");
+		ImageProcessor ipMask1=interestMask1.getStack().getProcessor(1);
+		ImageProcessor ipMaskN=interestMaskN.getStack().getProcessor(1);
+		ImageProcessor[]ipLeaves=new ImageProcessor[N];
+		for(int i=0;i<N;i++)ipLeaves[i]=maskOutLeaves.getStack().getProcessor(((i<2) ? 0 : i-1)+1);
+		ImagePlus resRupt=IJ.createImage("", X, Y, 1, 32);
+		ImagePlus resSlope=IJ.createImage("", X, Y, 1, 32);
+		float[]valsRupt=(float[])resRupt.getStack().getProcessor(1).getPixels();
+		float[]valsSlope=(float[])resSlope.getStack().getProcessor(1).getPixels();
+		ParallelRows.run(Y,ParallelRows.defaultNbTiles(Y,nThreads),nThreads,(yStart,yStop) -> {
+			TemporalCube cube=TemporalCube.fromStack(imgSeq,0,yStart,X,yStop-yStart);
+			float[]data=cube.data;
+			double[]valsToDetect=new double[N];
+			double[]prefix=new double[N+1];
+			float[]slopes=new float[N];
+			for(int y=yStart;y<yStop;y++) {
+				for(int x=0;x<X;x++) {
+					int off=cube.offset(x,y-yStart);
+					float m1=ipMask1.getf(x,y);
+					float mN=ipMaskN.getf(x,y);
+					int last=0;
+					for(int i=0;i<N;i++) {
+						valsToDetect[i]=data[off+i]*(i<2 ? m1 : mN);
+						if(ipLeaves[i].getf(x,y)<1)last=i;
+					}
+					valsRupt[y*X+x]=ruptureDetectionDownLinear(valsToDetect,last+1, thresholdRupture,prefix);
+					slopes[0]=0;
+					for(int i=0;i<N-1;i++)slopes[i+1]=(data[off+i]-data[off+i+1])*(i==0 ? m1 : mN);
+					valsSlope[y*X+x]=indMaxOfSeries(slopes,N,thresholdSlope);
+				}
+			}
+		});
+		return new ImagePlus[] {resRupt,resSlope};
+	}
+
+	/** Index of the max value of the series, as VitimageUtils.indMaxOfImageArrayDouble does for each pixel : 0 if the max is under threshold*/
+	static int indMaxOfSeries(float[]vals,int N,int threshold) {
+		int indMax=0;
+		float valMax=0;
+		for(int i=0;i<N;i++) {
+			if(vals[i]>valMax) {
+				valMax=vals[i];
+				indMax=i;
+			}
+		}
+		return (valMax<threshold) ? 0 : indMax;
+	}
+
+	static int nbDifferentPixels(ImagePlus img1,ImagePlus img2) {
+		ImageProcessor ip1=img1.getStack().getProcessor(1);
+		ImageProcessor ip2=img2.getStack().getProcessor(1);
+		int nb=0;
+		for(int y=0;y<img1.getHeight();y++)for(int x=0;x<img1.getWidth();x++)if(ip1.getf(x,y)!=ip2.getf(x,y))nb++;
+		return nb;
+	}
+
+	public static ImagePlus projectTimeLapseSequenceInColorspaceMaxSlope(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,int threshold) {
 		ImagePlus[]imgTab=VitimageUtils.stackToSlices(imgSeq);
+		return indMaxSlopeOfImageArray(imgTab,interestMask1,interestMaskN,threshold);
+	}
+
+	/** Same as above, the image being processed by strips of rows using nThreads threads. Each thread reads its rows directly in the slices of the sequence,
+	 * with the pixelwise operations of indMaxSlopeOfImageArray, thus no copy of the sequence is made*/
+	public static ImagePlus projectTimeLapseSequenceInColorspaceMaxSlope(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,int threshold,int nThreads) {
+		if(nThreads<=1)return projectTimeLapseSequenceInColorspaceMaxSlope(imgSeq, interestMask1, interestMaskN, threshold);
+		int N=imgSeq.getStackSize();
+		int X=imgSeq.getWidth();
+		int Y=imgSeq.getHeight();
+		ImageProcessor[]ips=new ImageProcessor[N];
+		for(int i=0;i<N;i++)ips[i]=imgSeq.getStack().getProcessor(i+1);
+		ImageProcessor ipMask1=interestMask1.getStack().getProcessor(1);
+		ImageProcessor ipMaskN=interestMaskN.getStack().getProcessor(1);
+		ImagePlus res=IJ.createImage("", X, Y, 1, 32);
+		res.setCalibration(imgSeq.getCalibration());
+		float[]valsSlope=(float[])res.getStack().getProcessor(1).getPixels();
+		ParallelRows.run(Y,ParallelRows.defaultNbTiles(Y,nThreads),nThreads,(yStart,yStop) -> {
+			float[]slopes=new float[N];
+			for(int y=yStart;y<yStop;y++) {
+				for(int x=0;x<X;x++) {
+					float m1=ipMask1.getf(x,y);
+					float mN=ipMaskN.getf(x,y);
+					slopes[0]=0;
+					for(int i=0;i<N-1;i++)slopes[i+1]=(ips[i].getf(x,y)-ips[i+1].getf(x,y))*(i==0 ? m1 : mN);
+					valsSlope[y*X+x]=indMaxOfSeries(slopes,N,threshold);
+				}
+			}
+		});
+		return res;
+	}
+
+	static ImagePlus indMaxSlopeOfImageArray(ImagePlus[]imgTab,ImagePlus interestMask1,ImagePlus interestMaskN,int threshold) {
+		int N=imgTab.length;
 		ImagePlus[]imgs=new ImagePlus[N];
-		
 		for(int i=0;i<N-1;i++) {
 			imgs[i+1]=VitimageUtils.makeOperationBetweenTwoImages(imgTab[i], imgTab[i+1], 4, true);
 			imgs[i+1]=VitimageUtils.makeOperationBetweenTwoImages(imgs[i+1],i==0 ? interestMask1:interestMaskN, 2, true);
@@ -782,61 +942,75 @@ public class PipelineActionsHandler {
 	}
 
 	public static ImagePlus projectTimeLapseSequenceInColorspaceMaxRuptureDown(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,ImagePlus maskOutLeaves,int threshold) {
+		return projectTimeLapseSequenceInColorspaceMaxRuptureDown(imgSeq, interestMask1, interestMaskN, maskOutLeaves, threshold,1);
+	}
+
+	public static ImagePlus projectTimeLapseSequenceInColorspaceMaxRuptureDown(ImagePlus imgSeq,ImagePlus interestMask1,ImagePlus interestMaskN,ImagePlus maskOutLeaves,int threshold,int nThreads) {
 		ImagePlus[]tab=VitimageUtils.stackToSlices(imgSeq);
 		IJ.run(maskOutLeaves,"32-bit","");
 		ImagePlus[]tabLeavesOut=VitimageUtils.stackToSlices(maskOutLeaves);
 		for(int i=0;i<tab.length;i++) {
 			tab[i]=VitimageUtils.makeOperationBetweenTwoImages(tab[i],i<2 ? interestMask1 : interestMaskN, 2, true);
 		}
-		ImagePlus res=indRuptureDownOfImageArrayDouble(tab,tabLeavesOut,threshold);
+		ImagePlus res=indRuptureDownOfImageArrayDouble(tab,tabLeavesOut,threshold,nThreads);
 		return res;
 	}
 
 	public static ImagePlus indRuptureDownOfImageArrayDouble(ImagePlus []imgs,ImagePlus []maskLeavesOut,int minThreshold) {
+		return indRuptureDownOfImageArrayDouble(imgs,maskLeavesOut,minThreshold,1);
+	}
+
+	/** Rupture detection along the time series of each pixel, processed by strips of rows using nThreads threads*/
+	public static ImagePlus indRuptureDownOfImageArrayDouble(ImagePlus []imgs,ImagePlus []maskLeavesOut,int minThreshold,int nThreads) {
 		int xM=imgs[0].getWidth();
 		int yM=imgs[0].getHeight();
 		int zM=imgs[0].getStackSize();
+		int N=imgs.length;
 		ImagePlus retInd=VitimageUtils.nullImage(imgs[0].duplicate());
-		float[]valsInd;
-		float[][]valsImg=new float[imgs.length][];
-		float[][]valsMask=new float[imgs.length][];
-		double[]valsToDetect;
-		double[]valsToMask;
+		AtomicInteger nbMismatches=new AtomicInteger(0);
 		for(int z=0;z<zM;z++) {
-			valsInd=(float [])retInd.getStack().getProcessor(z+1).getPixels();
-			for(int i=0;i<imgs.length;i++) {
+			final int zz=z;
+			float[]valsInd=(float [])retInd.getStack().getProcessor(z+1).getPixels();
+			float[][]valsImg=new float[N][];
+			float[][]valsMask=new float[N][];
+			for(int i=0;i<N;i++) {
 				valsImg[i]=(float [])imgs[i].getStack().getProcessor(z+1).getPixels();
 				valsMask[i]=(float [])maskLeavesOut[((i<2) ? 0 : i-1)].getStack().getProcessor(z+1).getPixels();
 			}
-			for(int x=0;x<xM;x++) {
-				for(int y=0;y<yM;y++) {
-					int last=0;
-					valsToDetect=new double[imgs.length];
-					valsToMask=new double[imgs.length];
-					for(int i=0;i<imgs.length;i++) {
-						valsToDetect[i]=valsImg[i][xM*y+x];
-						valsToMask[i]=valsMask[i][xM*y+x];
-						if(valsToMask[i]<1)last=i;
-					}
-					boolean blabla=false;
-					if(x==377 && y==133)blabla=true;
-					double[]newTab=new double[last+1];
-					for(int i=0;i<=last;i++) {
-						newTab[i]=valsToDetect[i];
+			ParallelRows.run(yM,ParallelRows.defaultNbTiles(yM,nThreads),nThreads,(yStart,yStop) -> {
+				//Buffers reused along the whole strip
+				double[]valsToDetect=new double[N];
+				double[]prefix=new double[N+1];
+				for(int y=yStart;y<yStop;y++) {
+					for(int x=0;x<xM;x++) {
+						int index=xM*y+x;
+						int last=0;
+						for(int i=0;i<N;i++) {
+							valsToDetect[i]=valsImg[i][index];
+							if(valsMask[i][index]<1)last=i;
+						}
+						int rupt=ruptureDetectionDownLinear(valsToDetect,last+1, minThreshold,prefix);
+						if(validateRuptureKernel && rupt!=ruptureDetectionDownQuadratic(valsToDetect,last+1, minThreshold)) {
+							if(nbMismatches.incrementAndGet()<=10)IJ.log("Rupture kernels mismatch at x="+x+" y="+y+" z="+zz);
+						}
+						valsInd[index]=rupt; 
 					}
-					int rupt=ruptureDetectionDown(newTab, minThreshold,blabla);
-					valsInd[xM*y+x]=rupt; 
-				}			
-			}
+				}
+			});
 		}
+		if(validateRuptureKernel)IJ.log("Validation of rupture kernel : "+nbMismatches.get()+" mismatches over "+(xM*yM*zM)+" pixels");
 		return retInd;
 	}
 
 	//Return the index which is the first point of the second distribution
 	public static int ruptureDetectionDown(double[]vals,double threshold,boolean blabla) {
+		return ruptureDetectionDownQuadratic(vals,vals.length,threshold);
+	}
+
+	//Reference implementation, in O(N^2), looking at the N first values of vals
+	public static int ruptureDetectionDownQuadratic(double[]vals,int N,double threshold) {
 		int indMax=0;
 		double diffMax=-10000000;
-		int N=vals.length;
 		for(int i=1;i<N;i++) {
 			double m1=meanBetweenIncludedIndices(vals, 0, i-1);
 			double m2=meanBetweenIncludedIndices(vals, i, N-1);
@@ -845,12 +1019,53 @@ public class PipelineActionsHandler {
 				indMax=i;
 				diffMax=diff;
 			}
-			if(blabla) {
-//				System.out.println("Apres i="+i+" : indMax="+indMax+" diffMax="+diffMax+" et on avait m1="+m1+" et m2="+m2);
+		}		
+		return (diffMax>threshold ? indMax : 0);
+	}
+
+	/** Same result as ruptureDetectionDown, bit for bit, in O(N) using prefix sums, looking at the N first values of vals.
+	 * prefix is a buffer of size at least N+1. The left mean is accumulated in the same order than meanBetweenIncludedIndices.
+	 * The right sum is computed as a difference of prefix sums, which is exact only if no rounding ever happens when summing :
+	 * this is checked from the magnitude of the values and their finest binary digit, else we fall back on the reference implementation*/
+	public static int ruptureDetectionDownLinear(double[]vals,int N,double threshold,double[]prefix) {
+		double sumAbs=0;
+		double finestDigit=Double.MAX_VALUE;
+		prefix[0]=0;
+		for(int i=0;i<N;i++) {
+			double v=vals[i];
+			prefix[i+1]=prefix[i]+v;
+			if(v!=0) {
+				double a=Math.abs(v);
+				sumAbs+=a;
+				double digit=finestBinaryDigit(a);
+				if(digit<finestDigit)finestDigit=digit;
+			}
+		}
+		if(!(sumAbs<=finestDigit*TWO_POW_52))return ruptureDetectionDownQuadratic(vals,N,threshold);
+
+		int indMax=0;
+		double diffMax=-10000000;
+		double total=prefix[N];
+		for(int i=1;i<N;i++) {
+			double m1=prefix[i]/i;
+			double m2=(total-prefix[i])/(N-i);
+			double diff=m1-m2;
+			if(diff>diffMax) {
+				indMax=i;
+				diffMax=diff;
 			}
 		}		
 		return (diffMax>threshold ? indMax : 0);
 	}
+
+	//Weight of the lowest bit set in the mantissa of a (a>0). Every sum of such values is a multiple of it. 0 for non normal numbers, thus triggering the fallback
+	static double finestBinaryDigit(double a) {
+		long bits=Double.doubleToRawLongBits(a);
+		int exp=(int)((bits>>52)&0x7ff);
+		if(exp==0 || exp==0x7ff)return 0;
+		long mantissa=(bits&0xFFFFFFFFFFFFFL)|(1L<<52);
+		return Math.scalb(1.0,exp-1075+Long.numberOfTrailingZeros(mantissa));
+	}
 	
 	public static double meanBetweenIncludedIndices(double[]tab,int ind1,int ind2) {
 		double tot=0;
@@ -8,6 +8,7 @@ import java.util.Objects;
 
 import io.github.rocsg.fijiyama.common.VitiDialogs;
 import io.github.rocsg.fijiyama.common.VitimageUtils;
+import io.github.rocsg.topologicaltracking.DebugProbes;
 import ij.IJ;
 
 public class PipelineParamHandler {
@@ -37,6 +38,26 @@ public class PipelineParamHandler {
 	double minDistanceBetweenLateralInitiation=4;
 	double minLateralStuckedToOtherLateral=30;
 	public int memorySaving=0;//if 1, don't save very big debug images;
+	public int nbConcurrentBoxes=1;//Number of boxes processed at the same time when running several boxes at once
+	public int nbThreadsStep4=0;//Number of threads for the spatio-temporal projection of step 4. 0 means all the cores
+	public int useTemporalCube=0;//if 1, step 4 and movie building run their kernels on time-contiguous copies of the stacks
+	public String debugProbes="";//Debug probes on CCs of the graph, as "name=day:x:y;name=x:y", see DebugProbes
+	public int validateRuptureKernel=0;//if 1, step 4 checks its fast kernels against the reference ones, and logs the mismatches
+	public int writeGraphStepFiles=0;//if 1, step 6 also writes the intermediate graphs to 50_graph_step_*.ser (renderings are drawn from in-memory snapshots)
+	public int writeLegacyGraphSer=0;//if 1, the graph is also written as 50_graph.ser (Java serialization) next to 50_graph.rstg, for the tools that still read it
+	public int warmStartReconnectionAssignment=0;//if 1, each step of the reconnection of step 5 starts the assignment from the previous solution
+	public int useSparseReconnectionAssignment=0;//if 1, the reconnection of step 5 keeps only the pairs cheaper than the penalty and solves a sparse assignment (other objective, see RegionAdjacencyGraphPipeline)
+	public int gateReconnectionCandidates=0;//if 1, the reconnection of step 5 does not score the pairs too far apart to be linked
+	public int useExactLineTraversal=0;//if 1, the scoring of hidden edges at step 5 reads segments pixel per pixel instead of by samples (costs change slightly)
+	public int nbThreadsStep6=1;//Number of threads for the plongement of the roots of step 6. 0 means all the cores
+	public int useGridGeodesicInsideComponent=0;//if 1, the distances inside the CCs (steps 5 and 6) are computed on the pixel grid instead of with MorphoLibJ
+	public int streamMovieFrames=0;//if 1, step 8 encodes and appends each frame of the movie before building the next one, instead of assembling the whole movie in memory
+	public int useSlidingFgBgMask=0;//if 1, step 8 blurs the foreground/background mask frame by frame instead of with a 3D Gaussian blur of the whole stack
+	public int useGridFarthestPoint=0;//if 1, the farthest point of a CC (step 6) is searched on its pixel grid instead of with MorphoLibJ
+	public int nbThreadsStep5=1;//Number of threads building the CCs of step 5. 0 means all the cores
+	public int benchmarkReconnectionAssignment=0;//if 1, the first step of the reconnection (step 5) runs both assignment solvers and logs their times and costs
+	public int nbThreadsStep5Scoring=0;//Number of threads scoring the possible hidden edges of step 5. 0 means all the cores
+	public int nbThreadsStep8=0;//Number of threads mixing the frames of the movie of step 8. 0 means all the cores
 	static int xMinCrop=122;
 	static int yMinCrop=212;
 	static int dxCrop=1348;
@@ -163,6 +184,27 @@ public class PipelineParamHandler {
 		subsamplingFactor=getInt("subsamplingFactor");
 		nbData=getInt("nbData");
 		typicalHourDelay=getDouble("typicalHourDelay");
+		nbConcurrentBoxes=getInt("nbConcurrentBoxes",nbConcurrentBoxes);
+		nbThreadsStep4=getInt("nbThreadsStep4",nbThreadsStep4);
+		useTemporalCube=getInt("useTemporalCube",useTemporalCube);
+		validateRuptureKernel=getInt("validateRuptureKernel",validateRuptureKernel);
+		writeGraphStepFiles=getInt("writeGraphStepFiles",writeGraphStepFiles);
+		writeLegacyGraphSer=getInt("writeLegacyGraphSer",writeLegacyGraphSer);
+		warmStartReconnectionAssignment=getInt("warmStartReconnectionAssignment",warmStartReconnectionAssignment);
+		useSparseReconnectionAssignment=getInt("useSparseReconnectionAssignment",useSparseReconnectionAssignment);
+		gateReconnectionCandidates=getInt("gateReconnectionCandidates",gateReconnectionCandidates);
+		useExactLineTraversal=getInt("useExactLineTraversal",useExactLineTraversal);
+		nbThreadsStep6=getInt("nbThreadsStep6",nbThreadsStep6);
+		useGridGeodesicInsideComponent=getInt("useGridGeodesicInsideComponent",useGridGeodesicInsideComponent);
+		streamMovieFrames=getInt("streamMovieFrames",streamMovieFrames);
+		useSlidingFgBgMask=getInt("useSlidingFgBgMask",useSlidingFgBgMask);
+		useGridFarthestPoint=getInt("useGridFarthestPoint",useGridFarthestPoint);
+		nbThreadsStep5=getInt("nbThreadsStep5",nbThreadsStep5);
+		benchmarkReconnectionAssignment=getInt("benchmarkReconnectionAssignment",benchmarkReconnectionAssignment);
+		nbThreadsStep5Scoring=getInt("nbThreadsStep5Scoring",nbThreadsStep5Scoring);
+		nbThreadsStep8=getInt("nbThreadsStep8",nbThreadsStep8);
+		debugProbes=getString("debugProbes");
+		DebugProbes.configure(debugProbes);
 
 		imgNames=new String[nbData];
 		imgSteps=new int[nbData];
@@ -232,6 +274,27 @@ public class PipelineParamHandler {
 		subsamplingFactor=getInt("subsamplingFactor");
 		nbData=getInt("nbData");
 		typicalHourDelay=getDouble("typicalHourDelay");
+		nbConcurrentBoxes=getInt("nbConcurrentBoxes",nbConcurrentBoxes);
+		nbThreadsStep4=getInt("nbThreadsStep4",nbThreadsStep4);
+		useTemporalCube=getInt("useTemporalCube",useTemporalCube);
+		validateRuptureKernel=getInt("validateRuptureKernel",validateRuptureKernel);
+		writeGraphStepFiles=getInt("writeGraphStepFiles",writeGraphStepFiles);
+		writeLegacyGraphSer=getInt("writeLegacyGraphSer",writeLegacyGraphSer);
+		warmStartReconnectionAssignment=getInt("warmStartReconnectionAssignment",warmStartReconnectionAssignment);
+		useSparseReconnectionAssignment=getInt("useSparseReconnectionAssignment",useSparseReconnectionAssignment);
+		gateReconnectionCandidates=getInt("gateReconnectionCandidates",gateReconnectionCandidates);
+		useExactLineTraversal=getInt("useExactLineTraversal",useExactLineTraversal);
+		nbThreadsStep6=getInt("nbThreadsStep6",nbThreadsStep6);
+		useGridGeodesicInsideComponent=getInt("useGridGeodesicInsideComponent",useGridGeodesicInsideComponent);
+		streamMovieFrames=getInt("streamMovieFrames",streamMovieFrames);
+		useSlidingFgBgMask=getInt("useSlidingFgBgMask",useSlidingFgBgMask);
+		useGridFarthestPoint=getInt("useGridFarthestPoint",useGridFarthestPoint);
+		nbThreadsStep5=getInt("nbThreadsStep5",nbThreadsStep5);
+		benchmarkReconnectionAssignment=getInt("benchmarkReconnectionAssignment",benchmarkReconnectionAssignment);
+		nbThreadsStep5Scoring=getInt("nbThreadsStep5Scoring",nbThreadsStep5Scoring);
+		nbThreadsStep8=getInt("nbThreadsStep8",nbThreadsStep8);
+		debugProbes=getString("debugProbes");
+		DebugProbes.configure(debugProbes);
 
 		imgNames=new String[nbData];
 		imgSteps=new int[nbData];
@@ -326,7 +389,7 @@ public class PipelineParamHandler {
 	}
 	
 	public void addAllParametersToTab() {
-		params=new String[40+2*nbData][3];
+		params=new String[60+2*nbData][3];
 		nParams=0;
 		addParam("## Parameters for RootSystemTracker experiment ##","","");
 		addParam("inventoryDir",inventoryDir,"");
@@ -358,9 +421,29 @@ public class PipelineParamHandler {
 		addParam("typicalHourDelay",typicalHourDelay,"");
 		addParam("typeExp",typeExp,"-");
 		addParam("movieTimeStep",movieTimeStep,"-");
+		addParam("nbConcurrentBoxes",nbConcurrentBoxes,"Number of boxes processed at the same time");
+		addParam("nbThreadsStep4",nbThreadsStep4,"Threads used by step 4. 0 means all the cores");
+		addParam("useTemporalCube",useTemporalCube,"1 to run step 4 and movie kernels on time-contiguous tiles");
+		addParam("validateRuptureKernel",validateRuptureKernel,"1 to check the fast kernels of step 4 against the reference ones");
+		addParam("writeGraphStepFiles",writeGraphStepFiles,"1 to write the intermediate graphs of step 6 to disk");
+		addParam("writeLegacyGraphSer",writeLegacyGraphSer,"1 to also write the graph as 50_graph.ser");
+		addParam("warmStartReconnectionAssignment",warmStartReconnectionAssignment,"1 to warm start the assignments of the reconnection of step 5");
+		addParam("useSparseReconnectionAssignment",useSparseReconnectionAssignment,"1 to solve the reconnection of step 5 over the pairs cheaper than the penalty only");
+		addParam("gateReconnectionCandidates",gateReconnectionCandidates,"1 to skip the scoring of the pairs too far apart in the reconnection of step 5");
+		addParam("useExactLineTraversal",useExactLineTraversal,"1 to read the segments of hidden edges pixel per pixel at step 5");
+		addParam("nbThreadsStep6",nbThreadsStep6,"Threads used by the plongement of step 6. 0 means all the cores");
+		addParam("useGridGeodesicInsideComponent",useGridGeodesicInsideComponent,"1 to compute the distances inside the CCs on the pixel grid at steps 5 and 6");
+		addParam("streamMovieFrames",streamMovieFrames,"1 to write the movie of step 8 frame by frame");
+		addParam("useSlidingFgBgMask",useSlidingFgBgMask,"1 to blur the mask of step 8 frame by frame");
+		addParam("useGridFarthestPoint",useGridFarthestPoint,"1 to search the farthest point of the CCs on their pixel grid at step 6");
+		addParam("nbThreadsStep5",nbThreadsStep5,"Threads building the CCs of step 5. 0 means all the cores");
+		addParam("benchmarkReconnectionAssignment",benchmarkReconnectionAssignment,"1 to log the times and costs of both assignment solvers at the first step of the reconnection");
+		addParam("nbThreadsStep5Scoring",nbThreadsStep5Scoring,"Threads scoring the hidden edges of step 5. 0 means all the cores");
+		addParam("nbThreadsStep8",nbThreadsStep8,"Threads mixing the frames of the movie of step 8. 0 means all the cores");
+		addParam("debugProbes",debugProbes,"Debug probes on CCs : name=day:x:y;name=x:y");
 	}
 	
-	public void writeParameters(boolean firstWrite) {
+	public synchronized void writeParameters(boolean firstWrite) {
 
 		addAllParametersToTab();
 		
@@ -410,6 +493,13 @@ public class PipelineParamHandler {
 		return NO_PARAM_INT;
 	}
 	
+	/** Same as getInt, but silently return the default value when the parameter is absent (older parameter files)*/
+	public int getInt(String tit,int defaultValue) {
+		String val=getString(tit);
+		if(val.equals(""))return defaultValue;
+		return Integer.parseInt(val);
+	}
+
 	public void addParam(String tit,String val,String info){
 		params[nParams++]=new String[] {tit,val,info};
 	}
@@ -0,0 +1,217 @@
+package io.github.rocsg.rstutils;
+
+import java.util.Arrays;
+
+/**
+ * Shortest paths over the pixels of a mask, with 4 or 8 connexity, computed directly on the grid (no graph of pixel objects).
+ * Pixels are addressed by their index y*width+x. Dijkstra runs with a primitive binary heap, and the buffers are kept between queries :
+ * an epoch stamp marks the pixels reached by the current query, thus nothing is cleared between two queries on the same instance.
+ * An instance is not thread-safe, use one per thread (see local()).
+ */
+public class GridShortestPath {
+	//Neighbours, in the order used for the relaxations
+	public static final int[]DX=new int[] {-1,-1,-1, 0, 1, 1, 1, 0};
+	public static final int[]DY=new int[] {-1, 0, 1,-1, 1,-1, 0, 1};
+	private static final ThreadLocal<GridShortestPath>locals=new ThreadLocal<GridShortestPath>();
+
+	public interface EdgeCost{
+		/** Cost of the move from pixel a to its k-th neighbour b (see DX, DY)*/
+		public double cost(int a,int b,int k);
+	}
+
+	/** Chamfer costs (weights 1 and sqrt(2) scaled by straight and diagonal)*/
+	public static EdgeCost chamfer(final double straight,final double diagonal) {
+		return (a,b,k) -> (DX[k]!=0 && DY[k]!=0) ? diagonal : straight;
+	}
+
+	/** Cost of a move = length of the move times the mean of the costs of the two pixels*/
+	public static EdgeCost costMap(final float[]costs) {
+		final double sq2=Math.sqrt(2);
+		return (a,b,k) -> ((DX[k]!=0 && DY[k]!=0) ? sq2 : 1) * 0.5 * (costs[a]+costs[b]);
+	}
+
+	int width,height,connexity;
+	boolean[]mask;
+	EdgeCost edgeCost;
+	double[]dist=new double[0];
+	int[]pred=new int[0];
+	int[]stamp=new int[0];
+	int[]heapPos=new int[0];//Position in the heap, -1 if settled
+	int[]heap=new int[16];
+	int heapSize=0;
+	int epoch=0;
+
+	/** Instance of the calling thread, reused between calls*/
+	public static GridShortestPath local() {
+		GridShortestPath g=locals.get();
+		if(g==null) {g=new GridShortestPath();locals.set(g);}
+		return g;
+	}
+
+	/** Set the grid for the next queries. mask[y*width+x] tells if the pixel can be crossed*/
+	public GridShortestPath setGrid(int width,int height,boolean[]mask,int connexity,EdgeCost edgeCost) {
+		this.width=width;this.height=height;this.mask=mask;this.connexity=connexity;this.edgeCost=edgeCost;
+		int n=width*height;
+		if(dist.length<n) {
+			dist=new double[n];pred=new int[n];stamp=new int[n];heapPos=new int[n];
+			epoch=0;
+		}
+		return this;
+	}
+
+	/** Distances from source to every pixel of the mask. Unreached pixels and pixels out of the mask get Double.POSITIVE_INFINITY*/
+	public double[]singleSource(int source){
+		run(source,-1);
+		double[]ret=new double[width*height];
+		for(int i=0;i<ret.length;i++)ret[i]=distance(i);
+		return ret;
+	}
+
+	/** Pixels of the shortest path from source to target (both included), or null if target cannot be reached*/
+	public int[]path(int source,int target){
+		run(source,target);
+		if(!reached(target))return null;
+		int len=1;
+		for(int p=target;p!=source;p=pred[p])len++;
+		int[]ret=new int[len];
+		for(int p=target,i=len-1;i>=0;p=pred[p],i--)ret[i]=p;
+		return ret;
+	}
+
+	/** Distance from source to each pixel, after a call to singleSource, path or farthest*/
+	public double distance(int i) {
+		return reached(i) ? dist[i] : Double.POSITIVE_INFINITY;
+	}
+
+	/** Reachable pixel that is the farthest from source. Ties are given to the farthest in euclidian distance, then to the first in x-major order (x, then y)*/
+	public int farthest(int source) {
+		run(source,-1);
+		int xs=source%width;
+		int ys=source/width;
+		int best=source;
+		double distMax=-1;
+		double eucDistMax=-1;
+		for(int x=0;x<width;x++)for(int y=0;y<height;y++) {
+			int i=y*width+x;
+			if(!reached(i))continue;
+			double euc=Math.sqrt((x-xs)*(x-xs)+(y-ys)*(y-ys));
+			if(dist[i]>distMax || (dist[i]==distMax && euc>eucDistMax)) {
+				distMax=dist[i];
+				eucDistMax=euc;
+				best=i;
+			}
+		}
+		return best;
+	}
+
+	boolean reached(int i) {
+		return stamp[i]==epoch;
+	}
+
+	/** Distances from the nearest seed (pixels with seed[i] true and in the mask) to every pixel of the mask, written in out.
+	 * Unreached pixels and pixels out of the mask get the value unreached*/
+	public void multiSource(boolean[]seed,float[]out,float unreached) {
+		startQuery();
+		for(int i=0;i<width*height;i++)if(seed[i])addSource(i);
+		explore(-1);
+		for(int i=0;i<width*height;i++)out[i]=reached(i) ? (float)dist[i] : unreached;
+	}
+
+	/** Dijkstra from source, stopping when target is settled (target<0 : explore everything reachable)*/
+	void run(int source,int target) {
+		startQuery();
+		addSource(source);
+		explore(target);
+	}
+
+	void startQuery() {
+		if(++epoch==Integer.MAX_VALUE) {Arrays.fill(stamp, 0);epoch=1;}
+		heapSize=0;
+	}
+
+	void addSource(int source) {
+		if(source<0 || !mask[source])return;
+		stamp[source]=epoch;
+		dist[source]=0;
+		pred[source]=source;
+		push(source);
+	}
+
+	void explore(int target) {
+		while(heapSize>0) {
+			int a=pop();
+			if(a==target)return;
+			int xa=a%width;
+			int ya=a/width;
+			for(int k=0;k<8;k++) {
+				if(connexity!=8 && DX[k]!=0 && DY[k]!=0)continue;
+				int xb=xa+DX[k];
+				int yb=ya+DY[k];
+				if(xb<0 || yb<0 || xb>=width || yb>=height)continue;
+				int b=yb*width+xb;
+				if(!mask[b])continue;
+				if(stamp[b]==epoch && heapPos[b]<0)continue;//Already settled
+				double d=dist[a]+edgeCost.cost(a, b, k);
+				if(stamp[b]!=epoch) {
+					stamp[b]=epoch;
+					dist[b]=d;
+					pred[b]=a;
+					push(b);
+				}
+				else if(d<dist[b]) {
+					dist[b]=d;
+					pred[b]=a;
+					siftUp(heapPos[b]);
+				}
+			}
+		}
+	}
+
+	void push(int i) {
+		if(heapSize==heap.length)heap=Arrays.copyOf(heap, 2*heapSize);
+		heap[heapSize]=i;
+		heapPos[i]=heapSize;
+		heapSize++;
+		siftUp(heapSize-1);
+	}
+
+	int pop() {
+		int top=heap[0];
+		heapPos[top]=-1;
+		heapSize--;
+		if(heapSize>0) {
+			heap[0]=heap[heapSize];
+			heapPos[heap[0]]=0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	void siftUp(int pos) {
+		int i=heap[pos];
+		double d=dist[i];
+		while(pos>0) {
+			int parent=(pos-1)>>1;
+			int ip=heap[parent];
+			if(dist[ip]<=d)break;
+			heap[pos]=ip;heapPos[ip]=pos;
+			pos=parent;
+		}
+		heap[pos]=i;heapPos[i]=pos;
+	}
+
+	void siftDown(int pos) {
+		int i=heap[pos];
+		double d=dist[i];
+		while(true) {
+			int child=2*pos+1;
+			if(child>=heapSize)break;
+			if(child+1<heapSize && dist[heap[child+1]]<dist[heap[child]])child++;
+			int ic=heap[child];
+			if(dist[ic]>=d)break;
+			heap[pos]=ic;heapPos[ic]=pos;
+			pos=child;
+		}
+		heap[pos]=i;heapPos[i]=pos;
+	}
+}
@@ -77,6 +77,7 @@ public class HungarianAlgorithm {
   private final double[][] costMatrix;
   private final int rows, cols, dim;
   private final double[] labelByWorker, labelByJob;
+  private final double[] reductionByWorker, reductionByJob;
   private final int[] minSlackWorkerByJob;
   private final double[] minSlackValueByJob;
   private final int[] matchJobByWorker, matchWorkerByJob;
@@ -118,6 +119,8 @@ public class HungarianAlgorithm {
     }
     labelByWorker = new double[this.dim];
     labelByJob = new double[this.dim];
+    reductionByWorker = new double[this.dim];
+    reductionByJob = new double[this.dim];
     minSlackWorkerByJob = new int[this.dim];
     minSlackValueByJob = new double[this.dim];
     committedWorkers = new boolean[this.dim];
@@ -163,6 +166,71 @@ public class HungarianAlgorithm {
     computeInitialFeasibleSolution();
     greedyMatch();
 
+    return completeMatching();
+  }
+
+  /**
+   * Execute the algorithm, warm-started from the state of a previous run (see
+   * getWorkerLabels, getJobLabels and getMatching) on a cost matrix of same
+   * size that differs on some entries only. The labels are made feasible
+   * again for the new costs, the previous matches that stay tight are kept,
+   * and only the other workers go through a phase. The cost of the result is
+   * the minimum, but among several optimal matchings, the one returned can
+   * differ from the one of execute().
+   */
+  public int[] executeFrom(double[] workerLabels, double[] jobLabels,
+      int[] previousMatching) {
+    for (int j = 0; j < dim; j++) {
+      labelByJob[j] = jobLabels[j];
+    }
+    for (int w = 0; w < dim; w++) {
+      int j = previousMatching[w];
+      labelByWorker[w] = (j == -1) ? workerLabels[w]
+          : costMatrix[w][j] - labelByJob[j];
+      double minSlack = Double.POSITIVE_INFINITY;
+      for (int jj = 0; jj < dim; jj++) {
+        double slack = costMatrix[w][jj] - labelByWorker[w] - labelByJob[jj];
+        if (slack < minSlack) {
+          minSlack = slack;
+        }
+      }
+      if (minSlack < 0) {
+        labelByWorker[w] += minSlack;
+      } else if (j != -1) {
+        match(w, j);
+      }
+    }
+    return completeMatching();
+  }
+
+  /** Labels of the workers after execute(), in the scale of the given cost matrix*/
+  public double[] getWorkerLabels() {
+    double[] labels = new double[dim];
+    for (int w = 0; w < dim; w++) {
+      labels[w] = labelByWorker[w] + reductionByWorker[w];
+    }
+    return labels;
+  }
+
+  /** Labels of the jobs after execute(), in the scale of the given cost matrix*/
+  public double[] getJobLabels() {
+    double[] labels = new double[dim];
+    for (int j = 0; j < dim; j++) {
+      labels[j] = labelByJob[j] + reductionByJob[j];
+    }
+    return labels;
+  }
+
+  /** Job of each worker of the internal square matrix after execute(), including the padding rows and columns*/
+  public int[] getMatching() {
+    return Arrays.copyOf(matchJobByWorker, dim);
+  }
+
+  /**
+   * Run phases until every worker is matched, then return the matching of
+   * the workers of the given cost matrix.
+   */
+  protected int[] completeMatching() {
     int w = fetchUnmatchedWorker();
     while (w < dim) {
       initializePhase(w);
@@ -323,6 +391,7 @@ public class HungarianAlgorithm {
       for (int j = 0; j < dim; j++) {
         costMatrix[w][j] -= min;
       }
+      reductionByWorker[w] = min;
     }
     double[] min = new double[dim];
     for (int j = 0; j < dim; j++) {
@@ -340,6 +409,9 @@ public class HungarianAlgorithm {
         costMatrix[w][j] -= min[j];
       }
     }
+    for (int j = 0; j < dim; j++) {
+      reductionByJob[j] = min[j];
+    }
   }
 
   /**
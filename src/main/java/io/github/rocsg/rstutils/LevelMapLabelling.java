@@ -0,0 +1,149 @@
+package io.github.rocsg.rstutils;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.plugin.filter.ThresholdToSelection;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Connected components of every level of an integer level map (as the date map : pixel value d means "appeared at day d", 0 is background),
+ * computed with a single union-find scan instead of one threshold and one labelling per level.
+ * Components are numbered level by level, and inside a level in the raster order of their first pixel (top to bottom, then left to right).
+ * For each component, the labelling gives its level, its number inside the level, its bounding box and the list of its pixels (in raster order).
+ */
+public class LevelMapLabelling {
+	public final int X,Y,nLevels,nComponents;
+	public final int[]labels;//Component of each pixel, -1 for background
+	public final int[]levelOfComponent;
+	public final int[]firstComponentOfLevel;//Components of level d are firstComponentOfLevel[d] to firstComponentOfLevel[d+1]-1
+	public final int[]xMin,yMin,xMax,yMax;
+	public final int[]pixelStart;//Pixels of component c are pixels[pixelStart[c]] to pixels[pixelStart[c+1]-1], as y*X+x
+	public final int[]pixels;
+
+	/** Label the levels 1 to nLevels-1 of the first slice of img, with connexity 4 or 8. Pixels of value v belong to level d if d<=v<=d+0.99*/
+	public static LevelMapLabelling label(ImagePlus img,int nLevels,int connexity) {
+		int X=img.getWidth();
+		int Y=img.getHeight();
+		ImageProcessor ip=img.getStack().getProcessor(1);
+		int[]levels=new int[X*Y];
+		for(int y=0;y<Y;y++)for(int x=0;x<X;x++) {
+			float v=ip.getf(x,y);
+			int d=(int)Math.floor(v);
+			levels[y*X+x]=(d>=1 && d<nLevels && v<=d+0.99) ? d : 0;
+		}
+		return new LevelMapLabelling(levels,X,Y,nLevels,connexity);
+	}
+
+	public LevelMapLabelling(int[]levels,int X,int Y,int nLevels,int connexity) {
+		this.X=X;this.Y=Y;this.nLevels=nLevels;
+		boolean diag=(connexity!=4 && connexity!=6);
+
+		//First pass : union of each pixel with its already visited neighbours of same level
+		int[]parent=new int[X*Y];
+		for(int y=0;y<Y;y++) {
+			for(int x=0;x<X;x++) {
+				int i=y*X+x;
+				int d=levels[i];
+				parent[i]=i;
+				if(d==0)continue;
+				if(x>0 && levels[i-1]==d)union(parent,i,i-1);
+				if(y>0) {
+					if(levels[i-X]==d)union(parent,i,i-X);
+					if(diag && x>0 && levels[i-X-1]==d)union(parent,i,i-X-1);
+					if(diag && x<X-1 && levels[i-X+1]==d)union(parent,i,i-X+1);
+				}
+			}
+		}
+
+		//Second pass : number the roots in raster order of their first pixel, then renumber level by level
+		int[]rootId=new int[X*Y];
+		int nRoots=0;
+		labels=new int[X*Y];
+		for(int i=0;i<X*Y;i++) {
+			if(levels[i]==0) {labels[i]=-1;continue;}
+			int r=find(parent,i);
+			if(r==i)rootId[i]=nRoots++;
+			labels[i]=rootId[r];
+		}
+		nComponents=nRoots;
+		int[]levelOfRoot=new int[nRoots];
+		for(int i=0;i<X*Y;i++)if(labels[i]>=0)levelOfRoot[labels[i]]=levels[i];
+		firstComponentOfLevel=new int[nLevels+1];
+		for(int r=0;r<nRoots;r++)firstComponentOfLevel[levelOfRoot[r]+1]++;
+		for(int d=0;d<nLevels;d++)firstComponentOfLevel[d+1]+=firstComponentOfLevel[d];
+		int[]nextOfLevel=new int[nLevels];
+		for(int d=0;d<nLevels;d++)nextOfLevel[d]=firstComponentOfLevel[d];
+		int[]renumber=new int[nRoots];
+		levelOfComponent=new int[nRoots];
+		for(int r=0;r<nRoots;r++) {
+			renumber[r]=nextOfLevel[levelOfRoot[r]]++;
+			levelOfComponent[renumber[r]]=levelOfRoot[r];
+		}
+
+		//Bounding boxes and pixel lists
+		xMin=new int[nRoots];yMin=new int[nRoots];xMax=new int[nRoots];yMax=new int[nRoots];
+		java.util.Arrays.fill(xMin, Integer.MAX_VALUE);java.util.Arrays.fill(yMin, Integer.MAX_VALUE);
+		java.util.Arrays.fill(xMax, -1);java.util.Arrays.fill(yMax, -1);
+		pixelStart=new int[nRoots+1];
+		for(int y=0;y<Y;y++) {
+			for(int x=0;x<X;x++) {
+				int i=y*X+x;
+				if(labels[i]<0)continue;
+				int c=renumber[labels[i]];
+				labels[i]=c;
+				pixelStart[c+1]++;
+				if(x<xMin[c])xMin[c]=x;
+				if(x>xMax[c])xMax[c]=x;
+				if(y<yMin[c])yMin[c]=y;
+				if(y>yMax[c])yMax[c]=y;
+			}
+		}
+		for(int c=0;c<nRoots;c++)pixelStart[c+1]+=pixelStart[c];
+		pixels=new int[pixelStart[nRoots]];
+		int[]next=java.util.Arrays.copyOf(pixelStart, nRoots);
+		for(int i=0;i<X*Y;i++)if(labels[i]>=0)pixels[next[labels[i]]++]=i;
+	}
+
+	/** Number of components of level d*/
+	public int nComponentsOfLevel(int d) {
+		return firstComponentOfLevel[d+1]-firstComponentOfLevel[d];
+	}
+
+	public int nPixels(int c) {
+		return pixelStart[c+1]-pixelStart[c];
+	}
+
+	/** Exact shape of the component, as a Roi in the coordinates of the labelled image. Built from the mask of the component over its bounding box only*/
+	public Roi toRoi(int c) {
+		int dx=xMax[c]-xMin[c]+1;
+		int dy=yMax[c]-yMin[c]+1;
+		ByteProcessor mask=new ByteProcessor(dx,dy);
+		byte[]tab=(byte[])mask.getPixels();
+		for(int k=pixelStart[c];k<pixelStart[c+1];k++) {
+			int x=pixels[k]%X-xMin[c];
+			int y=pixels[k]/X-yMin[c];
+			tab[y*dx+x]=(byte)255;
+		}
+		mask.setThreshold(255, 255, ImageProcessor.NO_LUT_UPDATE);
+		Roi r=new ThresholdToSelection().convert(mask);
+		r.setLocation(r.getBounds().x+xMin[c], r.getBounds().y+yMin[c]);
+		return r;
+	}
+
+	static int find(int[]parent,int i) {
+		while(parent[i]!=i) {
+			parent[i]=parent[parent[i]];
+			i=parent[i];
+		}
+		return i;
+	}
+
+	/** Union by smallest index : the root of a component is its first pixel in raster order*/
+	static void union(int[]parent,int a,int b) {
+		int ra=find(parent,a);
+		int rb=find(parent,b);
+		if(ra<rb)parent[rb]=ra;
+		else if(rb<ra)parent[ra]=rb;
+	}
+}
@@ -0,0 +1,62 @@
+package io.github.rocsg.rstutils;
+
+import ij.ImagePlus;
+
+/**
+ * Sums of a function of the pixel values of a float image along straight segments.
+ * Segments are rasterized with the integer Bresenham algorithm between the rounded ends : each pixel of the 8-connected line is visited exactly once,
+ * with no floating point step and no rounding in the loop. Pixels outside the image are skipped.
+ * An instance holds no state but the pixel array, and can be shared between threads.
+ */
+public class LineIntegral {
+	final float[]tab;
+	final int width,height;
+
+	public interface PixelFunction{
+		/** Contribution of a pixel of value v to the integral*/
+		public double value(float v);
+	}
+
+	public LineIntegral(float[]tab,int width,int height) {
+		this.tab=tab;
+		this.width=width;
+		this.height=height;
+	}
+
+	/** Integral over the first slice of img*/
+	public static LineIntegral of(ImagePlus img) {
+		return new LineIntegral((float[])img.getStack().getPixels(1),img.getWidth(),img.getHeight());
+	}
+
+	/** Sum of f over the pixels of the segment from (x0,y0) to (x1,y1)*/
+	public double sum(double x0,double y0,double x1,double y1,PixelFunction f) {
+		return integrate(x0,y0,x1,y1,f,false);
+	}
+
+	/** Mean of f over the pixels of the segment, or 0 if no pixel of the segment is in the image*/
+	public double mean(double x0,double y0,double x1,double y1,PixelFunction f) {
+		return integrate(x0,y0,x1,y1,f,true);
+	}
+
+	double integrate(double x0,double y0,double x1,double y1,PixelFunction f,boolean mean) {
+		int xa=(int)Math.round(x0),ya=(int)Math.round(y0);
+		int xb=(int)Math.round(x1),yb=(int)Math.round(y1);
+		int dx=Math.abs(xb-xa),dy=-Math.abs(yb-ya);
+		int sx=xa<xb ? 1 : -1,sy=ya<yb ? 1 : -1;
+		int err=dx+dy;
+		double total=0;
+		int count=0;
+		while(true) {
+			if(xa>=0 && ya>=0 && xa<width && ya<height) {
+				total+=f.value(tab[ya*width+xa]);
+				count++;
+			}
+			if(xa==xb && ya==yb)break;
+			int e2=2*err;
+			if(e2>=dy) {err+=dy;xa+=sx;}
+			if(e2<=dx) {err+=dx;ya+=sy;}
+		}
+		if(!mean)return total;
+		return count==0 ? 0 : total/count;
+	}
+}
@@ -0,0 +1,155 @@
+package io.github.rocsg.rstutils;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Motion-JPEG avi file written frame after frame : each frame is encoded and appended to the file when it is given,
+ * thus only one frame is kept in memory whatever the length of the movie.
+ * The header is written with placeholders at opening, and the frame count, sizes and index are completed by close().
+ * Layout is the one of the avi written by ImageJ (RIFF 'AVI ', one 'vids' stream 'MJPG', '00dc' chunks, 'idx1' index).
+ * Sizes and offsets of this layout are 32 bits integers : a frame that would make the file pass 2 GB is refused with an IOException,
+ * and close() still gives a readable movie of the frames written before.
+ */
+public class MjpegAviWriter {
+	static final int AVIF_HASINDEX=0x10;
+	static final int AVIIF_KEYFRAME=0x10;
+	static final int POS_MOVI=220;//Position of the 'movi' fourcc, origin of the offsets of the index
+	static final long MAX_FILE_SIZE=Integer.MAX_VALUE;//Sizes and offsets are read as signed integers by ImageJ
+
+	final RandomAccessFile raf;
+	final int width,height;
+	final BufferedImage image;
+	final int[]rgb;
+	final ImageWriter jpegWriter;
+	final ImageWriteParam jpegParam;
+	final ByteArrayOutputStream jpeg=new ByteArrayOutputStream();
+	int[]offsets=new int[256];
+	int[]sizes=new int[256];
+	int nFrames=0;
+	int maxFrameSize=0;
+	long maxFileSize=MAX_FILE_SIZE;
+
+	/** Open the file and write the header of a movie of width x height pixels at fps frames per second. Quality of the jpeg is in [0-1]*/
+	public MjpegAviWriter(File file,int width,int height,int fps,float quality) throws IOException{
+		this.width=width;
+		this.height=height;
+		image=new BufferedImage(width,height,BufferedImage.TYPE_INT_RGB);
+		rgb=((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		jpegWriter=ImageIO.getImageWritersByFormatName("jpeg").next();
+		jpegParam=jpegWriter.getDefaultWriteParam();
+		jpegParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		jpegParam.setCompressionQuality(quality);
+		if(file.exists())file.delete();
+		raf=new RandomAccessFile(file,"rw");
+		writeHeader(fps);
+	}
+
+	void writeHeader(int fps) throws IOException{
+		writeFourCC("RIFF");writeInt(0);writeFourCC("AVI ");//RIFF size at 4
+		writeFourCC("LIST");writeInt(192);writeFourCC("hdrl");
+		writeFourCC("avih");writeInt(56);
+		writeInt(1000000/fps);writeInt(0);writeInt(0);writeInt(AVIF_HASINDEX);
+		writeInt(0);//Total frames at 48
+		writeInt(0);writeInt(1);
+		writeInt(0);//Suggested buffer size at 60
+		writeInt(width);writeInt(height);writeInt(0);writeInt(0);writeInt(0);writeInt(0);
+		writeFourCC("LIST");writeInt(116);writeFourCC("strl");
+		writeFourCC("strh");writeInt(56);
+		writeFourCC("vids");writeFourCC("MJPG");writeInt(0);writeInt(0);writeInt(0);
+		writeInt(1);writeInt(fps);writeInt(0);
+		writeInt(0);//Length at 140
+		writeInt(0);//Suggested buffer size at 144
+		writeInt(-1);writeInt(0);
+		writeShort(0);writeShort(0);writeShort(width);writeShort(height);
+		writeFourCC("strf");writeInt(40);
+		writeInt(40);writeInt(width);writeInt(height);writeShort(1);writeShort(24);writeFourCC("MJPG");
+		writeInt(width*height*3);writeInt(0);writeInt(0);writeInt(0);writeInt(0);
+		writeFourCC("LIST");writeInt(0);writeFourCC("movi");//movi size at 216
+	}
+
+	/** Encode the frame given by its red, green and blue channels (width*height bytes each) and append it to the movie*/
+	public void writeFrame(byte[]r,byte[]g,byte[]b) throws IOException{
+		for(int i=0;i<rgb.length;i++)rgb[i]=((r[i]&0xff)<<16) | ((g[i]&0xff)<<8) | (b[i]&0xff);
+		jpeg.reset();
+		MemoryCacheImageOutputStream ios=new MemoryCacheImageOutputStream(jpeg);
+		jpegWriter.setOutput(ios);
+		jpegWriter.write(null,new IIOImage(image,null,null),jpegParam);
+		ios.close();
+		appendChunk();
+	}
+
+	/** Append again the last frame written, with no new encoding*/
+	public void repeatFrame() throws IOException{
+		if(nFrames==0)throw new IOException("No frame to repeat");
+		appendChunk();
+	}
+
+	void appendChunk() throws IOException{
+		int size=jpeg.size();
+		long endChunk=raf.getFilePointer()+8+size+(size&1);
+		if(endChunk+8+16L*(nFrames+1)>maxFileSize)throw new IOException("The avi would pass 2 GB with frame "+(nFrames+1)+", only the "+nFrames+" frames before are kept");
+		if(nFrames==offsets.length) {
+			offsets=Arrays.copyOf(offsets,2*nFrames);
+			sizes=Arrays.copyOf(sizes,2*nFrames);
+		}
+		offsets[nFrames]=(int)(raf.getFilePointer()-POS_MOVI);
+		sizes[nFrames]=size;
+		nFrames++;
+		if(size>maxFrameSize)maxFrameSize=size;
+		writeFourCC("00dc");writeInt(size);
+		raf.write(jpeg.toByteArray(),0,size);
+		if((size&1)==1)raf.write(0);
+	}
+
+	/** Number of frames written*/
+	public int getNbFrames() {
+		return nFrames;
+	}
+
+	/** Write the index, complete the header and close the file*/
+	public void close() throws IOException{
+		try {
+			long endMovi=raf.getFilePointer();
+			writeFourCC("idx1");writeInt(16*nFrames);
+			for(int i=0;i<nFrames;i++) {
+				writeFourCC("00dc");writeInt(AVIIF_KEYFRAME);writeInt(offsets[i]);writeInt(sizes[i]);
+			}
+			long end=raf.getFilePointer();
+			raf.seek(4);writeInt((int)(end-8));
+			raf.seek(48);writeInt(nFrames);
+			raf.seek(60);writeInt(maxFrameSize+8);
+			raf.seek(140);writeInt(nFrames);
+			raf.seek(144);writeInt(maxFrameSize+8);
+			raf.seek(216);writeInt((int)(endMovi-POS_MOVI));
+		}
+		finally {
+			jpegWriter.dispose();
+			raf.close();
+		}
+	}
+
+	//Little-endian helpers
+	void writeInt(int v) throws IOException{
+		raf.write(v & 0xff);raf.write((v>>8) & 0xff);raf.write((v>>16) & 0xff);raf.write((v>>24) & 0xff);
+	}
+
+	void writeShort(int v) throws IOException{
+		raf.write(v & 0xff);raf.write((v>>8) & 0xff);
+	}
+
+	void writeFourCC(String s) throws IOException{
+		raf.write(s.getBytes("US-ASCII"),0,4);
+	}
+}
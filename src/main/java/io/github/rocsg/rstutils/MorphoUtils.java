@@ -1,8 +1,9 @@
 package io.github.rocsg.rstutils;
 
 import io.github.rocsg.fijiyama.common.VitimageUtils;
-import ij.IJ;
 import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import ij.process.ImageConverter;
 import inra.ijpb.binary.geodesic.GeodesicDistanceTransformFloat;
 import inra.ijpb.morphology.Morphology;
 import inra.ijpb.morphology.Strel3D;
@@ -13,6 +14,7 @@ import inra.ijpb.morphology.Strel3D;
 public class MorphoUtils {
 
 	static float[] floatWeights = new float[] {1000,1414};
+	public static boolean useGridGeodesicInsideComponent=false;//if true, computeGeodesicInsideComponent runs the chamfer distance with GridShortestPath, without padded 8-bit images and MorphoLibJ
 
 	/// Various helpers for image manipulation //////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 	public static  ImagePlus erosionLine2D(ImagePlus img, int radius,boolean horizontal) {
@@ -52,40 +54,38 @@ public class MorphoUtils {
 	}
 	
 	public static ImagePlus computeGeodesic(ImagePlus imgSeed,ImagePlus imgMask,boolean invertDistance) {
-		ImagePlus t1=imgSeed.duplicate();if(t1.getType()!=ImagePlus.GRAY8)IJ.run(t1,"8-bit","");
-		ImagePlus t2=imgMask.duplicate();if(t2.getType()!=ImagePlus.GRAY8)IJ.run(t2,"8-bit","");
+		ImagePlus t1=imgSeed.duplicate();if(t1.getType()!=ImagePlus.GRAY8)new ImageConverter(t1).convertToGray8();
+		ImagePlus t2=imgMask.duplicate();if(t2.getType()!=ImagePlus.GRAY8)new ImageConverter(t2).convertToGray8();
 		ImagePlus result=new ImagePlus(
 				"geodistance",new GeodesicDistanceTransformFloat(
 						floatWeights,false).geodesicDistanceMap(t1.getStack().getProcessor(1), t2.getStack().getProcessor(1)));
 		result=noNanInFloat(result, -1);
 		if(!invertDistance)return result; 
 		else {
-			double max=VitimageUtils.maxOfImage(result);
-			result=VitimageUtils.makeOperationOnOneImage(result, 2, -1, true);				
-			result=VitimageUtils.makeOperationOnOneImage(result, 1, max, true);
-
-			ImagePlus imgMaskOut=VitimageUtils.getBinaryMaskUnary(t2, 0.5);
-			IJ.run(imgMaskOut,"32-bit","");
-			imgMaskOut=VitimageUtils.invertBinaryMask(imgMaskOut);
-			imgMaskOut=VitimageUtils.makeOperationOnOneImage(imgMaskOut, 2, -1, true);
-			
-			ImagePlus imgMaskIn=VitimageUtils.getBinaryMaskUnary(t2, 0.5);
-			imgMaskIn=VitimageUtils.makeOperationBetweenTwoImages(imgMaskIn, result, 2, true);
-			result=VitimageUtils.makeOperationBetweenTwoImages(imgMaskOut, imgMaskIn, 1, true);
-			result=VitimageUtils.makeOperationOnOneImage(result, 2, 0.001, true);
+			//(max-d)*0.001 in the mask and -0.001 out of it, computed on the pixel arrays without image operations going through IJ.run, as CCs are built and fused by several threads
+			float[]tab=(float[])result.getStack().getProcessor(1).getPixels();
+			byte[]mask=(byte[])t2.getStack().getProcessor(1).getPixels();
+			double max=Double.NEGATIVE_INFINITY;
+			for(float v : tab)if(v>max)max=v;
+			for(int i=0;i<tab.length;i++) {
+				float v=(mask[i]!=0) ? (float)(-tab[i]+max) : -1;
+				tab[i]=(float)(v*0.001);
+			}
 			return result;
 		}
 	}
 
 	
 	public static ImagePlus computeGeodesicInsideComponent(ImagePlus imgSeg,double minValue) {
+		if(useGridGeodesicInsideComponent)return computeGeodesicInsideComponentOnGrid(imgSeg);
 		ImagePlus imgSegWithBorders=VitimageUtils.uncropImageFloat(imgSeg, 3, 3, 0, imgSeg.getWidth()+6, imgSeg.getHeight()+6, 1);
 		ImagePlus imgSeed=VitimageUtils.invertBinaryMask(imgSegWithBorders);
 		ImagePlus imgSegWithBordersDil=MorphoUtils.dilationCircle2D(imgSegWithBorders, 1);
 		imgSeed=VitimageUtils.binaryOperationBetweenTwoImages(imgSeed, imgSegWithBordersDil, 2);
 		//VitimageUtils.compositeNoAdjustOf(imgSegWithBordersDil, imgSeed).show();
-		IJ.run(imgSeed,"8-bit","");
-		IJ.run(imgSegWithBordersDil,"8-bit","");
+		//Conversions as IJ.run(img,"8-bit",""), without going through IJ.run, as CCs are built by several threads
+		new ImageConverter(imgSeed).convertToGray8();
+		new ImageConverter(imgSegWithBordersDil).convertToGray8();
 		ImagePlus distance=computeGeodesic(imgSeed,imgSegWithBordersDil,true);
 		return VitimageUtils.cropFloatImage(distance, 3, imgSeg.getWidth()+3-1, 3, imgSeg.getHeight()+3-1,0,0);
 	}
@@ -93,6 +93,39 @@ public class MorphoUtils {
 
 	
 	
+	/** Same values as computeGeodesicInsideComponent, computed on the primitive arrays of a grid with a border of one pixel.
+	 * Seeds are the pixels out of the component touching it (8-connexity), distances are propagated inside the component and its seeds
+	 * with the chamfer weights of floatWeights. Pixels of the component and seeds get (max-d)*0.001, other pixels -0.001*/
+	public static ImagePlus computeGeodesicInsideComponentOnGrid(ImagePlus imgSeg) {
+		int X=imgSeg.getWidth();
+		int Y=imgSeg.getHeight();
+		int X2=X+2;
+		int Y2=Y+2;
+		boolean[]in=new boolean[X2*Y2];
+		boolean[]mask=new boolean[X2*Y2];
+		boolean[]seed=new boolean[X2*Y2];
+		for(int y=0;y<Y;y++)for(int x=0;x<X;x++)in[(y+1)*X2+x+1]=imgSeg.getProcessor().getf(x,y)>0;
+		for(int y=0;y<Y2;y++)for(int x=0;x<X2;x++) {
+			int i=y*X2+x;
+			for(int dy=-1;dy<=1 && !mask[i];dy++)for(int dx=-1;dx<=1;dx++) {
+				int xx=x+dx,yy=y+dy;
+				if(xx>=0 && yy>=0 && xx<X2 && yy<Y2 && in[yy*X2+xx]) {mask[i]=true;break;}
+			}
+			seed[i]=mask[i] && !in[i];
+		}
+		float[]dist=new float[X2*Y2];
+		GridShortestPath.local().setGrid(X2, Y2, mask, 8, GridShortestPath.chamfer(floatWeights[0], floatWeights[1])).multiSource(seed, dist, -1);
+		float max=-1;
+		for(int i=0;i<dist.length;i++)if(dist[i]>max)max=dist[i];
+		float[]ret=new float[X*Y];
+		for(int y=0;y<Y;y++)for(int x=0;x<X;x++) {
+			int i=(y+1)*X2+x+1;
+			float val=mask[i] ? (max-dist[i]) : -1;
+			ret[y*X+x]=(float)(val*0.001);
+		}
+		return new ImagePlus("geodistance",new FloatProcessor(X,Y,ret));
+	}
+
 	public static ImagePlus noNanInFloat(ImagePlus imgRef,float replacementValue) {
 		ImagePlus img=VitimageUtils.imageCopy(imgRef);
 		float[][] in=new float[img.getStackSize()][];
@@ -0,0 +1,81 @@
+package io.github.rocsg.rstutils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Row-tiled execution of per-pixel kernels. The image height is cut in horizontal strips,
+ * and the strips are processed by a ForkJoin pool. Tasks must only write in their own rows.
+ */
+public class ParallelRows {
+
+	public interface RowsTask{
+		/** Process the rows from yStart (included) to yStop (excluded)*/
+		public void run(int yStart,int yStop);
+	}
+
+	/** Process rows [0 - height[ with nThreads threads, cutting the image in nTiles strips. With nThreads<=1, runs in the calling thread*/
+	public static void run(int height,int nTiles,int nThreads,RowsTask task) {
+		if(height<=0)return;
+		if(nTiles<1)nTiles=1;
+		if(nTiles>height)nTiles=height;
+		if(nThreads<=1 || nTiles==1) {
+			task.run(0,height);
+			return;
+		}
+		ForkJoinPool pool=new ForkJoinPool(nThreads);
+		try {
+			pool.invoke(new TileRange(0,nTiles,nTiles,height,task));
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Same as run, in a pool kept by the caller across many calls (see newPool). With a null pool, runs in the calling thread*/
+	public static void run(ForkJoinPool pool,int height,int nTiles,RowsTask task) {
+		if(height<=0)return;
+		if(nTiles<1)nTiles=1;
+		if(nTiles>height)nTiles=height;
+		if(pool==null || nTiles==1) {
+			task.run(0,height);
+			return;
+		}
+		pool.invoke(new TileRange(0,nTiles,nTiles,height,task));
+	}
+
+	/** Pool of nThreads threads for run(pool,...), or null if nThreads<=1. To be shut down by the caller*/
+	public static ForkJoinPool newPool(int nThreads) {
+		return (nThreads<=1) ? null : new ForkJoinPool(nThreads);
+	}
+
+	/** Number of tiles giving a few strips per thread, for load balancing*/
+	public static int defaultNbTiles(int height,int nThreads) {
+		if(nThreads<=1)return 1;
+		return Math.max(1,Math.min(height/8, 4*nThreads));
+	}
+
+	public static int rowStartOfTile(int tile,int nTiles,int height) {
+		return (int)(((long)tile*height)/nTiles);
+	}
+
+	static class TileRange extends RecursiveAction{
+		private static final long serialVersionUID = 1L;
+		int tileStart,tileStop,nTiles,height;
+		RowsTask task;
+
+		TileRange(int tileStart,int tileStop,int nTiles,int height,RowsTask task){
+			this.tileStart=tileStart;this.tileStop=tileStop;this.nTiles=nTiles;this.height=height;this.task=task;
+		}
+
+		@Override
+		protected void compute() {
+			if(tileStop-tileStart==1) {
+				task.run(rowStartOfTile(tileStart,nTiles,height),rowStartOfTile(tileStop,nTiles,height));
+				return;
+			}
+			int tileMid=(tileStart+tileStop)/2;
+			invokeAll(new TileRange(tileStart,tileMid,nTiles,height,task),new TileRange(tileMid,tileStop,nTiles,height,task));
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package io.github.rocsg.rstutils;
+
+import java.util.Arrays;
+
+/**
+ * Minimum cost assignment of rows (workers) to columns (jobs), over a sparse list of allowed pairs stored as CSR :
+ * pairs of row i are cols[k], costs[k] for k in rowStart[i] to rowStart[i+1]-1. Pairs that are not listed are forbidden,
+ * and a row can be left unassigned, at cost unassignedCost. Columns can be left unassigned at no cost.
+ * Solved by successive shortest augmenting paths (Dijkstra over reduced costs, as in Jonker-Volgenant), each row having a private "unassigned" column.
+ * Runs in O(nRows * nPairs * log(nCols)), when the dense HungarianAlgorithm needs the full matrix and O(max(nRows,nCols)^3).
+ * The potentials and the matching of a solve can warm-start the solve of a modified problem with the same rows and columns (see solveFrom).
+ */
+public class SparseAssignment {
+	public final int nRows,nCols;
+	final int[]rowStart;
+	final int[]cols;
+	final double[]costs;
+	final double unassignedCost;
+	double[]potRow;
+	double[]potCol;//Columns 0 to nCols-1, then the unassigned column of each row
+	int[]colOfRow;
+	int[]rowOfCol;
+	//Dijkstra buffers
+	double[]dist;
+	int[]predRow;
+	int[]stamp;
+	int[]heapPos;
+	int[]heap;
+	int heapSize;
+	int epoch=0;
+
+	public SparseAssignment(int nRows,int nCols,int[]rowStart,int[]cols,double[]costs,double unassignedCost) {
+		this.nRows=nRows;this.nCols=nCols;
+		this.rowStart=rowStart;this.cols=cols;this.costs=costs;
+		this.unassignedCost=unassignedCost;
+		for(int k=0;k<rowStart[nRows];k++) {
+			if(Double.isNaN(costs[k]) || Double.isInfinite(costs[k]))throw new IllegalArgumentException("Invalid cost "+costs[k]+" for pair "+k);
+		}
+	}
+
+	/** Problem built from a dense cost matrix, keeping the pairs with a cost lower than cutoff. A row left unassigned costs cutoff*/
+	public static SparseAssignment fromDense(double[][]costMatrix,double cutoff) {
+		int nRows=costMatrix.length;
+		int nCols=(nRows==0) ? 0 : costMatrix[0].length;
+		int[]rowStart=new int[nRows+1];
+		for(int i=0;i<nRows;i++) {
+			rowStart[i+1]=rowStart[i];
+			for(int j=0;j<nCols;j++)if(costMatrix[i][j]<cutoff)rowStart[i+1]++;
+		}
+		int[]cols=new int[rowStart[nRows]];
+		double[]costs=new double[rowStart[nRows]];
+		for(int i=0,k=0;i<nRows;i++)for(int j=0;j<nCols;j++)if(costMatrix[i][j]<cutoff) {cols[k]=j;costs[k]=costMatrix[i][j];k++;}
+		return new SparseAssignment(nRows,nCols,rowStart,cols,costs,cutoff);
+	}
+
+	/** Allowed pairs and their costs, kept row by row by increasing column, that can be changed between two solves without any dense matrix.
+	 * toAssignment(cutoff) gives the same problem as fromDense(costMatrix,cutoff) when the pairs set are the cells of costMatrix lower than cutoff*/
+	public static class Rows{
+		public final int nRows,nCols;
+		final int[][]cols;
+		final double[][]costs;
+		final int[]n;
+
+		public Rows(int nRows,int nCols) {
+			this.nRows=nRows;this.nCols=nCols;
+			cols=new int[nRows][4];
+			costs=new double[nRows][4];
+			n=new int[nRows];
+		}
+
+		/** Add the pair (i,j), or change its cost*/
+		public void set(int i,int j,double cost) {
+			int k=find(i,j);
+			if(k>=0) {costs[i][k]=cost;return;}
+			k=-k-1;
+			if(n[i]==cols[i].length) {cols[i]=Arrays.copyOf(cols[i], 2*n[i]);costs[i]=Arrays.copyOf(costs[i], 2*n[i]);}
+			System.arraycopy(cols[i], k, cols[i], k+1, n[i]-k);
+			System.arraycopy(costs[i], k, costs[i], k+1, n[i]-k);
+			cols[i][k]=j;costs[i][k]=cost;
+			n[i]++;
+		}
+
+		/** Forbid the pair (i,j)*/
+		public void remove(int i,int j) {
+			int k=find(i,j);
+			if(k<0)return;
+			System.arraycopy(cols[i], k+1, cols[i], k, n[i]-k-1);
+			System.arraycopy(costs[i], k+1, costs[i], k, n[i]-k-1);
+			n[i]--;
+		}
+
+		/** Cost of the pair (i,j), or absent if it is forbidden*/
+		public double get(int i,int j,double absent) {
+			int k=find(i,j);
+			return (k<0) ? absent : costs[i][k];
+		}
+
+		/** Number of allowed pairs*/
+		public int nPairs() {
+			int tot=0;
+			for(int i=0;i<nRows;i++)tot+=n[i];
+			return tot;
+		}
+
+		/** Problem over the allowed pairs, a row left unassigned costing unassignedCost*/
+		public SparseAssignment toAssignment(double unassignedCost) {
+			int[]rowStart=new int[nRows+1];
+			for(int i=0;i<nRows;i++)rowStart[i+1]=rowStart[i]+n[i];
+			int[]allCols=new int[rowStart[nRows]];
+			double[]allCosts=new double[rowStart[nRows]];
+			for(int i=0;i<nRows;i++) {
+				System.arraycopy(cols[i], 0, allCols, rowStart[i], n[i]);
+				System.arraycopy(costs[i], 0, allCosts, rowStart[i], n[i]);
+			}
+			return new SparseAssignment(nRows,nCols,rowStart,allCols,allCosts,unassignedCost);
+		}
+
+		/** Position of j in the pairs of row i, or -(insertion point)-1*/
+		int find(int i,int j) {
+			return Arrays.binarySearch(cols[i], 0, n[i], j);
+		}
+	}
+
+	/** Column assigned to each row, or -1 for an unassigned row*/
+	public int[]solve(){
+		potCol=new double[nCols+nRows];
+		colOfRow=new int[nRows];
+		rowOfCol=new int[nCols+nRows];
+		Arrays.fill(colOfRow, -1);
+		Arrays.fill(rowOfCol, -1);
+		potRow=new double[nRows];
+		for(int i=0;i<nRows;i++)potRow[i]=-minReducedCost(i);
+		return augmentAll();
+	}
+
+	/** Same as solve, warm-started from the column potentials and the assignment of a previous solve (see getColumnPotentials and getAssignment).
+	 * The previous assignments that are still optimal for the new costs are kept, and the other rows are assigned again*/
+	public int[]solveFrom(double[]previousPotCol,int[]previousColOfRow){
+		potCol=Arrays.copyOf(previousPotCol, nCols+nRows);
+		colOfRow=new int[nRows];
+		rowOfCol=new int[nCols+nRows];
+		Arrays.fill(rowOfCol, -1);
+		for(int i=0;i<nRows;i++) {
+			int j=previousColOfRow[i];
+			colOfRow[i]=(j==nCols+i || (j>=0 && j<nCols && pairIndex(i,j)>=0)) ? j : -1;
+			if(colOfRow[i]>=0)rowOfCol[colOfRow[i]]=i;
+		}
+		//Free columns share the highest potential
+		double potMax=Double.NEGATIVE_INFINITY;
+		for(int j=0;j<nCols+nRows;j++)potMax=Math.max(potMax, potCol[j]);
+		for(int j=0;j<nCols+nRows;j++)if(rowOfCol[j]<0)potCol[j]=potMax;
+
+		//Drop the assignments that are not the cheapest reduced cost of their row anymore. The freed column goes up to potMax, which may break others
+		int[][]rowsOfCol=rowsOfColumns();
+		int[]toCheck=new int[nRows];
+		boolean[]inList=new boolean[nRows];
+		int nToCheck=0;
+		for(int i=0;i<nRows;i++) {toCheck[nToCheck++]=i;inList[i]=true;}
+		while(nToCheck>0) {
+			int i=toCheck[--nToCheck];
+			inList[i]=false;
+			int j=colOfRow[i];
+			if(j<0)continue;
+			if(cost(i,j)-potCol[j]<=minReducedCost(i))continue;
+			colOfRow[i]=-1;
+			rowOfCol[j]=-1;
+			potCol[j]=potMax;
+			if(j>=nCols)continue;
+			for(int i2 : rowsOfCol[j])if(!inList[i2] && colOfRow[i2]>=0) {toCheck[nToCheck++]=i2;inList[i2]=true;}
+		}
+		potRow=new double[nRows];
+		for(int i=0;i<nRows;i++)potRow[i]=(colOfRow[i]>=0) ? potCol[colOfRow[i]]-cost(i,colOfRow[i]) : -minReducedCost(i);
+		return augmentAll();
+	}
+
+	/** Potentials of the columns after a solve, for warm-starting a later one*/
+	public double[]getColumnPotentials(){
+		return Arrays.copyOf(potCol, potCol.length);
+	}
+
+	/** Assignment after a solve, including the unassigned columns of the rows (nCols+i), for warm-starting a later one*/
+	public int[]getAssignment(){
+		return Arrays.copyOf(colOfRow, nRows);
+	}
+
+	/** Total cost of an assignment returned by solve, unassigned rows included*/
+	public double totalCost(int[]assignment) {
+		double tot=0;
+		for(int i=0;i<nRows;i++)tot+=(assignment[i]<0) ? unassignedCost : cost(i,assignment[i]);
+		return tot;
+	}
+
+	int[]augmentAll(){
+		int n=nCols+nRows;
+		dist=new double[n];predRow=new int[n];stamp=new int[n];heapPos=new int[n];heap=new int[16];
+		int[]reachedRows=new int[16];
+		int[]settledCols=new int[16];
+		for(int r=0;r<nRows;r++) {
+			if(colOfRow[r]>=0)continue;
+			//Dijkstra from row r over the columns, a column leading to the row it is assigned to
+			epoch++;
+			heapSize=0;
+			int nReached=0;
+			int nSettled=0;
+			reachedRows[nReached++]=r;
+			relaxRow(r,0);
+			int target=-1;
+			while(heapSize>0) {
+				int j=pop();
+				if(rowOfCol[j]<0) {target=j;break;}
+				if(nSettled==settledCols.length)settledCols=Arrays.copyOf(settledCols, 2*nSettled);
+				settledCols[nSettled++]=j;
+				int i=rowOfCol[j];
+				if(nReached==reachedRows.length)reachedRows=Arrays.copyOf(reachedRows, 2*nReached);
+				reachedRows[nReached++]=i;
+				relaxRow(i,dist[j]);
+			}
+			double d=dist[target];
+			//Potentials : reduced costs stay non-negative, and the edges of the path become tight
+			potRow[r]-=d;
+			for(int k=0;k<nSettled;k++) {
+				int j=settledCols[k];
+				potCol[j]+=dist[j]-d;
+				potRow[rowOfCol[j]]+=dist[j]-d;
+			}
+			//Augment along the path
+			int j=target;
+			while(true) {
+				int i=predRow[j];
+				int prev=colOfRow[i];
+				colOfRow[i]=j;
+				rowOfCol[j]=i;
+				if(i==r)break;
+				j=prev;
+			}
+		}
+		int[]ret=new int[nRows];
+		for(int i=0;i<nRows;i++)ret[i]=(colOfRow[i]<nCols) ? colOfRow[i] : -1;
+		return ret;
+	}
+
+	void relaxRow(int i,double di) {
+		for(int k=rowStart[i];k<=rowStart[i+1];k++) {
+			int j=(k<rowStart[i+1]) ? cols[k] : nCols+i;
+			double c=(k<rowStart[i+1]) ? costs[k] : unassignedCost;
+			if(stamp[j]==epoch && heapPos[j]<0)continue;//Already settled
+			double d=di+c+potRow[i]-potCol[j];
+			if(stamp[j]!=epoch) {
+				stamp[j]=epoch;
+				dist[j]=d;
+				predRow[j]=i;
+				push(j);
+			}
+			else if(d<dist[j]) {
+				dist[j]=d;
+				predRow[j]=i;
+				siftUp(heapPos[j]);
+			}
+		}
+	}
+
+	/** Lowest cost minus column potential over the pairs of row i, its unassigned column included*/
+	double minReducedCost(int i) {
+		double min=unassignedCost-potCol[nCols+i];
+		for(int k=rowStart[i];k<rowStart[i+1];k++)min=Math.min(min, costs[k]-potCol[cols[k]]);
+		return min;
+	}
+
+	double cost(int i,int j) {
+		return (j>=nCols) ? unassignedCost : costs[pairIndex(i,j)];
+	}
+
+	int pairIndex(int i,int j) {
+		for(int k=rowStart[i];k<rowStart[i+1];k++)if(cols[k]==j)return k;
+		return -1;
+	}
+
+	int[][]rowsOfColumns(){
+		int[]count=new int[nCols];
+		for(int k=0;k<rowStart[nRows];k++)count[cols[k]]++;
+		int[][]ret=new int[nCols][];
+		for(int j=0;j<nCols;j++)ret[j]=new int[count[j]];
+		Arrays.fill(count, 0);
+		for(int i=0;i<nRows;i++)for(int k=rowStart[i];k<rowStart[i+1];k++)ret[cols[k]][count[cols[k]]++]=i;
+		return ret;
+	}
+
+	void push(int j) {
+		if(heapSize==heap.length)heap=Arrays.copyOf(heap, 2*heapSize);
+		heap[heapSize]=j;
+		heapPos[j]=heapSize;
+		heapSize++;
+		siftUp(heapSize-1);
+	}
+
+	int pop() {
+		int top=heap[0];
+		heapPos[top]=-1;
+		heapSize--;
+		if(heapSize>0) {
+			heap[0]=heap[heapSize];
+			heapPos[heap[0]]=0;
+			siftDown(0);
+		}
+		return top;
+	}
+
+	void siftUp(int pos) {
+		int j=heap[pos];
+		double d=dist[j];
+		while(pos>0) {
+			int parent=(pos-1)>>1;
+			int jp=heap[parent];
+			if(dist[jp]<=d)break;
+			heap[pos]=jp;heapPos[jp]=pos;
+			pos=parent;
+		}
+		heap[pos]=j;heapPos[j]=pos;
+	}
+
+	void siftDown(int pos) {
+		int j=heap[pos];
+		double d=dist[j];
+		while(true) {
+			int child=2*pos+1;
+			if(child>=heapSize)break;
+			if(child+1<heapSize && dist[heap[child+1]]<dist[heap[child]])child++;
+			int jc=heap[child];
+			if(dist[jc]>=d)break;
+			heap[pos]=jc;heapPos[jc]=pos;
+			pos=child;
+		}
+		heap[pos]=j;heapPos[j]=pos;
+	}
+
+	/** Solve the same problem with HungarianAlgorithm (pairs at or above cutoff replaced by forbiddenCost) and with SparseAssignment, and print times and costs*/
+	public static void benchmark(double[][]costMatrix,double cutoff,double forbiddenCost) {
+		int nRows=costMatrix.length;
+		int nCols=costMatrix[0].length;
+		double[][]dense=new double[nRows][nCols];
+		for(int i=0;i<nRows;i++)for(int j=0;j<nCols;j++)dense[i][j]=(costMatrix[i][j]<cutoff) ? costMatrix[i][j] : forbiddenCost;
+		long t0=System.nanoTime();
+		int[]solDense=new HungarianAlgorithm(dense).execute();
+		long t1=System.nanoTime();
+		SparseAssignment sparse=fromDense(costMatrix,cutoff);
+		int[]solSparse=sparse.solve();
+		long t2=System.nanoTime();
+		//Dense assignments to forbidden pairs are counted as unassigned rows
+		for(int i=0;i<nRows;i++)if(solDense[i]>=0 && dense[i][solDense[i]]>=cutoff)solDense[i]=-1;
+		System.out.println("Assignment benchmark on "+nRows+" x "+nCols+" with "+sparse.rowStart[nRows]+" allowed pairs : "+
+				"HungarianAlgorithm "+((t1-t0)/1000000)+" ms, cost="+sparse.totalCost(solDense)+" ; SparseAssignment "+((t2-t1)/1000000)+" ms, cost="+sparse.totalCost(solSparse));
+	}
+}
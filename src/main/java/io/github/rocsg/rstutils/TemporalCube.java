@@ -0,0 +1,83 @@
+package io.github.rocsg.rstutils;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * Time-contiguous copy of a tile of a time-lapse stack : the N values of a pixel follow each other in a single float array.
+ * Value of pixel (x,y) (relative to the tile) at time t is data[(y*dx+x)*N+t].
+ * This layout keeps each time series in a few cache lines, for the kernels that scan pixel per pixel along the time axis.
+ */
+public class TemporalCube {
+	public final int x0,y0,dx,dy,N;
+	public final float[]data;
+
+	public TemporalCube(int x0,int y0,int dx,int dy,int N) {
+		this.x0=x0;this.y0=y0;this.dx=dx;this.dy=dy;this.N=N;
+		this.data=new float[dx*dy*N];
+	}
+
+	/** Build the cube from the slices of a stack (time along z), restricted to the tile [x0,x0+dx[ x [y0,y0+dy[*/
+	public static TemporalCube fromStack(ImagePlus img,int x0,int y0,int dx,int dy) {
+		int N=img.getStackSize();
+		ImageProcessor[]ips=new ImageProcessor[N];
+		for(int t=0;t<N;t++)ips[t]=img.getStack().getProcessor(t+1);
+		return fromProcessors(ips,x0,y0,dx,dy);
+	}
+
+	/** Build the cube from a whole stack (time along z)*/
+	public static TemporalCube fromStack(ImagePlus img) {
+		return fromStack(img,0,0,img.getWidth(),img.getHeight());
+	}
+
+	static TemporalCube fromProcessors(ImageProcessor[]ips,int x0,int y0,int dx,int dy) {
+		int N=ips.length;
+		int X=ips[0].getWidth();
+		TemporalCube cube=new TemporalCube(x0,y0,dx,dy,N);
+		float[]data=cube.data;
+		for(int t=0;t<N;t++) {
+			Object pix=ips[t].getPixels();
+			for(int y=0;y<dy;y++) {
+				int indexIn=(y0+y)*X+x0;
+				int indexOut=(y*dx)*N+t;
+				if(pix instanceof float[]) {
+					float[]tab=(float[])pix;
+					for(int x=0;x<dx;x++) {data[indexOut]=tab[indexIn++];indexOut+=N;}
+				}
+				else if(pix instanceof byte[]) {
+					byte[]tab=(byte[])pix;
+					for(int x=0;x<dx;x++) {data[indexOut]=(tab[indexIn++] & 0xff);indexOut+=N;}
+				}
+				else if(pix instanceof short[]) {
+					short[]tab=(short[])pix;
+					for(int x=0;x<dx;x++) {data[indexOut]=(tab[indexIn++] & 0xffff);indexOut+=N;}
+				}
+				else {
+					for(int x=0;x<dx;x++) {data[indexOut]=ips[t].getf(x0+x,y0+y);indexOut+=N;}
+				}
+			}
+		}
+		return cube;
+	}
+
+	/** Index in data of the first value of the time series of pixel (x,y), relative to the tile*/
+	public int offset(int x,int y) {
+		return (y*dx+x)*N;
+	}
+
+	/** Write the cube back at its place (x0,y0) in a stack of the whole image (float, byte or short slices)*/
+	public void writeInto(ImagePlus img) {
+		writeInto(img.getStack(),x0,y0);
+	}
+
+	void writeInto(ImageStack stack,int xDest,int yDest) {
+		for(int t=0;t<N;t++) {
+			ImageProcessor ip=stack.getProcessor(t+1);
+			for(int y=0;y<dy;y++) {
+				int indexIn=(y*dx)*N+t;
+				for(int x=0;x<dx;x++) {ip.setf(xDest+x,yDest+y,data[indexIn]);indexIn+=N;}
+			}
+		}
+	}
+}
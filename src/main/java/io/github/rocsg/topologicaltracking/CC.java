@@ -5,14 +5,11 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.jgrapht.GraphPath;
-import org.jgrapht.alg.shortestpath.DijkstraShortestPath;
 import org.jgrapht.graph.SimpleDirectedWeightedGraph;
-import org.jgrapht.graph.SimpleWeightedGraph;
 
-import io.github.rocsg.fijiyama.common.Bord;
 import io.github.rocsg.fijiyama.common.Pix;
 import io.github.rocsg.fijiyama.registration.TransformUtils;
+import io.github.rocsg.rstutils.GridShortestPath;
 import io.github.rocsg.rstutils.MorphoUtils;
 import io.github.rocsg.fijiyama.common.VitimageUtils;
 import ij.IJ;
@@ -23,7 +20,8 @@ import ij.process.ImageProcessor;
 public class CC implements Serializable{
 	public CC lastCCinLat=null;
 	public static double ratioFuiteBordSurLongueur=1;
-	private static final long serialVersionUID = 1L;
+	public static boolean useGridFarthestPoint=false;//if true, determineTargetGeodesicallyFarestFromTheSource runs GridShortestPath on the pixels of the CC instead of MorphoLibJ on the projection of its Roi
+	private static final long serialVersionUID = 2L;//2 : pixels in a PixelStore. Graphs serialized with the former graph of pixels (1) cannot be read, see RegionAdjacencyGraphPipeline.readGraphFromFile
 	public boolean finalRS=false;
 	public boolean finalRoot=false;
 	public boolean isPrimStart=false;
@@ -64,9 +62,11 @@ public class CC implements Serializable{
 	public double stampDist=0;
 	public int componentLabel=0;
 	public boolean illConnected=false;
-	public SimpleWeightedGraph<Pix,Bord>pixGraph;
-	public List<Pix>mainDjikstraPath;
-	public List<List<Pix>>secondaryDjikstraPath;
+	public PixelStore pixels;//Use pixels(), as the pixels of a CC read from a graph file are loaded at first use
+	transient volatile GraphFile.Payload lazyPixels=null;//Cleared once the pixels are loaded, thus a thread reading null sees the loaded pixels and paths
+	transient RoiMask roiMask=null;//Packed membership of the pixels of r, see contains(x,y)
+	public List<Pix>mainDjikstraPath;//Use mainPath(), as the paths of a CC read from a graph file are loaded with its pixels
+	public List<List<Pix>>secondaryDjikstraPath;//Use secondaryPaths()
 	public ArrayList<CC>secondaryPathLookup;
 	public SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph;
 	public double deltaTimeHoursBefore;
@@ -80,7 +80,7 @@ public class CC implements Serializable{
 		double cost1=VitimageUtils.distance(expectedX,expectedY,x,y);//Foster being near the expected point
 		double score2=1E8;
 		for(double dx=-10;dx<=10;dx+=0.5)for(double dy=-10;dy<=10;dy+=0.5){
-			if((!cc.r.contains((int)Math.round(x+dx), (int)Math.round(y+dy))) && (!this.r.contains((int)Math.round(x+dx), (int)Math.round(y+dy)) ) && (score2>Math.sqrt(dx*dx+dy*dy))) {
+			if((!cc.contains((int)Math.round(x+dx), (int)Math.round(y+dy))) && (!this.contains((int)Math.round(x+dx), (int)Math.round(y+dy)) ) && (score2>Math.sqrt(dx*dx+dy*dy))) {
 				score2=Math.sqrt(dx*dx+dy*dy);
 			}
 		}
@@ -102,6 +102,7 @@ public class CC implements Serializable{
 			graph.removeEdge(edge);
 		}
 		graph.removeVertex(ccTmp);
+		CCSpatialIndex.invalidate(graph);
 	}
 	
 	public void setOut() {
@@ -137,10 +138,7 @@ public class CC implements Serializable{
 		Roi[]rTab=new Roi[nCC];
 		for(int i=0;i<nCC;i++)rTab[i]=list.get(i).r;
 		ImagePlus imgSeg=VitimageUtils.projectRoiTabOnSubImage(rTab);
-		ImagePlus dist=MorphoUtils.computeGeodesicInsideComponent(imgSeg,0.1);
-		double val=VitimageUtils.maxOfImage(dist);
-		dist=VitimageUtils.makeOperationOnOneImage(dist, 2, ratioFuiteBordSurLongueur/val, true);
-		dist=VitimageUtils.makeOperationOnOneImage(dist, 1, 1, true);
+		ImagePlus dist=weightsOfDistance(MorphoUtils.computeGeodesicInsideComponent(imgSeg,0.1));
 		ccFuse.buildConnectionGraphOfComponent(imgSeg,dist,8);
 		ccFuse.thisSeg=imgSeg;
 		return ccFuse;
@@ -148,6 +146,19 @@ public class CC implements Serializable{
 	
 	public CC() {		
 	}
+
+	/** dist*ratioFuiteBordSurLongueur/max(dist)+1, in place on the float pixels, without image operations going through IJ.run (CCs are built and fused by several threads)*/
+	static ImagePlus weightsOfDistance(ImagePlus dist) {
+		float[]tab=(float[])dist.getStack().getProcessor(1).getPixels();
+		double val=Double.NEGATIVE_INFINITY;
+		for(float v : tab)if(v>val)val=v;
+		double factor=ratioFuiteBordSurLongueur/val;
+		for(int i=0;i<tab.length;i++) {
+			float v=(float)(tab[i]*factor);
+			tab[i]=(float)(v+1);
+		}
+		return dist;
+	}
 	
 	
 	public CC(int day,double hour,int n,Roi r,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
@@ -163,10 +174,7 @@ public class CC implements Serializable{
 		this.yB=this.r.getBounds().y;
 		this.graph=graph;
 		ImagePlus imgSeg=VitimageUtils.projectRoiOnSubImage(this.r);
-		ImagePlus dist=MorphoUtils.computeGeodesicInsideComponent(imgSeg,0.1);
-		double val=VitimageUtils.maxOfImage(dist);
-		dist=VitimageUtils.makeOperationOnOneImage(dist, 2, ratioFuiteBordSurLongueur/val, true);
-		dist=VitimageUtils.makeOperationOnOneImage(dist, 1, 1, true);
+		ImagePlus dist=weightsOfDistance(MorphoUtils.computeGeodesicInsideComponent(imgSeg,0.1));
 		buildConnectionGraphOfComponent(imgSeg,dist,8);
 	}
 	
@@ -225,18 +233,22 @@ public class CC implements Serializable{
 	}
 	
 	public void countPixels() {
-		Rectangle R=this.r.getBounds();
-		int xx=R.x;
-		int XX=xx+R.width;
-		int yy=R.y;
-		int YY=yy+R.height;
-		int count=0;
-		for(int x=xx;x<=XX;x++) {
-			for(int y=yy;y<=YY;y++) {
-				if(r.contains(x, y))count++;
-			}
+		this.nPixels=roiMask().count();		
+	}
+
+	/** Membership of the pixels of r, built at first use and rebuilt if r was replaced*/
+	public RoiMask roiMask() {
+		RoiMask m=roiMask;
+		if(m==null || m.roi!=r) {
+			m=new RoiMask(r);
+			roiMask=m;
 		}
-		this.nPixels=count;		
+		return m;
+	}
+
+	/** Pixel (x,y) of the image is in the CC. Same answer as r.contains(x,y)*/
+	public boolean contains(int x,int y) {
+		return roiMask().contains(x, y);
 	}
 	
 	
@@ -244,8 +256,8 @@ public class CC implements Serializable{
 		if(!isPossibleNeighbour(cc2,false))return new double[] {0,0,0};
 		Rectangle R1=this.r.getBounds();
 		Rectangle R2=cc2.r.getBounds();
-		Roi r1=this.r;
-		Roi r2=cc2.r;
+		RoiMask r1=this.roiMask();
+		RoiMask r2=cc2.roiMask();
 		int x1=R1.x;
 		int x2=R2.x;
 		int X1=x1+R1.width;
@@ -300,8 +312,8 @@ public class CC implements Serializable{
 		double[]firstCalcul=nFacets4connexe_V1(cc2);		
 		Rectangle R1=this.r.getBounds();
 		Rectangle R2=cc2.r.getBounds();
-		Roi r1=this.r;
-		Roi r2=cc2.r;
+		RoiMask r1=this.roiMask();
+		RoiMask r2=cc2.roiMask();
 		int x1=R1.x;
 		int x2=R2.x;
 		int X1=x1+R1.width;
@@ -406,8 +418,8 @@ public class CC implements Serializable{
 		double[]firstCalcul=nFacets4connexe_V1(cc2);		
 		Rectangle R1=this.r.getBounds();
 		Rectangle R2=cc2.r.getBounds();
-		Roi r1=this.r;
-		Roi r2=cc2.r;
+		RoiMask r1=this.roiMask();
+		RoiMask r2=cc2.roiMask();
 		int x1=R1.x;
 		int x2=R2.x;
 		int X1=x1+R1.width;
@@ -427,11 +439,8 @@ public class CC implements Serializable{
 		double yExp=firstCalcul[2];
 		boolean debug=false;
 		//int SI=RegionAdjacencyGraphPipeline.SIZE_FACTOR;
-		 if((this==RegionAdjacencyGraphPipeline.getCC(graph,  21,5084,2032)) && (cc2==RegionAdjacencyGraphPipeline.getCC(graph,22,5130,2080 )))debug=true;
-		 if(debug) {
-			 System.out.println(r1.contains(636, 256));
-			 System.out.println(r2.contains(636, 257));
-		 }
+		if(DebugProbes.enabled && DebugProbes.is("connexionSource",this) && DebugProbes.is("connexionTarget",cc2))debug=true;
+		if(debug)System.out.println("Debug probe : connexion between "+this+" and "+cc2);
 		if(R1.width*R1.height <R2.width*R2.height) {
 			int xx=x1-1;int XX=X1+1; int yy=y1-1; int YY=Y1+1;
 			for(int x=xx;x<=XX;x++) {
@@ -527,25 +536,41 @@ public class CC implements Serializable{
 	
 	
 	
-	public SimpleWeightedGraph<Pix,Bord>buildConnectionGraphOfComponent(ImagePlus imgSeg,ImagePlus distToExt,int connexity){
-		this.pixGraph=new SimpleWeightedGraph<>(Bord.class);
-		Pix[][]tabPix=new Pix[imgSeg.getWidth()][imgSeg.getHeight()];
-		int xM=imgSeg.getWidth();
-		int yM=imgSeg.getHeight();
-		float[]tabData=(float[])imgSeg.getStack().getPixels(1);
-		float[]tabDist=(float[])distToExt.getStack().getPixels(1);
-		for(int x=0;x<xM;x++)for(int y=0;y<yM;y++) if(tabData[y*xM+x]>0) {
-			tabPix[x][y]=new Pix(x,y,tabDist[y*xM+x]);
-			pixGraph.addVertex(tabPix[x][y]);
+	/** Pixels of the CC, read from the graph file at first call if the graph was loaded with GraphFile*/
+	public PixelStore pixels() {
+		if(lazyPixels!=null) {
+			//Several threads of the plongement can read the same trunk CC
+			synchronized(this) {
+				GraphFile.Payload payload=lazyPixels;
+				if(payload!=null) {
+					payload.loadPixels(this);
+					lazyPixels=null;
+				}
+			}
 		}
-		for(int x=0;x<xM;x++)for(int y=0;y<yM;y++) {
-			if(tabPix[x][y]==null)continue;
-			if( (x<(xM-1)) && (y<(yM-1)) && (connexity==8) ) if(tabPix[x+1][y+1]!=null)this.pixGraph.addEdge(tabPix[x][y], tabPix[x+1][y+1],new Bord(tabPix[x][y], tabPix[x+1][y+1]));
-			if( (x<(xM-1)) && (y>0) && (connexity==8) ) if(tabPix[x+1][y-1]!=null)this.pixGraph.addEdge(tabPix[x][y], tabPix[x+1][y-1],new Bord(tabPix[x][y], tabPix[x+1][y-1]));
-			if( (x<(xM-1)) ) if(tabPix[x+1][y]!=null)this.pixGraph.addEdge(tabPix[x][y], tabPix[x+1][y],new Bord(tabPix[x][y], tabPix[x+1][y]));
-			if( (y<(yM-1)) ) if(tabPix[x][y+1]!=null)this.pixGraph.addEdge(tabPix[x][y], tabPix[x][y+1],new Bord(tabPix[x][y], tabPix[x][y+1]));
-		}			
-		return this.pixGraph;
+		return pixels;
+	}
+
+	/** Main dijkstra path, after loading the pixels if needed*/
+	public List<Pix>mainPath(){
+		pixels();
+		return mainDjikstraPath;
+	}
+
+	/** Secondary dijkstra paths, after loading the pixels if needed*/
+	public List<List<Pix>>secondaryPaths(){
+		pixels();
+		return secondaryDjikstraPath;
+	}
+
+	private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
+		pixels();
+		out.defaultWriteObject();
+	}
+
+	public PixelStore buildConnectionGraphOfComponent(ImagePlus imgSeg,ImagePlus distToExt,int connexity){
+		this.pixels=new PixelStore(imgSeg,distToExt,connexity);
+		return this.pixels;
 	}
 
 	public void determineVoxelShortestPathTrunkRoot(){
@@ -557,8 +582,8 @@ public class CC implements Serializable{
 			coordsT=getPrevTargetFromFacetConnexion(edge);			
 		}
 		else {
-			for(Pix p:this.pixGraph.vertexSet()) {
-				if(p.y>coordsT[1]) {coordsT[0]=p.x;coordsT[1]=p.y;};
+			for(int i=0;i<pixels().n;i++) {
+				if(pixels().y[i]>coordsT[1]) {coordsT[0]=pixels().x[i];coordsT[1]=pixels().y[i];};
 			}
 		}
 		if(this.day>1) {
@@ -567,7 +592,7 @@ public class CC implements Serializable{
 			coordsS=getNextSourceFromFacetConnexion(edge);
 		}
 		else {
-			for(Pix p:this.pixGraph.vertexSet())if(p.y<coordsS[1]) {coordsS[0]=p.x;coordsS[1]=p.y;};
+			for(int i=0;i<pixels().n;i++)if(pixels().y[i]<coordsS[1]) {coordsS[0]=pixels().x[i];coordsS[1]=pixels().y[i];};
 		}
 
 		determineVoxelShortestPath (coordsS,coordsT,8,null);
@@ -583,61 +608,86 @@ public class CC implements Serializable{
 	
 	
 	public List<Pix>determineVoxelShortestPath (int[]coordStart,int[]coordStop,int connexity,CC setHereNextCCIfItIsLatDeterminationForTrunk) {
-		Pix pixStart=this.getPix(coordStart[0],coordStart[1]);
-		Pix pixStop=this.getPix(coordStop[0],coordStop[1]);
-		setWeightsToDistExt();
-		DijkstraShortestPath<Pix, Bord>djik=new DijkstraShortestPath<Pix, Bord>(this.pixGraph);
-		GraphPath<Pix, Bord> path = djik.getPath(pixStart, pixStop);
+		int start=pixels().indexOf(coordStart[0],coordStart[1]);
+		int stop=pixels().indexOf(coordStop[0],coordStop[1]);
+		List<Pix>path=pixels().shortestPath(start, stop);
 		if(setHereNextCCIfItIsLatDeterminationForTrunk==null) {
-			this.mainDjikstraPath=path.getVertexList();
-			for(Pix p:this.mainDjikstraPath)p.isSkeleton=true;
+			this.mainDjikstraPath=new ArrayList<Pix>(path);
+			for(Pix p:this.mainPath())setSkeleton(p);
 		}
 		else {
-			List<Pix>temp=path.getVertexList();
-			List<Pix>definitive=path.getVertexList();
-			definitive.clear();
-			for(Pix p:temp) {if(!this.mainDjikstraPath.contains(p))definitive.add(p);}
-			this.secondaryDjikstraPath.add(definitive);
-			for(Pix p:definitive)p.isSkeleton=true;
+			boolean[]inMainPath=maskOfMainPath();
+			List<Pix>definitive=new ArrayList<Pix>();
+			for(Pix p:path) {if(!inMainPath[pixels().indexOf(p.x,p.y)])definitive.add(p);}
+			this.secondaryPaths().add(definitive);
+			for(Pix p:definitive)setSkeleton(p);
 			this.secondaryPathLookup.add(setHereNextCCIfItIsLatDeterminationForTrunk);
 		}
-		return path.getVertexList();			
+		return path;			
+	}
+
+	/** Pixels of the main dijkstra path*/
+	public boolean[]maskOfMainPath(){
+		boolean[]mask=new boolean[pixels().n];
+		if(mainPath()!=null)for(Pix p:mainPath())mask[pixels().indexOf(p.x,p.y)]=true;
+		return mask;
+	}
+
+	void setSkeleton(Pix p) {
+		p.isSkeleton=true;
+		pixels().isSkeleton[pixels().indexOf(p.x,p.y)]=true;
+	}
+
+	void setWayFromPrim(Pix p,double val) {
+		p.wayFromPrim=val;
+		pixels().wayFromPrim[pixels().indexOf(p.x,p.y)]=val;
+	}
+
+	/** Length of the edge between two consecutive pixels of a path*/
+	double len(Pix p,Pix pBef) {
+		return pixels().len(pixels().indexOf(pBef.x,pBef.y),pixels().indexOf(p.x,p.y));
+	}
+
+	/** Refresh the Pix of the dijkstra paths from the pixel store*/
+	public void syncPathsFromPixels() {
+		if(mainPath()!=null)for(Pix p:mainPath())pixels().copyToPix(pixels().indexOf(p.x,p.y), p);
+		if(secondaryPaths()!=null)for(List<Pix>sec:secondaryPaths())for(Pix p:sec)pixels().copyToPix(pixels().indexOf(p.x,p.y), p);
 	}
 
 	public double setDistancesToShortestPathTrunk() {
 		double curDist=0;
 		if(this.day>1 && bestIncomingActivatedEdge()!=null) {
-			Pix p=this.mainDjikstraPath.get(0);
+			Pix p=this.mainPath().get(0);
 			double xEd=bestIncomingActivatedEdge().connectionX-this.xB();
 			double yEd=bestIncomingActivatedEdge().connectionY-this.yB();
 			double delta=VitimageUtils.distance(xEd, yEd, p.x,p.y);
 			curDist=bestIncomingActivatedEdge().distanceConnectionTrunk+delta;
 		}
-		this.mainDjikstraPath.get(0).wayFromPrim=curDist;
-		for(int i=1;i<this.mainDjikstraPath.size();i++) {
-			Pix p=this.mainDjikstraPath.get(i);
-			Pix pBef=this.mainDjikstraPath.get(i-1);
-			curDist+=this.pixGraph.getEdge(p, pBef).len;			
-			p.wayFromPrim=curDist;
+		setWayFromPrim(this.mainPath().get(0),curDist);
+		for(int i=1;i<this.mainPath().size();i++) {
+			Pix p=this.mainPath().get(i);
+			Pix pBef=this.mainPath().get(i-1);
+			curDist+=len(p, pBef);			
+			setWayFromPrim(p,curDist);
 		}
 		CC nextPrim = getPrimChild();
 		if(nextPrim!=null) {
-			Pix p=this.mainDjikstraPath.get(this.mainDjikstraPath.size()-1);
+			Pix p=this.mainPath().get(this.mainPath().size()-1);
 			ConnectionEdge edge=graph.getEdge(this, nextPrim);
 			double delta=VitimageUtils.distance(edge.connectionX-this.xB(), edge.connectionY-this.yB(), p.x,p.y);
 			edge.distanceConnectionTrunk=curDist+delta;
 		}
 		
-		if(this.secondaryDjikstraPath==null)return curDist;
+		if(this.secondaryPaths()==null)return curDist;
 		double curDist2=0;
-		for(int j=0;j<this.secondaryDjikstraPath.size();j++) {
+		for(int j=0;j<this.secondaryPaths().size();j++) {
 			curDist2=0;
-			List<Pix>sec=secondaryDjikstraPath.get(j);
+			List<Pix>sec=secondaryPaths().get(j);
 			for(int i=1;i<sec.size();i++) {
 				Pix p=sec.get(i);
 				Pix pBef=sec.get(i-1);
-				curDist2+=this.pixGraph.getEdge(p, pBef).len;			
-				p.wayFromPrim=curDist2;
+				curDist2+=len(p, pBef);			
+				setWayFromPrim(p,curDist2);
 			}
 			CC nextLat = this.secondaryPathLookup.get(j);
 			ConnectionEdge edge2=graph.getEdge(this, nextLat);
@@ -649,12 +699,12 @@ public class CC implements Serializable{
 	
 	public double setDistancesToMainDijkstraPath(double d0) {
 		double tot=d0;
-		this.mainDjikstraPath.get(0).wayFromPrim=tot;
-		for(int i=1;i<this.mainDjikstraPath.size();i++) {
-			Pix p=this.mainDjikstraPath.get(i);
-			Pix pBef=this.mainDjikstraPath.get(i-1);
-			tot+=this.pixGraph.getEdge(p, pBef).len;			
-			p.wayFromPrim=tot;
+		setWayFromPrim(this.mainPath().get(0),tot);
+		for(int i=1;i<this.mainPath().size();i++) {
+			Pix p=this.mainPath().get(i);
+			Pix pBef=this.mainPath().get(i-1);
+			tot+=len(p, pBef);			
+			setWayFromPrim(p,tot);
 		}
 		return tot;
 	}
@@ -662,15 +712,15 @@ public class CC implements Serializable{
 	
 	public int[]getExpectedSource(){
 		if(this.day==1 && this.trunk) {
-			Pix pp=null;
+			int pp=-1;
 			int yMin=100000;
-			for(Pix p:pixGraph.vertexSet()) {
-				if(p.y<yMin) {
-					pp=p;
-					yMin=p.y;
+			for(int i=0;i<pixels().n;i++) {
+				if(pixels().y[i]<yMin) {
+					pp=i;
+					yMin=pixels().y[i];
 				}
 			}
-			return new int[] {pp.x,pp.y};
+			return new int[] {pixels().x[pp],pixels().y[pp]};
 		}
 		ConnectionEdge edge=bestIncomingActivatedEdge();
 		return getNextSourceFromFacetConnexion(edge);
@@ -797,7 +847,7 @@ public class CC implements Serializable{
 	public ImagePlus drawDist() {
 		ImagePlus seg= VitimageUtils.convertToFloat(VitimageUtils.projectRoiOnSubImage(r));		
 		ImageProcessor ip=seg.getStack().getProcessor(1);
-		for (Pix p:pixGraph.vertexSet()) ip.setf(p.x, p.y, (float) p.dist);
+		for (int i=0;i<pixels().n;i++) ip.setf(pixels().x[i], pixels().y[i], (float) pixels().dist[i]);
 		seg.setProcessor(ip);
 		seg.resetDisplayRange();
 		seg.setTitle("Dist");
@@ -809,7 +859,7 @@ public class CC implements Serializable{
 	public ImagePlus drawDistToSkeleton() {
 		ImagePlus seg= VitimageUtils.convertToFloat(VitimageUtils.projectRoiOnSubImage(r));		
 		ImageProcessor ip=seg.getStack().getProcessor(1);
-		for (Pix p:pixGraph.vertexSet()) ip.setf(p.x, p.y, (float) p.distanceToSkeleton);
+		for (int i=0;i<pixels().n;i++) ip.setf(pixels().x[i], pixels().y[i], (float) pixels().distanceToSkeleton[i]);
 		seg.setProcessor(ip);
 		seg.setTitle("DistToSkeleton");
 		IJ.run(seg,"Fire","");
@@ -820,7 +870,7 @@ public class CC implements Serializable{
 	public ImagePlus drawWayFromPrim() {
 		ImagePlus seg= VitimageUtils.convertToFloat(VitimageUtils.projectRoiOnSubImage(r));		
 		ImageProcessor ip=seg.getStack().getProcessor(1);
-		for (Pix p:pixGraph.vertexSet()) ip.setf(p.x, p.y, (float) p.wayFromPrim);
+		for (int i=0;i<pixels().n;i++) ip.setf(pixels().x[i], pixels().y[i], (float) pixels().wayFromPrim[i]);
 		seg.setProcessor(ip);
 		seg.setTitle("WayFromPrim");
 		IJ.run(seg,"Fire","");
@@ -830,37 +880,10 @@ public class CC implements Serializable{
 
 	
 	public void updateAllDistancesToTrunk() {
-		ArrayList<Pix>tabVisited=new ArrayList<Pix>();
-		ArrayList<Pix>tabToVisit=new ArrayList<Pix>();
-		for(Pix p:pixGraph.vertexSet()) {
-			if(mainDjikstraPath.contains(p)) {
-				tabVisited.add(p);p.distanceToSkeleton=0;p.previous=p;
-			}
-			else {
-				p.distanceToSkeleton=10000000;
-			}
-		}
-		while(tabVisited.size()>0) {
-			for(Pix p:tabVisited) {
-				for(Bord bord:pixGraph.edgesOf(p)) {
-					Pix p1=pixGraph.getEdgeSource(bord);
-					if(p1!=p)if(p1.distanceToSkeleton>(p.distanceToSkeleton+pixGraph.getEdge(p1, p).len)) {
-						p1.previous=p.previous;
-						p1.distanceToSkeleton=p.distanceToSkeleton+pixGraph.getEdge(p1, p).len;
-						tabToVisit.add(p1);
-					}
-					Pix p2=pixGraph.getEdgeTarget(bord);
-					if(p2!=p)if(p2.distanceToSkeleton>p.distanceToSkeleton+pixGraph.getEdge(p2, p).len) {
-						p2.previous=p.previous;
-						p2.distanceToSkeleton=p.distanceToSkeleton+pixGraph.getEdge(p2, p).len;
-						tabToVisit.add(p2);
-					}
-				}
-			}
-			tabVisited=tabToVisit;
-			tabToVisit=new ArrayList<Pix>();
-		}
-		for(Pix p:pixGraph.vertexSet())if(!mainDjikstraPath.contains(p))p.wayFromPrim=p.previous.wayFromPrim;
+		boolean[]inMainPath=maskOfMainPath();
+		pixels().propagateDistanceToSkeleton(inMainPath);
+		for(int i=0;i<pixels().n;i++)if(!inMainPath[i] && pixels().previous[i]>=0)pixels().wayFromPrim[i]=pixels().wayFromPrim[pixels().previous[i]];
+		syncPathsFromPixels();
 	}
 	
 	/*
@@ -933,31 +956,21 @@ public class CC implements Serializable{
 	
 	public double setDistanceToShortestPath(double distanceAtStart) {
 		double curDist=distanceAtStart;
-		this.mainDjikstraPath.get(0).wayFromPrim=curDist;
-		for(int i=1;i<this.mainDjikstraPath.size();i++) {
-			Pix p=this.mainDjikstraPath.get(i);
-			Pix pBef=this.mainDjikstraPath.get(i-1);
-			curDist+=this.pixGraph.getEdge(p, pBef).len;			
-			p.wayFromPrim=curDist;
+		setWayFromPrim(this.mainPath().get(0),curDist);
+		for(int i=1;i<this.mainPath().size();i++) {
+			Pix p=this.mainPath().get(i);
+			Pix pBef=this.mainPath().get(i-1);
+			curDist+=len(p, pBef);			
+			setWayFromPrim(p,curDist);
 		}
 		return curDist;
 	}
 	
 	
+	/** Pix holding the current values of the pixel at (x,y) of the bounding box, or null if not in the CC*/
 	public Pix getPix(int x, int y) {
-		for(Pix p:pixGraph.vertexSet()) {
-			if(p.x==x && p.y==y)return p;
-		}
-		return null;
-	}
-	
-
-	public void setWeightsToDistExt() {
-		for(Bord bord:pixGraph.edgeSet()) pixGraph.setEdgeWeight(bord, bord.getWeightDistExt());
-	}
-
-	public void setWeightsToEuclidian() {
-		for(Bord bord:pixGraph.edgeSet()) pixGraph.setEdgeWeight(bord, bord.getWeightEuclidian());
+		int i=pixels().indexOf(x, y);
+		return (i<0) ? null : pixels().toPix(i);
 	}
 
 	public int[]getSeedFromFacetConnexionOLD(double[]coords,boolean justDebug){
@@ -1046,19 +1059,19 @@ public class CC implements Serializable{
 		double y0=e.connectionY-e.target.yB();
 		double dx=e.axisX/2.0;
 		double dy=e.axisY/2.0;
-		if(getPix((int)Math.round(x0+dx), (int)Math.round(y0+dy))==null) {
+		if(pixels().indexOf((int)Math.round(x0+dx), (int)Math.round(y0+dy))<0) {
 			int targX=(int)Math.round(x0+dx);
 			int targY=(int)Math.round(y0+dy);
 			double minDist=1000000;
-			Pix pp=null;
-			for(Pix p: pixGraph.vertexSet()) {
-				double dist=VitimageUtils.distance(targX, targY, p.x, p.y);
+			int pp=-1;
+			for(int i=0;i<pixels().n;i++) {
+				double dist=VitimageUtils.distance(targX, targY, pixels().x[i], pixels().y[i]);
 				if(dist<minDist) {
 					minDist=dist;
-					pp=p;
+					pp=i;
 				}
 			}
-			return new int[] {pp.x,pp.y};
+			return new int[] {pixels().x[pp],pixels().y[pp]};
 		}
 		else return new int[] { (int)Math.round(x0+dx) ,  (int)Math.round(y0+dy) };
 	}
@@ -1076,23 +1089,31 @@ public class CC implements Serializable{
 	public int[]determineTargetGeodesicallyFarestFromTheSource(int[]start){
 		int x0=start[0];
 		int y0=start[1];
+		if(useGridFarthestPoint && pixels()!=null && pixels().indexOf(x0, y0)>=0) {
+			int far=farthestOnGrid(pixels().mask(),pixels().width, pixels().height,x0,y0);
+			return new int[] {far%pixels().width,far/pixels().width};
+		}
 		ImagePlus imgSeg=null;
 		if(thisSeg==null)imgSeg=VitimageUtils.projectRoiOnSubImage(this.r);
 		else imgSeg=thisSeg;
 		ImagePlus seedImage=VitimageUtils.convertToFloat(VitimageUtils.nullImage(imgSeg));
 		((float[])(seedImage.getStack().getPixels(1)))[imgSeg.getWidth()*y0+x0]=255;
 		ImagePlus distance=MorphoUtils.computeGeodesic(seedImage, imgSeg,false);
-		float[]tabData=(float[])distance.getStack().getPixels(1);
+		return farthestOnDistanceMap((float[])distance.getStack().getPixels(1),distance.getWidth(),distance.getHeight(),x0,y0);
+	}
+
+	/** Pixel of max value of the distance map (-1 where unreachable), ties given to the farthest from (x0,y0) in euclidian distance, then to the first in x-major order*/
+	static int[]farthestOnDistanceMap(float[]tabData,int X,int Y,int x0,int y0){
 		int xMax=0;int yMax=0;double distMax=-1000;double eucDistMax=-1000;
-		for(int x=0;x<distance.getWidth();x++)for(int y=0;y<distance.getHeight();y++) {
-			if(tabData[distance.getWidth()*y+x]==distMax) {
+		for(int x=0;x<X;x++)for(int y=0;y<Y;y++) {
+			if(tabData[X*y+x]==distMax) {
 				if(VitimageUtils.distance(x, y, x0, y0)>eucDistMax) {
 					eucDistMax=VitimageUtils.distance(x, y, x0,y0);
 					xMax=x;yMax=y;
 				}
 			}
-			else if(tabData[distance.getWidth()*y+x]>distMax) {
-				distMax=tabData[distance.getWidth()*y+x];
+			else if(tabData[X*y+x]>distMax) {
+				distMax=tabData[X*y+x];
 				eucDistMax=VitimageUtils.distance(x, y, x0,y0);
 				xMax=x;yMax=y;
 			}
@@ -1100,15 +1121,21 @@ public class CC implements Serializable{
 		return new int[] {xMax,yMax};
 	}
 
+	/** Same choice as farthestOnDistanceMap over the MorphoLibJ distance map, from the chamfer distances of MorphoUtils.computeGeodesic computed on the grid of the mask*/
+	static int farthestOnGrid(boolean[]mask,int X,int Y,int x0,int y0) {
+		GridShortestPath g=GridShortestPath.local().setGrid(X, Y, mask, 8, GridShortestPath.chamfer(1000, 1414));
+		return g.farthest(y0*X+x0);
+	}
+
 	public int[][]findHiddenStartStopToInOtherCC(CC cc2,int[]start){
 		int[][]res=new int[4][2];
 		int x0=start[0]+this.xB-cc2.xB;
 		int y0=start[1]+this.yB-cc2.yB;
 		double distMin=1E8;int xMin=0;int yMin=0;
-		for(Pix p:cc2.pixGraph.vertexSet()) {
-			if(VitimageUtils.distance(x0,y0,p.x,p.y)<distMin) {
-				distMin=VitimageUtils.distance(x0,y0,p.x,p.y);
-				xMin=p.x;yMin=p.y;
+		for(int i=0;i<cc2.pixels().n;i++) {
+			if(VitimageUtils.distance(x0,y0,cc2.pixels().x[i],cc2.pixels().y[i])<distMin) {
+				distMin=VitimageUtils.distance(x0,y0,cc2.pixels().x[i],cc2.pixels().y[i]);
+				xMin=cc2.pixels().x[i];yMin=cc2.pixels().y[i];
 			}
 		}
 		res[1]=new int[] {xMin,yMin};
@@ -1116,10 +1143,10 @@ public class CC implements Serializable{
 		distMin=1E8;xMin=0;yMin=0;
 		x0=xMin+cc2.xB-this.xB;
 		y0=yMin+cc2.yB-this.yB;
-		for(Pix p:this.pixGraph.vertexSet()) {
-			if(VitimageUtils.distance(x0,y0,p.x,p.y)<distMin) {
-				distMin=VitimageUtils.distance(x0,y0,p.x,p.y);
-				xMin=p.x;yMin=p.y;
+		for(int i=0;i<pixels().n;i++) {
+			if(VitimageUtils.distance(x0,y0,pixels().x[i],pixels().y[i])<distMin) {
+				distMin=VitimageUtils.distance(x0,y0,pixels().x[i],pixels().y[i]);
+				xMin=pixels().x[i];yMin=pixels().y[i];
 			}
 		}
 		res[0]=new int[] {xMin,yMin};
@@ -1129,7 +1156,7 @@ public class CC implements Serializable{
 	
 	public String getStringDijkstraMainPath() {
 		String ret="";
-		for(Pix p: mainDjikstraPath) {
+		for(Pix p: mainPath()) {
 			ret+=(p+"\n");
 		}
 		return ret;
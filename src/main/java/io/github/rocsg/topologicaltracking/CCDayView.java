@@ -0,0 +1,52 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+/**
+ * CCs of a graph grouped by day, and rank of each CC in the vertex set, built in one pass over graph.vertexSet().
+ * Lists of a day keep the order of the vertex set, thus a loop over ofDay(d) visits the CCs in the same order as a scan of the vertex set filtered on day d.
+ * The view is a snapshot : it is not updated when vertices are added or removed, or when days change.
+ */
+public class CCDayView {
+	final ArrayList<ArrayList<CC>>byDay=new ArrayList<ArrayList<CC>>();
+	final HashMap<CC,Integer>ranks=new HashMap<CC,Integer>();
+	int maxDay=0;
+
+	public CCDayView(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		int rank=0;
+		for(CC cc : graph.vertexSet()) {
+			ranks.put(cc, rank++);
+			if(cc.day<0)continue;
+			while(byDay.size()<=cc.day)byDay.add(new ArrayList<CC>());
+			byDay.get(cc.day).add(cc);
+			if(cc.day>maxDay)maxDay=cc.day;
+		}
+	}
+
+	/** CCs of this day, in the order of the vertex set*/
+	public List<CC>ofDay(int day){
+		if(day<0 || day>=byDay.size())return Collections.emptyList();
+		return byDay.get(day);
+	}
+
+	/** Highest day of the CCs of the graph (0 if none)*/
+	public int maxDay() {
+		return maxDay;
+	}
+
+	/** Position of cc in the vertex set, or -1 if cc was not in the graph when the view was built*/
+	public int rank(CC cc) {
+		Integer r=ranks.get(cc);
+		return r==null ? -1 : r;
+	}
+
+	/** Sort a list of CCs in the order of the vertex set*/
+	public void sortByRank(List<CC>list) {
+		Collections.sort(list,(a,b) -> Integer.compare(rank(a),rank(b)));
+	}
+}
@@ -0,0 +1,153 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+import io.github.rocsg.rootsystemtracker.PipelineParamHandler;
+
+/**
+ * Bounded level-by-level search in the region adjacency graph, used by RegionAdjacencyGraphPipeline.areConnectedByPathOfCC_v2.
+ * Distances and last lateral CCs are kept in arrays indexed by the rank of the CC in the vertex set, and are only valid when their epoch stamp
+ * is the one of the current query : nothing is cleared between two queries. The frontier is an ArrayDeque holding one level after the other,
+ * with the same duplicates and the same order as the former lists, thus results are the same, including the cap on the number of levels.
+ * A CC missing from the index (added after a removal, the number of vertices being unchanged) gets the next free rank when first met.
+ * An instance is not thread-safe, use one per thread (see local(graph)).
+ */
+public class CCPathSearch {
+	public static final double UNREACHED=10000;
+	private static final ThreadLocal<CCPathSearch>locals=new ThreadLocal<CCPathSearch>();
+
+	SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph;
+	int nVertices=-1;
+	final HashMap<CC,Integer>ranks=new HashMap<CC,Integer>();
+	double[]dist=new double[0];
+	int[]distStamp=new int[0];
+	CC[]lastLat=new CC[0];
+	int[]lastLatStamp=new int[0];
+	int epoch=0;
+	final ArrayDeque<CC>frontier=new ArrayDeque<CC>();
+
+	/** Instance of the calling thread, indexed on graph (the index is rebuilt if the graph or its number of vertices changed, and completed by rank(cc) otherwise)*/
+	public static CCPathSearch local(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		CCPathSearch s=locals.get();
+		if(s==null) {s=new CCPathSearch();locals.set(s);}
+		if(s.graph!=graph || s.nVertices!=graph.vertexSet().size())s.index(graph);
+		return s;
+	}
+
+	void index(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		this.graph=graph;
+		nVertices=graph.vertexSet().size();
+		ranks.clear();
+		for(CC cc : graph.vertexSet())ranks.put(cc, ranks.size());
+		dist=new double[nVertices];
+		distStamp=new int[nVertices];
+		lastLat=new CC[nVertices];
+		lastLatStamp=new int[nVertices];
+		epoch=0;
+	}
+
+	/** Distance from ccStop to ccStart computed by areConnectedByPathOfCC_v2, or UNREACHED if ccStart was not reached within maxIter+1 levels*/
+	public double distance(CC ccStop,CC ccStart,PipelineParamHandler pph,int maxIter) {
+		if(epoch==Integer.MAX_VALUE) {
+			Arrays.fill(distStamp,0);
+			Arrays.fill(lastLatStamp,0);
+			epoch=0;
+		}
+		epoch++;
+		frontier.clear();
+		setDist(ccStop,0);
+		frontier.add(ccStop);
+		int iter=-1;
+		while(true) {
+			iter++;
+			int nLevel=frontier.size();
+			for(int i=0;i<nLevel;i++) {
+				CC ccTemp=frontier.poll();
+				for(ConnectionEdge edge : graph.outgoingEdgesOf(ccTemp))relax(ccTemp,edge.target,1,pph);
+				for(ConnectionEdge edge : graph.incomingEdgesOf(ccTemp))relax(ccTemp,edge.source,2,pph);
+			}
+			if(frontier.isEmpty() || iter>maxIter)break;
+		}
+		frontier.clear();
+		return dist(ccStart);
+	}
+
+	/** Step from ccTemp to its neighbour ccTrial. Between two lateral CCs, the step costs stepLateral*/
+	void relax(CC ccTemp,CC ccTrial,double stepLateral,PipelineParamHandler pph) {
+		double deltaT=ccTrial.hour-ccTemp.hour;
+		if(deltaT<0)deltaT=-deltaT;
+		if(deltaT==0)deltaT=0.7*pph.typicalHourDelay;
+		if(ccTrial.day<1)return;
+		if(!ccTrial.trunk && !ccTemp.trunk) {
+			if(dist(ccTrial)>(dist(ccTemp)+stepLateral)) {
+				frontier.add(ccTrial);
+				setDist(ccTrial,dist(ccTemp)+stepLateral);
+			}
+		}
+		if(ccTrial.trunk && !ccTemp.trunk) {
+			if(dist(ccTrial)>(dist(ccTemp)+0)) {
+				frontier.add(ccTrial);
+				setDist(ccTrial,dist(ccTemp)+0);
+				setLastLat(ccTrial,ccTemp);
+			}
+		}
+		if(ccTrial.trunk && ccTemp.trunk) {
+			if(dist(ccTrial)>(dist(ccTemp)+0)) {
+				frontier.add(ccTrial);
+				setDist(ccTrial,dist(ccTemp)+0);
+				setLastLat(ccTrial,lastLat(ccTemp));
+			}
+		}
+		if(!ccTrial.trunk && ccTemp.trunk) {
+			double scoreAdd=ccTrial.euclidianDistanceToCC(lastLat(ccTemp))/(pph.getMeanSpeedLateral()*(deltaT)/pph.typicalHourDelay);
+			if(dist(ccTrial)>(dist(ccTemp)+scoreAdd)) {
+				frontier.add(ccTrial);
+				setDist(ccTrial,dist(ccTemp)+scoreAdd);
+			}
+		}
+	}
+
+	/** Rank of cc in the index. A CC not indexed yet gets the next rank, with stamps that are not the one of the current query*/
+	int rank(CC cc) {
+		Integer r=ranks.get(cc);
+		if(r!=null)return r;
+		int rNew=ranks.size();
+		ranks.put(cc, rNew);
+		if(rNew>=dist.length) {
+			int n=Math.max(16, 2*rNew);
+			dist=Arrays.copyOf(dist, n);
+			distStamp=Arrays.copyOf(distStamp, n);
+			lastLat=Arrays.copyOf(lastLat, n);
+			lastLatStamp=Arrays.copyOf(lastLatStamp, n);
+		}
+		return rNew;
+	}
+
+	/** Distance of cc in the current query, or UNREACHED*/
+	double dist(CC cc) {
+		int r=rank(cc);
+		return (distStamp[r]!=epoch) ? UNREACHED : dist[r];
+	}
+
+	void setDist(CC cc,double d) {
+		int r=rank(cc);
+		dist[r]=d;
+		distStamp[r]=epoch;
+	}
+
+	/** Last lateral CC before cc in the current query, or cc.lastCCinLat if not set by this query*/
+	CC lastLat(CC cc) {
+		int r=rank(cc);
+		return (lastLatStamp[r]!=epoch) ? cc.lastCCinLat : lastLat[r];
+	}
+
+	void setLastLat(CC cc,CC last) {
+		int r=rank(cc);
+		lastLat[r]=last;
+		lastLatStamp[r]=epoch;
+	}
+}
@@ -0,0 +1,212 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.awt.Rectangle;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+/**
+ * Uniform grid over the centroids and bounding boxes of the CCs of a graph, with one grid per day and one for all days.
+ * Centroids are the ones of the Roi (r.getContourCentroid()), computed once at indexing time.
+ * Queries give the same result than a linear scan over graph.vertexSet() : ties are broken by the order of the vertex set.
+ * The index of a graph is kept along with it (see of(graph)). The code adding or removing vertices calls invalidate(graph), and the index is rebuilt at next use.
+ * As a guard for the changes made without invalidate, of(graph) also rebuilds the index when the vertex set differs from the indexed one (count and identities).
+ * The geometry of a CC (its Roi) is set when it is built, before it is added to the graph.
+ */
+public class CCSpatialIndex {
+	public static final int DEFAULT_CELL_SIZE=32;
+	private static final List<Object[]>indexedGraphs=new ArrayList<Object[]>();
+
+	final SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph;
+	final int cellSize;
+	final int nVertices;
+	final long fingerprint;
+	final CC[]ccs;//In the order of the vertex set
+	final double[]cx;
+	final double[]cy;
+	final Rectangle[]bounds;
+	final Bucket all;
+	final Map<Integer,Bucket>byDay=new HashMap<Integer,Bucket>();
+
+	public CCSpatialIndex(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,int cellSize) {
+		this.graph=graph;
+		this.cellSize=cellSize;
+		this.nVertices=graph.vertexSet().size();
+		ccs=new CC[nVertices];
+		cx=new double[nVertices];
+		cy=new double[nVertices];
+		bounds=new Rectangle[nVertices];
+		all=new Bucket();
+		fingerprint=fingerprintOf(graph);
+		int rank=0;
+		for(CC cc : graph.vertexSet()) {
+			double[]centroid=cc.r.getContourCentroid();
+			ccs[rank]=cc;
+			cx[rank]=centroid[0];
+			cy[rank]=centroid[1];
+			bounds[rank]=cc.r.getBounds();
+			all.add(rank);
+			Bucket b=byDay.get(cc.day);
+			if(b==null) {b=new Bucket();byDay.put(cc.day, b);}
+			b.add(rank);
+			rank++;
+		}
+	}
+
+	/** Index of the graph, built at first call and rebuilt after invalidate(graph), or if the vertex set changed since*/
+	public static CCSpatialIndex of(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		synchronized(indexedGraphs) {
+			Iterator<Object[]>it=indexedGraphs.iterator();
+			while(it.hasNext()) {
+				Object[]entry=it.next();
+				Object g=((WeakReference<?>)entry[0]).get();
+				if(g==null) {it.remove();continue;}
+				if(g==graph) {
+					CCSpatialIndex index=(CCSpatialIndex)entry[1];
+					if(index.nVertices==graph.vertexSet().size() && index.fingerprint==fingerprintOf(graph))return index;
+					it.remove();
+				}
+			}
+			CCSpatialIndex index=new CCSpatialIndex(graph,DEFAULT_CELL_SIZE);
+			indexedGraphs.add(new Object[] {new WeakReference<SimpleDirectedWeightedGraph<CC,ConnectionEdge>>(graph),index});
+			return index;
+		}
+	}
+
+	/** Sum of the identity hashes of the vertices, that changes when a vertex is replaced by another*/
+	static long fingerprintOf(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		long sum=0;
+		for(CC cc : graph.vertexSet())sum+=System.identityHashCode(cc);
+		return sum;
+	}
+
+	/** Forget the index of the graph, to be called after vertices were added or removed*/
+	public static void invalidate(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		synchronized(indexedGraphs) {
+			Iterator<Object[]>it=indexedGraphs.iterator();
+			while(it.hasNext()) {
+				Object g=((WeakReference<?>)it.next()[0]).get();
+				if(g==null || g==graph)it.remove();
+			}
+		}
+	}
+
+	/** CC whose centroid is the nearest from (x,y), or null if none nearer than 1E8*/
+	public CC nearest(double x,double y) {
+		return nearest(all,x,y);
+	}
+
+	/** CC of this day whose centroid is the nearest from (x,y), or null if none*/
+	public CC nearest(int day,double x,double y) {
+		return nearest(byDay.get(day),x,y);
+	}
+
+	/** CCs of this day, in the order of the vertex set*/
+	public List<CC>ofDay(int day){
+		ArrayList<CC>ret=new ArrayList<CC>();
+		Bucket b=byDay.get(day);
+		if(b==null)return ret;
+		for(int i=0;i<b.nRanks;i++)if(graph.containsVertex(ccs[b.ranks[i]]))ret.add(ccs[b.ranks[i]]);
+		return ret;
+	}
+
+	/** CCs whose bounding box intersects the rectangle [x0,x1]x[y0,y1], in the order of the vertex set*/
+	public List<CC>inRectangle(double x0,double y0,double x1,double y1){
+		return inRectangle(all,x0,y0,x1,y1);
+	}
+
+	/** CCs of this day whose bounding box intersects the rectangle [x0,x1]x[y0,y1], in the order of the vertex set*/
+	public List<CC>inRectangle(int day,double x0,double y0,double x1,double y1){
+		return inRectangle(byDay.get(day),x0,y0,x1,y1);
+	}
+
+	CC nearest(Bucket b,double x,double y) {
+		if(b==null || b.nRanks==0)return null;
+		int cqx=cell(x);
+		int cqy=cell(y);
+		int rMax=Math.max(Math.max(Math.abs(cqx-b.cxMin),Math.abs(cqx-b.cxMax)),Math.max(Math.abs(cqy-b.cyMin),Math.abs(cqy-b.cyMax)));
+		int bestRank=-1;
+		double bestDist=1E8;
+		for(int r=0;r<=rMax;r++) {
+			for(int i=-r;i<=r;i++) {
+				for(int j=-r;j<=r;j++) {
+					if(Math.abs(i)!=r && Math.abs(j)!=r)continue;//Only the ring
+					int[]cell=b.get(cqx+i,cqy+j);
+					if(cell==null)continue;
+					for(int k=1;k<=cell[0];k++) {
+						int rank=cell[k];
+						if(!graph.containsVertex(ccs[rank]))continue;
+						double dist=Math.sqrt((x-cx[rank])*(x-cx[rank])+(y-cy[rank])*(y-cy[rank]));
+						if(dist<bestDist || (dist==bestDist && rank<bestRank)) {bestDist=dist;bestRank=rank;}
+					}
+				}
+			}
+			//Centroids out of the rings 0..r are at more than r*cellSize
+			if(bestRank>=0 && bestDist<=r*cellSize)break;
+		}
+		return (bestRank<0) ? null : ccs[bestRank];
+	}
+
+	List<CC>inRectangle(Bucket b,double x0,double y0,double x1,double y1){
+		ArrayList<CC>ret=new ArrayList<CC>();
+		if(b==null || b.nRanks==0)return ret;
+		//A bounding box intersecting the rectangle has its centroid at most maxExtent away from it
+		TreeSet<Integer>ranks=new TreeSet<Integer>();
+		for(int i=cell(x0-b.maxExtent);i<=cell(x1+b.maxExtent);i++) {
+			for(int j=cell(y0-b.maxExtent);j<=cell(y1+b.maxExtent);j++) {
+				int[]cell=b.get(i,j);
+				if(cell==null)continue;
+				for(int k=1;k<=cell[0];k++) {
+					Rectangle R=bounds[cell[k]];
+					if(R.x>x1 || R.y>y1 || R.x+R.width<x0 || R.y+R.height<y0)continue;
+					ranks.add(cell[k]);
+				}
+			}
+		}
+		for(int rank : ranks)if(graph.containsVertex(ccs[rank]))ret.add(ccs[rank]);
+		return ret;
+	}
+
+	int cell(double v) {
+		return (int)Math.floor(v/cellSize);
+	}
+
+	/** CCs of a grid, stored by cell as int[]{count, rank1, rank2...}*/
+	class Bucket{
+		Map<Long,int[]>cells=new HashMap<Long,int[]>();
+		int[]ranks=new int[16];
+		int nRanks=0;
+		int cxMin=Integer.MAX_VALUE,cxMax=Integer.MIN_VALUE,cyMin=Integer.MAX_VALUE,cyMax=Integer.MIN_VALUE;
+		double maxExtent=0;
+
+		void add(int rank) {
+			if(nRanks==ranks.length)ranks=java.util.Arrays.copyOf(ranks, nRanks*2);
+			ranks[nRanks++]=rank;
+			int i=cell(cx[rank]);
+			int j=cell(cy[rank]);
+			cxMin=Math.min(cxMin, i);cxMax=Math.max(cxMax, i);
+			cyMin=Math.min(cyMin, j);cyMax=Math.max(cyMax, j);
+			maxExtent=Math.max(maxExtent, Math.max(bounds[rank].width, bounds[rank].height)+1);
+			long key=key(i,j);
+			int[]cell=cells.get(key);
+			if(cell==null)cell=new int[4];
+			else if(cell[0]==cell.length-1)cell=java.util.Arrays.copyOf(cell, cell.length*2);
+			cell[++cell[0]]=rank;
+			cells.put(key, cell);
+		}
+
+		int[]get(int i,int j){
+			return cells.get(key(i,j));
+		}
+
+		long key(int i,int j) {
+			return (((long)i)<<32) ^ (j & 0xFFFFFFFFL);
+		}
+	}
+}
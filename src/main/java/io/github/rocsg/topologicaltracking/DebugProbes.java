@@ -0,0 +1,89 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+/**
+ * Named debug probes pointing to CCs of the graph, configured by coordinates in the parameter file
+ * (parameter debugProbes, for example "connexionSource=21:5084:2032;connexionTarget=22:5130:2080;lateralBranches=371:300").
+ * Each probe is "name=day:x:y" or "name=x:y" (any day), with x,y in pixels of the date map. The CC of a probe is the one whose centroid is the nearest.
+ * When no probe is configured, every test is a single read of a static boolean.
+ * Probes are resolved once per graph, then tests are reference comparisons. The resolutions are kept per graph, thus boxes processed at the same time
+ * do not forget the probes of each other, and a resolution is forgotten when the CC resolved has been removed from the graph since.
+ */
+public class DebugProbes {
+	public static boolean enabled=false;
+	private static Map<String,int[]>probes=new HashMap<String,int[]>();
+	private static ArrayList<Resolution>resolutions=new ArrayList<Resolution>();
+
+	/** CCs resolved in a graph, known by reference (graphs equal by content are distinct boxes)*/
+	private static class Resolution {
+		final WeakReference<SimpleDirectedWeightedGraph<CC,ConnectionEdge>>graph;
+		final Map<String,CC>ccs=new HashMap<String,CC>();
+		Resolution(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph){
+			this.graph=new WeakReference<SimpleDirectedWeightedGraph<CC,ConnectionEdge>>(graph);
+		}
+	}
+
+	/** Read the probes from a string "name=day:x:y;name=x:y;...". An empty string disables the probes*/
+	public static synchronized void configure(String spec) {
+		probes.clear();
+		clearResolved();
+		if(spec!=null) {
+			for(String probe : spec.split(";")) {
+				if(!probe.contains("="))continue;
+				String name=probe.split("=")[0].trim();
+				String[]coords=probe.split("=")[1].trim().split(":");
+				try {
+					if(coords.length==3)probes.put(name, new int[] {Integer.parseInt(coords[0].trim()),Integer.parseInt(coords[1].trim()),Integer.parseInt(coords[2].trim())});
+					else if(coords.length==2)probes.put(name, new int[] {-1,Integer.parseInt(coords[0].trim()),Integer.parseInt(coords[1].trim())});
+					else System.out.println("Debug probe ignored : "+probe);
+				} catch(NumberFormatException e) {System.out.println("Debug probe ignored : "+probe);}
+			}
+		}
+		enabled=!probes.isEmpty();
+		if(enabled)System.out.println("Debug probes activated : "+probes.keySet());
+	}
+
+	/** Forget the CCs resolved in every graph, that are looked for again at their next use*/
+	public static synchronized void clearResolved() {
+		resolutions.clear();
+	}
+
+	private static Map<String,CC>resolutionOf(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph){
+		for(Iterator<Resolution>it=resolutions.iterator();it.hasNext();) {
+			Resolution res=it.next();
+			SimpleDirectedWeightedGraph<CC,ConnectionEdge>g=res.graph.get();
+			if(g==graph)return res.ccs;
+			if(g==null)it.remove();
+		}
+		Resolution res=new Resolution(graph);
+		resolutions.add(res);
+		return res.ccs;
+	}
+
+	/** CC pointed by the probe in this graph, or null if the probe is not configured*/
+	public static synchronized CC get(String name,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		if(!enabled || graph==null || !probes.containsKey(name))return null;
+		Map<String,CC>resolved=resolutionOf(graph);
+		if(resolved.containsKey(name) && resolved.get(name)!=null && !graph.containsVertex(resolved.get(name)))resolved.remove(name);
+		if(!resolved.containsKey(name)) {
+			int[]p=probes.get(name);
+			CC cc=(p[0]<0) ? RegionAdjacencyGraphPipeline.getCC(graph, p[1], p[2]) : RegionAdjacencyGraphPipeline.getCC(graph, p[0], p[1], p[2]);
+			resolved.put(name, cc);
+			System.out.println("Debug probe "+name+" is "+cc);
+		}
+		return resolved.get(name);
+	}
+
+	/** True if cc is the CC pointed by the probe*/
+	public static boolean is(String name,CC cc) {
+		if(!enabled || cc==null)return false;
+		return cc==get(name,cc.graph);
+	}
+}
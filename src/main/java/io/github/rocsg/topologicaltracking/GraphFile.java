@@ -0,0 +1,390 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+import io.github.rocsg.fijiyama.common.Pix;
+import ij.gui.Roi;
+import ij.io.RoiDecoder;
+import ij.io.RoiEncoder;
+
+/**
+ * Binary file of a graph of CCs (50_graph.rstg), read through a memory mapping.
+ * Layout : header (magic, version, number of vertices, number of edges, numbering of the CCs), vertex table (fixed size records), edge table (fixed size records), then the payloads of the CCs.
+ * The header, the tables, the Rois and the CC lists are read at opening. The Rois are in the binary format of ImageJ .roi files (RoiEncoder),
+ * decoded from their coordinates without java deserialization. The pixels of a CC (PixelStore and dijkstra paths)
+ * stay in the mapped file until the first call to cc.pixels(), cc.mainPath() or cc.secondaryPaths(). The payloads are mapped by regions of at most 2 GB, thus files can be larger than 2 GB.
+ * Java serialization (readGraphFromFile / writeGraphToFile) is still available for .ser files.
+ */
+public class GraphFile {
+	public static final int MAGIC=0x52535447;//"RSTG"
+	public static final int VERSION=3;//1 : no numbering field. 2 : the header gives the numbering of the CCs inside a day. 3 : Rois as .roi bytes instead of serialized objects
+	public static final String EXTENSION=".rstg";
+	public static final int NUMBERING_PER_DAY_LABELLING=0;//CCs of a day numbered by the threshold, labelling and segmentationToRoi of this day
+	public static final int NUMBERING_RASTER_ORDER=1;//CCs of a day numbered in raster order of their first pixel, see LevelMapLabelling
+	static final int HEADER_SIZE=4+4+4+4+4;//Version 1 : 4+4+4+4
+	static final int VERTEX_RECORD_SIZE=14*4+8*8+4+6*4+ 8+4 + 8+4 + 8+4;
+	static final int EDGE_RECORD_SIZE=2*4+4*8+3*4+4;
+	static final int NO_PATH=-1;
+
+	/** Pixel payload of a CC, in the mapped file*/
+	static class Payload{
+		final MappedByteBuffer buffer;
+		final int offset;//Position in buffer
+		Payload(MappedByteBuffer buffer,int offset){this.buffer=buffer;this.offset=offset;}
+
+		void loadPixels(CC cc) {
+			ByteBuffer b=buffer.duplicate();
+			b.position(offset);
+			readPixels(b,cc);
+		}
+	}
+
+	/** Write the graph. Returns false (after printing the stack trace) if the file cannot be written, and then no file is left at path*/
+	public static boolean write(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,String path) {
+		return write(graph,path,VERSION);
+	}
+
+	/** Write the graph in a version of the format. Former versions are only written to test their reading*/
+	static boolean write(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,String path,int version) {
+		List<CC>vertices=new ArrayList<CC>(graph.vertexSet());
+		List<ConnectionEdge>edges=new ArrayList<ConnectionEdge>(graph.edgeSet());
+		HashMap<CC,Integer>indexOf=new HashMap<CC,Integer>();
+		for(int i=0;i<vertices.size();i++)indexOf.put(vertices.get(i), i);
+
+		//Rois and lists are small and serialized first, pixel payloads have a known size
+		int nV=vertices.size();
+		byte[][]rois=new byte[nV][];
+		byte[][]lists=new byte[nV][];
+		long[]pixelSizes=new long[nV];
+		File f=new File(path);
+		try {
+			for(int i=0;i<nV;i++) {
+				CC cc=vertices.get(i);
+				rois[i]=roiToBytes(cc.r,version);
+				lists[i]=listsToBytes(cc,indexOf);
+				pixelSizes[i]=pixelPayloadSize(cc);
+				if(rois[i].length+lists[i].length+pixelSizes[i]>Integer.MAX_VALUE)throw new IOException("Payload of CC "+cc+" exceeds 2 GB, it cannot be written in a graph file");
+			}
+			long payloadStart=headerSize(version)+(long)nV*VERTEX_RECORD_SIZE+(long)edges.size()*EDGE_RECORD_SIZE;
+			try(DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f,false),1<<16))){
+				out.writeInt(MAGIC);
+				out.writeInt(version);
+				out.writeInt(nV);
+				out.writeInt(edges.size());
+				if(version>1)out.writeInt(currentNumbering());
+
+				//Vertex table
+				long offset=payloadStart;
+				for(int i=0;i<nV;i++) {
+					CC cc=vertices.get(i);
+					out.writeInt(cc.day);out.writeInt(cc.n);out.writeInt(cc.nPixels);out.writeInt(cc.count);
+					out.writeInt(cc.xB);out.writeInt(cc.yB);out.writeInt(cc.stamp);out.writeInt(cc.stamp2);
+					out.writeInt(cc.componentLabel);out.writeInt(cc.lateralStamp);out.writeInt(cc.deltaTimeFromStart);out.writeInt(cc.deltaTimeBefore);
+					out.writeInt(cc.surfaceFromStart);out.writeInt(cc.goesToTheLeft);
+					out.writeDouble(cc.hour);out.writeDouble(cc.x);out.writeDouble(cc.y);out.writeDouble(cc.lengthFromStart);
+					out.writeDouble(cc.lengthBefore);out.writeDouble(cc.stampDist);out.writeDouble(cc.deltaTimeHoursBefore);out.writeDouble(cc.deltaTimeHoursFromStart);
+					out.writeInt(flags(cc.finalRS,cc.finalRoot,cc.isPrimStart,cc.isPrimEnd,cc.isLatStart,cc.isLatEnd,cc.isLateral,cc.changedRecently,cc.nonValidLatStart,cc.trunk,cc.isOut,cc.illConnected));
+					out.writeInt(ref(cc.lastCCinLat,indexOf));out.writeInt(ref(cc.associatePrev,indexOf));out.writeInt(ref(cc.associateSuiv,indexOf));
+					out.writeInt(ref(cc.ccPrev,indexOf));out.writeInt(ref(cc.ccLateralStart,indexOf));out.writeInt(ref(cc.incidentCC,indexOf));
+					out.writeLong(offset);out.writeInt(rois[i].length);offset+=rois[i].length;
+					out.writeLong(offset);out.writeInt(lists[i].length);offset+=lists[i].length;
+					out.writeLong(offset);out.writeInt((int)pixelSizes[i]);offset+=pixelSizes[i];
+				}
+
+				//Edge table
+				for(ConnectionEdge e : edges) {
+					out.writeInt(indexOf.get(graph.getEdgeSource(e)));out.writeInt(indexOf.get(graph.getEdgeTarget(e)));
+					out.writeDouble(graph.getEdgeWeight(e));out.writeDouble(e.connectionX);out.writeDouble(e.connectionY);out.writeDouble(e.distanceConnectionTrunk);
+					out.writeInt(e.axisX);out.writeInt(e.axisY);out.writeInt(e.nFacets);
+					out.writeInt(flags(e.hidden,e.activated,e.isOut,e.trunk));
+				}
+
+				//Payloads
+				for(int i=0;i<nV;i++) {
+					out.write(rois[i]);
+					out.write(lists[i]);
+					writePixels(out,vertices.get(i));
+				}
+			}
+			return true;
+		} catch (IOException | RuntimeException e) {
+			e.printStackTrace();
+			//No truncated file, nor a file of a former graph, that would be read instead of the .ser written as a fallback
+			if(f.isFile() && !f.delete())System.out.println("Warning : graph file "+path+" could not be deleted after a failed write");
+			return false;
+		}
+	}
+
+	static int headerSize(int version) {
+		return (version==1) ? HEADER_SIZE-4 : HEADER_SIZE;
+	}
+
+	/** Read a graph written by write(). Returns null (after printing the stack trace) if the file cannot be read*/
+	@SuppressWarnings("unchecked")
+	public static SimpleDirectedWeightedGraph<CC,ConnectionEdge>read(String path){
+		try (RandomAccessFile raf=new RandomAccessFile(path, "r"); FileChannel channel=raf.getChannel()){
+			MappedByteBuffer header=channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(),HEADER_SIZE));
+			if(header.getInt()!=MAGIC)throw new IOException("Not a graph file : "+path);
+			int version=header.getInt();
+			if(version<1 || version>VERSION)throw new IOException("Unsupported version "+version+" of graph file "+path);
+			int nV=header.getInt();
+			int nE=header.getInt();
+			int numbering=(version==1) ? NUMBERING_RASTER_ORDER : header.getInt();//Version 1 was written with the default labelling
+			//Header and tables in a first mapping, the payloads in the mappings of payloadRegions
+			long tablesEnd=header.position()+(long)nV*VERTEX_RECORD_SIZE+(long)nE*EDGE_RECORD_SIZE;
+			if(tablesEnd>Integer.MAX_VALUE)throw new IOException("Tables of graph file "+path+" exceed 2 GB ("+nV+" vertices, "+nE+" edges)");
+			MappedByteBuffer b=channel.map(FileChannel.MapMode.READ_ONLY, 0, tablesEnd);
+			b.position(header.position());
+			if(numbering!=currentNumbering())System.out.println("Warning : CCs of graph "+path+" are numbered "+
+					((numbering==NUMBERING_RASTER_ORDER) ? "in raster order" : "by per day labelling")+", while new graphs are numbered "+
+					((currentNumbering()==NUMBERING_RASTER_ORDER) ? "in raster order" : "by per day labelling")+". Indices of CCs of a day differ between both");
+			SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=new SimpleDirectedWeightedGraph<>(ConnectionEdge.class);
+
+			//Vertices, then references between them once they all exist
+			CC[]ccs=new CC[nV];
+			int[][]refs=new int[nV][];
+			long[][]payloads=new long[nV][];
+			for(int i=0;i<nV;i++) {
+				CC cc=new CC();
+				cc.day=b.getInt();cc.n=b.getInt();cc.nPixels=b.getInt();cc.count=b.getInt();
+				cc.xB=b.getInt();cc.yB=b.getInt();cc.stamp=b.getInt();cc.stamp2=b.getInt();
+				cc.componentLabel=b.getInt();cc.lateralStamp=b.getInt();cc.deltaTimeFromStart=b.getInt();cc.deltaTimeBefore=b.getInt();
+				cc.surfaceFromStart=b.getInt();cc.goesToTheLeft=b.getInt();
+				cc.hour=b.getDouble();cc.x=b.getDouble();cc.y=b.getDouble();cc.lengthFromStart=b.getDouble();
+				cc.lengthBefore=b.getDouble();cc.stampDist=b.getDouble();cc.deltaTimeHoursBefore=b.getDouble();cc.deltaTimeHoursFromStart=b.getDouble();
+				boolean[]f=unflags(b.getInt(),12);
+				cc.finalRS=f[0];cc.finalRoot=f[1];cc.isPrimStart=f[2];cc.isPrimEnd=f[3];cc.isLatStart=f[4];cc.isLatEnd=f[5];
+				cc.isLateral=f[6];cc.changedRecently=f[7];cc.nonValidLatStart=f[8];cc.trunk=f[9];cc.isOut=f[10];cc.illConnected=f[11];
+				refs[i]=new int[] {b.getInt(),b.getInt(),b.getInt(),b.getInt(),b.getInt(),b.getInt()};
+				payloads[i]=new long[] {b.getLong(),b.getInt(),b.getLong(),b.getInt(),b.getLong(),b.getInt()};
+				cc.graph=graph;
+				ccs[i]=cc;
+				graph.addVertex(cc);
+			}
+			MappedByteBuffer[]regionOf=new MappedByteBuffer[nV];
+			int[]positionIn=new int[nV];
+			payloadRegions(channel,payloads,regionOf,positionIn,path);
+			for(int i=0;i<nV;i++) {
+				CC cc=ccs[i];
+				MappedByteBuffer region=regionOf[i];
+				int pos=positionIn[i];
+				cc.lastCCinLat=deref(refs[i][0],ccs);cc.associatePrev=deref(refs[i][1],ccs);cc.associateSuiv=deref(refs[i][2],ccs);
+				cc.ccPrev=deref(refs[i][3],ccs);cc.ccLateralStart=deref(refs[i][4],ccs);cc.incidentCC=deref(refs[i][5],ccs);
+				cc.r=roiFromBytes(region,pos,(int)payloads[i][1],version);
+				readLists(region,pos+(int)(payloads[i][2]-payloads[i][0]),cc,ccs);
+				cc.lazyPixels=new Payload(region,pos+(int)(payloads[i][4]-payloads[i][0]));
+			}
+
+			//Edges
+			for(int j=0;j<nE;j++) {
+				CC source=ccs[b.getInt()];
+				CC target=ccs[b.getInt()];
+				double weight=b.getDouble();
+				double connectionX=b.getDouble();
+				double connectionY=b.getDouble();
+				double distanceConnectionTrunk=b.getDouble();
+				int axisX=b.getInt();
+				int axisY=b.getInt();
+				int nFacets=b.getInt();
+				boolean[]f=unflags(b.getInt(),4);
+				ConnectionEdge e=new ConnectionEdge(connectionX, connectionY, nFacets, source, target, axisX, axisY);
+				e.distanceConnectionTrunk=distanceConnectionTrunk;
+				e.hidden=f[0];e.activated=f[1];e.isOut=f[2];e.trunk=f[3];
+				graph.addEdge(source, target, e);
+				graph.setEdgeWeight(e, weight);
+			}
+			return graph;
+		} catch (IOException | ClassNotFoundException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/** Numbering of the CCs of a day in the graphs built with the current settings*/
+	static int currentNumbering() {
+		return RegionAdjacencyGraphPipeline.useUnionFindLabelling ? NUMBERING_RASTER_ORDER : NUMBERING_PER_DAY_LABELLING;
+	}
+
+	/** Map the payloads of the CCs, consecutive in the file, by regions of at most 2 GB holding whole payloads.
+	 * The payload of CC i starts at positionIn[i] in regionOf[i]*/
+	static void payloadRegions(FileChannel channel,long[][]payloads,MappedByteBuffer[]regionOf,int[]positionIn,String path) throws IOException{
+		int nV=payloads.length;
+		int first=0;
+		while(first<nV) {
+			long start=payloads[first][0];
+			int last=first;
+			while(last+1<nV && end(payloads[last+1])-start<=Integer.MAX_VALUE)last++;
+			if(end(payloads[last])-start>Integer.MAX_VALUE)throw new IOException("Payload of vertex "+first+" of graph file "+path+" exceeds 2 GB");
+			MappedByteBuffer region=channel.map(FileChannel.MapMode.READ_ONLY, start, end(payloads[last])-start);
+			for(int i=first;i<=last;i++) {
+				regionOf[i]=region;
+				positionIn[i]=(int)(payloads[i][0]-start);
+			}
+			first=last+1;
+		}
+	}
+
+	/** End of the payload of a CC : its pixels come after its Roi and lists*/
+	static long end(long[]payload) {
+		return payload[4]+payload[5];
+	}
+
+	static int flags(boolean...vals) {
+		int f=0;
+		for(int i=0;i<vals.length;i++)if(vals[i])f|=(1<<i);
+		return f;
+	}
+
+	static boolean[]unflags(int f,int n){
+		boolean[]vals=new boolean[n];
+		for(int i=0;i<n;i++)vals[i]=((f>>i)&1)==1;
+		return vals;
+	}
+
+	static int ref(CC cc,HashMap<CC,Integer>indexOf) {
+		if(cc==null || !indexOf.containsKey(cc))return -1;
+		return indexOf.get(cc);
+	}
+
+	static CC deref(int i,CC[]ccs) {
+		return (i<0) ? null : ccs[i];
+	}
+
+	static byte[]roiToBytes(Roi r,int version) throws IOException{
+		if(version>=3)return (r==null) ? new byte[0] : RoiEncoder.saveAsByteArray(r);
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		ObjectOutputStream oos=new ObjectOutputStream(bytes);
+		oos.writeObject(r);
+		oos.close();
+		return bytes.toByteArray();
+	}
+
+	static Roi roiFromBytes(ByteBuffer b,int offset,int length,int version) throws IOException, ClassNotFoundException {
+		byte[]tab=new byte[length];
+		ByteBuffer d=b.duplicate();
+		d.position(offset);
+		d.get(tab);
+		if(version>=3)return (length==0) ? null : new RoiDecoder(tab,"").getRoi();
+		ObjectInputStream ois=new ObjectInputStream(new ByteArrayInputStream(tab));
+		Roi r=(Roi)ois.readObject();
+		ois.close();
+		return r;
+	}
+
+	/** pathFromStart and secondaryPathLookup, as vertex indices (-1 for a CC that is not in the graph, count -1 for a null list)*/
+	static byte[]listsToBytes(CC cc,HashMap<CC,Integer>indexOf) throws IOException{
+		ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+		DataOutputStream out=new DataOutputStream(bytes);
+		for(List<CC>list : new List[] {cc.pathFromStart,cc.secondaryPathLookup}) {
+			if(list==null) {out.writeInt(-1);continue;}
+			out.writeInt(list.size());
+			for(CC c : list)out.writeInt(ref(c,indexOf));
+		}
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	static void readLists(ByteBuffer b,int offset,CC cc,CC[]ccs) {
+		ByteBuffer d=b.duplicate();
+		d.position(offset);
+		for(int l=0;l<2;l++) {
+			int size=d.getInt();
+			ArrayList<CC>list=null;
+			if(size>=0) {
+				list=new ArrayList<CC>();
+				for(int i=0;i<size;i++)list.add(deref(d.getInt(),ccs));
+			}
+			if(l==0)cc.pathFromStart=list;
+			else cc.secondaryPathLookup=list;
+		}
+	}
+
+	static long pixelPayloadSize(CC cc) {
+		PixelStore p=cc.pixels();
+		if(p==null)return 4;
+		long size=4*4+(long)p.n*(2*4+8*8+1+3*4);
+		size+=4+((cc.mainDjikstraPath==null) ? 0 : 4*cc.mainDjikstraPath.size());
+		size+=4;
+		if(cc.secondaryDjikstraPath!=null)for(List<Pix>sec : cc.secondaryDjikstraPath)size+=4+4*sec.size();
+		return size;
+	}
+
+	static void writePixels(DataOutputStream out,CC cc) throws IOException{
+		PixelStore p=cc.pixels();
+		if(p==null) {out.writeInt(-1);return;}
+		out.writeInt(p.n);out.writeInt(p.width);out.writeInt(p.height);out.writeInt(p.connexity);
+		for(int i=0;i<p.n;i++)out.writeInt(p.x[i]);
+		for(int i=0;i<p.n;i++)out.writeInt(p.y[i]);
+		for(double[]tab : new double[][] {p.dist,p.distOut,p.wayFromPrim,p.distanceToSkeleton,p.time,p.timeOut,p.timeHours,p.timeOutHours}) {
+			for(int i=0;i<p.n;i++)out.writeDouble(tab[i]);
+		}
+		for(int i=0;i<p.n;i++)out.writeByte(p.isSkeleton[i] ? 1 : 0);
+		for(int i=0;i<p.n;i++)out.writeInt(p.previous[i]);
+		for(int i=0;i<p.n;i++)out.writeInt(p.offX[i]);
+		for(int i=0;i<p.n;i++)out.writeInt(p.offY[i]);
+		//Dijkstra paths, as pixel numbers
+		if(cc.mainDjikstraPath==null)out.writeInt(NO_PATH);
+		else {
+			out.writeInt(cc.mainDjikstraPath.size());
+			for(Pix pix : cc.mainDjikstraPath)out.writeInt(p.indexOf(pix.x, pix.y));
+		}
+		if(cc.secondaryDjikstraPath==null)out.writeInt(NO_PATH);
+		else {
+			out.writeInt(cc.secondaryDjikstraPath.size());
+			for(List<Pix>sec : cc.secondaryDjikstraPath) {
+				out.writeInt(sec.size());
+				for(Pix pix : sec)out.writeInt(p.indexOf(pix.x, pix.y));
+			}
+		}
+	}
+
+	static void readPixels(ByteBuffer d,CC cc) {
+		int n=d.getInt();
+		if(n<0)return;
+		int width=d.getInt();int height=d.getInt();int connexity=d.getInt();
+		int[]x=new int[n];int[]y=new int[n];
+		for(int i=0;i<n;i++)x[i]=d.getInt();
+		for(int i=0;i<n;i++)y[i]=d.getInt();
+		PixelStore p=new PixelStore(width,height,connexity,x,y);
+		for(double[]tab : new double[][] {p.dist,p.distOut,p.wayFromPrim,p.distanceToSkeleton,p.time,p.timeOut,p.timeHours,p.timeOutHours}) {
+			for(int i=0;i<n;i++)tab[i]=d.getDouble();
+		}
+		for(int i=0;i<n;i++)p.isSkeleton[i]=(d.get()==1);
+		for(int i=0;i<n;i++)p.previous[i]=d.getInt();
+		for(int i=0;i<n;i++)p.offX[i]=d.getInt();
+		for(int i=0;i<n;i++)p.offY[i]=d.getInt();
+		cc.pixels=p;
+		int nMain=d.getInt();
+		if(nMain!=NO_PATH) {
+			cc.mainDjikstraPath=new ArrayList<Pix>();
+			for(int i=0;i<nMain;i++)cc.mainDjikstraPath.add(p.toPix(d.getInt()));
+		}
+		int nSec=d.getInt();
+		if(nSec!=NO_PATH) {
+			cc.secondaryDjikstraPath=new ArrayList<List<Pix>>();
+			for(int j=0;j<nSec;j++) {
+				int nPix=d.getInt();
+				List<Pix>sec=new ArrayList<Pix>();
+				for(int i=0;i<nPix;i++)sec.add(p.toPix(d.getInt()));
+				cc.secondaryDjikstraPath.add(sec);
+			}
+		}
+	}
+}
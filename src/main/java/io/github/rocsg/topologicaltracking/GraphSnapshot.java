@@ -0,0 +1,42 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.util.HashMap;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+
+/**
+ * In-memory state of a graph of CCs at a stage of the pipeline, for the renderings of 51_graph_rendering.
+ * Vertices and edges are light copies holding the values read by drawGraph (position, size, day, flags, weights) : no pixels, and the Roi is shared.
+ * Later changes of the graph (activations, weights, new or removed edges) do not alter a snapshot, thus intermediate stages can be drawn
+ * at the end of the pipeline without writing the graphs to disk and reading them back.
+ */
+public class GraphSnapshot {
+
+	/** Snapshot of the current state of graph*/
+	public static SimpleDirectedWeightedGraph<CC,ConnectionEdge>take(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph){
+		SimpleDirectedWeightedGraph<CC,ConnectionEdge>snap=new SimpleDirectedWeightedGraph<>(ConnectionEdge.class);
+		HashMap<CC,CC>copies=new HashMap<CC,CC>();
+		for(CC cc : graph.vertexSet()) {
+			CC c=new CC();
+			c.day=cc.day;c.hour=cc.hour;c.n=cc.n;
+			c.x=cc.x;c.y=cc.y;c.xB=cc.xB;c.yB=cc.yB;
+			c.nPixels=cc.nPixels;
+			c.trunk=cc.trunk;c.isOut=cc.isOut;
+			c.stamp=cc.stamp;
+			c.r=cc.r;
+			c.graph=snap;
+			copies.put(cc, c);
+			snap.addVertex(c);
+		}
+		for(ConnectionEdge e : graph.edgeSet()) {
+			CC source=copies.get(graph.getEdgeSource(e));
+			CC target=copies.get(graph.getEdgeTarget(e));
+			ConnectionEdge edge=new ConnectionEdge(e.connectionX, e.connectionY, e.nFacets, source, target, e.axisX, e.axisY);
+			edge.hidden=e.hidden;edge.activated=e.activated;edge.isOut=e.isOut;edge.trunk=e.trunk;
+			edge.distanceConnectionTrunk=e.distanceConnectionTrunk;
+			snap.addEdge(source, target, edge);
+			snap.setEdgeWeight(edge, graph.getEdgeWeight(e));
+		}
+		return snap;
+	}
+}
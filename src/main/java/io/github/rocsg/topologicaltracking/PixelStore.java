@@ -0,0 +1,218 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import io.github.rocsg.fijiyama.common.Bord;
+import io.github.rocsg.fijiyama.common.Pix;
+import io.github.rocsg.rstutils.GridShortestPath;
+import ij.ImagePlus;
+
+/**
+ * Pixels of a CC, stored as primitive arrays (one entry per pixel) instead of one Pix object per pixel and one Bord object per pair of neighbours.
+ * Coordinates are relative to the bounding box of the CC. Adjacency is implicit : neighbours are found in the grid of the bounding box.
+ * Pixels are numbered in the order of the former pixel graph (x, then y), thus loops over the pixels visit them in the same order as before.
+ * Pix objects are only built for the dijkstra paths (see shortestPath and copyToPix), and the weights of the edges are kept in a table (see weight).
+ */
+public class PixelStore implements Serializable{
+	private static final long serialVersionUID = 1L;
+	//Neighbours of a pixel, in the order the edges of the former pixel graph were given by edgesOf()
+	public static final int[]NX=new int[] {-1,-1,-1, 0, 1, 1, 1, 0};
+	public static final int[]NY=new int[] {-1, 0, 1,-1, 1,-1, 0, 1};
+	static final int[]OPPOSITE=new int[] {4, 6, 5, 7, 0, 2, 1, 3};//Neighbour k of i is j, neighbour OPPOSITE[k] of j is i
+	static double lenStraight=-1;
+	static double lenDiagonal=-1;
+
+	public final int width,height,n,connexity;
+	final int[]index;//Pixel at (x,y) of the bounding box, or -1 outside the CC
+	public final int[]x,y;
+	public final double[]dist,distOut,wayFromPrim,distanceToSkeleton,time,timeOut,timeHours,timeOutHours;
+	public final boolean[]isSkeleton;
+	public final int[]previous;
+	public final int[]offX,offY;
+	transient volatile double[]weights=null;//Weight of the edge from pixel i to its k-th neighbour at weights[i*8+k], see weight(i,k)
+
+	/** Pixels of imgSeg with value >0, with their distance to the exterior read in distToExt*/
+	public PixelStore(ImagePlus imgSeg,ImagePlus distToExt,int connexity) {
+		width=imgSeg.getWidth();
+		height=imgSeg.getHeight();
+		this.connexity=connexity;
+		float[]tabData=(float[])imgSeg.getStack().getPixels(1);
+		float[]tabDist=(float[])distToExt.getStack().getPixels(1);
+		index=new int[width*height];
+		Arrays.fill(index, -1);
+		int nb=0;
+		for(int xx=0;xx<width;xx++)for(int yy=0;yy<height;yy++) if(tabData[yy*width+xx]>0)index[yy*width+xx]=nb++;
+		n=nb;
+		x=new int[n];y=new int[n];
+		dist=new double[n];distOut=new double[n];wayFromPrim=new double[n];distanceToSkeleton=new double[n];
+		time=new double[n];timeOut=new double[n];timeHours=new double[n];timeOutHours=new double[n];
+		isSkeleton=new boolean[n];previous=new int[n];offX=new int[n];offY=new int[n];
+		Pix proto=new Pix(0,0,0);
+		for(int xx=0;xx<width;xx++)for(int yy=0;yy<height;yy++) {
+			int i=index[yy*width+xx];
+			if(i<0)continue;
+			x[i]=xx;y[i]=yy;
+			dist[i]=tabDist[yy*width+xx];
+			distOut[i]=proto.distOut;
+			wayFromPrim[i]=proto.wayFromPrim;
+			distanceToSkeleton[i]=proto.distanceToSkeleton;
+			time[i]=proto.time;timeOut[i]=proto.timeOut;timeHours[i]=proto.timeHours;timeOutHours[i]=proto.timeOutHours;
+			isSkeleton[i]=proto.isSkeleton;
+			previous[i]=-1;
+			offX[i]=proto.offX;offY[i]=proto.offY;
+		}
+	}
+
+	/** Store of the pixels at (x[i],y[i]), with values to be filled by the caller (see GraphFile)*/
+	PixelStore(int width,int height,int connexity,int[]x,int[]y) {
+		this.width=width;
+		this.height=height;
+		this.connexity=connexity;
+		this.n=x.length;
+		this.x=x;
+		this.y=y;
+		index=new int[width*height];
+		Arrays.fill(index, -1);
+		for(int i=0;i<n;i++)index[y[i]*width+x[i]]=i;
+		dist=new double[n];distOut=new double[n];wayFromPrim=new double[n];distanceToSkeleton=new double[n];
+		time=new double[n];timeOut=new double[n];timeHours=new double[n];timeOutHours=new double[n];
+		isSkeleton=new boolean[n];previous=new int[n];offX=new int[n];offY=new int[n];
+	}
+
+	/** Pixel at (x,y), or -1 if (x,y) is not in the CC*/
+	public int indexOf(int xx,int yy) {
+		if(xx<0 || yy<0 || xx>=width || yy>=height)return -1;
+		return index[yy*width+xx];
+	}
+
+	/** k-th neighbour of pixel i (k in 0-7, see NX and NY), or -1 if not in the CC or not connected with this connexity*/
+	public int neighbour(int i,int k) {
+		if(connexity!=8 && NX[k]!=0 && NY[k]!=0)return -1;
+		return indexOf(x[i]+NX[k],y[i]+NY[k]);
+	}
+
+	/** Length of the edge between a pixel and its k-th neighbour, as given by Bord.len*/
+	public static double len(int k) {
+		if(lenStraight<0) {
+			lenStraight=new Bord(new Pix(0,0,1),new Pix(1,0,1)).len;
+			lenDiagonal=new Bord(new Pix(0,0,1),new Pix(1,1,1)).len;
+		}
+		return (NX[k]!=0 && NY[k]!=0) ? lenDiagonal : lenStraight;
+	}
+
+	/** Length of the edge between two pixels, or their euclidian distance if they are not neighbours*/
+	public double len(int i,int j) {
+		int dx=x[j]-x[i];
+		int dy=y[j]-y[i];
+		for(int k=0;k<8;k++)if(NX[k]==dx && NY[k]==dy)return len(k);
+		return Math.sqrt(dx*dx+dy*dy);
+	}
+
+	/** Pix holding the current values of pixel i*/
+	public Pix toPix(int i) {
+		Pix p=new Pix(x[i],y[i],(float)dist[i]);
+		copyToPix(i,p);
+		return p;
+	}
+
+	/** Copy the values that the pipeline updates (dist and distOut are set at construction and never change)*/
+	public void copyToPix(int i,Pix p) {
+		p.wayFromPrim=wayFromPrim[i];
+		p.distanceToSkeleton=distanceToSkeleton[i];
+		p.time=time[i];p.timeOut=timeOut[i];p.timeHours=timeHours[i];p.timeOutHours=timeOutHours[i];
+		p.isSkeleton=isSkeleton[i];
+		p.offX=offX[i];p.offY=offY[i];
+	}
+
+	/** Copy the values of pixel j of another store in pixel i of this one*/
+	public void copyFrom(int i,PixelStore s,int j) {
+		dist[i]=s.dist[j];
+		distanceToSkeleton[i]=s.distanceToSkeleton[j];
+		distOut[i]=s.distOut[j];
+		isSkeleton[i]=s.isSkeleton[j];
+		time[i]=s.time[j];timeOut[i]=s.timeOut[j];timeHours[i]=s.timeHours[j];timeOutHours[i]=s.timeOutHours[j];
+		wayFromPrim[i]=s.wayFromPrim[j];
+	}
+
+	/** Weight of the edge between pixel i and its k-th neighbour, as Bord.getWeightDistExt() of this edge in the former pixel graph (oriented from the lower pixel number).
+	 * It only depends on the coordinates and on dist, that never change : weights are computed once per store, then read from the table*/
+	public double weight(int i,int k) {
+		double[]w=weights;
+		if(w==null) {
+			w=computeWeights();
+			weights=w;
+		}
+		return w[i*8+k];
+	}
+
+	double[]computeWeights(){
+		double[]w=new double[8*n];
+		Arrays.fill(w, Double.NaN);
+		for(int i=0;i<n;i++) {
+			for(int k=0;k<8;k++) {
+				int j=neighbour(i,k);
+				if(j<i)continue;//Outside, or computed from j
+				w[i*8+k]=new Bord(new Pix(x[i],y[i],(float)dist[i]),new Pix(x[j],y[j],(float)dist[j])).getWeightDistExt();
+				w[j*8+OPPOSITE[k]]=w[i*8+k];
+			}
+		}
+		return w;
+	}
+
+	/** Shortest path between two pixels, with the edge weights given by weight(i,k), computed on the grid with GridShortestPath (no graph of pixels is built).
+	 * Its cost is the one of the path formerly found over a graph of Pix and Bord, but paths of equal cost may be broken differently*/
+	public List<Pix>shortestPath(int start,int stop){
+		if(start<0 || stop<0)throw new IllegalArgumentException("Start or stop of the shortest path is not in the CC");
+		GridShortestPath.EdgeCost cost=(a,b,k) -> weight(index[a],k);
+		int[]path=GridShortestPath.local().setGrid(width, height, mask(), connexity, cost).path(y[start]*width+x[start], y[stop]*width+x[stop]);
+		List<Pix>ret=new ArrayList<Pix>();
+		for(int g : path)ret.add(toPix(index[g]));
+		return ret;
+	}
+
+	/** Pixel at (x,y) of the bounding box is in the CC*/
+	public boolean[]mask(){
+		boolean[]mask=new boolean[width*height];
+		for(int i=0;i<mask.length;i++)mask[i]=(index[i]>=0);
+		return mask;
+	}
+
+	/** Distance to the skeleton pixels along the grid, each pixel recording in previous the skeleton pixel it comes from.
+	 * Same propagation (visit order and tie breaks) as the former one over the pixel graph*/
+	public void propagateDistanceToSkeleton(boolean[]skeleton) {
+		int[]visited=new int[16];
+		int nVisited=0;
+		for(int i=0;i<n;i++) {
+			if(skeleton[i]) {
+				if(nVisited==visited.length)visited=Arrays.copyOf(visited, 2*nVisited);
+				visited[nVisited++]=i;
+				distanceToSkeleton[i]=0;
+				previous[i]=i;
+			}
+			else distanceToSkeleton[i]=10000000;
+		}
+		int[]toVisit=new int[16];
+		while(nVisited>0) {
+			int nToVisit=0;
+			for(int v=0;v<nVisited;v++) {
+				int p=visited[v];
+				for(int k=0;k<8;k++) {
+					int q=neighbour(p,k);
+					if(q<0)continue;
+					double d=distanceToSkeleton[p]+len(k);
+					if(distanceToSkeleton[q]>d) {
+						previous[q]=previous[p];
+						distanceToSkeleton[q]=d;
+						if(nToVisit==toVisit.length)toVisit=Arrays.copyOf(toVisit, 2*nToVisit);
+						toVisit[nToVisit++]=q;
+					}
+				}
+			}
+			int[]tmp=visited;visited=toVisit;toVisit=tmp;
+			nVisited=nToVisit;
+		}
+	}
+}
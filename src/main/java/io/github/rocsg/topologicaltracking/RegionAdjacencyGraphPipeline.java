@@ -5,11 +5,15 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.poi.ddf.EscherColorRef.SysIndexProcedure;
 import org.jgrapht.alg.cycle.CycleDetector;
@@ -27,7 +31,11 @@ import io.github.rocsg.fijiyama.rsml.Root;
 import io.github.rocsg.fijiyama.rsml.RootModel;
 import io.github.rocsg.rootsystemtracker.PipelineParamHandler;
 import io.github.rocsg.rstutils.HungarianAlgorithm;
+import io.github.rocsg.rstutils.LevelMapLabelling;
+import io.github.rocsg.rstutils.LineIntegral;
 import io.github.rocsg.rstutils.MorphoUtils;
+import io.github.rocsg.rstutils.ParallelRows;
+import io.github.rocsg.rstutils.SparseAssignment;
 import io.github.rocsg.rstutils.SplineAndPolyLineUtils;
 import it.unimi.dsi.fastutil.bytes.ByteSortedSets.SynchronizedSortedSet;
 import ij.IJ;
@@ -42,6 +50,16 @@ public class RegionAdjacencyGraphPipeline {
 	public static final boolean DO_DISTANCE=true;
 	public static final boolean DO_TIME=false;
 	public static final int minFinalDepthForAcceptingLatRoot=300;
+	public static boolean useRasterSweepAdjacency=true;//if false, connexions between CCs are found by testing every pair of CCs
+	public static boolean useUnionFindLabelling=false;//if true, CCs of the date map are found in a single pass over the map (see LevelMapLabelling). If false, CCs of the date map are extracted day per day with threshold, labelling and segmentationToRoi. The numbering of the CCs of a day differs between both, see GraphFile
+	public static boolean warmStartReconnectionAssignment=false;//if true, each step of the reconnection starts the hungarian algorithm from the previous solution (same optimal cost, but ties can be broken differently)
+	public static boolean useSparseReconnectionAssignment=false;//if true, the reconnection keeps only the pairs cheaper than PENALTY_COST and solves with SparseAssignment, with no dense matrix. Not the same objective : see reconnectDisconnectedBranches_v2
+	public static boolean benchmarkReconnectionAssignment=false;//if true, the first step of the reconnection runs both assignment solvers and logs their times and costs
+	public static boolean gateReconnectionCandidates=false;//if true, pairs too far apart to be reconnected get the cost 10000 instead of their score
+	public static int nbThreadsForReconnectionScoring=0;//Threads scoring the possible hidden edges (0 : one per core, 1 : sequential). Set from nbThreadsStep5Scoring at step 5
+	public static boolean useExactLineTraversal=false;//if true, segments are read pixel per pixel with LineIntegral instead of samples every 0.33 pixel (each pixel weighs once, thus costs change slightly)
+	public static int nbThreadsForCCConstruction=1;//Threads building the CCs in buildGraphFromDateMap (0 : one per core, 1 : sequential). Set from nbThreadsStep5 at step 5
+	public static int nbThreadsForPlongement=1;//Threads running the plongement of the roots in refinePlongementOfCCGraph (0 : one per core, 1 : sequential). Set from nbThreadsStep6 at step 6
 	
 
 	
@@ -62,12 +80,13 @@ public class RegionAdjacencyGraphPipeline {
 		for(CC cc : graph.vertexSet()) {
 			int x0=cc.r.getBounds().x;
 			int y0=cc.r.getBounds().y;
-			for(Pix p:cc.pixGraph.vertexSet()) {
-				int index=X*(p.y+y0)+(p.x+x0);
-				if(onlyDoSkeleton && (!p.isSkeleton))continue;
-				if(mode_1Total_2OutsideDistOrIntTime_3SourceDist==1) 	valDist[index]=(trueDoDistFalseDoTime) ? ((float) (p.wayFromPrim+p.distOut)) : (float)p.timeOutHours ;
-				else if(mode_1Total_2OutsideDistOrIntTime_3SourceDist==2) 	valDist[index]=(trueDoDistFalseDoTime) ? ((float) (p.distOut)) : (float)(cc.hour) ;
-				else                                             	valDist[index]=(trueDoDistFalseDoTime) ? ((float) (p.wayFromPrim)) : (float)(p.timeHours) ;
+			PixelStore p=cc.pixels();
+			for(int i=0;i<p.n;i++) {
+				int index=X*(p.y[i]+y0)+(p.x[i]+x0);
+				if(onlyDoSkeleton && (!p.isSkeleton[i]))continue;
+				if(mode_1Total_2OutsideDistOrIntTime_3SourceDist==1) 	valDist[index]=(trueDoDistFalseDoTime) ? ((float) (p.wayFromPrim[i]+p.distOut[i])) : (float)p.timeOutHours[i] ;
+				else if(mode_1Total_2OutsideDistOrIntTime_3SourceDist==2) 	valDist[index]=(trueDoDistFalseDoTime) ? ((float) (p.distOut[i])) : (float)(cc.hour) ;
+				else                                             	valDist[index]=(trueDoDistFalseDoTime) ? ((float) (p.wayFromPrim[i])) : (float)(p.timeHours[i]) ;
 				if(!trueDoDistFalseDoTime && valDist[index]<0)valDist[index]=0;
 			}
 		}
@@ -89,23 +108,24 @@ public class RegionAdjacencyGraphPipeline {
 		for(CC cc : graph.vertexSet()) {
 			int x0=cc.r.getBounds().x;
 			int y0=cc.r.getBounds().y;
-			for(Pix p:cc.pixGraph.vertexSet()) {
-				int index=X*(p.y+y0)+(p.x+x0);
-				if(mode_1Skel_2All_3AllWithTipDistance==1 && (!p.isSkeleton))continue;
+			PixelStore p=cc.pixels();
+			for(int i=0;i<p.n;i++) {
+				int index=X*(p.y[i]+y0)+(p.x[i]+x0);
+				if(mode_1Skel_2All_3AllWithTipDistance==1 && (!p.isSkeleton[i]))continue;
 				if(mode_1Skel_2All_3AllWithTipDistance<3) {
-					valDist[index]=(float) p.wayFromPrim;
-					valTime[index]=(float) p.time;					
+					valDist[index]=(float) p.wayFromPrim[i];
+					valTime[index]=(float) p.time[i];					
 				}
 				if(mode_1Skel_2All_3AllWithTipDistance==3) {
-					valDist[index]=(float) (p.wayFromPrim+p.distOut);
-					valTime[index]=(float) (p.timeOut);
+					valDist[index]=(float) (p.wayFromPrim[i]+p.distOut[i]);
+					valTime[index]=(float) (p.timeOut[i]);
 				}
 				if(mode_1Skel_2All_3AllWithTipDistance==4 || mode_1Skel_2All_3AllWithTipDistance==0 ) {
-					valDist[index]=(float) (p.wayFromPrim);
-					valDistOut[index]=(float) (p.distOut);
-					valDistSum[index]=(float) (p.wayFromPrim+p.distOut);
-					valTime[index]=(float) (p.time);
-					valTimeOut[index]=(float) (p.timeOut);
+					valDist[index]=(float) (p.wayFromPrim[i]);
+					valDistOut[index]=(float) (p.distOut[i]);
+					valDistSum[index]=(float) (p.wayFromPrim[i]+p.distOut[i]);
+					valTime[index]=(float) (p.time[i]);
+					valTimeOut[index]=(float) (p.timeOut[i]);
 				}
 			}
 		}
@@ -278,6 +298,7 @@ public class RegionAdjacencyGraphPipeline {
 		ArrayList<CC>cctoExclude=new ArrayList<CC>();
 		for(CC cc : graph.vertexSet()) if(cc.isOut)  cctoExclude.add(cc);
 		for(CC cc : cctoExclude      ) graph.removeVertex(cc);
+		CCSpatialIndex.invalidate(graph);
 
 		
 		//Identify some features of vertices
@@ -291,208 +312,32 @@ public class RegionAdjacencyGraphPipeline {
 				if( cc.getLatChild()==null) cc.isLatEnd=true;				
 			}
 		}
-		ArrayList<Root>listRprim=new ArrayList<Root>();
-		ArrayList<Integer>listNprim=new ArrayList<Integer>();
-		ArrayList<Integer>listDprim=new ArrayList<Integer>();
-		ArrayList<Root>listRlat=new ArrayList<Root>();
-		ArrayList<Integer>listNlat=new ArrayList<Integer>();
-		ArrayList<Integer>listDlat=new ArrayList<Integer>();		
-		boolean simplerSimplify=false;
-		boolean debugPrim=false;
 		boolean debugLat=false;
-		
-		
-		
-		
+		int nThreads=(nbThreadsForPlongement>0) ? nbThreadsForPlongement : VitimageUtils.getNbCores();
+
+
+
 		//////////////////////////////////////////
 		//Processing primary roots
 		//dessiner la somme des pathlines des racines et l'associer aux CC. 		
-		for(CC cc : graph.vertexSet()) {
-			if((cc.day!=1) || (!cc.trunk)) continue;
-			if(debugPrim)System.out.println("\nPROCESSING PLANT primary, starting with CC "+cc);
-			//Identification of connected part of the root
-			CC ccNext=cc;
-			ArrayList<ArrayList<CC>> llcc=new ArrayList<ArrayList<CC>>();
-			ArrayList<ArrayList<Integer>>toKeep=new ArrayList<ArrayList<Integer>>();
-			ArrayList<CC>lccFuse=new ArrayList<CC>();
-			llcc.add(new ArrayList<CC>());
-			llcc.get(0).add(ccNext);
+		//The roots are processed in parallel, then added to the RootModel in the order of the vertex set
+		final ArrayList<CC>primStarts=new ArrayList<CC>();
+		for(CC cc : graph.vertexSet()) if((cc.day==1) && (cc.trunk)) primStarts.add(cc);
+		final PlongementOfRoot[]primPlans=new PlongementOfRoot[primStarts.size()];
+		ParallelRows.run(primPlans.length,Math.min(primPlans.length,16*nThreads),nThreads,(iStart,iStop) -> {
+			for(int i=iStart;i<iStop;i++)primPlans[i]=plongementOfPrimary(primStarts.get(i),hoursExtremities,toleranceDistToCentralLine);
+		});
+		ArrayList<Root>listRprim=new ArrayList<Root>();
+		ArrayList<Integer>listNprim=new ArrayList<Integer>();
+		ArrayList<Integer>listDprim=new ArrayList<Integer>();
+		for(PlongementOfRoot plan : primPlans) {
 			Root rPrim=new Root(null, rm, "",1);
-			listRprim.add(rPrim);
-			listNprim.add(llcc.get(0).get(0).n);
-			listDprim.add(llcc.get(0).get(0).day);
-			int ind=0;
-			while(ccNext.getPrimChild()!=null) {
-				if(ccNext.isHiddenPrimChild()) {
-					if(debugPrim)System.out.println("Next CC is hidden");
-					llcc.add(new ArrayList<CC>());
-					ind++;
-				}
-				ccNext=ccNext.getPrimChild();
+			for(int[]nd : plan.chain) {
 				listRprim.add(rPrim);
-				listNprim.add(ccNext.n);
-				listDprim.add(ccNext.day);
-				llcc.get(ind).add(ccNext);
-				if(debugPrim)System.out.println("Adding "+ccNext+" to array number "+ind);
-			}
-			
-			
-			//Dijkstra path processing of the respective parts separated
-			//Compute starting distance (when be for lateral)
-			double startingDistance=0;
-			ArrayList<Double>distInter=new ArrayList<Double>();
-			ArrayList<Double>timeInter=new ArrayList<Double>();
-			double cumulatedDistance=startingDistance;
-			int[]nextSource=null;				
-			int[]currentSource=null;
-			int[]currentTarget=null;
-			int[]previousTarget=null;
-			
-			for(int indl=0;indl<llcc.size();indl++) {
-				toKeep.add(new ArrayList<Integer>());
-				List<CC>lcc=llcc.get(indl);
-				int nCC=lcc.size();
-				CC ccFirst=lcc.get(0);
-				CC ccLast=lcc.get(nCC-1);
-				
-				//Identify starting point
-				if(indl>0) {//It is at least the second connected component
-					currentSource=nextSource;
-					cumulatedDistance+=VitimageUtils.distance(previousTarget[0], previousTarget[1], currentSource[0]+ccFirst.xB, currentSource[1]+ccFirst.yB);
-				}
-				else{
-					currentSource=ccFirst.getExpectedSource();
-					
-				}
-				//Identify target point
-				if(ccLast.getPrimChild()==null) {
-					//End of primary : Identify target in ccLast
-					int[]coords=ccLast.getExpectedSource();
-					currentTarget=ccLast.determineTargetGeodesicallyFarestFromTheSource(coords);
-				}
-				else {
-					//Identify source in next, then target in this
-					CC ccFirstNext=ccLast.getPrimChild();
-					int[]coords=ccLast.getExpectedSource();
-					int[][]sourceTarget=cc.findHiddenStartStopToInOtherCC(ccFirstNext, coords);
-					nextSource=sourceTarget[1];
-					currentTarget=sourceTarget[0];
-					previousTarget=new int[] {sourceTarget[0][0],sourceTarget[0][1]};
-					previousTarget[0]+=ccLast.xB;
-					previousTarget[1]+=ccLast.yB;
-				}
-			
-				//Compute dijkstra path
-				CC ccFuse=CC.fuseListOfCCIntoSingleCC(llcc.get(indl));
-				lccFuse.add(ccFuse);
-				currentSource[0]+=(ccFirst.xB-ccFuse.xB);
-				currentSource[1]+=(ccFirst.yB-ccFuse.yB);					
-				currentTarget[0]+=(ccLast.xB-ccFuse.xB);
-				currentTarget[1]+=(ccLast.yB-ccFuse.yB);					
-				ccFuse.determineVoxelShortestPath(currentSource, currentTarget, 8, null);
-				cumulatedDistance=ccFuse.setDistancesToMainDijkstraPath(cumulatedDistance);
-				
-				
-				//Evaluate the timing along dijkstra path
-				//Set first pixel to birthDate of root
-				//Walking along dijkstraPath, and attribute to each a componentIndex
-				int[]indices=new int[ccFuse.mainDjikstraPath.size()];
-				for(int n=0;n<ccFuse.mainDjikstraPath.size();n++) {
-					Pix p=ccFuse.mainDjikstraPath.get(n);
-					int xx=p.x+ccFuse.xB;
-					int yy=p.y+ccFuse.yB;
-					for(int i=0;i<nCC;i++) {
-						if(lcc.get(i).r.contains(xx, yy)) {
-							indices[n]=i;
-						}
-					}
-				}
-
-
-				//Eventually add the point for the first if it is the first component in llcc
-				if(indl==0) {
-					timeInter.add((double)( lcc.get(0).day-1 ));
-					distInter.add(ccFuse.mainDjikstraPath.get(0).wayFromPrim);
-					if(debugPrim)				System.out.println("Adding a point at indl="+indl+" indcc="+0+" time="+timeInter.get(timeInter.size()-1)+" dist="+distInter.get(timeInter.size()-1));
-				}
-				
-				//For each component except the last, identify the last point of it and If necessary, add the last one (see the for loop condition)
-				for(int i=0;i<(lcc.size()-1) ; i++) {
-					double distMax=-1;
-					int indMax=-1;
-					for(int n=0;n<ccFuse.mainDjikstraPath.size();n++) {
-						if(indices[n]==i) {
-							distMax=ccFuse.mainDjikstraPath.get(n).wayFromPrim;
-							indMax=n;
-						}
-					}
-					if(indMax!=-1) {
-						distInter.add(distMax);	
-						timeInter.add((double)(lcc.get(i).day));	
-						toKeep.get(indl).add(indMax);
-					}
-					if(debugPrim)					System.out.println("Adding a point at indl="+indl+" indcc="+0+" time="+timeInter.get(timeInter.size()-1)+" dist="+distInter.get(timeInter.size()-1));
-				}
-				if(indl==llcc.size()-1) {
-					distInter.add((double)(ccFuse.mainDjikstraPath.get(ccFuse.mainDjikstraPath.size()-1).wayFromPrim));	
-					timeInter.add((double)(lcc.get(lcc.size()-1).day));	
-				}
- 
-			}	
-			//Convert results of correspondance into double tabs
-			int N=distInter.size();double[]xPoints=new double[N];double[]yPointsHours=new double[N];double[]yPoints=new double[N];for(int i=0;i<N;i++) {xPoints[i]=distInter.get(i);yPoints[i]=timeInter.get(i);yPointsHours[i]=hoursExtremities[(int)Math.round(timeInter.get(i))];}	
-				
-
-			
-			//Evaluate time for all the respective dijkstraPath	and convert to RSML
-			for(int li=0;li<lccFuse.size();li++) {
-				CC ccF=lccFuse.get(li);
-				List<CC>lcc=llcc.get(li);
-				//Propagate distance into the ccFuse's	
-				ccF.updateAllDistancesToTrunk();
-				
-				//Convert distance into time	
-				for(Pix p:ccF.pixGraph.vertexSet()) {
-					p.time=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim,xPoints,yPoints);
-					p.timeOut=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim+p.distOut,xPoints,yPoints);
-					p.timeHours=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim,xPoints,yPointsHours);
-					p.timeOutHours=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim+p.distOut,xPoints,yPointsHours);
-				}
-
-				//Back copy to the initial CCs
-				for(CC c : lcc) {
-					for(Pix p:c.pixGraph.vertexSet()) {
-						Pix p2=ccF.getPix(p.x+c.xB-ccF.xB, p.y+c.yB-ccF.yB);
-						p.dist=p2.dist;
-						p.distanceToSkeleton=p2.distanceToSkeleton;
-						p.distOut=p2.distOut;
-						p.isSkeleton=p2.isSkeleton;
-						p.time=p2.time;
-						p.timeOut=p2.timeOut;
-						p.timeHours=p2.timeHours;
-						p.timeOutHours=p2.timeOutHours;
-						p.wayFromPrim=p2.wayFromPrim;
-						p2.offX=c.xB;
-						p2.offY=c.yB;
-					}
-				}
-
-				//Subsample respective dijkstra path with beucker algorithm, and collect RSML points with speed and 
-				
-				List<Pix> list=null;
-
-				list= simplerSimplify ? DouglasPeuckerSimplify.simplifySimpler(ccF.mainDjikstraPath,toKeep.get(li) ,3) :
-					DouglasPeuckerSimplify.simplify(ccF.mainDjikstraPath,toKeep.get(li) ,toleranceDistToCentralLine);
-				//}
-				for(int i=0;i<list.size()-1;i++) {
-					Pix p=list.get(i);
-					rPrim.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,(i==0)&&(li==0));
-				}
-
-				Pix p=list.get(list.size()-1);
-				rPrim.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,false);
-				if(li!=(lccFuse.size()-1))rPrim.setLastNodeHidden();
+				listNprim.add(nd[0]);
+				listDprim.add(nd[1]);
 			}
+			plan.addNodesTo(rPrim);
 			rPrim.computeDistances();
 			rm.rootList.add(rPrim);
 		}
@@ -505,12 +350,14 @@ public class RegionAdjacencyGraphPipeline {
 		
 		//Processing lateral roots
 		//dessiner la somme de pathlines des racines et l'associer aux CC. 
-		int incrLat=1;
-		for(CC cc : graph.vertexSet()) {
-			if(!cc.isLatStart)continue;
-			debugLat=false;
-			if(debugLat)	System.out.println("\n\n\nProcessing lateral root #"+(incrLat++)+" : "+cc+" whose source.n="+cc.bestIncomingActivatedEdge().source.n);
-			
+		final ArrayList<CC>latStarts=new ArrayList<CC>();
+		for(CC cc : graph.vertexSet()) if(cc.isLatStart) latStarts.add(cc);
+		final PlongementOfRoot[]latPlans=new PlongementOfRoot[latStarts.size()];
+		ParallelRows.run(latPlans.length,Math.min(latPlans.length,16*nThreads),nThreads,(iStart,iStop) -> {
+			for(int i=iStart;i<iStop;i++)latPlans[i]=plongementOfLateral(latStarts.get(i),hoursExtremities,toleranceDistToCentralLine);
+		});
+		for(int l=0;l<latPlans.length;l++) {
+			CC cc=latStarts.get(l);
 			//Identification of correspondant primary root
 			Root myRprim=null;
 			for(int i=0;i<listRprim.size();i++) {
@@ -525,215 +372,432 @@ public class RegionAdjacencyGraphPipeline {
 				System.out.println("Rprimnull at "+cc);
 				
 			}
-			CC lookCC=getCC(graph,377,182);
-			
-			boolean debugCC=false;
-			debugLat=debugCC;
-			//Identification of connected part of the root
-			CC ccNext=cc;
-			ArrayList<ArrayList<CC>> llcc=new ArrayList<ArrayList<CC>>();
-			ArrayList<ArrayList<Integer>>toKeep=new ArrayList<ArrayList<Integer>>();
-			ArrayList<CC>lccFuse=new ArrayList<CC>();
-			llcc.add(new ArrayList<CC>());
-			llcc.get(0).add(ccNext);
-			int ind=0;
-			while(ccNext.getLatChild()!=null) {
-				if(debugCC)System.out.println("DEB 01 "+ind+" - "+ccNext);
-				if(ccNext.isHiddenLatChild()) {
-					llcc.add(new ArrayList<CC>());
-					ind++;
-				}
-				ccNext=ccNext.getLatChild();
-				llcc.get(ind).add(ccNext);
-				//if(debugCC)	System.out.println(" -> Adding "+ccNext+" to array number "+ind);
-			}
-			if(debugCC)System.out.println("DEB 02 insertion ok");			
-			//Separate dijkstra path processing of the respective parts
-			//LATERAL ROOTS//////////////////////////////////////////////////////////////////////////////////////
-			//Compute starting distance (when be for lateral)
-			double startingDistance=0;
-			ArrayList<Double>distInter=new ArrayList<Double>();
-			ArrayList<Double>timeInter=new ArrayList<Double>();
-			double cumulatedDistance=startingDistance;
-			int[]nextSource=null;				
-			int[]previousTarget=null;
-			int[]currentSource=null;
-			int[]currentTarget=null;
+			Root rLat=new Root(null, rm, "",2);
+			latPlans[l].addNodesTo(rLat);
+			rLat.computeDistances();
+			rLat.resampleFlyingPoints(rm.hoursCorrespondingToTimePoints);
+			myRprim.attachChild(rLat);
+			rLat.attachParent(myRprim);
+			rm.rootList.add(rLat);
+		}
+		rm.standardOrderingOfRoots();
+		return rm;
+	}
+
+	/** Nodes of a root found by the plongement, in the order of the calls to addNode. The Root is built from them in refinePlongementOfCCGraph*/
+	static class PlongementOfRoot{
+		final ArrayList<int[]>coords=new ArrayList<int[]>();
+		final ArrayList<double[]>times=new ArrayList<double[]>();
+		final ArrayList<Boolean>firsts=new ArrayList<Boolean>();
+		final ArrayList<Boolean>hiddens=new ArrayList<Boolean>();
+		final ArrayList<int[]>chain=new ArrayList<int[]>();//n and day of the CCs of a primary root
+
+		void addNode(int x,int y,double time,double timeHours,boolean first) {
+			coords.add(new int[] {x,y});
+			times.add(new double[] {time,timeHours});
+			firsts.add(first);
+			hiddens.add(false);
+		}
+
+		void setLastNodeHidden() {
+			hiddens.set(hiddens.size()-1,true);
+		}
+
+		void addNodesTo(Root r) {
+			for(int i=0;i<coords.size();i++) {
+				r.addNode(coords.get(i)[0],coords.get(i)[1],times.get(i)[0],times.get(i)[1],firsts.get(i));
+				if(hiddens.get(i))r.setLastNodeHidden();
+			}
+		}
+	}
+
+	/** Plongement of the primary root starting at cc : dijkstra paths in its CCs, times of their pixels, and simplified nodes.
+	 * Only the CCs of this root are modified, thus several roots can be processed at the same time*/
+	static PlongementOfRoot plongementOfPrimary(CC cc,double[]hoursExtremities,double toleranceDistToCentralLine) {
+		boolean simplerSimplify=false;
+		boolean debugPrim=false;
+		PlongementOfRoot plan=new PlongementOfRoot();
+		if(debugPrim)System.out.println("\nPROCESSING PLANT primary, starting with CC "+cc);
+		//Identification of connected part of the root
+		CC ccNext=cc;
+		ArrayList<ArrayList<CC>> llcc=new ArrayList<ArrayList<CC>>();
+		ArrayList<ArrayList<Integer>>toKeep=new ArrayList<ArrayList<Integer>>();
+		ArrayList<CC>lccFuse=new ArrayList<CC>();
+		llcc.add(new ArrayList<CC>());
+		llcc.get(0).add(ccNext);
+		plan.chain.add(new int[] {llcc.get(0).get(0).n,llcc.get(0).get(0).day});
+		int ind=0;
+		while(ccNext.getPrimChild()!=null) {
+			if(ccNext.isHiddenPrimChild()) {
+				if(debugPrim)System.out.println("Next CC is hidden");
+				llcc.add(new ArrayList<CC>());
+				ind++;
+			}
+			ccNext=ccNext.getPrimChild();
+			plan.chain.add(new int[] {ccNext.n,ccNext.day});
+			llcc.get(ind).add(ccNext);
+			if(debugPrim)System.out.println("Adding "+ccNext+" to array number "+ind);
+		}
+		
+		
+		//Dijkstra path processing of the respective parts separated
+		//Compute starting distance (when be for lateral)
+		double startingDistance=0;
+		ArrayList<Double>distInter=new ArrayList<Double>();
+		ArrayList<Double>timeInter=new ArrayList<Double>();
+		double cumulatedDistance=startingDistance;
+		int[]nextSource=null;				
+		int[]currentSource=null;
+		int[]currentTarget=null;
+		int[]previousTarget=null;
+		
+		for(int indl=0;indl<llcc.size();indl++) {
+			toKeep.add(new ArrayList<Integer>());
+			List<CC>lcc=llcc.get(indl);
+			int nCC=lcc.size();
+			CC ccFirst=lcc.get(0);
+			CC ccLast=lcc.get(nCC-1);
 			
-			for(int indl=0;indl<llcc.size();indl++) {
-				toKeep.add(new ArrayList<Integer>());
-				List<CC>lcc=llcc.get(indl);
-				int nCC=lcc.size();
-				CC ccFirst=lcc.get(0);
-				CC ccLast=lcc.get(nCC-1);
-				CC ccFuse=CC.fuseListOfCCIntoSingleCC(llcc.get(indl));
-				lccFuse.add(ccFuse);
-				boolean debug=false;
-				//if(ccLast==getCC(graph, 4245,4237))debug=true;
-				//System.out.println("Debug !");
-				//Identify starting point
-				if(indl>0) {//It is at least the second connected component
-					currentSource=nextSource;
-					cumulatedDistance+=VitimageUtils.distance(previousTarget[0], previousTarget[1], currentSource[0]+ccFirst.xB, currentSource[1]+ccFirst.yB);
-				}
-				else 	currentSource=ccFirst.getExpectedSource();
-				
+			//Identify starting point
+			if(indl>0) {//It is at least the second connected component
+				currentSource=nextSource;
+				cumulatedDistance+=VitimageUtils.distance(previousTarget[0], previousTarget[1], currentSource[0]+ccFirst.xB, currentSource[1]+ccFirst.yB);
+			}
+			else{
+				currentSource=ccFirst.getExpectedSource();
 				
-				if(indl==(llcc.size()-1)) {
-					//Identify target point
-					if(debug)System.out.println("End of lateral : "+lcc.get(lcc.size()-1));
-					int[]coords=ccFirst.getNextSourceFromFacetConnexion(ccFirst.bestIncomingActivatedEdge()); //currentSource;
-					coords=new int[] {coords[0]+ccFirst.xB-ccFuse.xB,coords[1]+ccFirst.yB-ccFuse.yB};
-					currentTarget=ccFuse.determineTargetGeodesicallyFarestFromTheSource(coords);
-					currentTarget[0]+=(ccFuse.xB-ccLast.xB);
-					currentTarget[1]+=(ccFuse.yB-ccLast.yB);
-					if(debug)System.out.println("Coords target of last = "+currentTarget[0]+","+currentTarget[1]);
-				}
-				else {
-					//Identify source in next, then target in this
-					CC ccFirstNext=ccLast.getLatChild();
-					int[]coords=ccLast.getExpectedSource();
-					int[][]sourceTarget=ccLast.findHiddenStartStopToInOtherCC(ccFirstNext, coords);
-					nextSource=sourceTarget[1];
-					currentTarget=sourceTarget[0];
-					previousTarget=new int[] {sourceTarget[0][0],sourceTarget[0][1]};
-					previousTarget[0]+=ccLast.xB;
-					previousTarget[1]+=ccLast.yB;
-				}
+			}
+			//Identify target point
+			if(ccLast.getPrimChild()==null) {
+				//End of primary : Identify target in ccLast
+				int[]coords=ccLast.getExpectedSource();
+				currentTarget=ccLast.determineTargetGeodesicallyFarestFromTheSource(coords);
+			}
+			else {
+				//Identify source in next, then target in this
+				CC ccFirstNext=ccLast.getPrimChild();
+				int[]coords=ccLast.getExpectedSource();
+				int[][]sourceTarget=cc.findHiddenStartStopToInOtherCC(ccFirstNext, coords);
+				nextSource=sourceTarget[1];
+				currentTarget=sourceTarget[0];
+				previousTarget=new int[] {sourceTarget[0][0],sourceTarget[0][1]};
+				previousTarget[0]+=ccLast.xB;
+				previousTarget[1]+=ccLast.yB;
+			}
+		
+			//Compute dijkstra path
+			CC ccFuse=CC.fuseListOfCCIntoSingleCC(llcc.get(indl));
+			lccFuse.add(ccFuse);
+			currentSource[0]+=(ccFirst.xB-ccFuse.xB);
+			currentSource[1]+=(ccFirst.yB-ccFuse.yB);					
+			currentTarget[0]+=(ccLast.xB-ccFuse.xB);
+			currentTarget[1]+=(ccLast.yB-ccFuse.yB);					
+			ccFuse.determineVoxelShortestPath(currentSource, currentTarget, 8, null);
+			cumulatedDistance=ccFuse.setDistancesToMainDijkstraPath(cumulatedDistance);
 			
-				//Compute dijkstra path
-				currentSource[0]+=(ccFirst.xB-ccFuse.xB);
-				currentSource[1]+=(ccFirst.yB-ccFuse.yB);					
-				currentTarget[0]+=(ccLast.xB-ccFuse.xB);
-				currentTarget[1]+=(ccLast.yB-ccFuse.yB);					
-				
-				if(debug) {
-					ccFuse.drawDist().show();
-					System.out.println("Coords source of fuse = "+currentSource[0]+","+currentSource[1]);
-					System.out.println("Coords target of fuse = "+currentTarget[0]+","+currentTarget[1]);
-				}
-				
-				ccFuse.determineVoxelShortestPath(currentSource, currentTarget, 8, null);
-				cumulatedDistance=ccFuse.setDistancesToMainDijkstraPath(cumulatedDistance);
-				if(debug)System.out.println("Lenght of path="+ccFuse.mainDjikstraPath.size());
-				if(debug)VitimageUtils.waitFor(60000000);
-				
-				//Evaluate the timing along dijkstra path
-				//Set first pixel to birthDate of root
-				//Walking along dijkstraPath, and attribute to each a componentIndex
-				int[]indices=new int[ccFuse.mainDjikstraPath.size()];
-				for(int n=0;n<ccFuse.mainDjikstraPath.size();n++) {
-					Pix p=ccFuse.mainDjikstraPath.get(n);
-					int xx=p.x+ccFuse.xB;
-					int yy=p.y+ccFuse.yB;
-					for(int i=0;i<nCC;i++) {
-						if(lcc.get(i).r.contains(xx, yy)) {
-							indices[n]=i;
-						}
+			
+			//Evaluate the timing along dijkstra path
+			//Set first pixel to birthDate of root
+			//Walking along dijkstraPath, and attribute to each a componentIndex
+			int[]indices=new int[ccFuse.mainPath().size()];
+			int[]owners=ownersOfFusedPixels(ccFuse,lcc);
+			int widthFuse=ccFuse.r.getBounds().width;
+			for(int n=0;n<ccFuse.mainPath().size();n++) {
+				Pix p=ccFuse.mainPath().get(n);
+				int owner=owners[p.y*widthFuse+p.x];
+				if(owner>=0)indices[n]=owner;
+			}
+
+
+			//Eventually add the point for the first if it is the first component in llcc
+			if(indl==0) {
+				timeInter.add((double)( lcc.get(0).day-1 ));
+				distInter.add(ccFuse.mainPath().get(0).wayFromPrim);
+				if(debugPrim)				System.out.println("Adding a point at indl="+indl+" indcc="+0+" time="+timeInter.get(timeInter.size()-1)+" dist="+distInter.get(timeInter.size()-1));
+			}
+			
+			//For each component except the last, identify the last point of it and If necessary, add the last one (see the for loop condition)
+			for(int i=0;i<(lcc.size()-1) ; i++) {
+				double distMax=-1;
+				int indMax=-1;
+				for(int n=0;n<ccFuse.mainPath().size();n++) {
+					if(indices[n]==i) {
+						distMax=ccFuse.mainPath().get(n).wayFromPrim;
+						indMax=n;
 					}
 				}
-	
-	
-				//Eventually add the point for the first if it is the first component in llcc
-				if(indl==0) {
-					timeInter.add((double)( lcc.get(0).day-1 ));
-					distInter.add(ccFuse.mainDjikstraPath.get(0).wayFromPrim);
+				if(indMax!=-1) {
+					distInter.add(distMax);	
+					timeInter.add((double)(lcc.get(i).day));	
+					toKeep.get(indl).add(indMax);
 				}
-				//For each component except the last, identify the last point of it and If necessary, add the last one (see the for loop condition)
-				for(int i=0;i<lcc.size()-1 ; i++) {
-					double distMax=-1;
-					int indMax=-1;
-					for(int n=0;n<ccFuse.mainDjikstraPath.size();n++) {
-						if(indices[n]==i) {
-							distMax=ccFuse.mainDjikstraPath.get(n).wayFromPrim;
-							indMax=n;
-						}
-					}
-					if(indMax>=0) {
-						distInter.add((double)(distMax));	
-						timeInter.add((double)(lcc.get(i).day));	
-						toKeep.get(indl).add(indMax);
+				if(debugPrim)					System.out.println("Adding a point at indl="+indl+" indcc="+0+" time="+timeInter.get(timeInter.size()-1)+" dist="+distInter.get(timeInter.size()-1));
+			}
+			if(indl==llcc.size()-1) {
+				distInter.add((double)(ccFuse.mainPath().get(ccFuse.mainPath().size()-1).wayFromPrim));	
+				timeInter.add((double)(lcc.get(lcc.size()-1).day));	
+			}
+ 
+		}	
+		//Convert results of correspondance into double tabs
+		int N=distInter.size();double[]xPoints=new double[N];double[]yPointsHours=new double[N];double[]yPoints=new double[N];for(int i=0;i<N;i++) {xPoints[i]=distInter.get(i);yPoints[i]=timeInter.get(i);yPointsHours[i]=hoursExtremities[(int)Math.round(timeInter.get(i))];}	
+			
+
+		
+		//Evaluate time for all the respective dijkstraPath	and convert to RSML
+		for(int li=0;li<lccFuse.size();li++) {
+			CC ccF=lccFuse.get(li);
+			List<CC>lcc=llcc.get(li);
+			//Propagate distance into the ccFuse's	
+			ccF.updateAllDistancesToTrunk();
+			
+			//Convert distance into time	
+			PixelStore pF=ccF.pixels();
+			for(int i=0;i<pF.n;i++) {
+				pF.time[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i],xPoints,yPoints);
+				pF.timeOut[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i]+pF.distOut[i],xPoints,yPoints);
+				pF.timeHours[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i],xPoints,yPointsHours);
+				pF.timeOutHours[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i]+pF.distOut[i],xPoints,yPointsHours);
+			}
+
+			//Back copy to the initial CCs
+			for(CC c : lcc) {
+				PixelStore p=c.pixels();
+				for(int i=0;i<p.n;i++) {
+					int i2=pF.indexOf(p.x[i]+c.xB-ccF.xB, p.y[i]+c.yB-ccF.yB);
+					p.copyFrom(i, pF, i2);
+					pF.offX[i2]=c.xB;
+					pF.offY[i2]=c.yB;
+				}
+			}
+			ccF.syncPathsFromPixels();
+
+			//Subsample respective dijkstra path with beucker algorithm, and collect RSML points with speed and 
+			
+			List<Pix> list=null;
+
+			list= simplerSimplify ? DouglasPeuckerSimplify.simplifySimpler(ccF.mainPath(),toKeep.get(li) ,3) :
+				DouglasPeuckerSimplify.simplify(ccF.mainPath(),toKeep.get(li) ,toleranceDistToCentralLine);
+			//}
+			for(int i=0;i<list.size()-1;i++) {
+				Pix p=list.get(i);
+				plan.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,(i==0)&&(li==0));
+			}
+
+			Pix p=list.get(list.size()-1);
+			plan.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,false);
+			if(li!=(lccFuse.size()-1))plan.setLastNodeHidden();
+		}
+		return plan;
+	}
+
+	/** Index in lcc of the CC holding each pixel of the bounding box of ccFuse (the last one if several, -1 if none), read at y*width+x for the pixel (x,y) of ccFuse.
+	 * Filled once from the masks of the CCs, which are in the bounding box of their fusion*/
+	static int[]ownersOfFusedPixels(CC ccFuse,List<CC>lcc){
+		int width=ccFuse.r.getBounds().width;
+		int[]owners=new int[width*ccFuse.r.getBounds().height];
+		Arrays.fill(owners, -1);
+		for(int i=0;i<lcc.size();i++) {
+			RoiMask m=lcc.get(i).roiMask();
+			for(int y=0;y<m.height;y++)for(int x=0;x<m.width;x++) {
+				if(m.contains(m.x0+x, m.y0+y))owners[(m.y0+y-ccFuse.yB)*width+m.x0+x-ccFuse.xB]=i;
+			}
+		}
+		return owners;
+	}
+
+	/** Plongement of the lateral root starting at cc, once the primary roots are done. Only the CCs of this root are modified*/
+	static PlongementOfRoot plongementOfLateral(CC cc,double[]hoursExtremities,double toleranceDistToCentralLine) {
+		boolean simplerSimplify=false;
+		PlongementOfRoot plan=new PlongementOfRoot();
+		boolean debugCC=false;
+		boolean debugLat=debugCC;
+		//Identification of connected part of the root
+		CC ccNext=cc;
+		ArrayList<ArrayList<CC>> llcc=new ArrayList<ArrayList<CC>>();
+		ArrayList<ArrayList<Integer>>toKeep=new ArrayList<ArrayList<Integer>>();
+		ArrayList<CC>lccFuse=new ArrayList<CC>();
+		llcc.add(new ArrayList<CC>());
+		llcc.get(0).add(ccNext);
+		int ind=0;
+		while(ccNext.getLatChild()!=null) {
+			if(debugCC)System.out.println("DEB 01 "+ind+" - "+ccNext);
+			if(ccNext.isHiddenLatChild()) {
+				llcc.add(new ArrayList<CC>());
+				ind++;
+			}
+			ccNext=ccNext.getLatChild();
+			llcc.get(ind).add(ccNext);
+			//if(debugCC)	System.out.println(" -> Adding "+ccNext+" to array number "+ind);
+		}
+		if(debugCC)System.out.println("DEB 02 insertion ok");			
+		//Separate dijkstra path processing of the respective parts
+		//LATERAL ROOTS//////////////////////////////////////////////////////////////////////////////////////
+		//Compute starting distance (when be for lateral)
+		double startingDistance=0;
+		ArrayList<Double>distInter=new ArrayList<Double>();
+		ArrayList<Double>timeInter=new ArrayList<Double>();
+		double cumulatedDistance=startingDistance;
+		int[]nextSource=null;				
+		int[]previousTarget=null;
+		int[]currentSource=null;
+		int[]currentTarget=null;
+		
+		for(int indl=0;indl<llcc.size();indl++) {
+			toKeep.add(new ArrayList<Integer>());
+			List<CC>lcc=llcc.get(indl);
+			int nCC=lcc.size();
+			CC ccFirst=lcc.get(0);
+			CC ccLast=lcc.get(nCC-1);
+			CC ccFuse=CC.fuseListOfCCIntoSingleCC(llcc.get(indl));
+			lccFuse.add(ccFuse);
+			boolean debug=false;
+			//if(ccLast==getCC(graph, 4245,4237))debug=true;
+			//System.out.println("Debug !");
+			//Identify starting point
+			if(indl>0) {//It is at least the second connected component
+				currentSource=nextSource;
+				cumulatedDistance+=VitimageUtils.distance(previousTarget[0], previousTarget[1], currentSource[0]+ccFirst.xB, currentSource[1]+ccFirst.yB);
+			}
+			else 	currentSource=ccFirst.getExpectedSource();
+			
+			
+			if(indl==(llcc.size()-1)) {
+				//Identify target point
+				if(debug)System.out.println("End of lateral : "+lcc.get(lcc.size()-1));
+				int[]coords=ccFirst.getNextSourceFromFacetConnexion(ccFirst.bestIncomingActivatedEdge()); //currentSource;
+				coords=new int[] {coords[0]+ccFirst.xB-ccFuse.xB,coords[1]+ccFirst.yB-ccFuse.yB};
+				currentTarget=ccFuse.determineTargetGeodesicallyFarestFromTheSource(coords);
+				currentTarget[0]+=(ccFuse.xB-ccLast.xB);
+				currentTarget[1]+=(ccFuse.yB-ccLast.yB);
+				if(debug)System.out.println("Coords target of last = "+currentTarget[0]+","+currentTarget[1]);
+			}
+			else {
+				//Identify source in next, then target in this
+				CC ccFirstNext=ccLast.getLatChild();
+				int[]coords=ccLast.getExpectedSource();
+				int[][]sourceTarget=ccLast.findHiddenStartStopToInOtherCC(ccFirstNext, coords);
+				nextSource=sourceTarget[1];
+				currentTarget=sourceTarget[0];
+				previousTarget=new int[] {sourceTarget[0][0],sourceTarget[0][1]};
+				previousTarget[0]+=ccLast.xB;
+				previousTarget[1]+=ccLast.yB;
+			}
+		
+			//Compute dijkstra path
+			currentSource[0]+=(ccFirst.xB-ccFuse.xB);
+			currentSource[1]+=(ccFirst.yB-ccFuse.yB);					
+			currentTarget[0]+=(ccLast.xB-ccFuse.xB);
+			currentTarget[1]+=(ccLast.yB-ccFuse.yB);					
+			
+			if(debug) {
+				ccFuse.drawDist().show();
+				System.out.println("Coords source of fuse = "+currentSource[0]+","+currentSource[1]);
+				System.out.println("Coords target of fuse = "+currentTarget[0]+","+currentTarget[1]);
+			}
+			
+			ccFuse.determineVoxelShortestPath(currentSource, currentTarget, 8, null);
+			cumulatedDistance=ccFuse.setDistancesToMainDijkstraPath(cumulatedDistance);
+			if(debug)System.out.println("Lenght of path="+ccFuse.mainPath().size());
+			if(debug)VitimageUtils.waitFor(60000000);
+			
+			//Evaluate the timing along dijkstra path
+			//Set first pixel to birthDate of root
+			//Walking along dijkstraPath, and attribute to each a componentIndex
+			int[]indices=new int[ccFuse.mainPath().size()];
+			int[]owners=ownersOfFusedPixels(ccFuse,lcc);
+			int widthFuse=ccFuse.r.getBounds().width;
+			for(int n=0;n<ccFuse.mainPath().size();n++) {
+				Pix p=ccFuse.mainPath().get(n);
+				int owner=owners[p.y*widthFuse+p.x];
+				if(owner>=0)indices[n]=owner;
+			}
+
+
+			//Eventually add the point for the first if it is the first component in llcc
+			if(indl==0) {
+				timeInter.add((double)( lcc.get(0).day-1 ));
+				distInter.add(ccFuse.mainPath().get(0).wayFromPrim);
+			}
+			//For each component except the last, identify the last point of it and If necessary, add the last one (see the for loop condition)
+			for(int i=0;i<lcc.size()-1 ; i++) {
+				double distMax=-1;
+				int indMax=-1;
+				for(int n=0;n<ccFuse.mainPath().size();n++) {
+					if(indices[n]==i) {
+						distMax=ccFuse.mainPath().get(n).wayFromPrim;
+						indMax=n;
 					}
 				}
-				if(indl==llcc.size()-1) {
-					distInter.add((double)(ccFuse.mainDjikstraPath.get(ccFuse.mainDjikstraPath.size()-1).wayFromPrim));	
-					timeInter.add((double)(lcc.get(lcc.size()-1).day));	
+				if(indMax>=0) {
+					distInter.add((double)(distMax));	
+					timeInter.add((double)(lcc.get(i).day));	
+					toKeep.get(indl).add(indMax);
 				}
-			}	
-			//Convert results of correspondance into double tabs
-			int N=distInter.size();
-			double[]xPoints=new double[N];
-			double[]yPoints=new double[N];
-			double[]yPointsHours=new double[N];
-			for(int i=0;i<N;i++) {
-				xPoints[i]=distInter.get(i);
-				yPoints[i]=timeInter.get(i);
-				yPointsHours[i]=hoursExtremities[(int)Math.round (timeInter.get(i))];
-			}	
-				
+			}
+			if(indl==llcc.size()-1) {
+				distInter.add((double)(ccFuse.mainPath().get(ccFuse.mainPath().size()-1).wayFromPrim));	
+				timeInter.add((double)(lcc.get(lcc.size()-1).day));	
+			}
+		}	
+		//Convert results of correspondance into double tabs
+		int N=distInter.size();
+		double[]xPoints=new double[N];
+		double[]yPoints=new double[N];
+		double[]yPointsHours=new double[N];
+		for(int i=0;i<N;i++) {
+			xPoints[i]=distInter.get(i);
+			yPoints[i]=timeInter.get(i);
+			yPointsHours[i]=hoursExtremities[(int)Math.round (timeInter.get(i))];
+		}	
 			
-			//Convert results of correspondance into double tabs
+		
+		//Convert results of correspondance into double tabs
 //			int N=distInter.size();double[]xPoints=new double[N];double[]yPointsHours=new double[N];double[]yPoints=new double[N];for(int i=0;i<N;i++) {xPoints[i]=distInter.get(i);yPoints[i]=timeInter.get(i);yPointsHours[i]=hoursExtremities[(int)Math.round(timeInter.get(i))];}	
-	
+
+		
+		//Evaluate time for all the respective dijkstraPath	and convert to RPrimSML
+		for(int li=0;li<lccFuse.size();li++) {
+			if(debugLat)	System.out.println("Processing path for component "+li);
+			CC ccF=lccFuse.get(li);
+			List<CC>lcc=llcc.get(li);
+			//Propagate distance into the ccFuse's	
+			ccF.updateAllDistancesToTrunk();
 			
-			//Evaluate time for all the respective dijkstraPath	and convert to RPrimSML
-			Root rLat=new Root(null, rm, "",2);
-			listRlat.add(rLat);
-			listNlat.add(llcc.get(0).get(0).n);
-			listDlat.add(llcc.get(0).get(0).day);
-			for(int li=0;li<lccFuse.size();li++) {
-				if(debugLat)	System.out.println("Processing path for component "+li);
-				CC ccF=lccFuse.get(li);
-				List<CC>lcc=llcc.get(li);
-				//Propagate distance into the ccFuse's	
-				ccF.updateAllDistancesToTrunk();
-				
-				//Convert distance into time	
-				for(Pix p:ccF.pixGraph.vertexSet()) {
-					p.time=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim,xPoints,yPoints);
-					p.timeOut=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim+p.distOut,xPoints,yPoints);
-					p.timeHours=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim,xPoints,yPointsHours);
-					p.timeOutHours=SplineAndPolyLineUtils.linearInterpolation(p.wayFromPrim+p.distOut,xPoints,yPointsHours);
-				}
-	
-				//Back copy to the initial CCs
-				for(CC c : lcc) {
-					for(Pix p:c.pixGraph.vertexSet()) {
-						Pix p2=ccF.getPix(p.x+c.xB-ccF.xB, p.y+c.yB-ccF.yB);
-						p.dist=p2.dist;
-						p.distanceToSkeleton=p2.distanceToSkeleton;
-						p.distOut=p2.distOut;
-						p.isSkeleton=p2.isSkeleton;
-						p.time=p2.time;
-						p.timeOut=p2.timeOut;
-						p.timeHours=p2.timeHours;
-						p.timeOutHours=p2.timeOutHours;
-						p.wayFromPrim=p2.wayFromPrim;
-						p2.offX=c.xB;
-						p2.offY=c.yB;
-					}
+			//Convert distance into time	
+			PixelStore pF=ccF.pixels();
+			for(int i=0;i<pF.n;i++) {
+				pF.time[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i],xPoints,yPoints);
+				pF.timeOut[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i]+pF.distOut[i],xPoints,yPoints);
+				pF.timeHours[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i],xPoints,yPointsHours);
+				pF.timeOutHours[i]=SplineAndPolyLineUtils.linearInterpolation(pF.wayFromPrim[i]+pF.distOut[i],xPoints,yPointsHours);
+			}
+
+			//Back copy to the initial CCs
+			for(CC c : lcc) {
+				PixelStore p=c.pixels();
+				for(int i=0;i<p.n;i++) {
+					int i2=pF.indexOf(p.x[i]+c.xB-ccF.xB, p.y[i]+c.yB-ccF.yB);
+					p.copyFrom(i, pF, i2);
+					pF.offX[i2]=c.xB;
+					pF.offY[i2]=c.yB;
 				}
-	
-				//Subsample respective dijkstra path with beucker algorithm, and collect RSML points
-				List<Pix> list= simplerSimplify ? DouglasPeuckerSimplify.simplifySimpler(ccF.mainDjikstraPath,toKeep.get(li) ,3) :
-					DouglasPeuckerSimplify.simplify(ccF.mainDjikstraPath,toKeep.get(li) ,toleranceDistToCentralLine);
-				if(debugLat)	System.out.println("Simplifying a list of "+ccF.mainDjikstraPath.size()+" to list of "+list.size());
-				for(int i=0;i<list.size()-1;i++) {
-					Pix p=list.get(i);
-					rLat.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,(i==0)&&(li==0));
-				}	
-				Pix p=list.get(list.size()-1);
-				rLat.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,false);
-				if(li!=(lccFuse.size()-1))rLat.setLastNodeHidden();
 			}
-			rLat.computeDistances();
-			rLat.resampleFlyingPoints(rm.hoursCorrespondingToTimePoints);
-			myRprim.attachChild(rLat);
-			rLat.attachParent(myRprim);
-			rm.rootList.add(rLat);
+			ccF.syncPathsFromPixels();
+
+			//Subsample respective dijkstra path with beucker algorithm, and collect RSML points
+			List<Pix> list= simplerSimplify ? DouglasPeuckerSimplify.simplifySimpler(ccF.mainPath(),toKeep.get(li) ,3) :
+				DouglasPeuckerSimplify.simplify(ccF.mainPath(),toKeep.get(li) ,toleranceDistToCentralLine);
+			if(debugLat)	System.out.println("Simplifying a list of "+ccF.mainPath().size()+" to list of "+list.size());
+			for(int i=0;i<list.size()-1;i++) {
+				Pix p=list.get(i);
+				plan.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,(i==0)&&(li==0));
+			}	
+			Pix p=list.get(list.size()-1);
+			plan.addNode(p.x+ccF.xB,p.y+ccF.yB,p.time,p.timeHours,false);
+			if(li!=(lccFuse.size()-1))plan.setLastNodeHidden();
 		}
-		rm.standardOrderingOfRoots();
-		return rm;
+		return plan;
 	}
 	
 	
@@ -827,64 +891,142 @@ public class RegionAdjacencyGraphPipeline {
 		
 		boolean finished=false;
 		int stepHung=0;
-		CC ccStopWant=getCC(graph,19,4074,2628); 
-		CC ccStartWant=getCC(graph,19,4067,2731  );
-
-		System.out.println("STOPWANT="+ccStopWant);
-		System.out.println("STARTWANT="+ccStartWant);
+		CC ccStopWant=DebugProbes.get("reconnectStop",graph); 
+		CC ccStartWant=DebugProbes.get("reconnectStart",graph);
 		for(int i=0;i<Nstop;i++) {
-			if(listStop.get(i)==ccStopWant)System.out.println("DEBUGGGGGGG stop");
+			if(ccStopWant!=null && listStop.get(i)==ccStopWant)System.out.println("Debug probe : reconnectStop is in the list of stops");
 			listStop.get(i).changedRecently=true;
 		}
         for(int j=0;j<Nstart;j++) {
-			if(listStart.get(j)==ccStartWant)System.out.println("DEBUGGGGGGG start");
+			if(ccStartWant!=null && listStart.get(j)==ccStartWant)System.out.println("Debug probe : reconnectStart is in the list of starts");
 			listStart.get(j).changedRecently=true;   
         }
-		double[][]costMatrix=new double[Nstop][Nstart];
+		//Dense mode : the hungarian algorithm matches as many stops as possible over the full matrix, pairs that cannot be linked costing 10000.
+		//Sparse mode : only the pairs cheaper than thresholdScore are kept, and a stop left unmatched costs thresholdScore. This is the optimum of the matrix
+		//clamped to thresholdScore, thus the dense mode can give up a good pair to avoid a forced pair at 10000 or above the threshold, where the sparse one does not
+		boolean sparse=useSparseReconnectionAssignment && formalism==1;
+		double[][]costMatrix=sparse ? null : new double[Nstop][Nstart];
+		boolean[][]stillFree=sparse ? null : new boolean[Nstop][Nstart];
+		SparseAssignment.Rows pairs=sparse ? new SparseAssignment.Rows(Nstop,Nstart) : null;
+		boolean[]rowToUpdate=new boolean[Nstop];
+		boolean[]colToUpdate=new boolean[Nstart];
+		int[]colsToUpdate=new int[Nstart];
+		Arrays.fill(rowToUpdate, true);
+		Arrays.fill(colToUpdate, true);
+		int nStill=0;
+		double[]labelsStop=null;
+		double[]labelsStart=null;
+		int[]previousMatching=null;
+		//The graph is acyclic if no cycle is there before the first hidden edge : then an edge stop->start closes a cycle only if stop can be reached from start
+		boolean acyclicBefore=!(new CycleDetector<>(graph).detectCycles());
+		int[][]candidates=gateReconnectionCandidates ? candidatesForHiddenEdges(graph,listStop,listStart,pph) : null;
+		int nScored=0;
+		int nGated=0;
+		int nThreads=(nbThreadsForReconnectionScoring>0) ? nbThreadsForReconnectionScoring : VitimageUtils.getNbCores();
+		ForkJoinPool pool=ParallelRows.newPool(nThreads);//One pool for all the steps
+		int[]toScoreI=new int[16];
+		int[]toScoreJ=new int[16];
 		Timer t2=new Timer();
 		boolean isTheFirstStep=true;
 		while(!finished) {
 
-			CC ccstoptest=getCC(graph,2026,2498);
-			CC ccstarttest=getCC(graph,2025,2550);
-			
-			//Build score matrix
-			int nStill=0;
+			//Update score matrix, only on the lines and columns of the CCs that changed since the last step. Pairs to score are gathered, then scored in parallel
+			int nToScore=0;
+			int nColsToUpdate=0;
+			for(int j=0;j<Nstart;j++)if(colToUpdate[j])colsToUpdate[nColsToUpdate++]=j;
 			for(int i=0;i<Nstop;i++) {
 				if(isTheFirstStep)if((i%10)==0)t2.print("Hungarian algo : building initial score matrix, line  "+i+" / "+Nstop);
-	            for(int j=0;j<Nstart;j++) {    
-	            	boolean debug=false &&( (i==33) && (j==119));
-	            	if(listStart.get(j)==ccStartWant && listStop.get(i)==ccStopWant) { debug=false;System.out.println("DEBUGGG");}
-	            	if(listStop.get(i)==listStart.get(j))costMatrix[i][j]=PENALTY_COST;
+				int nj=rowToUpdate[i] ? Nstart : nColsToUpdate;
+	            for(int jj=0;jj<nj;jj++) {    
+	            	int j=rowToUpdate[i] ? jj : colsToUpdate[jj];
+	            	boolean debug=(ccStopWant!=null && listStart.get(j)==ccStartWant && listStop.get(i)==ccStopWant);
+	            	if(!sparse) {
+	            		if(stillFree[i][j])nStill--;
+	            		stillFree[i][j]=false;
+	            	}
+	            	double cost;
+	            	if(listStop.get(i)==listStart.get(j))cost=PENALTY_COST;
 	            	else {
-	            		if(listStop.get(i).associateSuiv==listStart.get(j))costMatrix[i][j]=-VitimageUtils.EPSILON;
+	            		if(listStop.get(i).associateSuiv==listStart.get(j))cost=-VitimageUtils.EPSILON;
 	            		else {
-	            			if(listStop.get(i).associateSuiv!=null || listStart.get(j).associatePrev!=null)costMatrix[i][j]=10000;
+	            			if(listStop.get(i).associateSuiv!=null || listStart.get(j).associatePrev!=null)cost=10000;
 	            			else{
-	            				nStill++;
-	            				if(listStop.get(i).changedRecently || listStart.get(j).changedRecently) {	
-	            					if(listStop.get(i)==ccstoptest && listStart.get(j)==ccstarttest) {debug=true;}
-	            					costMatrix[i][j]=weightingOfPossibleHiddenEdge_v2(img,graph,listStop.get(i),listStart.get(j),pph, debug);
-	            					if(Double.isNaN(costMatrix[i][j]))	System.out.println("I="+i+" J="+j);
-	            					
+	            				if(!sparse) {
+	            					nStill++;
+	            					stillFree[i][j]=true;
+	            				}
+	            				if(!(listStop.get(i).changedRecently || listStart.get(j).changedRecently))continue;//Keep the previous score
+	            				if(candidates!=null && (Arrays.binarySearch(candidates[i], j)<0 || isGatedHiddenEdge(listStop.get(i),listStart.get(j),pph))) {
+	            					cost=10000;
+	            					nGated++;
+	            				}
+	            				else {
+	            					if(nToScore==toScoreI.length) {toScoreI=Arrays.copyOf(toScoreI, 2*nToScore);toScoreJ=Arrays.copyOf(toScoreJ, 2*nToScore);}
+	            					toScoreI[nToScore]=i;toScoreJ[nToScore]=j;
+	            					nToScore++;
+	            					continue;
 	            				}
 	            			}
 	            		}
 	            	}
-	            	if(debug)System.out.println("FINAL VAL="+costMatrix[i][j]);
+	            	if(sparse) {
+	            		if(cost<thresholdScore)pairs.set(i, j, cost);
+	            		else pairs.remove(i, j);
+	            	}
+	            	else costMatrix[i][j]=cost;
+	            	if(debug)System.out.println("FINAL VAL="+cost);
 	            }
 	        }
+			//The scores only read the graph, and pairs write distinct cells of the array
+			final int[]scoreI=toScoreI;
+			final int[]scoreJ=toScoreJ;
+			final double[]scores=new double[nToScore];
+			ParallelRows.run(pool,nToScore,Math.min(nToScore,16*nThreads),(kStart,kStop) -> {
+				for(int k=kStart;k<kStop;k++) {
+					int i=scoreI[k];
+					int j=scoreJ[k];
+	            	boolean debug=(ccStopWant!=null && listStart.get(j)==ccStartWant && listStop.get(i)==ccStopWant);
+					scores[k]=weightingOfPossibleHiddenEdge_v2(img,graph,listStop.get(i),listStart.get(j),pph, debug);
+				}
+			});
+			for(int k=0;k<nToScore;k++) {
+				int i=toScoreI[k];
+				int j=toScoreJ[k];
+				if(sparse) {
+					if(scores[k]<thresholdScore)pairs.set(i, j, scores[k]);
+					else pairs.remove(i, j);
+				}
+				else costMatrix[i][j]=scores[k];
+				if(Double.isNaN(scores[k]))	System.out.println("I="+i+" J="+j);
+				if(ccStopWant!=null && listStart.get(j)==ccStartWant && listStop.get(i)==ccStopWant)System.out.println("FINAL VAL="+scores[k]);
+			}
+			nScored+=nToScore;
 			isTheFirstStep=false;
-			for(int i=0;i<Nstop;i++) listStop.get(i).changedRecently=false;
-            for(int j=0;j<Nstart;j++)listStart.get(j).changedRecently=false;   
+			for(int i=0;i<Nstop;i++) {listStop.get(i).changedRecently=false;rowToUpdate[i]=false;}
+            for(int j=0;j<Nstart;j++) {listStart.get(j).changedRecently=false;colToUpdate[j]=false;}
+            if(sparse)nStill=countFreePairs(listStop,listStart);
             if(nStill==0) {
             	finished=true;
             	continue;
             }
 		
-			//Execute algorithm
-			HungarianAlgorithm hung=new HungarianAlgorithm(costMatrix);
-			int []solutions=hung.execute();
+			//Execute algorithm, from the solution of the previous step when possible
+			if(benchmarkReconnectionAssignment && stepHung==0 && !sparse)SparseAssignment.benchmark(costMatrix, thresholdScore, 10000);
+			int []solutions;
+			SparseAssignment assignment=null;
+			if(sparse) {
+				assignment=pairs.toAssignment(thresholdScore);
+				solutions=(warmStartReconnectionAssignment && previousMatching!=null) ? assignment.solveFrom(labelsStart, previousMatching) : assignment.solve();
+				labelsStart=assignment.getColumnPotentials();
+				previousMatching=assignment.getAssignment();
+			}
+			else {
+				HungarianAlgorithm hung=new HungarianAlgorithm(costMatrix);
+				solutions=(warmStartReconnectionAssignment && previousMatching!=null) ? hung.executeFrom(labelsStop, labelsStart, previousMatching) : hung.execute();
+				labelsStop=hung.getWorkerLabels();
+				labelsStart=hung.getJobLabels();
+				previousMatching=hung.getMatching();
+			}
 			double meanScore=0;
 			int N=0;
 			int bestI=-1;
@@ -897,7 +1039,7 @@ public class RegionAdjacencyGraphPipeline {
 				for(int i=0;i<listStop.size();i++) {
 					if(solutions[i]==-1)continue;
 					int j=solutions[i];
-					double weight=costMatrix[i][j];	
+					double weight=sparse ? pairs.get(i, j, 10000) : costMatrix[i][j];	
 					if(weight<0)continue;
 			    	meanScore+=weight;
 			    	N++;
@@ -920,7 +1062,7 @@ public class RegionAdjacencyGraphPipeline {
 			if(bestI==-1) {finished=true;continue;}
 			CC ccStop=listStop.get(bestI);
 			CC ccStart=listStart.get(bestJ);
-			boolean deb=(ccStop==getCC(graph,953,4070 ));
+			boolean deb=DebugProbes.enabled && DebugProbes.is("reconnectChosenStop",ccStop);
 		    System.out.println("\n\nHungarian iterative at step "+stepHung+" N associated="+N+" meanscore="+(meanScore/N)+".\n   Chosen link with score="+bestW+" : "+ccStop+" --> "+ccStart);
 		    weightingOfPossibleHiddenEdge_v2(img,graph,listStop.get(bestI),listStart.get(bestJ),pph,true);
 		    if(deb)IJ.showMessage("There");
@@ -937,14 +1079,15 @@ public class RegionAdjacencyGraphPipeline {
 			edge.hidden=true;
 			edge.trunk=false;
 			graph.addEdge(ccStop, ccStart,edge); 
-			CycleDetector<CC, ConnectionEdge> cyc=new CycleDetector<>(graph);
-			if(cyc.detectCycles()) {
+			if(acyclicBefore ? isReachable(graph,ccStart,ccStop) : new CycleDetector<>(graph).detectCycles()) {
 				System.out.println("WARNING : CYCLES AFTER HUNGARIAN ! BREAK !\n was attempting to connect stop=\n"+ccStop+" \nwith start=\n"+ccStart);
 				finished=true;continue;
 			}
 			graph.setEdgeWeight(edge, bestW);
 			ccStop.associateSuiv=ccStart;
 			ccStart.associatePrev=ccStop;
+			for(int i=0;i<Nstop;i++)if(listStop.get(i)==ccStop)rowToUpdate[i]=true;
+			for(int j=0;j<Nstart;j++)if(listStart.get(j)==ccStart)colToUpdate[j]=true;
 			CC ct=ccStop.bestIncomingActivatedCC();
 			if(ct !=null) {
 				ct.changedRecently=true;
@@ -961,7 +1104,10 @@ public class RegionAdjacencyGraphPipeline {
 					ct2.changedRecently=true;
 				}
 			}
+			for(int i=0;i<Nstop;i++)if(listStop.get(i).changedRecently)rowToUpdate[i]=true;
+			for(int j=0;j<Nstart;j++)if(listStart.get(j).changedRecently)colToUpdate[j]=true;
 		}
+		if(pool!=null)pool.shutdown();
 				
 		//Reconnect all branches that have not been connected
 		if(workAlsoBranches) {
@@ -969,11 +1115,43 @@ public class RegionAdjacencyGraphPipeline {
 				if(edge.target.bestIncomingActivatedEdge()==null)edge.activated=true;
 			}			
 		}
+		System.out.println("Possible hidden edges : "+nScored+" scored"+(gateReconnectionCandidates ? ", "+nGated+" gated out by distance" : ""));
 		t.print("End hungarian");
 		//VitimageUtils.waitFor(500000000);
 		
 	}
 
+	/** Number of pairs (stop,start) of two distinct CCs that are both free to be linked*/
+	static int countFreePairs(ArrayList<CC>listStop,ArrayList<CC>listStart) {
+		HashSet<CC>freeStarts=new HashSet<CC>();
+		for(CC cc : listStart)if(cc.associatePrev==null)freeStarts.add(cc);
+		int nFreeStops=0;
+		int nBoth=0;
+		for(CC cc : listStop) {
+			if(cc.associateSuiv!=null)continue;
+			nFreeStops++;
+			if(freeStarts.contains(cc))nBoth++;
+		}
+		return nFreeStops*freeStarts.size()-nBoth;
+	}
+
+	/** True if there is a directed path from source to target, following every edge (activated or not)*/
+	public static boolean isReachable(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,CC source,CC target) {
+		HashSet<CC>visited=new HashSet<CC>();
+		ArrayList<CC>toVisit=new ArrayList<CC>();
+		toVisit.add(source);
+		visited.add(source);
+		while(!toVisit.isEmpty()) {
+			CC cc=toVisit.remove(toVisit.size()-1);
+			if(cc==target)return true;
+			for(ConnectionEdge edge : graph.outgoingEdgesOf(cc)) {
+				CC next=graph.getEdgeTarget(edge);
+				if(visited.add(next))toVisit.add(next);
+			}
+		}
+		return false;
+	}
+
 	public static SimpleDirectedWeightedGraph<CC, ConnectionEdge> buildGraphFromDateMap(ImagePlus imgDates,int connexity,double[]hours) {
 		trickOnImgDates(imgDates);
 		int maxSizeConnexion=500000000;
@@ -987,33 +1165,72 @@ public class RegionAdjacencyGraphPipeline {
 		roisCC[0]=new Roi[] {new Roi(new Rectangle(0,0,imgDates.getWidth(),imgDates.getHeight()))};
 		tabCC[0]=new CC[] {new CC(0,hours[0],0,roisCC[0][0],graph)};		
 		System.out.print("Identifying connected components ");
-		for(int d=1;d<nDays;d++) {
-			System.out.print(d+" ");
-			ImagePlus binD=VitimageUtils.thresholdImage(imgDates, d, d+0.99);
-			ImagePlus ccD=VitimageUtils.connexeBinaryEasierParamsConnexitySelectvol(binD, connexity, 0);
-			VitimageUtils.printImageResume(ccD);
-			ImagePlus allConD=VitimageUtils.thresholdImageToFloatMask(ccD, 0.5, 10E8);
-			VitimageUtils.waitFor(100);
-			roisCC[d]=VitimageUtils.segmentationToRoi(allConD);
-			if(roisCC[d]==null) {tabCC[d]=null;continue;}
-			tabCC[d]=new CC[roisCC[d].length];
-			for(int n=0;n<roisCC[d].length;n++) {
-				CC cc=new CC(d,hours[d-1],n,roisCC[d][n],graph);
-				tabCC[d][n]=cc;
-				graph.addVertex(cc);
+		LevelMapLabelling labelling=null;
+		if(useUnionFindLabelling) {
+			labelling=LevelMapLabelling.label(imgDates, nDays, connexity);
+			for(int d=1;d<nDays;d++) {
+				int nCC=labelling.nComponentsOfLevel(d);
+				if(nCC==0) {roisCC[d]=null;continue;}
+				roisCC[d]=new Roi[nCC];
+				for(int n=0;n<nCC;n++)roisCC[d][n]=labelling.toRoi(labelling.firstComponentOfLevel[d]+n);
+			}
+			System.out.print(labelling.nComponents+" components over "+(nDays-1)+" days");
+		}
+		else {
+			for(int d=1;d<nDays;d++) {
+				System.out.print(d+" ");
+				ImagePlus binD=VitimageUtils.thresholdImage(imgDates, d, d+0.99);
+				ImagePlus ccD=VitimageUtils.connexeBinaryEasierParamsConnexitySelectvol(binD, connexity, 0);
+				VitimageUtils.printImageResume(ccD);
+				ImagePlus allConD=VitimageUtils.thresholdImageToFloatMask(ccD, 0.5, 10E8);
+				VitimageUtils.waitFor(100);
+				roisCC[d]=VitimageUtils.segmentationToRoi(allConD);
 			}
 		}
 		System.out.println();
+		buildCCs(roisCC,tabCC,hours,graph);
 
 		//Identify connexions
 		System.out.print("Identifying connexions ");
+		if(useRasterSweepAdjacency)identifyConnexionsByRasterSweep(tabCC,graph,(labelling==null) ? null : labelling.labels,imgDates.getWidth(),imgDates.getHeight(),maxSizeConnexion);
+		else identifyConnexionsPairwise(tabCC,graph,maxSizeConnexion);
+		System.out.println();
+
+		return graph;
+	}
+
+	/** Build the CCs of days 1 to N from their Rois (tabCC[d] stays null for days without CC), then add them to the graph.
+	 * The CCs are independent and are built in parallel. They are added to the graph by day, then by number, thus the graph is the same as with a sequential build*/
+	public static void buildCCs(Roi[][]roisCC,CC[][]tabCC,double[]hours,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph) {
+		int nDays=roisCC.length;
+		int nCC=0;
+		for(int d=1;d<nDays;d++) {
+			if(roisCC[d]==null) {tabCC[d]=null;continue;}
+			tabCC[d]=new CC[roisCC[d].length];
+			nCC+=roisCC[d].length;
+		}
+		final int[]dayOf=new int[nCC];
+		final int[]nOf=new int[nCC];
+		for(int d=1,i=0;d<nDays;d++)if(roisCC[d]!=null)for(int n=0;n<roisCC[d].length;n++,i++) {dayOf[i]=d;nOf[i]=n;}
+		int nThreads=(nbThreadsForCCConstruction>0) ? nbThreadsForCCConstruction : VitimageUtils.getNbCores();
+		//Ranges of CCs are processed as the row strips of ParallelRows. Small strips, as the cost of a CC depends on its size
+		ParallelRows.run(nCC,Math.min(nCC,16*nThreads),nThreads,(iStart,iStop) -> {
+			for(int i=iStart;i<iStop;i++)tabCC[dayOf[i]][nOf[i]]=new CC(dayOf[i],hours[dayOf[i]-1],nOf[i],roisCC[dayOf[i]][nOf[i]],graph);
+		});
+		for(int i=0;i<nCC;i++)graph.addVertex(tabCC[dayOf[i]][nOf[i]]);
+		CCSpatialIndex.invalidate(graph);
+	}
+
+	/** Reference implementation : test every pair of CCs with nFacets4connexe_V3*/
+	public static void identifyConnexionsPairwise(CC[][]tabCC,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,int maxSizeConnexion) {
+		int nDays=tabCC.length;
 		for(int d1=1;d1<nDays;d1++) {
 			System.out.print(d1+" ");
-			if(roisCC[d1]==null)continue;
-			for(int n1=0;n1<roisCC[d1].length;n1++) {
+			if(tabCC[d1]==null)continue;
+			for(int n1=0;n1<tabCC[d1].length;n1++) {
 				for(int d2=1;d2<nDays;d2++) {
-					if(roisCC[d2]==null)continue;
-					for(int n2=0;n2<roisCC[d2].length;n2++) {
+					if(tabCC[d2]==null)continue;
+					for(int n2=0;n2<tabCC[d2].length;n2++) {
 						if((d2<d1) || ( (d2==d1) && (n2<=n1) ))continue;
 						double[] tabConn=tabCC[d1][n1].nFacets4connexe_V3(tabCC[d2][n2]); 
 						int n=(int) Math.round(tabConn[0]);
@@ -1026,9 +1243,117 @@ public class RegionAdjacencyGraphPipeline {
 				}
 			}
 		}
-		System.out.println();
+	}
 
-		return graph;
+	/** Same edges as identifyConnexionsPairwise, added in the same order, but found with a single sweep over a label image of all the CCs.
+	 * For each adjacent pair, the facets are gathered from the side that nFacets4connexe_V3 scans, then scored in its scan order, thus giving the same connexion point*/
+	public static void identifyConnexionsByRasterSweep(CC[][]tabCC,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,int X,int Y,int maxSizeConnexion) {
+		identifyConnexionsByRasterSweep(tabCC,graph,null,X,Y,maxSizeConnexion);
+	}
+
+	/** Same, with the label image given (index of the CC in the day-then-number order, -1 elsewhere), or null to draw it from the Rois*/
+	public static void identifyConnexionsByRasterSweep(CC[][]tabCC,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,int[]knownLabels,int X,int Y,int maxSizeConnexion) {
+		//Global index of CCs, sorted by day then by number : this is the order of sources and targets in the pairwise loops
+		ArrayList<CC>listCC=new ArrayList<CC>();
+		for(int d=1;d<tabCC.length;d++)if(tabCC[d]!=null)listCC.addAll(Arrays.asList(tabCC[d]));
+		int nCC=listCC.size();
+		int[]labels=knownLabels;
+		if(labels==null) {
+			labels=new int[X*Y];
+			Arrays.fill(labels, -1);
+		}
+		long[]areas=new long[nCC];
+		for(int i=0;i<nCC;i++) {
+			CC cc=listCC.get(i);
+			Rectangle R=cc.r.getBounds();
+			areas[i]=(long)R.width*R.height;
+			if(knownLabels!=null)continue;
+			for(int x=Math.max(0,R.x);x<=Math.min(X-1,R.x+R.width);x++)for(int y=Math.max(0,R.y);y<=Math.min(Y-1,R.y+R.height);y++) {
+				if(cc.contains(x, y))labels[y*X+x]=i;
+			}
+		}
+
+		//Collect facets. nFacets4connexe_V3 scans the CC with the smaller bounding box, or the target if not smaller
+		HashMap<Long,FacetList>pairs=new HashMap<Long,FacetList>();
+		for(int y=0;y<Y;y++) {
+			for(int x=0;x<X;x++) {
+				int a=labels[y*X+x];
+				if(a<0)continue;
+				for(int dir=0;dir<8;dir++) {
+					int xx=x+FacetList.DX[dir];
+					int yy=y+FacetList.DY[dir];
+					if(xx<0 || yy<0 || xx>=X || yy>=Y)continue;
+					int b=labels[yy*X+xx];
+					if(b<0 || b==a)continue;
+					int source=Math.min(a, b);
+					int target=Math.max(a, b);
+					int scanned=(areas[source]<areas[target]) ? source : target;
+					if(a!=scanned)continue;
+					long key=((long)source)*nCC+target;
+					FacetList fl=pairs.get(key);
+					if(fl==null) {fl=new FacetList(scanned==source);pairs.put(key, fl);}
+					fl.add(x, y, dir);
+				}
+			}
+		}
+
+		//Build edges, in the order of the pairwise loops
+		Long[]keys=pairs.keySet().toArray(new Long[pairs.size()]);
+		Arrays.sort(keys);
+		int dayPrint=0;
+		for(Long key : keys) {
+			CC source=listCC.get((int)(key/nCC));
+			CC target=listCC.get((int)(key%nCC));
+			if(source.day!=dayPrint) {dayPrint=source.day;System.out.print(dayPrint+" ");}
+			double[]tabConn=pairs.get(key).getConnexion(source, target);
+			int n=(int) Math.round(tabConn[0]);
+			if(n>0 && n<maxSizeConnexion) {
+				graph.addEdge(source, target,new ConnectionEdge(tabConn[1], tabConn[2], n,source, target,tabConn[3],tabConn[4]));
+			}
+		}
+	}
+
+	/** Facets between two adjacent CCs, stored as pixels of the scanned CC and direction (in the neighbour order of nFacets4connexe_V3) towards the other one*/
+	static class FacetList{
+		static final int[]DX=new int[] {1,-1,0,0,1,-1,1,-1};
+		static final int[]DY=new int[] {0,0,1,-1,1,1,-1,-1};
+		boolean scannedIsSource;
+		long[]facets=new long[8];
+		int nF=0;
+		double xSum=0;
+		double ySum=0;
+
+		FacetList(boolean scannedIsSource){
+			this.scannedIsSource=scannedIsSource;
+		}
+
+		void add(int x,int y,int dir) {
+			if(nF==facets.length)facets=Arrays.copyOf(facets, nF*2);
+			facets[nF++]=(((long)x)<<36) | (((long)y)<<4) | dir;
+			xSum+=x+0.5*DX[dir];
+			ySum+=y+0.5*DY[dir];
+		}
+
+		/** Return {nFacets, xConnexion, yConnexion, axisX, axisY}, as nFacets4connexe_V3 does*/
+		double[]getConnexion(CC source,CC target){
+			//Sums of half integers are exact, thus the expected point does not depend on the summation order
+			double xExp=xSum/nF+0.5;
+			double yExp=ySum/nF+0.5;
+			Arrays.sort(facets,0,nF);//x then y then direction, as the scan of nFacets4connexe_V3
+			double distMin=-1E8;
+			double xMin=0,yMin=0,axisX=0,axisY=0;
+			double sign=scannedIsSource ? 1 : -1;
+			for(int i=0;i<nF;i++) {
+				int x=(int)(facets[i]>>36);
+				int y=(int)((facets[i]>>4)&0xFFFFFFFFL);
+				int dir=(int)(facets[i]&0xF);
+				double xF=x+0.5*DX[dir];
+				double yF=y+0.5*DY[dir];
+				double dist=source.getConnexionScore(target,xF,yF,xExp,yExp,false,sign*DX[dir],sign*DY[dir]);
+				if(dist>distMin) {distMin=dist;xMin=xF;yMin=yF;axisX=sign*DX[dir];axisY=sign*DY[dir];}
+			}
+			return new double[] {nF,xMin,yMin,axisX,axisY};
+		}
 	}
 				
 	//Compute how much the straight computed path is far away from expected structures.
@@ -1046,6 +1371,10 @@ public class RegionAdjacencyGraphPipeline {
 		if(y0>(Y-2))y0=Y-2;
 		if(x1>(X-2))x1=X-2;
 		if(y1>(Y-2))y1=Y-2;
+		if(useExactLineTraversal) {
+			if((int) (Math.sqrt((x1-x0)*(x1-x0)+(y1-y0)*(y1-y0))/0.33)==0)return 0.5;
+			return LineIntegral.of(img).mean(x0,y0,x1,y1,v -> {int val=toInt(v);return (val<2) ? 0 : (val-1)*2;});
+		}
 		float[]tab=(float[]) img.getStack().getPixels(1);
 		double dt=0.33;
 		double xx=x0;
@@ -1071,9 +1400,8 @@ public class RegionAdjacencyGraphPipeline {
 		
 	public static void updateCostAndDisconnectNonOptimalLateralBranches_V2(SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph){
 		//The idea : coming from N-1, for each CC that is no trunk, select the successor with the biggest number of followers, counted in pixels
-		CC cctest=getCC(graph,371,300);//To test : 2192 1820 7   2240 2010 7       2231 1494 9
-		
-		for(ConnectionEdge edge : graph.outgoingEdgesOf(cctest))System.out.println(edge);
+		CC cctest=DebugProbes.get("lateralBranches",graph);
+		if(cctest!=null)for(ConnectionEdge edge : graph.outgoingEdgesOf(cctest))System.out.println(edge);
 		int maxDay=getMaxDay(graph);
 		for(int i=maxDay;i>0;i--) {
 			for(CC cc:graph.vertexSet()) {
@@ -1579,6 +1907,7 @@ public class RegionAdjacencyGraphPipeline {
 					}
 					//Actualize it.
 					graph.addVertex(ccToAdd);
+					CCSpatialIndex.invalidate(graph);
 					ccToAdd.ccLateralStart=ccLast.ccLateralStart;
 					ccLast.ccLateralStart.pathFromStart.add(ccToAdd);
 					ConnectionEdge edge=new ConnectionEdge(ccLast.x*0.5+ccToAdd.x*0.5, ccLast.y*0.5+ccToAdd.y*0.5, 0, ccLast, ccToAdd,0 ,0 );
@@ -1709,6 +2038,66 @@ public class RegionAdjacencyGraphPipeline {
 						
 
 	
+	/** Delay (hours) between ccStop and ccStart used to compute the speed of a hidden edge. When they have the same hour, mean delay to their neighbours*/
+	public static double crossingDelayOfHiddenEdge(CC ccStop,CC ccStart,PipelineParamHandler pph) {
+		double dtCross=ccStart.hour-ccStop.hour;//TODO : This should be delta hours
+		if(dtCross==0) {
+			int ind=0;
+			if(ccStop.bestIncomingActivatedCC()!=null) {ind++;dtCross+=ccStop.hour-ccStop.bestIncomingActivatedCC().hour;}
+			if(ccStart.bestOutgoingActivatedCC()!=null) {ind++;dtCross+=ccStart.bestOutgoingActivatedCC().hour-ccStart.hour;}
+			if(ind==0 || dtCross<=0)dtCross=pph.typicalHourDelay;
+			else dtCross=dtCross/ind;
+		}
+		return dtCross;
+	}
+
+	/** Crossing speed (in units of the max lateral speed) above which a hidden edge scores PENALTY_COST or more with weightingOfPossibleHiddenEdge_v2.
+	 * Its score is the weighted mean of ten non-negative terms with weights up to 1, and the speed term, of weight 1, is 0.5+5*(speed-1)*/
+	public static double gatingSpeedFactor() {
+		return 1+(10*PENALTY_COST-0.5)/5;
+	}
+
+	/** True if the hidden edge ccStop->ccStart is too fast to be accepted, thus needs not be scored. Pairs scored PENALTY_COST at once are never gated*/
+	public static boolean isGatedHiddenEdge(CC ccStop,CC ccStart,PipelineParamHandler pph) {
+		if(ccStop.day>ccStart.day || ccStop==ccStart)return false;
+		if(ccStop.bestIncomingActivatedCC()==ccStart || ccStart.bestIncomingActivatedCC()==ccStop)return false;
+		double maxSpeedLat=pph.getMaxSpeedLateral()/pph.typicalHourDelay;
+		return ccStop.euclidianDistanceToCC(ccStart)/crossingDelayOfHiddenEdge(ccStop,ccStart,pph) > gatingSpeedFactor()*maxSpeedLat;
+	}
+
+	/** Indices of the starts worth scoring for each stop, in increasing order : the pairs not gated by isGatedHiddenEdge, whatever the links made later.
+	 * The distance of a pair is bounded with its own crossing delay, or when both have the same hour, with the longest delay their neighbours can give.
+	 * Starts of an earlier hour are scored PENALTY_COST at once, thus left out*/
+	public static int[][]candidatesForHiddenEdges(SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph,ArrayList<CC>listStop,ArrayList<CC>listStart,PipelineParamHandler pph){
+		double hourMin=1E18,hourMax=-1E18,hourMaxStart=-1E18;
+		for(CC cc : graph.vertexSet()) {hourMin=Math.min(hourMin, cc.hour);hourMax=Math.max(hourMax, cc.hour);}
+		for(CC cc : listStart)hourMaxStart=Math.max(hourMaxStart, cc.hour);
+		double maxDistPerHour=gatingSpeedFactor()*pph.getMaxSpeedLateral()/pph.typicalHourDelay;
+		HashMap<CC,Integer>indexOfStart=new HashMap<CC,Integer>();
+		for(int j=0;j<listStart.size();j++)indexOfStart.put(listStart.get(j), j);
+		CCSpatialIndex index=CCSpatialIndex.of(graph);
+		int[][]candidates=new int[listStop.size()][];
+		int[]found=new int[16];
+		for(int i=0;i<listStop.size();i++) {
+			CC ccStop=listStop.get(i);
+			//Same hour : mean of the delays to the previous CC of the stop and to the next CC of the start
+			double dtSameHour=Math.max(pph.typicalHourDelay, Math.max(ccStop.hour-hourMin, hourMax-ccStop.hour));
+			double radius=maxDistPerHour*Math.max(hourMaxStart-ccStop.hour, dtSameHour);
+			int n=0;
+			for(CC cc : index.inRectangle(ccStop.x-radius, ccStop.y-radius, ccStop.x+radius, ccStop.y+radius)) {
+				Integer j=indexOfStart.get(cc);
+				if(j==null || cc.hour<ccStop.hour)continue;
+				double dt=(cc.hour==ccStop.hour) ? dtSameHour : cc.hour-ccStop.hour;
+				if(ccStop.euclidianDistanceToCC(cc)>maxDistPerHour*dt)continue;
+				if(n==found.length)found=Arrays.copyOf(found, 2*n);
+				found[n++]=j;
+			}
+			candidates[i]=Arrays.copyOf(found, n);
+			Arrays.sort(candidates[i]);
+		}
+		return candidates;
+	}
+
 	//Evaluating the reconnexion of ccStop and ccStart, two secondary nodes
 	public static double weightingOfPossibleHiddenEdge_v2(ImagePlus img,SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph,CC ccStop,CC ccStart,PipelineParamHandler pph,boolean debug) {
 		//if(ccStop.day==17 && ccStart.day==17 && ccStop.n==54 && ccStart.n==66)debug=true;
@@ -1770,14 +2159,7 @@ public class RegionAdjacencyGraphPipeline {
 		//Speed score
 		double dtCrossDay=ccStart.day-ccStop.day;//TODO : This should be delta hours
 		if(dtCrossDay==0)dtCrossDay=0.7;
-		double dtCross=ccStart.hour-ccStop.hour;//TODO : This should be delta hours
-		if(dtCross==0) {
-			int ind=0;
-			if(ccStop.bestIncomingActivatedCC()!=null) {ind++;dtCross+=ccStop.hour-ccStop.bestIncomingActivatedCC().hour;}
-			if(ccStart.bestOutgoingActivatedCC()!=null) {ind++;dtCross+=ccStart.bestOutgoingActivatedCC().hour-ccStart.hour;}
-			if(ind==0 || dtCross<=0)dtCross=pph.typicalHourDelay;
-			else dtCross=dtCross/ind;
-		}
+		double dtCross=crossingDelayOfHiddenEdge(ccStop,ccStart,pph);
 		double crossSpeed=ccStop.euclidianDistanceToCC(ccStart)/dtCross;
 		double dtStop=0;
 		double stopSpeed=0;
@@ -1867,10 +2249,9 @@ public class RegionAdjacencyGraphPipeline {
 
 	public static void computeMinimumDirectedConnectedSpanningTree(SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph) {		
 		System.out.print("Computing connected directed minimum spanning tree");
-		CC cctest=null;
-		boolean debug=false;
+		CC cctest=DebugProbes.get("spanningTree",graph);
+		boolean debug=(cctest!=null);
 		if(debug) {
-			cctest=getCCWithResolution(graph,2192,1820,6);//To test : 2192 1820 7   2240 2010 7       2231 1494 9
 			System.out.println("DEBUG in MIN SPANNING TREE 0");
 			System.out.println(cctest);
 			System.out.println("INCOMING 1");
@@ -1890,9 +2271,9 @@ public class RegionAdjacencyGraphPipeline {
 		
 		
 		//From day to day, select for each CC the best supplying edge
+		CCDayView days=new CCDayView(graph);
 		for(int i=1;i<=maxDay;i++) {
-			for(CC cc:graph.vertexSet()) {
-				if(cc.day!=i)continue;
+			for(CC cc:days.ofDay(i)) {
 				if(cc.trunk)continue;
 				boolean debugCC=(cc==cctest);
 				ConnectionEdge edgeMin=null;
@@ -1964,99 +2345,15 @@ public class RegionAdjacencyGraphPipeline {
 	 //Determine if ccStop and ccStart are connected in the undirected region adjacency graph limited to ccStop, ccStart and older CC
 	public static int areConnectedByPathOfCC_v2(SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph,CC ccStop,CC ccStart,PipelineParamHandler pph,boolean debug) {
 		int maxIter=30;
-		for(CC cc: graph.vertexSet()) cc.stampDist=10000;			
-		ccStop.stampDist=0;
-		ArrayList<CC>visited=new ArrayList<CC>();
-		ArrayList<CC>toVisit=new ArrayList<CC>();
-		visited.add(ccStop);
-		boolean finished=false;
-		int iter=-1;
-		while(!finished) {
-			iter++;
-			//if(debug)System.out.print("iter="+iter+" : "+visited.size());
-			for(int i=0;i<visited.size();i++) {				
-				CC ccTemp=visited.get(i);
-				for(ConnectionEdge edge : graph.outgoingEdgesOf(ccTemp)) {
-					CC ccTrial=edge.target;
-					double deltaT=ccTrial.hour-ccTemp.hour;
-					if(deltaT<0)deltaT=-deltaT;
-					if(deltaT==0)deltaT=0.7*pph.typicalHourDelay;
-					
-					if( ccTrial.day<1)continue;
-					if(!ccTrial.trunk && !ccTemp.trunk) {
-						if( ccTrial.stampDist> (ccTemp.stampDist+1) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+1;
-						}
-					}					
-					if(ccTrial.trunk && !ccTemp.trunk) {
-						if( ccTrial.stampDist> (ccTemp.stampDist+0) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+0;
-							ccTrial.lastCCinLat=ccTemp;
-						}
-					}
-					if(ccTrial.trunk && ccTemp.trunk) {
-						if( ccTrial.stampDist> (ccTemp.stampDist+0) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+0;
-							ccTrial.lastCCinLat=ccTemp.lastCCinLat;
-						}
-					}
-					if(!ccTrial.trunk && ccTemp.trunk) {
-						double scoreAdd=ccTrial.euclidianDistanceToCC(ccTemp.lastCCinLat)/(pph.getMeanSpeedLateral()*(deltaT)/pph.typicalHourDelay);//TODO : make it depends to actual delay
-						if( ccTrial.stampDist> (ccTemp.stampDist+scoreAdd) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+scoreAdd;
-						}
-					}
-				}
-				for(ConnectionEdge edge : graph.incomingEdgesOf(ccTemp)) {
-					CC ccTrial=edge.source;
-					double deltaT=ccTrial.hour-ccTemp.hour;
-					if(deltaT<0)deltaT=-deltaT;
-					if(deltaT==0)deltaT=0.7*pph.typicalHourDelay;
-					if( ccTrial.day<1)continue;
-					if(!ccTrial.trunk && !ccTemp.trunk) {
-						if( ccTrial.stampDist> (ccTemp.stampDist+2) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+2;
-						}
-					}					
-					if(ccTrial.trunk && !ccTemp.trunk) {
-						if( ccTrial.stampDist> (ccTemp.stampDist+0) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+0;
-							ccTrial.lastCCinLat=ccTemp;
-						}
-					}
-					if(ccTrial.trunk && ccTemp.trunk) {
-						if( ccTrial.stampDist> (ccTemp.stampDist+0) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+0;
-							ccTrial.lastCCinLat=ccTemp.lastCCinLat;
-						}
-					}
-					if(!ccTrial.trunk && ccTemp.trunk) {
-						double scoreAdd=ccTrial.euclidianDistanceToCC(ccTemp.lastCCinLat)/(pph.getMeanSpeedLateral()*(deltaT)/pph.typicalHourDelay);//TODO : make it depends to actual delay
-						if( ccTrial.stampDist> (ccTemp.stampDist+scoreAdd) ) {
-							toVisit.add(ccTrial);
-							ccTrial.stampDist=ccTemp.stampDist+scoreAdd;
-						}
-					}
-				}			
-			}
-			if(toVisit.size()==0 || iter>maxIter)finished=true;
-			visited=toVisit;
-			toVisit=new ArrayList<CC>();
-		}
+		//Distances and last lateral CCs of this search are kept in the buffers of the thread, not in the CCs, thus several searches can run at the same time
+		double dist=CCPathSearch.local(graph).distance(ccStop, ccStart, pph, maxIter);
 		if(debug) {
-			if(ccStart.stampDist>=10000)System.out.println("\nPath not found !");
+			if(dist>=10000)System.out.println("\nPath not found !");
 			else {
-				System.out.println("\nPath found with stampDist="+ccStart.stampDist);
+				System.out.println("\nPath found with stampDist="+dist);
 			}
 		}
-		if(ccStart.stampDist<10000)return (int) Math.round(ccStart.stampDist);
+		if(dist<10000)return (int) Math.round(dist);
 		else return 30;
 	}
 	
@@ -2101,6 +2398,7 @@ public class RegionAdjacencyGraphPipeline {
 		source.stamp=1;
 		source.componentLabel=1;
 		graph.addVertex(source);		
+		CCSpatialIndex.invalidate(graph);
 
 
 		//Initialize CC search
@@ -2115,11 +2413,12 @@ public class RegionAdjacencyGraphPipeline {
 			}
 		}
 	
+		CCDayView days=new CCDayView(graph);
 		if(nbTrees>=1) { 
 			CC[]tabCC=new CC[nbTrees];
 			for(int i=0;i<nbTrees;i++) {
 				int max=-1;
-				for(CC cc :graph.vertexSet()) if(cc.day==1) {
+				for(CC cc :days.ofDay(1)) {
 					boolean found=false;				
 					for(int j=0;j<nbTrees;j++)if(tabCC[j]==cc)found=true;
 					if(found)continue;
@@ -2138,37 +2437,36 @@ public class RegionAdjacencyGraphPipeline {
 		}
 		System.out.println();
 		
-		int nbMov=1;
-		while(nbMov>0) {
-			nbMov=0;
-			for(CC cc:graph.vertexSet()) {
-				if(cc.stamp==2) {
-					int lab=cc.componentLabel;
-					for(ConnectionEdge edge:graph.edgesOf(cc)) {
-						if(graph.getEdgeSource(edge).stamp==0) {
-							graph.getEdgeSource(edge).stamp=1;
-							graph.getEdgeSource(edge).componentLabel=lab;
-						}
-						if(graph.getEdgeTarget(edge).stamp==0) {
-							graph.getEdgeTarget(edge).stamp=1;
-							graph.getEdgeTarget(edge).componentLabel=lab;
-						}
-					}
-					cc.stamp=3;
-				}
-			}
-			for(CC cc:graph.vertexSet()) {
-				if(cc.stamp==1) {
-					nbMov++;
-					cc.stamp=2;
+		//Flood from the source, one level of the breadth-first search at a time (stamp 1 : reached, 2 : to expand, 3 : expanded).
+		//Each level is expanded in the order of the vertex set, thus a CC reached from several components gets the same label as with a sweep of the vertex set
+		ArrayList<CC>toExpand=new ArrayList<CC>();
+		ArrayList<CC>reached=new ArrayList<CC>();
+		for(CC cc:graph.vertexSet()) {
+			if(cc.stamp==2)toExpand.add(cc);
+			else if(cc.stamp==1)reached.add(cc);
+		}
+		while(toExpand.size()>0 || reached.size()>0) {
+			for(CC cc:toExpand) {
+				int lab=cc.componentLabel;
+				for(ConnectionEdge edge:graph.edgesOf(cc)) {
+					CC src=graph.getEdgeSource(edge);
+					CC tgt=graph.getEdgeTarget(edge);
+					if(src.stamp==0) {src.stamp=1;src.componentLabel=lab;reached.add(src);}
+					if(tgt.stamp==0) {tgt.stamp=1;tgt.componentLabel=lab;reached.add(tgt);}
 				}
+				cc.stamp=3;
 			}
-		}		
+			for(CC cc:reached)cc.stamp=2;
+			days.sortByRank(reached);
+			ArrayList<CC>tmp=toExpand;toExpand=reached;reached=tmp;
+			reached.clear();
+		}
 		if(removeUnconnectedParts) {
 			//Clean vertices and edges isolated from the root systems
 			ArrayList<CC>ar=new ArrayList<CC>();
 			for(CC cc:graph.vertexSet()) if(cc.stamp!=3) ar.add(cc);
 			for(CC cc : ar)graph.removeVertex(cc);
+			CCSpatialIndex.invalidate(graph);
 		}
 	}		 
 	
@@ -2204,6 +2502,8 @@ public class RegionAdjacencyGraphPipeline {
 		int nbTrees=pph.numberPlantsInBox;
 		boolean doImages=(pph.memorySaving==0);
 		boolean doDebugImages=(pph.memorySaving==0);
+		boolean writeStepFiles=doDebugImages && (pph.writeGraphStepFiles==1);
+		ArrayList<SimpleDirectedWeightedGraph<CC,ConnectionEdge>>snapshots=new ArrayList<SimpleDirectedWeightedGraph<CC,ConnectionEdge>>();
 		
 //		imgDatesTmp.show();
 		SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph=null;
@@ -2240,17 +2540,26 @@ public class RegionAdjacencyGraphPipeline {
 		
 		identifyTrunks(graph);
 		setFirstOrderCosts_phase2(graph,pph.getHoursExtremities(indexBox));
-		if(doDebugImages) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_3.ser").getAbsolutePath());	
+		if(doDebugImages) snapshots.add(GraphSnapshot.take(graph));
+		if(writeStepFiles) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_3.ser").getAbsolutePath());	
 		
 		computeMinimumDirectedConnectedSpanningTree(graph);
 
-		if(doDebugImages) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_4.ser").getAbsolutePath());
+		if(doDebugImages) snapshots.add(GraphSnapshot.take(graph));
+		if(writeStepFiles) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_4.ser").getAbsolutePath());
 		reconnectDisconnectedBranches_v2(imgDatesTmp,graph,pph,1,true,false);
 
-		if(doDebugImages) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_5.ser").getAbsolutePath());
+		if(doDebugImages) snapshots.add(GraphSnapshot.take(graph));
+		if(writeStepFiles) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_5.ser").getAbsolutePath());
 		postProcessTopology(graph,imgDatesTmp,pph,indexBox);
-		if(doDebugImages) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_6.ser").getAbsolutePath());
-		if(doDebugImages) writeGraphToFile(graph,new File(outputDataDir,"50_graph.ser").getAbsolutePath());
+		if(doDebugImages) snapshots.add(GraphSnapshot.take(graph));
+		if(writeStepFiles) writeGraphToFile(graph,new File(outputDataDir,"50_graph_step_6.ser").getAbsolutePath());
+		if(doDebugImages && pph.writeLegacyGraphSer==1) writeGraphToFile(graph,new File(outputDataDir,"50_graph.ser").getAbsolutePath());
+		if(doDebugImages && !GraphFile.write(graph,new File(outputDataDir,"50_graph"+GraphFile.EXTENSION).getAbsolutePath())) {
+			//readGraphFromDir falls back on the .ser when there is no graph file
+			System.out.println("Graph file 50_graph"+GraphFile.EXTENSION+" could not be written, the graph is written to 50_graph.ser");
+			if(pph.writeLegacyGraphSer!=1)writeGraphToFile(graph,new File(outputDataDir,"50_graph.ser").getAbsolutePath());
+		}
 
 		if(doImages) {
 			int nDays=1+(int)Math.round(VitimageUtils.maxOfImage(imgDatesTmp));
@@ -2263,17 +2572,8 @@ public class RegionAdjacencyGraphPipeline {
 			if(doDebugImages) {
 				ImagePlus[]graphsImgs=new ImagePlus[4];
 				ImagePlus[]backImgs=new ImagePlus[4];
-				SimpleDirectedWeightedGraph<CC,ConnectionEdge>  gg=readGraphFromFile(new File(outputDataDir,"50_graph_step_3.ser").getAbsolutePath());
-				graphsImgs[0]=drawGraph(imgDatesTmp, gg, ray, thickness,sizeFactor);		
-
-				gg=readGraphFromFile(new File(outputDataDir,"50_graph_step_4.ser").getAbsolutePath());
-				graphsImgs[1]=drawGraph(imgDatesTmp, gg, ray, thickness,sizeFactor);							
-				
-				gg=readGraphFromFile(new File(outputDataDir,"50_graph_step_5.ser").getAbsolutePath());
-				graphsImgs[2]=drawGraph(imgDatesTmp, gg, ray, thickness,sizeFactor);		
-
-				gg=readGraphFromFile(new File(outputDataDir,"50_graph_step_6.ser").getAbsolutePath());
-				graphsImgs[3]=drawGraph(imgDatesTmp, gg, ray, thickness,sizeFactor);		
+				//Stages 3 to 6, drawn from their snapshots
+				for(int i=0;i<4;i++)graphsImgs[i]=drawGraph(imgDatesTmp, snapshots.get(i), ray, thickness,sizeFactor);		
 
 				backImgs[0]=imgDatesHigh.duplicate();
 				backImgs[1]=imgDatesHigh.duplicate();
@@ -2366,6 +2666,7 @@ public class RegionAdjacencyGraphPipeline {
 	}
 	
 	public static double ratioInObject(ImagePlus img,double x0,double y0,double x1,double y1) {
+		if(useExactLineTraversal)return LineIntegral.of(img).mean(x0,y0,x1,y1,v -> (toInt(v)==0) ? 0 : 1);
 		int X=img.getWidth();
 		img.getHeight();
 		float[]tab=(float[]) img.getStack().getPixels(1);
@@ -2510,12 +2811,25 @@ public class RegionAdjacencyGraphPipeline {
 	    objectinputstream.close();
 			streamIn.close();
 		    return graph;
+		} catch (InvalidClassException c) {
+			System.out.println("Graph "+path+" was serialized by a former version of RootSystemTracker, where CCs hold a graph of pixels. It cannot be read : run again the graph building step. "+c.getMessage());
 		} catch (ClassNotFoundException | IOException c) {
 			c.printStackTrace();
 		}
 	    return null;
 	}	
 	
+	/** Read the graph named name (as "50_graph") in dir, from its binary file (see GraphFile) if any and readable, else from its serialized .ser file*/
+	public static SimpleDirectedWeightedGraph<CC,ConnectionEdge>readGraphFromDir(String dir,String name){
+		File f=new File(dir,name+GraphFile.EXTENSION);
+		if(f.exists()) {
+			SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=GraphFile.read(f.getAbsolutePath());
+			if(graph!=null)return graph;
+			System.out.println("Graph file "+f.getAbsolutePath()+" cannot be read, trying "+name+".ser");
+		}
+		return readGraphFromFile(new File(dir,name+".ser").getAbsolutePath());
+	}
+
 	public static void writeGraphToFile(SimpleDirectedWeightedGraph<CC,ConnectionEdge> graph,String path) {
 		FileOutputStream fout;
 		try {
@@ -2529,47 +2843,19 @@ public class RegionAdjacencyGraphPipeline {
 		}
 	}
 	
+	/** CC of this day whose centroid is the nearest from (x,y). Uses the spatial index of the graph, see CCSpatialIndex*/
 	public static CC getCC(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,int day, int x, int y) {
-		//System.out.println("Looking for CC");
-		CC ret=null;
-		double minDist=1E8;
-		for (CC cc: graph.vertexSet()) {
-			if(cc.day!=day)continue;
-			double dist=VitimageUtils.distance(x, y, cc.r.getContourCentroid()[0], cc.r.getContourCentroid()[1]);
-			if(dist<minDist) {
-				minDist=dist;
-				ret=cc;
-			}
-		}
-		return ret;
+		return CCSpatialIndex.of(graph).nearest(day, x, y);
 	}	
 	
+	/** CC whose centroid is the nearest from (x,y), any day*/
 	public static CC getCC(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,int x, int y) {
-		//System.out.println("Looking for CC");
-		CC ret=null;
-		double minDist=1E8;
-		for (CC cc: graph.vertexSet()) {
-			double dist=VitimageUtils.distance(x, y, cc.r.getContourCentroid()[0], cc.r.getContourCentroid()[1]);
-			if(dist<minDist) {
-				minDist=dist;
-				ret=cc;
-			}
-		}
-		return ret;
+		return CCSpatialIndex.of(graph).nearest(x, y);
 	}	
 
+	/** CC whose centroid is the nearest from (x/res,y/res), for coordinates given in the full resolution image*/
 	public static CC getCCWithResolution(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,int x, int y,int res) {
-		//System.out.println("Looking for CC");
-		CC ret=null;
-		double minDist=1E8;
-		for (CC cc: graph.vertexSet()) {
-			double dist=VitimageUtils.distance(x/res, y/res, cc.r.getContourCentroid()[0], cc.r.getContourCentroid()[1]);
-			if(dist<minDist) {
-				minDist=dist;
-				ret=cc;
-			}
-		}
-		return ret;
+		return CCSpatialIndex.of(graph).nearest(x/res, y/res);
 	}	
 
 
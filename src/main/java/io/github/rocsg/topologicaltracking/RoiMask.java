@@ -0,0 +1,50 @@
+package io.github.rocsg.topologicaltracking;
+
+import java.awt.Rectangle;
+
+import ij.gui.Roi;
+
+/**
+ * Membership of the pixels of a Roi, packed in one bit per pixel of its bounding box.
+ * The bits are read once from Roi.contains, thus contains(x,y) gives the same answer as the Roi, with no polygon test.
+ * Fields are final : a mask built by a thread can be read by the others without synchronization (see CC.roiMask()).
+ */
+public class RoiMask {
+	final Roi roi;
+	final int x0,y0,width,height;
+	final long[]bits;
+	final int count;
+
+	public RoiMask(Roi roi) {
+		this.roi=roi;
+		Rectangle R=roi.getBounds();
+		x0=R.x;
+		y0=R.y;
+		width=R.width;
+		height=R.height;
+		bits=new long[(int)(((long)width*height+63)>>6)];
+		int nb=0;
+		for(int y=0;y<height;y++)for(int x=0;x<width;x++) {
+			if(roi.contains(x0+x, y0+y)) {
+				int i=y*width+x;
+				bits[i>>6]|=1L<<(i&63);
+				nb++;
+			}
+		}
+		count=nb;
+	}
+
+	/** Pixel (x,y) of the image is in the Roi*/
+	public boolean contains(int x,int y) {
+		x-=x0;
+		y-=y0;
+		if(x<0 || y<0 || x>=width || y>=height)return false;
+		int i=y*width+x;
+		return (bits[i>>6]&(1L<<(i&63)))!=0;
+	}
+
+	/** Number of pixels of the Roi*/
+	public int count() {
+		return count;
+	}
+}
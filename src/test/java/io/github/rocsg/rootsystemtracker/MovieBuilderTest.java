@@ -0,0 +1,51 @@
+package io.github.rocsg.rootsystemtracker;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+
+/** The mask of generateFgBgMask blurred frame by frame with FgBgMaskSource is the one of Gaussian Blur 3D, for movies shorter and longer than the kernel */
+public class MovieBuilderTest {
+
+	@Test
+	public void slidingMaskAsGaussianBlur3D() {
+		Random rand=new Random(29);
+		//Kernel radius of sigma 1.5 is 8 frames : shorter than the radius, between the radius and twice the radius, and longer
+		for(int N : new int[] {2,4,7,11,16,17,30}) {
+			int X=5+rand.nextInt(20);
+			int Y=5+rand.nextInt(20);
+			compareMasks(randomTimes(rand,X,Y,N),N);
+		}
+	}
+
+	static void compareMasks(ImagePlus imgTimes,int N) {
+		double[]tBefore=MovieBuilder.t;
+		boolean flag=MovieBuilder.useSlidingFgBgMask;
+		try {
+			MovieBuilder.t=new double[N];
+			for(int n=0;n<N;n++)MovieBuilder.t[n]=1+0.5*n;
+			MovieBuilder.useSlidingFgBgMask=false;
+			ImagePlus expected=MovieBuilder.generateFgBgMask(imgTimes);
+			MovieBuilder.useSlidingFgBgMask=true;
+			ImagePlus actual=MovieBuilder.generateFgBgMask(imgTimes);
+			assertEquals(expected.getStackSize(),actual.getStackSize());
+			for(int n=1;n<=N;n++)assertArrayEquals((float[])expected.getStack().getPixels(n),(float[])actual.getStack().getPixels(n),1E-6f);
+		}finally {
+			MovieBuilder.t=tBefore;
+			MovieBuilder.useSlidingFgBgMask=flag;
+		}
+	}
+
+	/** Appearance times in hours, with pixels never reached (-1) and pixels reached before or after the frames*/
+	static ImagePlus randomTimes(Random rand,int X,int Y,int N) {
+		float[]tab=new float[X*Y];
+		for(int i=0;i<X*Y;i++)tab[i]=(rand.nextDouble()<0.3) ? -1 : (float)(rand.nextDouble()*(0.5*N+2));
+		return new ImagePlus("",new FloatProcessor(X,Y,tab));
+	}
+}
@@ -0,0 +1,75 @@
+package io.github.rocsg.rstutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** The grid Dijkstra gives the distances of a plain Dijkstra over the same pixels and edges, and paths of that cost */
+public class GridShortestPathTest {
+
+	@Test
+	public void distancesAndPathsMatchAPlainDijkstra() {
+		Random rand=new Random(7);
+		for(int it=0;it<200;it++) {
+			int X=2+rand.nextInt(20);
+			int Y=2+rand.nextInt(20);
+			int connexity=rand.nextBoolean() ? 8 : 4;
+			boolean[]mask=new boolean[X*Y];
+			float[]costs=new float[X*Y];
+			for(int i=0;i<X*Y;i++) {
+				mask[i]=rand.nextDouble()<0.75;
+				costs[i]=1+rand.nextInt(5);
+			}
+			int source=rand.nextInt(X*Y);
+			mask[source]=true;
+			GridShortestPath.EdgeCost cost=GridShortestPath.costMap(costs);
+			GridShortestPath g=GridShortestPath.local().setGrid(X, Y, mask, connexity, cost);
+			double[]dist=g.singleSource(source);
+			double[]ref=plainDijkstra(X,Y,mask,connexity,cost,source);
+			for(int i=0;i<X*Y;i++) {
+				if(Double.isInfinite(ref[i]))assertTrue(Double.isInfinite(dist[i]));
+				else assertEquals(ref[i],dist[i],1E-9);
+			}
+			int target=rand.nextInt(X*Y);
+			int[]path=g.path(source, target);
+			if(Double.isInfinite(ref[target]) || !mask[target]) {
+				assertEquals(null,path);
+				continue;
+			}
+			double len=0;
+			for(int p=1;p<path.length;p++)len+=cost.cost(path[p-1], path[p], direction(path[p-1],path[p],X));
+			assertEquals(source,path[0]);
+			assertEquals(target,path[path.length-1]);
+			assertEquals(ref[target],len,1E-9);
+		}
+	}
+
+	static int direction(int a,int b,int X) {
+		for(int k=0;k<8;k++)if(b%X-a%X==GridShortestPath.DX[k] && b/X-a/X==GridShortestPath.DY[k])return k;
+		throw new IllegalArgumentException("Pixels "+a+" and "+b+" are not neighbours");
+	}
+
+	static double[]plainDijkstra(int X,int Y,boolean[]mask,int connexity,GridShortestPath.EdgeCost cost,int source){
+		double[]d=new double[X*Y];
+		boolean[]done=new boolean[X*Y];
+		Arrays.fill(d, Double.POSITIVE_INFINITY);
+		d[source]=0;
+		while(true) {
+			int a=-1;
+			for(int i=0;i<X*Y;i++)if(mask[i] && !done[i] && !Double.isInfinite(d[i]) && (a<0 || d[i]<d[a]))a=i;
+			if(a<0)return d;
+			done[a]=true;
+			for(int k=0;k<8;k++) {
+				if(connexity!=8 && GridShortestPath.DX[k]!=0 && GridShortestPath.DY[k]!=0)continue;
+				int xb=a%X+GridShortestPath.DX[k];
+				int yb=a/X+GridShortestPath.DY[k];
+				if(xb<0 || yb<0 || xb>=X || yb>=Y || !mask[yb*X+xb])continue;
+				d[yb*X+xb]=Math.min(d[yb*X+xb], d[a]+cost.cost(a, yb*X+xb, k));
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package io.github.rocsg.rstutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** executeFrom gives the optimal cost of execute, from the state of a run on a close matrix or from labels and a matching that are not feasible anymore */
+public class HungarianAlgorithmTest {
+
+	@Test
+	public void warmStartAfterChangesGivesTheSameCost() {
+		Random rand=new Random(31);
+		for(int it=0;it<300;it++) {
+			int nRows=1+rand.nextInt(12);
+			int nCols=1+rand.nextInt(12);
+			double[][]costMatrix=randomMatrix(rand,nRows,nCols);
+			HungarianAlgorithm first=new HungarianAlgorithm(costMatrix);
+			first.execute();
+			//Change a line and a column, as after a link of the reconnection, and some entries anywhere
+			int iChanged=rand.nextInt(nRows);
+			int jChanged=rand.nextInt(nCols);
+			for(int j=0;j<nCols;j++)costMatrix[iChanged][j]=randomCost(rand);
+			for(int i=0;i<nRows;i++)costMatrix[i][jChanged]=randomCost(rand);
+			for(int k=0;k<rand.nextInt(4);k++)costMatrix[rand.nextInt(nRows)][rand.nextInt(nCols)]=randomCost(rand);
+			compare(costMatrix,first.getWorkerLabels(),first.getJobLabels(),first.getMatching());
+		}
+	}
+
+	@Test
+	public void warmStartFromAnInfeasibleStateGivesTheSameCost() {
+		Random rand=new Random(32);
+		for(int it=0;it<300;it++) {
+			int nRows=1+rand.nextInt(12);
+			int nCols=1+rand.nextInt(12);
+			int dim=Math.max(nRows, nCols);
+			double[][]costMatrix=randomMatrix(rand,nRows,nCols);
+			//Random labels, too high for most of the pairs, and a random partial matching, tight or not
+			double[]workerLabels=new double[dim];
+			double[]jobLabels=new double[dim];
+			for(int k=0;k<dim;k++) {
+				workerLabels[k]=rand.nextDouble()*3-1;
+				jobLabels[k]=rand.nextDouble()*3-1;
+			}
+			int[]perm=randomPermutation(rand,dim);
+			int[]previousMatching=new int[dim];
+			for(int w=0;w<dim;w++)previousMatching[w]=(rand.nextDouble()<0.3) ? -1 : perm[w];
+			compare(costMatrix,workerLabels,jobLabels,previousMatching);
+		}
+	}
+
+	@Test
+	public void warmStartFromTheMatchingOfAnotherMatrixGivesTheSameCost() {
+		Random rand=new Random(33);
+		for(int it=0;it<300;it++) {
+			int nRows=1+rand.nextInt(12);
+			int nCols=1+rand.nextInt(12);
+			HungarianAlgorithm other=new HungarianAlgorithm(randomMatrix(rand,nRows,nCols));
+			other.execute();
+			compare(randomMatrix(rand,nRows,nCols),other.getWorkerLabels(),other.getJobLabels(),other.getMatching());
+		}
+	}
+
+	static void compare(double[][]costMatrix,double[]workerLabels,double[]jobLabels,int[]previousMatching) {
+		int[]solCold=new HungarianAlgorithm(costMatrix).execute();
+		int[]solWarm=new HungarianAlgorithm(costMatrix).executeFrom(workerLabels, jobLabels, previousMatching);
+		assertEquals(cost(costMatrix,solCold),cost(costMatrix,solWarm),1E-9);
+	}
+
+	/** Cost of a matching where columns are distinct, and every row is matched when there are at least as many columns*/
+	static double cost(double[][]costMatrix,int[]sol) {
+		int nCols=costMatrix[0].length;
+		boolean[]used=new boolean[nCols];
+		int nMatched=0;
+		double tot=0;
+		for(int i=0;i<costMatrix.length;i++) {
+			if(sol[i]<0)continue;
+			assertTrue(!used[sol[i]]);
+			used[sol[i]]=true;
+			nMatched++;
+			tot+=costMatrix[i][sol[i]];
+		}
+		assertEquals(Math.min(costMatrix.length, nCols),nMatched);
+		return tot;
+	}
+
+	static double randomCost(Random rand) {
+		double p=rand.nextDouble();
+		if(p<0.2)return 10000;
+		if(p<0.3)return 0.5;
+		return rand.nextDouble();
+	}
+
+	static double[][]randomMatrix(Random rand,int nRows,int nCols){
+		double[][]costMatrix=new double[nRows][nCols];
+		for(int i=0;i<nRows;i++)for(int j=0;j<nCols;j++)costMatrix[i][j]=randomCost(rand);
+		return costMatrix;
+	}
+
+	static int[]randomPermutation(Random rand,int n){
+		int[]perm=new int[n];
+		for(int k=0;k<n;k++)perm[k]=k;
+		for(int k=n-1;k>0;k--) {
+			int l=rand.nextInt(k+1);
+			int t=perm[k];perm[k]=perm[l];perm[l]=t;
+		}
+		return perm;
+	}
+}
@@ -0,0 +1,93 @@
+package io.github.rocsg.rstutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** LineIntegral visits each pixel of a segment exactly once, along an 8-connected line, in both directions, and skips the pixels out of the image */
+public class LineIntegralTest {
+	static final int X=40,Y=30;
+
+	@Test
+	public void axisAndDiagonalSegmentsVisitTheirPixelsOnce() {
+		//Horizontal, vertical and diagonal, in both directions
+		checkPixels(3,7,20,7,line(3,7,20,7));
+		checkPixels(20,7,3,7,line(3,7,20,7));
+		checkPixels(5,2,5,25,line(5,2,5,25));
+		checkPixels(5,25,5,2,line(5,2,5,25));
+		checkPixels(2,3,18,19,line(2,3,18,19));
+		checkPixels(18,19,2,3,line(2,3,18,19));
+		checkPixels(30,1,10,21,line(30,1,10,21));
+		checkPixels(10,21,30,1,line(10,21,30,1));
+		//A single pixel, and ends rounded to the nearest pixel
+		checkPixels(4,4,4,4,line(4,4,4,4));
+		checkPixels(2.6,6.9,9.4,7.2,line(3,7,9,7));
+	}
+
+	@Test
+	public void anySegmentIsAnEightConnectedLineVisitedOnce() {
+		Random rand=new Random(19);
+		for(int it=0;it<500;it++) {
+			int xa=rand.nextInt(X),ya=rand.nextInt(Y),xb=rand.nextInt(X),yb=rand.nextInt(Y);
+			ArrayList<Integer>forward=visits(xa,ya,xb,yb);
+			ArrayList<Integer>backward=visits(xb,yb,xa,ya);
+			for(ArrayList<Integer>visits : Arrays.asList(forward,backward)) {
+				assertEquals(Math.max(Math.abs(xb-xa), Math.abs(yb-ya))+1,visits.size());
+				assertEquals(visits.size(),new HashSet<Integer>(visits).size());
+				for(int k=1;k<visits.size();k++) {
+					int p=visits.get(k-1),q=visits.get(k);
+					assertTrue(Math.max(Math.abs(p%X-q%X), Math.abs(p/X-q/X))==1);
+				}
+			}
+			assertEquals(ya*X+xa,(int)forward.get(0));
+			assertEquals(yb*X+xb,(int)forward.get(forward.size()-1));
+			assertEquals(yb*X+xb,(int)backward.get(0));
+		}
+	}
+
+	@Test
+	public void pixelsOutOfTheImageAreSkipped() {
+		checkPixels(-5,10,X+4,10,line(0,10,X-1,10));
+		checkPixels(12,Y+3,12,-8,line(12,0,12,Y-1));
+		checkPixels(-3,-3,5,5,line(0,0,5,5));
+		LineIntegral li=new LineIntegral(new float[X*Y],X,Y);
+		assertEquals(0,li.mean(-5,-5,-1,-9,v -> 1),0);
+		assertEquals(0,li.sum(-5,-5,-1,-9,v -> 1),0);
+	}
+
+	/** Pixels of a horizontal, vertical or diagonal segment*/
+	static HashSet<Integer>line(int xa,int ya,int xb,int yb){
+		HashSet<Integer>ret=new HashSet<Integer>();
+		int n=Math.max(Math.abs(xb-xa), Math.abs(yb-ya));
+		for(int k=0;k<=n;k++)ret.add((ya+k*Integer.signum(yb-ya))*X+xa+k*Integer.signum(xb-xa));
+		return ret;
+	}
+
+	static void checkPixels(double x0,double y0,double x1,double y1,HashSet<Integer>expected) {
+		ArrayList<Integer>visits=visits(x0,y0,x1,y1);
+		assertEquals(expected.size(),visits.size());
+		assertEquals(expected,new HashSet<Integer>(visits));
+		LineIntegral li=new LineIntegral(indexImage(),X,Y);
+		assertEquals(expected.size(),li.sum(x0,y0,x1,y1,v -> 1),0);
+		assertEquals(1,li.mean(x0,y0,x1,y1,v -> 1),0);
+	}
+
+	/** Indices of the pixels visited, in the order of the visit, read on an image where each pixel holds its index*/
+	static ArrayList<Integer>visits(double x0,double y0,double x1,double y1){
+		ArrayList<Integer>visits=new ArrayList<Integer>();
+		new LineIntegral(indexImage(),X,Y).sum(x0,y0,x1,y1,v -> {visits.add((int)v);return 0;});
+		return visits;
+	}
+
+	static float[]indexImage(){
+		float[]tab=new float[X*Y];
+		for(int i=0;i<X*Y;i++)tab[i]=i;
+		return tab;
+	}
+}
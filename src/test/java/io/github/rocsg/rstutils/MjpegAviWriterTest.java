@@ -0,0 +1,77 @@
+package io.github.rocsg.rstutils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import ij.ImagePlus;
+import ij.plugin.AVI_Reader;
+import ij.process.ColorProcessor;
+
+/** The avi written by MjpegAviWriter is read back by the AVI_Reader of ImageJ with its frames, its size and its colors, also when a frame is refused at the size limit */
+public class MjpegAviWriterTest {
+	static final int X=37,Y=22;
+
+	@Test
+	public void framesAreReadBackByImageJ() throws IOException {
+		File f=File.createTempFile("mjpeg", ".avi");
+		f.deleteOnExit();
+		MjpegAviWriter avi=new MjpegAviWriter(f,X,Y,25,1f);
+		for(int n=0;n<4;n++)writeUniformFrame(avi,60*n,200-40*n,17*n);
+		avi.repeatFrame();
+		avi.repeatFrame();
+		assertEquals(6,avi.getNbFrames());
+		avi.close();
+
+		ImagePlus img=AVI_Reader.open(f.getAbsolutePath(), false);
+		assertEquals(X,img.getWidth());
+		assertEquals(Y,img.getHeight());
+		assertEquals(6,img.getStackSize());
+		for(int n=0;n<6;n++) {
+			int m=Math.min(n, 3);
+			checkColor(img,n+1,60*m,200-40*m,17*m);
+		}
+	}
+
+	@Test
+	public void frameOverTheLimitIsRefused() throws IOException {
+		File f=File.createTempFile("mjpeg", ".avi");
+		f.deleteOnExit();
+		MjpegAviWriter avi=new MjpegAviWriter(f,X,Y,25,1f);
+		writeUniformFrame(avi,10,20,30);
+		writeUniformFrame(avi,40,50,60);
+		avi.maxFileSize=f.length()+8+avi.jpeg.size()+(avi.jpeg.size()&1)+8+16*3-1;//One byte short of a third frame of the same size
+		assertThrows(IOException.class,() -> avi.repeatFrame());
+		assertEquals(2,avi.getNbFrames());
+		avi.close();
+
+		ImagePlus img=AVI_Reader.open(f.getAbsolutePath(), false);
+		assertEquals(2,img.getStackSize());
+		checkColor(img,2,40,50,60);
+	}
+
+	static void writeUniformFrame(MjpegAviWriter avi,int r,int g,int b) throws IOException{
+		byte[]tabR=new byte[X*Y],tabG=new byte[X*Y],tabB=new byte[X*Y];
+		Arrays.fill(tabR,(byte)r);
+		Arrays.fill(tabG,(byte)g);
+		Arrays.fill(tabB,(byte)b);
+		avi.writeFrame(tabR, tabG, tabB);
+	}
+
+	/** Colors of a frame, up to the loss of the jpeg compression*/
+	static void checkColor(ImagePlus img,int slice,int r,int g,int b) {
+		ColorProcessor cp=(ColorProcessor)img.getStack().getProcessor(slice);
+		int[]rgb=new int[3];
+		for(int y=0;y<Y;y++)for(int x=0;x<X;x++) {
+			cp.getPixel(x, y, rgb);
+			assertEquals(r,rgb[0],4.0);
+			assertEquals(g,rgb[1],4.0);
+			assertEquals(b,rgb[2],4.0);
+		}
+	}
+}
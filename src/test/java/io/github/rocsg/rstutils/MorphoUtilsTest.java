@@ -0,0 +1,100 @@
+package io.github.rocsg.rstutils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import io.github.rocsg.fijiyama.common.VitimageUtils;
+
+/** The inverted geodesic distance computed on the pixel arrays gives the values of the former sequence of VitimageUtils operations,
+ * and the distance inside a component computed on the grid gives the values of the one computed with MorphoLibJ */
+public class MorphoUtilsTest {
+
+	@Test
+	public void invertedGeodesicAsTheImageOperations() {
+		Random rand=new Random(41);
+		for(int it=0;it<50;it++) {
+			int X=3+rand.nextInt(30);
+			int Y=3+rand.nextInt(30);
+			ByteProcessor mask=new ByteProcessor(X,Y);
+			ByteProcessor seed=new ByteProcessor(X,Y);
+			for(int i=0;i<X*Y;i++) {
+				if(rand.nextDouble()<0.8)mask.set(i,255);
+				if(rand.nextDouble()<0.05)seed.set(i,255);
+			}
+			ImagePlus imgSeed=new ImagePlus("",seed);
+			ImagePlus imgMask=new ImagePlus("",mask);
+			float[]expected=(float[])baselineInvertedGeodesic(imgSeed,imgMask).getStack().getProcessor(1).getPixels();
+			float[]actual=(float[])MorphoUtils.computeGeodesic(imgSeed,imgMask,true).getStack().getProcessor(1).getPixels();
+			assertArrayEquals(expected,actual,1E-6f);
+		}
+	}
+
+	@Test
+	public void geodesicInsideComponentOnGridAsMorphoLibJ() {
+		Random rand=new Random(42);
+		for(int it=0;it<50;it++) {
+			int X=1+rand.nextInt(30);
+			int Y=1+rand.nextInt(30);
+			float[]tab=new float[X*Y];
+			double density=0.5+0.5*rand.nextDouble();
+			for(int i=0;i<X*Y;i++)if(rand.nextDouble()<density)tab[i]=255;
+			tab[rand.nextInt(X*Y)]=255;
+			compareGeodesicInsideComponent(tab,X,Y);
+		}
+	}
+
+	@Test
+	public void geodesicInsideComponentOnGridAsMorphoLibJWithBordersAndHoles() {
+		//Full image : the component touches the four borders
+		for(int X=1;X<12;X+=3)for(int Y=1;Y<12;Y+=4) {
+			float[]tab=new float[X*Y];
+			for(int i=0;i<X*Y;i++)tab[i]=255;
+			compareGeodesicInsideComponent(tab,X,Y);
+		}
+		//Ring with a hole, cut by the left border, and a rectangle with holes touching the right border
+		int X=30,Y=15;
+		float[]tab=new float[X*Y];
+		for(int x=0;x<X;x++)for(int y=0;y<Y;y++) {
+			double r=Math.sqrt((x-2)*(x-2)+(y-7)*(y-7));
+			if(r>=2 && r<=6)tab[y*X+x]=255;
+			if(x>=14 && y>=2 && y<13 && !(x%4==0 && y%3==0))tab[y*X+x]=255;
+		}
+		compareGeodesicInsideComponent(tab,X,Y);
+	}
+
+	static void compareGeodesicInsideComponent(float[]tab,int X,int Y) {
+		boolean flag=MorphoUtils.useGridGeodesicInsideComponent;
+		try {
+			MorphoUtils.useGridGeodesicInsideComponent=false;
+			ImagePlus expected=MorphoUtils.computeGeodesicInsideComponent(new ImagePlus("",new FloatProcessor(X,Y,tab.clone())),0.1);
+			ImagePlus actual=MorphoUtils.computeGeodesicInsideComponentOnGrid(new ImagePlus("",new FloatProcessor(X,Y,tab.clone())));
+			assertArrayEquals((float[])expected.getStack().getProcessor(1).getPixels(),(float[])actual.getStack().getProcessor(1).getPixels(),1E-6f);
+		}finally {
+			MorphoUtils.useGridGeodesicInsideComponent=flag;
+		}
+	}
+
+	/** computeGeodesic(imgSeed,imgMask,true) before its arithmetic was made on the pixel arrays*/
+	static ImagePlus baselineInvertedGeodesic(ImagePlus imgSeed,ImagePlus imgMask) {
+		ImagePlus t2=imgMask.duplicate();if(t2.getType()!=ImagePlus.GRAY8)IJ.run(t2,"8-bit","");
+		ImagePlus result=MorphoUtils.computeGeodesic(imgSeed, imgMask, false);
+		double max=VitimageUtils.maxOfImage(result);
+		result=VitimageUtils.makeOperationOnOneImage(result, 2, -1, true);
+		result=VitimageUtils.makeOperationOnOneImage(result, 1, max, true);
+		ImagePlus imgMaskOut=VitimageUtils.getBinaryMaskUnary(t2, 0.5);
+		IJ.run(imgMaskOut,"32-bit","");
+		imgMaskOut=VitimageUtils.invertBinaryMask(imgMaskOut);
+		imgMaskOut=VitimageUtils.makeOperationOnOneImage(imgMaskOut, 2, -1, true);
+		ImagePlus imgMaskIn=VitimageUtils.getBinaryMaskUnary(t2, 0.5);
+		imgMaskIn=VitimageUtils.makeOperationBetweenTwoImages(imgMaskIn, result, 2, true);
+		result=VitimageUtils.makeOperationBetweenTwoImages(imgMaskOut, imgMaskIn, 1, true);
+		return VitimageUtils.makeOperationOnOneImage(result, 2, 0.001, true);
+	}
+}
@@ -0,0 +1,122 @@
+package io.github.rocsg.rstutils;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** SparseAssignment solves the dense problem clamped to the cutoff, built from a dense matrix or pair by pair, warm-started or not */
+public class SparseAssignmentTest {
+	static final double CUTOFF=0.5;
+
+	@Test
+	public void sameOptimumAsHungarianOnTheClampedMatrix() {
+		Random rand=new Random(11);
+		for(int it=0;it<300;it++) {
+			double[][]costMatrix=randomMatrix(rand,1+rand.nextInt(15),1+rand.nextInt(15));
+			SparseAssignment sparse=SparseAssignment.fromDense(costMatrix, CUTOFF);
+			int[]sol=sparse.solve();
+			checkAssignment(costMatrix,sol);
+			assertEquals(clampedOptimum(costMatrix),sparse.totalCost(sol),1E-9);
+		}
+	}
+
+	@Test
+	public void rowsGiveTheProblemOfFromDense() {
+		Random rand=new Random(12);
+		for(int it=0;it<100;it++) {
+			int nRows=1+rand.nextInt(15);
+			int nCols=1+rand.nextInt(15);
+			double[][]costMatrix=new double[nRows][nCols];
+			SparseAssignment.Rows rows=new SparseAssignment.Rows(nRows,nCols);
+			for(int i=0;i<nRows;i++)for(int j=0;j<nCols;j++)costMatrix[i][j]=10000;
+			//Random changes, in random order, as the reconnection does
+			for(int k=0;k<5*nRows*nCols;k++) {
+				int i=rand.nextInt(nRows);
+				int j=rand.nextInt(nCols);
+				costMatrix[i][j]=randomCost(rand);
+				if(costMatrix[i][j]<CUTOFF)rows.set(i, j, costMatrix[i][j]);
+				else rows.remove(i, j);
+			}
+			SparseAssignment expected=SparseAssignment.fromDense(costMatrix, CUTOFF);
+			SparseAssignment actual=rows.toAssignment(CUTOFF);
+			assertEquals(expected.rowStart[nRows],rows.nPairs());
+			assertArrayEquals(expected.rowStart,actual.rowStart);
+			assertArrayEquals(expected.cols,actual.cols);
+			assertArrayEquals(expected.costs,actual.costs,0);
+			for(int i=0;i<nRows;i++)for(int j=0;j<nCols;j++)assertEquals(costMatrix[i][j]<CUTOFF ? costMatrix[i][j] : -1,rows.get(i, j, -1),0);
+		}
+	}
+
+	@Test
+	public void warmStartGivesTheSameOptimum() {
+		Random rand=new Random(13);
+		for(int it=0;it<200;it++) {
+			int nRows=1+rand.nextInt(15);
+			int nCols=1+rand.nextInt(15);
+			double[][]costMatrix=randomMatrix(rand,nRows,nCols);
+			SparseAssignment first=SparseAssignment.fromDense(costMatrix, CUTOFF);
+			first.solve();
+			//Change a line and a column, as after a link of the reconnection
+			int iChanged=rand.nextInt(nRows);
+			int jChanged=rand.nextInt(nCols);
+			for(int j=0;j<nCols;j++)costMatrix[iChanged][j]=randomCost(rand);
+			for(int i=0;i<nRows;i++)costMatrix[i][jChanged]=randomCost(rand);
+			SparseAssignment warm=SparseAssignment.fromDense(costMatrix, CUTOFF);
+			int[]solWarm=warm.solveFrom(first.getColumnPotentials(), first.getAssignment());
+			checkAssignment(costMatrix,solWarm);
+			SparseAssignment cold=SparseAssignment.fromDense(costMatrix, CUTOFF);
+			assertEquals(cold.totalCost(cold.solve()),warm.totalCost(solWarm),1E-9);
+		}
+	}
+
+	/** The dense hungarian algorithm matches as many rows as possible, and can give up a good pair for it : here it links (0,1) and (1,0) at 0.45 each,
+	 * when the sparse one links (0,0) at 0.1 and leaves row 1 unassigned, the pair (1,1) being above the cutoff */
+	@Test
+	public void denseAndSparseObjectivesDiffer() {
+		double[][]costMatrix=new double[][] {{0.1,0.45},{0.45,0.9}};
+		int[]solDense=new HungarianAlgorithm(costMatrix).execute();
+		assertArrayEquals(new int[] {1,0},solDense);
+		int[]solSparse=SparseAssignment.fromDense(costMatrix, CUTOFF).solve();
+		assertArrayEquals(new int[] {0,-1},solSparse);
+	}
+
+	static double randomCost(Random rand) {
+		double p=rand.nextDouble();
+		if(p<0.3)return 10000;
+		if(p<0.4)return CUTOFF;
+		return rand.nextDouble();
+	}
+
+	static double[][]randomMatrix(Random rand,int nRows,int nCols){
+		double[][]costMatrix=new double[nRows][nCols];
+		for(int i=0;i<nRows;i++)for(int j=0;j<nCols;j++)costMatrix[i][j]=randomCost(rand);
+		return costMatrix;
+	}
+
+	/** Optimum of the hungarian algorithm over the matrix clamped to the cutoff, with one more column per row where it can stay unassigned at the cutoff*/
+	static double clampedOptimum(double[][]costMatrix) {
+		int nRows=costMatrix.length;
+		int nCols=costMatrix[0].length;
+		double[][]clamped=new double[nRows][nCols+nRows];
+		for(int i=0;i<nRows;i++)for(int j=0;j<nCols+nRows;j++)clamped[i][j]=(j<nCols) ? Math.min(costMatrix[i][j], CUTOFF) : CUTOFF;
+		int[]sol=new HungarianAlgorithm(clamped).execute();
+		double tot=0;
+		for(int i=0;i<nRows;i++)tot+=clamped[i][sol[i]];
+		return tot;
+	}
+
+	/** Columns are distinct, and only pairs under the cutoff are used*/
+	static void checkAssignment(double[][]costMatrix,int[]sol) {
+		boolean[]used=new boolean[costMatrix[0].length];
+		for(int i=0;i<costMatrix.length;i++) {
+			if(sol[i]<0)continue;
+			assertTrue(costMatrix[i][sol[i]]<CUTOFF);
+			assertTrue(!used[sol[i]]);
+			used[sol[i]]=true;
+		}
+	}
+}
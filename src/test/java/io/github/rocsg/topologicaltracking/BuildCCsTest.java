@@ -0,0 +1,67 @@
+package io.github.rocsg.topologicaltracking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+import org.junit.jupiter.api.Test;
+
+import ij.gui.OvalRoi;
+import ij.gui.Roi;
+
+/** The CCs built by several threads are the ones built sequentially, and are added to the graph in the same order */
+public class BuildCCsTest {
+
+	@Test
+	public void sameCCsWithOneOrSeveralThreads() {
+		Random rand=new Random(13);
+		int nDays=6;
+		Roi[][]rois=new Roi[nDays][];
+		double[]hours=new double[nDays];
+		for(int d=1;d<nDays;d++) {
+			hours[d-1]=8*d;
+			rois[d]=new Roi[1+rand.nextInt(8)];
+			for(int n=0;n<rois[d].length;n++) {
+				int x=rand.nextInt(200);
+				int y=rand.nextInt(200);
+				rois[d][n]=rand.nextBoolean() ? new OvalRoi(x,y,3+rand.nextInt(30),3+rand.nextInt(30)) : new Roi(x,y,2+rand.nextInt(25),2+rand.nextInt(25));
+			}
+		}
+		int former=RegionAdjacencyGraphPipeline.nbThreadsForCCConstruction;
+		try {
+			List<CC>sequential=build(rois,hours,1);
+			List<CC>parallel=build(rois,hours,4);
+			assertEquals(sequential.size(),parallel.size());
+			for(int i=0;i<sequential.size();i++) {
+				CC a=sequential.get(i);
+				CC b=parallel.get(i);
+				assertEquals(a.day,b.day);
+				assertEquals(a.n,b.n);
+				assertEquals(a.nPixels,b.nPixels);
+				assertEquals(a.x,b.x,0);
+				assertEquals(a.y,b.y,0);
+				PixelStore pa=a.pixels();
+				PixelStore pb=b.pixels();
+				assertEquals(pa.n,pb.n);
+				assertArrayEquals(pa.x,pb.x);
+				assertArrayEquals(pa.y,pb.y);
+				assertArrayEquals(pa.dist,pb.dist);
+			}
+		}
+		finally {
+			RegionAdjacencyGraphPipeline.nbThreadsForCCConstruction=former;
+		}
+	}
+
+	static List<CC>build(Roi[][]rois,double[]hours,int nThreads){
+		RegionAdjacencyGraphPipeline.nbThreadsForCCConstruction=nThreads;
+		SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=new SimpleDirectedWeightedGraph<>(ConnectionEdge.class);
+		CC[][]tabCC=new CC[rois.length][];
+		RegionAdjacencyGraphPipeline.buildCCs(rois,tabCC,hours,graph);
+		return new ArrayList<CC>(graph.vertexSet());
+	}
+}
@@ -0,0 +1,38 @@
+package io.github.rocsg.topologicaltracking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+import io.github.rocsg.fijiyama.common.VitimageUtils;
+
+/** The weights of the distance map of a CC, computed on the pixel array, are the ones of the former VitimageUtils operations */
+public class CCDistanceWeightsTest {
+
+	@Test
+	public void weightsAsTheImageOperations() {
+		Random rand=new Random(43);
+		for(int it=0;it<50;it++) {
+			int X=1+rand.nextInt(30);
+			int Y=1+rand.nextInt(30);
+			FloatProcessor dist=new FloatProcessor(X,Y);
+			for(int i=0;i<X*Y;i++)dist.setf(i,(rand.nextDouble()<0.2) ? -0.001f : (float)(rand.nextInt(20000)*0.001));
+			dist.setf(0, 0.5f);
+			ImagePlus img=new ImagePlus("",dist);
+			ImagePlus expected=baselineWeights(img.duplicate());
+			ImagePlus actual=CC.weightsOfDistance(img.duplicate());
+			assertArrayEquals((float[])expected.getStack().getProcessor(1).getPixels(),(float[])actual.getStack().getProcessor(1).getPixels(),1E-6f);
+		}
+	}
+
+	/** Weights computed in the CC constructor and in fuseListOfCCIntoSingleCC before weightsOfDistance*/
+	static ImagePlus baselineWeights(ImagePlus dist) {
+		double val=VitimageUtils.maxOfImage(dist);
+		dist=VitimageUtils.makeOperationOnOneImage(dist, 2, CC.ratioFuiteBordSurLongueur/val, true);
+		return VitimageUtils.makeOperationOnOneImage(dist, 1, 1, true);
+	}
+}
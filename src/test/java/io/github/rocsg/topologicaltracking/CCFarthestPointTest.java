@@ -0,0 +1,62 @@
+package io.github.rocsg.topologicaltracking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import io.github.rocsg.rstutils.MorphoUtils;
+
+/** The farthest point searched on the pixel grid is the one found on the MorphoLibJ distance map, with holes, ties and parts unreachable from the source */
+public class CCFarthestPointTest {
+
+	@Test
+	public void sameFarthestPointAsMorphoLibJ() {
+		Random rand=new Random(23);
+		for(int it=0;it<200;it++) {
+			int X=2+rand.nextInt(25);
+			int Y=2+rand.nextInt(25);
+			boolean[]mask=new boolean[X*Y];
+			double density=0.5+0.5*rand.nextDouble();
+			for(int i=0;i<X*Y;i++)mask[i]=rand.nextDouble()<density;
+			compare(mask,X,Y,rand.nextInt(X),rand.nextInt(Y));
+		}
+	}
+
+	@Test
+	public void sameFarthestPointOnSymmetricShapes() {
+		//Full rectangle from its center : the four corners are at the same distance
+		for(int X=3;X<12;X+=2)for(int Y=3;Y<12;Y+=2) {
+			boolean[]mask=new boolean[X*Y];
+			for(int i=0;i<X*Y;i++)mask[i]=true;
+			compare(mask,X,Y,X/2,Y/2);
+		}
+		//Ring around a hole, and a second ring out of reach
+		int X=21,Y=11;
+		boolean[]mask=new boolean[X*Y];
+		for(int x=0;x<X;x++)for(int y=0;y<Y;y++) {
+			int xc=(x<10) ? 4 : 15;
+			double r=Math.sqrt((x-xc)*(x-xc)+(y-5)*(y-5));
+			mask[y*X+x]=(r>=2 && r<=4.5) && x!=10;
+		}
+		compare(mask,X,Y,4,1);
+		compare(mask,X,Y,15,9);
+	}
+
+	static void compare(boolean[]mask,int X,int Y,int x0,int y0) {
+		mask[y0*X+x0]=true;
+		//As determineTargetGeodesicallyFarestFromTheSource does with the projection of the Roi
+		ByteProcessor seg=new ByteProcessor(X,Y);
+		for(int i=0;i<X*Y;i++)if(mask[i])seg.set(i,255);
+		FloatProcessor seed=new FloatProcessor(X,Y);
+		seed.setf(x0, y0, 255);
+		ImagePlus distance=MorphoUtils.computeGeodesic(new ImagePlus("",seed), new ImagePlus("",seg),false);
+		int[]expected=CC.farthestOnDistanceMap((float[])distance.getStack().getPixels(1),X,Y,x0,y0);
+		int far=CC.farthestOnGrid(mask,X,Y,x0,y0);
+		assertArrayEquals(expected,new int[] {far%X,far/X});
+	}
+}
@@ -0,0 +1,136 @@
+package io.github.rocsg.topologicaltracking;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+import org.junit.jupiter.api.Test;
+
+import io.github.rocsg.rootsystemtracker.PipelineParamHandler;
+
+/** CCPathSearch gives the distances of the former search over lists and maps, also after CCs are removed from and added to the graph */
+public class CCPathSearchTest {
+	static final int MAX_ITER=30;
+
+	@Test
+	public void sameDistancesAsTheListSearch() {
+		Random rand=new Random(17);
+		PipelineParamHandler pph=pph();
+		for(int it=0;it<50;it++) {
+			SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=new SimpleDirectedWeightedGraph<CC,ConnectionEdge>(ConnectionEdge.class);
+			ArrayList<CC>ccs=new ArrayList<CC>();
+			for(int k=0;k<5+rand.nextInt(40);k++)addRandomCC(rand,graph,ccs);
+			compareAll(rand,graph,ccs,pph);
+		}
+	}
+
+	@Test
+	public void sameDistancesAfterRemovalsAndAdditions() {
+		Random rand=new Random(18);
+		PipelineParamHandler pph=pph();
+		for(int it=0;it<50;it++) {
+			SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=new SimpleDirectedWeightedGraph<CC,ConnectionEdge>(ConnectionEdge.class);
+			ArrayList<CC>ccs=new ArrayList<CC>();
+			for(int k=0;k<5+rand.nextInt(40);k++)addRandomCC(rand,graph,ccs);
+			compareAll(rand,graph,ccs,pph);
+			//As many CCs removed as added : the number of vertices does not change, and the new CCs are not indexed
+			for(int step=0;step<5;step++) {
+				int nChanged=1+rand.nextInt(3);
+				for(int k=0;k<nChanged && ccs.size()>1;k++)graph.removeVertex(ccs.remove(rand.nextInt(ccs.size())));
+				for(int k=0;k<nChanged;k++)addRandomCC(rand,graph,ccs);
+				compareAll(rand,graph,ccs,pph);
+			}
+		}
+	}
+
+	static PipelineParamHandler pph() {
+		PipelineParamHandler pph=new PipelineParamHandler() {
+			@Override
+			public double getMeanSpeedLateral() {
+				return 20;
+			}
+		};
+		pph.typicalHourDelay=8;
+		return pph;
+	}
+
+	static void addRandomCC(Random rand,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,ArrayList<CC>ccs) {
+		CC cc=new CC();
+		cc.day=rand.nextInt(6);
+		cc.hour=8*cc.day;
+		cc.trunk=rand.nextDouble()<0.3;
+		cc.x=rand.nextInt(500);
+		cc.y=rand.nextInt(500);
+		cc.lastCCinLat=ccs.isEmpty() ? cc : ccs.get(rand.nextInt(ccs.size()));
+		graph.addVertex(cc);
+		for(int k=0;k<3 && !ccs.isEmpty();k++) {
+			CC other=ccs.get(rand.nextInt(ccs.size()));
+			boolean out=rand.nextBoolean();
+			CC source=out ? cc : other;
+			CC target=out ? other : cc;
+			if(graph.containsEdge(source, target) || graph.containsEdge(target, source))continue;
+			graph.addEdge(source, target, new ConnectionEdge(0,0,0,source,target,0,0));
+		}
+		ccs.add(cc);
+	}
+
+	static void compareAll(Random rand,SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,ArrayList<CC>ccs,PipelineParamHandler pph) {
+		for(int q=0;q<20;q++) {
+			CC ccStop=ccs.get(rand.nextInt(ccs.size()));
+			CC ccStart=ccs.get(rand.nextInt(ccs.size()));
+			assertEquals(listSearch(graph,ccStop,ccStart,pph),CCPathSearch.local(graph).distance(ccStop, ccStart, pph, MAX_ITER),0);
+		}
+	}
+
+	/** The search of areConnectedByPathOfCC_v2 before CCPathSearch*/
+	static double listSearch(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,CC ccStop,CC ccStart,PipelineParamHandler pph) {
+		HashMap<CC,Double>stampDist=new HashMap<CC,Double>();
+		HashMap<CC,CC>lastCCinLat=new HashMap<CC,CC>();
+		stampDist.put(ccStop,0.0);
+		ArrayList<CC>visited=new ArrayList<CC>();
+		ArrayList<CC>toVisit=new ArrayList<CC>();
+		visited.add(ccStop);
+		int iter=-1;
+		while(true) {
+			iter++;
+			for(CC ccTemp : visited) {
+				for(ConnectionEdge edge : graph.outgoingEdgesOf(ccTemp))relax(ccTemp,edge.target,1,stampDist,lastCCinLat,toVisit,pph);
+				for(ConnectionEdge edge : graph.incomingEdgesOf(ccTemp))relax(ccTemp,edge.source,2,stampDist,lastCCinLat,toVisit,pph);
+			}
+			if(toVisit.size()==0 || iter>MAX_ITER)break;
+			visited=toVisit;
+			toVisit=new ArrayList<CC>();
+		}
+		return dist(stampDist,ccStart);
+	}
+
+	static void relax(CC ccTemp,CC ccTrial,double stepLateral,HashMap<CC,Double>stampDist,HashMap<CC,CC>lastCCinLat,ArrayList<CC>toVisit,PipelineParamHandler pph) {
+		double deltaT=Math.abs(ccTrial.hour-ccTemp.hour);
+		if(deltaT==0)deltaT=0.7*pph.typicalHourDelay;
+		if(ccTrial.day<1)return;
+		double add=-1;
+		CC last=null;
+		if(!ccTrial.trunk && !ccTemp.trunk)add=stepLateral;
+		if(ccTrial.trunk && !ccTemp.trunk) {add=0;last=ccTemp;}
+		if(ccTrial.trunk && ccTemp.trunk) {add=0;last=lastLat(lastCCinLat,ccTemp);}
+		if(!ccTrial.trunk && ccTemp.trunk)add=ccTrial.euclidianDistanceToCC(lastLat(lastCCinLat,ccTemp))/(pph.getMeanSpeedLateral()*deltaT/pph.typicalHourDelay);
+		if(dist(stampDist,ccTrial)>dist(stampDist,ccTemp)+add) {
+			toVisit.add(ccTrial);
+			stampDist.put(ccTrial,dist(stampDist,ccTemp)+add);
+			if(last!=null)lastCCinLat.put(ccTrial,last);
+		}
+	}
+
+	static double dist(HashMap<CC,Double>stampDist,CC cc) {
+		Double d=stampDist.get(cc);
+		return (d==null) ? CCPathSearch.UNREACHED : d;
+	}
+
+	static CC lastLat(HashMap<CC,CC>lastCCinLat,CC cc) {
+		CC last=lastCCinLat.get(cc);
+		return (last==null) ? cc.lastCCinLat : last;
+	}
+}
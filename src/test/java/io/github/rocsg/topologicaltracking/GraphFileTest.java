@@ -0,0 +1,219 @@
+package io.github.rocsg.topologicaltracking;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Polygon;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.jgrapht.graph.SimpleDirectedWeightedGraph;
+import org.junit.jupiter.api.Test;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import io.github.rocsg.fijiyama.common.Pix;
+
+/** A graph written by GraphFile is read back with the same vertices, edges, Rois, references and pixels, from the current and the former versions of the format */
+public class GraphFileTest {
+
+	@Test
+	public void graphIsReadBackAsWritten() throws IOException {
+		for(int version=1;version<=GraphFile.VERSION;version++) {
+			SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=randomGraph(new Random(31+version));
+			File f=File.createTempFile("graph", GraphFile.EXTENSION);
+			f.deleteOnExit();
+			assertTrue(GraphFile.write(graph, f.getAbsolutePath(), version));
+			SimpleDirectedWeightedGraph<CC,ConnectionEdge>read=GraphFile.read(f.getAbsolutePath());
+			assertNotNull(read);
+			compare(graph,read);
+		}
+	}
+
+	@Test
+	public void failedWriteLeavesNoFile() throws IOException {
+		SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=randomGraph(new Random(37));
+		//A path with a null pixel fails while writing the payloads, after the start of the file is written
+		CC cc=graph.vertexSet().iterator().next();
+		cc.mainDjikstraPath=new ArrayList<Pix>();
+		cc.mainDjikstraPath.add(null);
+		File f=File.createTempFile("graph", GraphFile.EXTENSION);
+		f.deleteOnExit();
+		try(FileOutputStream out=new FileOutputStream(f)){out.write(new byte[] {1,2,3});}
+		assertFalse(GraphFile.write(graph, f.getAbsolutePath()));
+		assertFalse(f.exists());
+		assertNull(GraphFile.read(f.getAbsolutePath()));
+	}
+
+	static SimpleDirectedWeightedGraph<CC,ConnectionEdge>randomGraph(Random rand){
+		SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph=new SimpleDirectedWeightedGraph<CC,ConnectionEdge>(ConnectionEdge.class);
+		ArrayList<CC>ccs=new ArrayList<CC>();
+		for(int k=0;k<12;k++) {
+			CC cc=new CC();
+			cc.day=rand.nextInt(10);cc.n=k;cc.count=rand.nextInt(100);cc.stamp=rand.nextInt(5);cc.stamp2=rand.nextInt(5);
+			cc.componentLabel=rand.nextInt(3);cc.lateralStamp=rand.nextInt(4)-1;cc.deltaTimeFromStart=rand.nextInt(50);cc.deltaTimeBefore=rand.nextInt(50);
+			cc.surfaceFromStart=rand.nextInt(500);cc.goesToTheLeft=rand.nextInt(3)-1;
+			cc.hour=rand.nextDouble()*100;cc.lengthFromStart=rand.nextDouble();cc.lengthBefore=rand.nextDouble();cc.stampDist=rand.nextDouble();
+			cc.deltaTimeHoursBefore=rand.nextDouble();cc.deltaTimeHoursFromStart=rand.nextDouble();
+			cc.trunk=rand.nextBoolean();cc.isLatStart=rand.nextBoolean();cc.isOut=rand.nextBoolean();cc.illConnected=rand.nextBoolean();cc.finalRoot=rand.nextBoolean();
+			//Pixels in a box, some of them on dijkstra paths
+			int w=2+rand.nextInt(6);
+			int h=2+rand.nextInt(6);
+			cc.xB=rand.nextInt(200);cc.yB=rand.nextInt(200);
+			if(k%2==0)cc.r=new Roi(cc.xB,cc.yB,w,h);
+			else cc.r=new PolygonRoi(new int[] {cc.xB,cc.xB+w,cc.xB+w/2},new int[] {cc.yB,cc.yB,cc.yB+h},3,Roi.POLYGON);
+			cc.x=cc.r.getContourCentroid()[0];cc.y=cc.r.getContourCentroid()[1];
+			if(k%4!=3) {
+				ArrayList<Integer>xs=new ArrayList<Integer>();
+				ArrayList<Integer>ys=new ArrayList<Integer>();
+				for(int xx=0;xx<w;xx++)for(int yy=0;yy<h;yy++)if(rand.nextDouble()<0.7 || (xx==0 && yy==0)) {xs.add(xx);ys.add(yy);}
+				int[]x=new int[xs.size()];int[]y=new int[ys.size()];
+				for(int i=0;i<x.length;i++) {x[i]=xs.get(i);y[i]=ys.get(i);}
+				PixelStore p=new PixelStore(w,h,(k%3==0) ? 4 : 8,x,y);
+				for(double[]tab : new double[][] {p.dist,p.distOut,p.wayFromPrim,p.distanceToSkeleton,p.time,p.timeOut,p.timeHours,p.timeOutHours}) {
+					for(int i=0;i<p.n;i++)tab[i]=rand.nextDouble();
+				}
+				for(int i=0;i<p.n;i++) {p.isSkeleton[i]=rand.nextBoolean();p.previous[i]=rand.nextInt(p.n+1)-1;p.offX[i]=rand.nextInt(9)-4;p.offY[i]=rand.nextInt(9)-4;}
+				cc.pixels=p;
+				cc.nPixels=p.n;
+				if(k%3!=1) {
+					cc.mainDjikstraPath=new ArrayList<Pix>();
+					for(int i=0;i<p.n;i+=2)cc.mainDjikstraPath.add(p.toPix(i));
+				}
+				cc.secondaryDjikstraPath=new ArrayList<List<Pix>>();
+				for(int j=0;j<k%3;j++) {
+					List<Pix>sec=new ArrayList<Pix>();
+					for(int i=j;i<p.n;i+=3)sec.add(p.toPix(i));
+					cc.secondaryDjikstraPath.add(sec);
+				}
+			}
+			cc.graph=graph;
+			graph.addVertex(cc);
+			ccs.add(cc);
+		}
+		//References and lists, one of them to a CC that is not in the graph
+		CC outOfGraph=new CC();
+		for(CC cc : ccs) {
+			cc.lastCCinLat=ccs.get(rand.nextInt(ccs.size()));
+			cc.ccPrev=rand.nextBoolean() ? ccs.get(rand.nextInt(ccs.size())) : null;
+			cc.incidentCC=rand.nextBoolean() ? ccs.get(rand.nextInt(ccs.size())) : outOfGraph;
+			if(rand.nextBoolean()) {
+				cc.pathFromStart=new ArrayList<CC>();
+				for(int i=0;i<3;i++)cc.pathFromStart.add(ccs.get(rand.nextInt(ccs.size())));
+			}
+			cc.secondaryPathLookup=new ArrayList<CC>();
+			cc.secondaryPathLookup.add(ccs.get(rand.nextInt(ccs.size())));
+		}
+		for(int e=0;e<25;e++) {
+			CC source=ccs.get(rand.nextInt(ccs.size()));
+			CC target=ccs.get(rand.nextInt(ccs.size()));
+			if(source==target || graph.containsEdge(source, target))continue;
+			ConnectionEdge edge=new ConnectionEdge(rand.nextDouble()*100,rand.nextDouble()*100,rand.nextInt(10),source,target,rand.nextInt(3)-1,rand.nextInt(3)-1);
+			edge.distanceConnectionTrunk=rand.nextDouble();
+			edge.hidden=rand.nextBoolean();edge.activated=rand.nextBoolean();edge.isOut=rand.nextBoolean();edge.trunk=rand.nextBoolean();
+			graph.addEdge(source, target, edge);
+			graph.setEdgeWeight(edge, rand.nextDouble());
+		}
+		return graph;
+	}
+
+	static void compare(SimpleDirectedWeightedGraph<CC,ConnectionEdge>graph,SimpleDirectedWeightedGraph<CC,ConnectionEdge>read) {
+		List<CC>a=new ArrayList<CC>(graph.vertexSet());
+		List<CC>b=new ArrayList<CC>(read.vertexSet());
+		assertEquals(a.size(),b.size());
+		HashMap<CC,CC>readOf=new HashMap<CC,CC>();
+		for(int i=0;i<a.size();i++)readOf.put(a.get(i), b.get(i));
+		for(int i=0;i<a.size();i++) {
+			CC ca=a.get(i);
+			CC cb=b.get(i);
+			assertTrue(cb.graph==read);
+			assertArrayEquals(new int[] {ca.day,ca.n,ca.nPixels,ca.count,ca.xB,ca.yB,ca.stamp,ca.stamp2,ca.componentLabel,ca.lateralStamp,ca.deltaTimeFromStart,ca.deltaTimeBefore,ca.surfaceFromStart,ca.goesToTheLeft},
+					new int[] {cb.day,cb.n,cb.nPixels,cb.count,cb.xB,cb.yB,cb.stamp,cb.stamp2,cb.componentLabel,cb.lateralStamp,cb.deltaTimeFromStart,cb.deltaTimeBefore,cb.surfaceFromStart,cb.goesToTheLeft});
+			assertArrayEquals(new double[] {ca.hour,ca.x,ca.y,ca.lengthFromStart,ca.lengthBefore,ca.stampDist,ca.deltaTimeHoursBefore,ca.deltaTimeHoursFromStart},
+					new double[] {cb.hour,cb.x,cb.y,cb.lengthFromStart,cb.lengthBefore,cb.stampDist,cb.deltaTimeHoursBefore,cb.deltaTimeHoursFromStart},0);
+			assertArrayEquals(new boolean[] {ca.finalRS,ca.finalRoot,ca.isPrimStart,ca.isPrimEnd,ca.isLatStart,ca.isLatEnd,ca.isLateral,ca.changedRecently,ca.nonValidLatStart,ca.trunk,ca.isOut,ca.illConnected},
+					new boolean[] {cb.finalRS,cb.finalRoot,cb.isPrimStart,cb.isPrimEnd,cb.isLatStart,cb.isLatEnd,cb.isLateral,cb.changedRecently,cb.nonValidLatStart,cb.trunk,cb.isOut,cb.illConnected});
+			//References to CCs of the graph, null for the others
+			assertTrue(cb.lastCCinLat==readOf.get(ca.lastCCinLat));
+			assertTrue(cb.ccPrev==readOf.get(ca.ccPrev));
+			assertTrue(cb.incidentCC==readOf.get(ca.incidentCC));
+			compareLists(ca.pathFromStart,cb.pathFromStart,readOf);
+			compareLists(ca.secondaryPathLookup,cb.secondaryPathLookup,readOf);
+			compareRois(ca.r,cb.r);
+			//Pixels and paths stay in the file until their first use
+			assertNull(cb.pixels);
+			assertNull(cb.mainDjikstraPath);
+			comparePixels(ca,cb);
+		}
+		assertEquals(graph.edgeSet().size(),read.edgeSet().size());
+		for(ConnectionEdge ea : graph.edgeSet()) {
+			ConnectionEdge eb=read.getEdge(readOf.get(ea.source), readOf.get(ea.target));
+			assertNotNull(eb);
+			assertTrue(eb.source==readOf.get(ea.source) && eb.target==readOf.get(ea.target));
+			assertArrayEquals(new double[] {graph.getEdgeWeight(ea),ea.connectionX,ea.connectionY,ea.distanceConnectionTrunk},
+					new double[] {read.getEdgeWeight(eb),eb.connectionX,eb.connectionY,eb.distanceConnectionTrunk},0);
+			assertArrayEquals(new int[] {ea.axisX,ea.axisY,ea.nFacets},new int[] {eb.axisX,eb.axisY,eb.nFacets});
+			assertArrayEquals(new boolean[] {ea.hidden,ea.activated,ea.isOut,ea.trunk},new boolean[] {eb.hidden,eb.activated,eb.isOut,eb.trunk});
+		}
+	}
+
+	static void compareLists(List<CC>la,List<CC>lb,HashMap<CC,CC>readOf) {
+		if(la==null) {assertNull(lb);return;}
+		assertEquals(la.size(),lb.size());
+		for(int i=0;i<la.size();i++)assertTrue(lb.get(i)==readOf.get(la.get(i)));
+	}
+
+	static void compareRois(Roi ra,Roi rb) {
+		assertEquals(ra.getType(),rb.getType());
+		assertEquals(ra.getBounds(),rb.getBounds());
+		Polygon pa=ra.getPolygon();
+		Polygon pb=rb.getPolygon();
+		assertEquals(pa.npoints,pb.npoints);
+		for(int i=0;i<pa.npoints;i++) {
+			assertEquals(pa.xpoints[i],pb.xpoints[i]);
+			assertEquals(pa.ypoints[i],pb.ypoints[i]);
+		}
+		assertArrayEquals(ra.getContourCentroid(),rb.getContourCentroid(),0);
+	}
+
+	static void comparePixels(CC ca,CC cb) {
+		PixelStore pa=ca.pixels();
+		PixelStore pb=cb.pixels();
+		if(pa==null) {assertNull(pb);return;}
+		assertArrayEquals(new int[] {pa.n,pa.width,pa.height,pa.connexity},new int[] {pb.n,pb.width,pb.height,pb.connexity});
+		assertArrayEquals(pa.x,pb.x);
+		assertArrayEquals(pa.y,pb.y);
+		for(int i=0;i<pa.n;i++)assertEquals(pa.indexOf(pa.x[i], pa.y[i]),pb.indexOf(pb.x[i], pb.y[i]));
+		double[][]ta=new double[][] {pa.dist,pa.distOut,pa.wayFromPrim,pa.distanceToSkeleton,pa.time,pa.timeOut,pa.timeHours,pa.timeOutHours};
+		double[][]tb=new double[][] {pb.dist,pb.distOut,pb.wayFromPrim,pb.distanceToSkeleton,pb.time,pb.timeOut,pb.timeHours,pb.timeOutHours};
+		for(int t=0;t<ta.length;t++)assertArrayEquals(ta[t],tb[t],0);
+		assertArrayEquals(pa.isSkeleton,pb.isSkeleton);
+		assertArrayEquals(pa.previous,pb.previous);
+		assertArrayEquals(pa.offX,pb.offX);
+		assertArrayEquals(pa.offY,pb.offY);
+		comparePath(ca.mainPath(),cb.mainPath());
+		if(ca.secondaryPaths()==null) {assertNull(cb.secondaryPaths());return;}
+		assertEquals(ca.secondaryPaths().size(),cb.secondaryPaths().size());
+		for(int j=0;j<ca.secondaryPaths().size();j++)comparePath(ca.secondaryPaths().get(j),cb.secondaryPaths().get(j));
+	}
+
+	static void comparePath(List<Pix>pa,List<Pix>pb) {
+		if(pa==null) {assertNull(pb);return;}
+		assertEquals(pa.size(),pb.size());
+		for(int i=0;i<pa.size();i++) {
+			assertEquals(pa.get(i).x,pb.get(i).x);
+			assertEquals(pa.get(i).y,pb.get(i).y);
+			assertEquals(pa.get(i).wayFromPrim,pb.get(i).wayFromPrim,0);
+			assertEquals(pa.get(i).isSkeleton,pb.get(i).isSkeleton);
+		}
+	}
+}